@@ -1,7 +1,7 @@
 package controllers;
 
-import java.util.Set;
-
+import org.sagebionetworks.bridge.models.CacheKeyPage;
+import org.sagebionetworks.bridge.redis.JedisStringOps;
 import org.sagebionetworks.bridge.services.CacheAdminService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -18,11 +18,12 @@ public class CacheAdminController extends BaseController {
         this.cacheAdminService = cacheService;
     }
     
-    public Result listItems() throws Exception {
+    public Result listItems(String cursor, Integer pageSize) throws Exception {
         getAuthenticatedAdminSession();
         
-        Set<String> keys = cacheAdminService.listItems();
-        return okResult(keys);
+        CacheKeyPage page = cacheAdminService.listItems(cursor,
+                (pageSize == null) ? JedisStringOps.SCAN_COUNT : pageSize);
+        return okResult(page);
     }
     
     public Result removeItem(String cacheKey) {
@@ -48,6 +48,13 @@ public class StudyController extends BaseController {
 
         Study studyUpdate = DynamoStudy.fromJson(requestToJSON(request()));
         studyUpdate.setIdentifier(studyId.getIdentifier());
+
+        // Upload zip limits protect the upload validation workers, so only admins can change them.
+        Study originalStudy = studyService.getStudy(studyId);
+        studyUpdate.setMaxUploadZipEntries(originalStudy.getMaxUploadZipEntries());
+        studyUpdate.setMaxUploadZipEntryBytes(originalStudy.getMaxUploadZipEntryBytes());
+        studyUpdate.setMaxUploadZipTotalBytes(originalStudy.getMaxUploadZipTotalBytes());
+        studyUpdate.setMaxUploadZipCompressionRatio(originalStudy.getMaxUploadZipCompressionRatio());
         studyUpdate = studyService.updateStudy(studyUpdate);
         return okResult(new VersionHolder(studyUpdate.getVersion()));
     }
@@ -0,0 +1,25 @@
+package controllers;
+
+import org.sagebionetworks.bridge.upload.UploadValidationMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+import play.mvc.Result;
+
+@Controller("uploadMetricsAdminController")
+public class UploadMetricsAdminController extends BaseController {
+
+    private UploadValidationMetrics uploadValidationMetrics;
+
+    @Autowired
+    public void setUploadValidationMetrics(UploadValidationMetrics uploadValidationMetrics) {
+        this.uploadValidationMetrics = uploadValidationMetrics;
+    }
+
+    public Result getValidationMetrics() {
+        getAuthenticatedAdminSession();
+
+        return okResult(uploadValidationMetrics.getReport());
+    }
+
+}
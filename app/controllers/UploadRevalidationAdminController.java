@@ -0,0 +1,53 @@
+package controllers;
+
+import org.joda.time.LocalDate;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.json.DateUtils;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.services.UploadRevalidationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+import play.mvc.Result;
+
+@Controller("uploadRevalidationAdminController")
+public class UploadRevalidationAdminController extends BaseController {
+
+    private final Logger logger = LoggerFactory.getLogger(UploadRevalidationAdminController.class);
+
+    private UploadRevalidationService uploadRevalidationService;
+
+    @Autowired
+    public void setUploadRevalidationService(UploadRevalidationService uploadRevalidationService) {
+        this.uploadRevalidationService = uploadRevalidationService;
+    }
+
+    /**
+     * Re-validates all uploads in the study from the given upload date (YYYY-MM-DD) that failed validation. Progress
+     * is streamed back as each upload is validated.
+     */
+    public Result revalidate(final String studyId, final String uploadDateStr) throws Exception {
+        getAuthenticatedAdminSession();
+
+        final Study study = studyService.getStudy(studyId);
+        final LocalDate uploadDate;
+        try {
+            uploadDate = DateUtils.parseCalendarDate(uploadDateStr);
+        } catch (IllegalArgumentException ex) {
+            throw new BadRequestException(String.format("Expected date format YYYY-MM-DD, received %s",
+                    uploadDateStr));
+        }
+
+        Chunks<String> chunks = new StringChunks() {
+                @Override
+                public void onReady(final Chunks.Out<String> out) {
+                    UploadRevalidationChunksAdapter chunksAdapter = new UploadRevalidationChunksAdapter(out);
+                    uploadRevalidationService.revalidateUploads(study, uploadDate, chunksAdapter);
+                }
+            };
+        logger.info("Upload re-validation for study " + studyId + " and upload date " + uploadDate + " submitted.");
+        return ok(chunks);
+    }
+}
@@ -0,0 +1,52 @@
+package controllers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.joda.time.LocalDate;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.services.UploadRevalidationCallback;
+
+import play.mvc.Results.Chunks;
+
+/**
+ * Adapts upload re-validation callback to Play chunked responses. Uploads are validated in parallel, so writes are
+ * synchronized.
+ */
+class UploadRevalidationChunksAdapter implements UploadRevalidationCallback {
+
+    private final Chunks.Out<String> chunksOut;
+    private int uploadCount = 0;
+    private int succeededCount = 0;
+
+    UploadRevalidationChunksAdapter(Chunks.Out<String> out) {
+        checkNotNull(out);
+        chunksOut = out;
+    }
+
+    @Override
+    public synchronized void start(String studyId, LocalDate uploadDate) {
+        chunksOut.write("Re-validating failed uploads for study " + studyId + " and upload date " + uploadDate + "\n");
+    }
+
+    @Override
+    public synchronized void uploadValidated(Upload upload) {
+        checkNotNull(upload);
+        uploadCount++;
+        if (upload.getStatus() == UploadStatus.SUCCEEDED) {
+            succeededCount++;
+        }
+        chunksOut.write(uploadCount + ": upload " + upload.getUploadId() + " " + upload.getStatus() + "\n");
+    }
+
+    @Override
+    public synchronized void error(String message) {
+        chunksOut.write("Error: " + message + "\n");
+    }
+
+    @Override
+    public synchronized void done() {
+        chunksOut.write("Done! " + uploadCount + " uploads validated, " + succeededCount + " succeeded.\n");
+        chunksOut.close();
+    }
+}
@@ -4,6 +4,7 @@ import scala.concurrent.Future
 
 import org.sagebionetworks.bridge.config.BridgeConfigFactory
 import org.sagebionetworks.bridge.dynamodb.DynamoInitializer
+import org.sagebionetworks.bridge.services.UploadValidationService
 import org.springframework.context.support.ClassPathXmlApplicationContext
 
 import filters.CorsFilter
@@ -44,6 +45,8 @@ object GlobalWithFilters extends WithFilters (
 
   override def onStart(app: Application) {
     val context = AppContext
+    // Only the server processes the upload validation queue, not other tools that load application-context.xml.
+    context.startUploadValidationQueue()
   }
 
   override def getControllerInstance[T](controllerClass: Class[T]): T = {
@@ -76,4 +79,7 @@ object AppContext {
   def getBean[T](controllerClass: Class[T]) = {
     context.getBean(controllerClass.getSimpleName()+"Proxied").asInstanceOf[T]
   }
+  def startUploadValidationQueue() {
+    context.getBean(classOf[UploadValidationService]).start()
+  }
 }
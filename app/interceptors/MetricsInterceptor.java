@@ -8,6 +8,7 @@ import models.RequestUtils;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
+import org.sagebionetworks.bridge.redis.RedisRoundTripCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -26,12 +27,14 @@ public class MetricsInterceptor implements MethodInterceptor {
     public Object invoke(MethodInvocation method) throws Throwable {
         final Metrics metrics = initMetrics();
         Cache.set(metrics.getCacheKey(), metrics, METRICS_EXPIRE_SECONDS);
+        RedisRoundTripCounter.reset();
         try {
             final Result result = (Result)method.proceed();
             metrics.setStatus(result.toScala().header().status());
             return result;
         } finally {
             Cache.remove(metrics.getCacheKey());
+            metrics.setRedisRoundTrips(RedisRoundTripCounter.get());
             metrics.end();
             logger.info(metrics.toJsonString());
         }
@@ -102,6 +102,10 @@ public class Metrics {
         json.put("upload_size", uploadSize);
     }
 
+    public void setRedisRoundTrips(int redisRoundTrips) {
+        json.put("redis_round_trips", redisRoundTrips);
+    }
+
     public void setSharingOption(String sharingOption) {
         put("sharing_option", sharingOption);
     }
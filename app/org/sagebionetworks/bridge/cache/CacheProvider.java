@@ -1,6 +1,14 @@
 package org.sagebionetworks.bridge.cache;
 
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
@@ -9,31 +17,152 @@ import org.sagebionetworks.bridge.models.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.redis.JedisStringOps;
 import org.sagebionetworks.bridge.redis.RedisKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
 /**
+ * <p>
  * A wrapper around whatever cache provider we ultimately decide to go with (probably Redis). 
  * Assuming for the moment that we can store objects, by serialization if we have to.
+ * </p>
+ * <p>
+ * User sessions are read on every authenticated request, so each server also keeps recently used sessions in memory,
+ * already deserialized, for up to session.cache.ttl.seconds. When a session is changed or removed, the server tells
+ * the other servers to drop their copy over a Redis pub/sub channel. The in-memory copies are only used while this
+ * server is subscribed to that channel, so a server that can't hear about changes reads every session from Redis. The
+ * session's expiration in Redis is extended at most once every session.expire.refresh.seconds, rather than on every
+ * read. The subscription holds on to its connection for as long as the server is subscribed, so it has its own
+ * connection to Redis, outside the Redis pool.
+ * </p>
+ * <p>
+ * Sessions from the in-memory cache are shared between requests. As before, callers that change a session must save
+ * it with setUserSession().
+ * </p>
+ * <p>
+ * Values are written with the codec configured by redis.value.codec, which may compress them. See
+ * {@link org.sagebionetworks.bridge.redis.RedisCodec}.
+ * </p>
  */
 @Component
 public class CacheProvider {
-    
+    private static final Logger logger = LoggerFactory.getLogger(CacheProvider.class);
+
+    private static final BridgeConfig CONFIG = BridgeConfigFactory.getConfig();
+    private static final int SESSION_CACHE_MAX_SIZE = CONFIG.getPropertyAsInt("session.cache.max.size");
+    private static final int SESSION_CACHE_TTL_SECONDS = CONFIG.getPropertyAsInt("session.cache.ttl.seconds");
+    private static final int SESSION_EXPIRE_REFRESH_SECONDS = CONFIG.getPropertyAsInt(
+            "session.expire.refresh.seconds");
+    private static final String REDIS_HOST = CONFIG.getProperty("redis.host");
+    private static final int REDIS_PORT = CONFIG.getPropertyAsInt("redis.port");
+    private static final int REDIS_TIMEOUT = CONFIG.getPropertyAsInt("redis.timeout");
+
+    /** Redis pub/sub channel for telling other servers to drop their in-memory copy of a session. */
+    static final String SESSION_INVALIDATION_CHANNEL = "session-invalidation";
+
+    // How long to wait before subscribing again, after the subscription is lost.
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 5000;
+
+    // Identifies this server's invalidation messages, so it can ignore its own.
+    private final String serverId = UUID.randomUUID().toString();
+
+    // Counts invalidations. A session read from Redis is only cached if there were no invalidations while it was being
+    // read, so a read that races with a change can't cache the old session.
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private final JedisPubSub invalidationListener = new JedisPubSub() {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            handleSubscribed();
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+            handleUnsubscribed();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            handleInvalidation(message);
+        }
+    };
+
     private JedisStringOps stringOps;
+    private Ticker ticker = Ticker.systemTicker();
+    private Cache<String, CachedSession> sessionCache = buildSessionCache(ticker);
+    private volatile boolean subscribed;
+    private volatile boolean stopped;
+    private Thread subscriberThread;
 
     @Autowired
     public void setStringOps(JedisStringOps stringOps) {
         this.stringOps = stringOps;
     }
 
+    // Package-scoped to facilitate unit tests, so tests can control the in-memory cache's clock.
+    /* package-scoped */ void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+        this.sessionCache = buildSessionCache(ticker);
+    }
+
+    /**
+     * Starts listening for session changes from other servers, on a background thread. Until the subscription is
+     * established, sessions are read from Redis.
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (subscriberThread != null) {
+            return;
+        }
+        subscriberThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribeUntilStopped();
+            }
+        }, "session-invalidation-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    /** Stops listening for session changes, and stops using the in-memory session cache. */
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        if (subscriberThread != null) {
+            subscriberThread.interrupt();
+            subscriberThread = null;
+        }
+        if (invalidationListener.isSubscribed()) {
+            try {
+                invalidationListener.unsubscribe();
+            } catch (RuntimeException ex) {
+                logger.warn("Error unsubscribing from session invalidation channel", ex);
+            }
+        }
+        handleUnsubscribed();
+    }
+
     public void setUserSession(String key, UserSession session) {
         try {
             String ser = BridgeObjectMapper.get().writeValueAsString(session);
             String redisKey = RedisKey.SESSION.getRedisKey(key);
-            String result = stringOps.setex(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS, ser);
+            String result = stringOps.setexEncoded(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS, ser);
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException("Session storage error");
             }
+            invalidateSession(key);
+            if (subscribed) {
+                // setex just reset the expiration.
+                sessionCache.put(key, new CachedSession(session, ticker.read()));
+            }
         } catch (Throwable e) {
             promptToStartRedisIfLocalEnv(e);
             throw new BridgeServiceException(e);
@@ -43,10 +172,25 @@ public class CacheProvider {
     public UserSession getUserSession(String key) {
         try {
             String redisKey = RedisKey.SESSION.getRedisKey(key);
-            String ser = stringOps.get(redisKey);
+            if (subscribed) {
+                CachedSession cached = sessionCache.getIfPresent(key);
+                if (cached != null) {
+                    if (refreshExpiration(key, redisKey, cached)) {
+                        return cached.session;
+                    }
+                    // The session is gone from Redis. Another server removed it, and we missed the message.
+                    return null;
+                }
+            }
+
+            long invalidationCountBefore = invalidationCount.get();
+            String ser = stringOps.getDecodedAndExpire(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
             if (ser != null) {
-                stringOps.expire(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
-                return BridgeObjectMapper.get().readValue(ser, UserSession.class);
+                UserSession session = BridgeObjectMapper.get().readValue(ser, UserSession.class);
+                if (subscribed && invalidationCount.get() == invalidationCountBefore) {
+                    sessionCache.put(key, new CachedSession(session, ticker.read()));
+                }
+                return session;
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocalEnv(e);
@@ -59,6 +203,7 @@ public class CacheProvider {
         try {
             String redisKey = RedisKey.SESSION.getRedisKey(key);
             stringOps.delete(redisKey);
+            invalidateSession(key);
         } catch(Throwable e) {
             promptToStartRedisIfLocalEnv(e);
             throw new BridgeServiceException(e);
@@ -69,7 +214,7 @@ public class CacheProvider {
         try {
             String ser = BridgeObjectMapper.get().writeValueAsString(study);
             String redisKey = RedisKey.STUDY.getRedisKey(study.getIdentifier());
-            String result = stringOps.setex(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS, ser);
+            String result = stringOps.setexEncoded(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS, ser);
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException("Study storage error");
             }
@@ -82,9 +227,8 @@ public class CacheProvider {
     public Study getStudy(String identifier) {
         try {
             String redisKey = RedisKey.STUDY.getRedisKey(identifier);
-            String ser = stringOps.get(redisKey);
+            String ser = stringOps.getDecodedAndExpire(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
             if (ser != null) {
-                stringOps.expire(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
                 return DynamoStudy.fromCacheJson(BridgeObjectMapper.get().readTree(ser));
             }
         } catch (Throwable e) {
@@ -106,7 +250,7 @@ public class CacheProvider {
     
     public String getString(String cacheKey) {
         try {
-            return stringOps.get(cacheKey);
+            return stringOps.getDecoded(cacheKey);
         } catch (Throwable e) {
             promptToStartRedisIfLocalEnv(e);
             throw new BridgeServiceException(e);
@@ -115,7 +259,7 @@ public class CacheProvider {
 
     public void setString(String cacheKey, String value) {
         try {
-            String result = stringOps.setex(cacheKey, BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS, value);
+            String result = stringOps.setexEncoded(cacheKey, BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS, value);
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException("View storage error");
             }
@@ -134,6 +278,119 @@ public class CacheProvider {
         }
     }
     
+    // Drops this server's copy of the session, and tells the other servers to drop theirs.
+    private void invalidateSession(String key) {
+        invalidationCount.incrementAndGet();
+        sessionCache.invalidate(key);
+        stringOps.publish(SESSION_INVALIDATION_CHANNEL, serverId + ":" + key);
+    }
+
+    // Extends the session's expiration in Redis, if it hasn't been extended recently. Returns false if the session
+    // no longer exists in Redis.
+    private boolean refreshExpiration(String key, String redisKey, CachedSession cached) {
+        long now = ticker.read();
+        if (now - cached.expirationRefreshedNanos < TimeUnit.SECONDS.toNanos(SESSION_EXPIRE_REFRESH_SECONDS)) {
+            return true;
+        }
+        cached.expirationRefreshedNanos = now;
+        Long result = stringOps.expire(redisKey, BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS);
+        if (result != null && result == 0L) {
+            sessionCache.invalidate(key);
+            return false;
+        }
+        // A null result means Redis is unavailable. Keep using the cached session, like we would have before.
+        return true;
+    }
+
+    // Package-scoped to facilitate unit tests. Subscribes to the invalidation channel, and subscribes again whenever
+    // the subscription is lost.
+    /* package-scoped */ void subscribeUntilStopped() {
+        while (!stopped) {
+            Jedis jedis = null;
+            try {
+                jedis = createSubscriberConnection();
+                // This blocks until we unsubscribe or the connection is lost.
+                jedis.subscribe(invalidationListener, SESSION_INVALIDATION_CHANNEL);
+            } catch (RuntimeException ex) {
+                logger.warn("Lost subscription to session invalidation channel", ex);
+            } finally {
+                if (jedis != null) {
+                    try {
+                        jedis.close();
+                    } catch (RuntimeException ex) {
+                        logger.warn("Error closing session invalidation connection", ex);
+                    }
+                }
+            }
+            handleUnsubscribed();
+            if (!stopped) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Package-scoped to facilitate unit tests. Opens a new connection to Redis for the subscriber. This doesn't come
+    // from the Redis pool, so the subscriber doesn't take a connection away from commands.
+    /* package-scoped */ Jedis createSubscriberConnection() {
+        Jedis jedis = new Jedis(REDIS_HOST, REDIS_PORT, REDIS_TIMEOUT);
+        if (!CONFIG.isLocal()) {
+            jedis.auth(CONFIG.getProperty("redis.password"));
+        }
+        return jedis;
+    }
+
+    // Package-scoped to facilitate unit tests. Called when the invalidation subscription starts. We may have missed
+    // messages while we weren't subscribed, so start with an empty cache.
+    /* package-scoped */ void handleSubscribed() {
+        invalidationCount.incrementAndGet();
+        sessionCache.invalidateAll();
+        subscribed = true;
+    }
+
+    // Package-scoped to facilitate unit tests. Called when the invalidation subscription ends. We can't hear about
+    // changes any more, so stop using the cache.
+    /* package-scoped */ void handleUnsubscribed() {
+        subscribed = false;
+        invalidationCount.incrementAndGet();
+        sessionCache.invalidateAll();
+    }
+
+    // Package-scoped to facilitate unit tests. Handles a message from the invalidation channel, which is the sending
+    // server's ID and the session key, separated by a colon.
+    /* package-scoped */ void handleInvalidation(String message) {
+        int separatorIndex = message.indexOf(':');
+        if (separatorIndex < 0) {
+            logger.warn("Malformed session invalidation message: " + message);
+            return;
+        }
+        if (serverId.equals(message.substring(0, separatorIndex))) {
+            // We already invalidated our own copy.
+            return;
+        }
+        invalidationCount.incrementAndGet();
+        sessionCache.invalidate(message.substring(separatorIndex + 1));
+    }
+
+    private static Cache<String, CachedSession> buildSessionCache(Ticker ticker) {
+        return CacheBuilder.newBuilder().maximumSize(SESSION_CACHE_MAX_SIZE)
+                .expireAfterWrite(SESSION_CACHE_TTL_SECONDS, TimeUnit.SECONDS).ticker(ticker).build();
+    }
+
+    // A deserialized session, and when we last extended its expiration in Redis.
+    private static class CachedSession {
+        final UserSession session;
+        volatile long expirationRefreshedNanos;
+
+        CachedSession(UserSession session, long expirationRefreshedNanos) {
+            this.session = session;
+            this.expirationRefreshedNanos = expirationRefreshedNanos;
+        }
+    }
+
     private void promptToStartRedisIfLocalEnv(Throwable e) {
         if (BridgeConfigFactory.getConfig().isLocal()) {
             throw new BridgeServiceException("Cannot find cache service, have you started a Redis server? (original message: "+e.getMessage()+")");
@@ -1,14 +1,21 @@
 package org.sagebionetworks.bridge.config;
 
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.crypto.AesGcmEncryptor;
+import org.sagebionetworks.bridge.crypto.AesGcmJceEncryptor;
 import org.sagebionetworks.bridge.crypto.CmsEncryptor;
 import org.sagebionetworks.bridge.crypto.CmsEncryptorCacheLoader;
+import org.sagebionetworks.bridge.crypto.KeyPairPool;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataAttachment;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
 import org.sagebionetworks.bridge.dynamodb.DynamoIndexHelper;
@@ -16,19 +23,27 @@ import org.sagebionetworks.bridge.dynamodb.DynamoUpload;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
 import org.sagebionetworks.bridge.dynamodb.TableNameOverrideFactory;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.services.UploadSchemaIndexCacheLoader;
 import org.sagebionetworks.bridge.upload.DecryptHandler;
 import org.sagebionetworks.bridge.upload.IosSchemaValidationHandler;
 import org.sagebionetworks.bridge.upload.ParseJsonHandler;
+import org.sagebionetworks.bridge.upload.ParticipantOptionsHandler;
 import org.sagebionetworks.bridge.upload.S3DownloadHandler;
 import org.sagebionetworks.bridge.upload.TranscribeConsentHandler;
 import org.sagebionetworks.bridge.upload.UnzipHandler;
 import org.sagebionetworks.bridge.upload.UploadArtifactsHandler;
+import org.sagebionetworks.bridge.upload.UploadSchemaIndexHandler;
 import org.sagebionetworks.bridge.upload.UploadValidationHandler;
+import org.sagebionetworks.bridge.util.MonitoredCacheStats;
+import org.sagebionetworks.bridge.util.MonitoredThreadPoolExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableMBeanExport;
+import org.springframework.jmx.support.RegistrationPolicy;
 
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
@@ -45,6 +60,7 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClient;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.stormpath.sdk.api.ApiKey;
@@ -57,6 +73,7 @@ import com.stormpath.sdk.impl.client.DefaultClientBuilder;
 
 @ComponentScan({"controllers","filters","interceptors","models","org.sagebionetworks.bridge"})
 @Configuration
+@EnableMBeanExport(registration = RegistrationPolicy.REPLACE_EXISTING)
 public class BridgeSpringConfig {
     
     @Bean(name = "healthCodeEncryptor")
@@ -64,6 +81,12 @@ public class BridgeSpringConfig {
     public AesGcmEncryptor healthCodeEncryptor(BridgeConfig bridgeConfig) {
         return new AesGcmEncryptor(bridgeConfig.getHealthCodeKey());
     }
+
+    @Bean(name = "healthCodeJceEncryptor")
+    @Resource(name = "bridgeConfig")
+    public AesGcmJceEncryptor healthCodeJceEncryptor(BridgeConfig bridgeConfig) {
+        return new AesGcmJceEncryptor(bridgeConfig.getHealthCodeKey());
+    }
     
     @Bean(name = "awsCredentials")
     @Resource(name = "bridgeConfig")
@@ -118,10 +141,73 @@ public class BridgeSpringConfig {
         return BridgeConfigFactory.getConfig();
     }
 
+    // Thread pool for admin and other miscellaneous background jobs, such as participant roster generation.
     @Bean(name = "asyncExecutorService")
     @Resource(name = "bridgeConfig")
     public ExecutorService asyncExecutorService(BridgeConfig bridgeConfig) {
-        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("async.worker.thread.count"));
+        return new MonitoredThreadPoolExecutor("async-worker", bridgeConfig.getPropertyAsInt(
+                "async.worker.thread.count"), new LinkedBlockingQueue<Runnable>(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Dedicated thread pool for upload validation, with a bounded queue, so that upload bursts can't grow the queue
+    // without limit or starve other background jobs. When the queue is full, the rejection policy either rejects the
+    // task (UploadValidationService resets the upload so the client can retry) or runs it on the calling thread.
+    @Bean(name = "uploadValidationExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService uploadValidationExecutorService(BridgeConfig bridgeConfig) {
+        RejectedExecutionHandler rejectionHandler;
+        String rejectionPolicy = bridgeConfig.getProperty("upload.validation.rejection.policy");
+        if ("caller-runs".equals(rejectionPolicy)) {
+            rejectionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
+        } else {
+            rejectionHandler = new ThreadPoolExecutor.AbortPolicy();
+        }
+
+        return new MonitoredThreadPoolExecutor("upload-validation", bridgeConfig.getPropertyAsInt(
+                "upload.validation.thread.count"), new ArrayBlockingQueue<Runnable>(bridgeConfig.getPropertyAsInt(
+                "upload.validation.queue.capacity")), rejectionHandler);
+    }
+
+    // Thread pool for running upload validation handlers that don't depend on each other at the same time, such as the
+    // participant options lookup while the upload is downloaded. See UploadValidationTask. When the queue is full, the
+    // pool rejects the handler and the validation task runs it on its own thread.
+    @Bean(name = "uploadValidationStageExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService uploadValidationStageExecutorService(BridgeConfig bridgeConfig) {
+        return new MonitoredThreadPoolExecutor("upload-validation-stage", bridgeConfig.getPropertyAsInt(
+                "upload.validation.stage.thread.count"), new ArrayBlockingQueue<Runnable>(bridgeConfig.getPropertyAsInt(
+                "upload.validation.stage.queue.capacity")), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Thread pool for admin re-validation of failed uploads. UploadRevalidationService limits how many uploads are in
+    // flight, so this never queues more than a few.
+    @Bean(name = "uploadRevalidationExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService uploadRevalidationExecutorService(BridgeConfig bridgeConfig) {
+        return new MonitoredThreadPoolExecutor("upload-revalidation", bridgeConfig.getPropertyAsInt(
+                "upload.revalidation.concurrency"), new LinkedBlockingQueue<Runnable>(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Thread pool for uploading health data attachments to S3. Each upload limits how many of its attachments are in
+    // flight at once (upload.attachment.parallelism), so a single upload with many attachments can't take over the
+    // pool.
+    @Bean(name = "attachmentUploadExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService attachmentUploadExecutorService(BridgeConfig bridgeConfig) {
+        return new MonitoredThreadPoolExecutor("attachment-upload", bridgeConfig.getPropertyAsInt(
+                "upload.attachment.thread.count"), new LinkedBlockingQueue<Runnable>(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Thread pool for uploading the parts of large S3 files in parallel. See S3Helper.writeBytesToS3().
+    @Bean(name = "s3MultipartExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService s3MultipartExecutorService(BridgeConfig bridgeConfig) {
+        return new MonitoredThreadPoolExecutor("s3-multipart", bridgeConfig.getPropertyAsInt(
+                "s3.multipart.thread.count"), new LinkedBlockingQueue<Runnable>(),
+                new ThreadPoolExecutor.AbortPolicy());
     }
 
     @Bean(name = "supportEmail")
@@ -130,10 +216,59 @@ public class BridgeSpringConfig {
         return bridgeConfig.getProperty("support.email");
     }
 
+    // Encryptors are refreshed periodically, so rotated keys are picked up. Refreshes happen on the reload thread pool,
+    // and callers keep getting the old encryptor until the new one is loaded. If the refresh fails, the old encryptor
+    // is kept.
     @Bean(name = "cmsEncryptorCache")
     @Autowired
-    public LoadingCache<String, CmsEncryptor> cmsEncryptorCache(CmsEncryptorCacheLoader cacheLoader) {
-        return CacheBuilder.newBuilder().build(cacheLoader);
+    public LoadingCache<String, CmsEncryptor> cmsEncryptorCache(BridgeConfig bridgeConfig,
+            CmsEncryptorCacheLoader cacheLoader) {
+        return CacheBuilder.newBuilder().maximumSize(bridgeConfig.getPropertyAsInt("upload.cms.cache.max.size"))
+                .refreshAfterWrite(bridgeConfig.getPropertyAsInt("upload.cms.cache.refresh.seconds"),
+                        TimeUnit.SECONDS).recordStats()
+                .build(CacheLoader.asyncReloading(cacheLoader, cmsEncryptorReloadExecutorService(bridgeConfig)));
+    }
+
+    @Bean(name = "cmsEncryptorCacheStats")
+    @Autowired
+    public MonitoredCacheStats cmsEncryptorCacheStats(BridgeConfig bridgeConfig,
+            CmsEncryptorCacheLoader cacheLoader) {
+        return new MonitoredCacheStats(cmsEncryptorCache(bridgeConfig, cacheLoader));
+    }
+
+    // Thread pool for refreshing CMS encryptors and for preloading them at startup.
+    @Bean(name = "cmsEncryptorReloadExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService cmsEncryptorReloadExecutorService(BridgeConfig bridgeConfig) {
+        return new MonitoredThreadPoolExecutor("cms-encryptor-reload", bridgeConfig.getPropertyAsInt(
+                "upload.cms.cache.reload.thread.count"), new LinkedBlockingQueue<Runnable>(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Key pairs for new studies' CMS certificates. See UploadCertificateServiceImpl.
+    @Bean(name = "cmsKeyPairPool")
+    @Resource(name = "bridgeConfig")
+    public KeyPairPool cmsKeyPairPool(BridgeConfig bridgeConfig) {
+        return new KeyPairPool("cms-key-pair-pool", bridgeConfig.getPropertyAsInt("upload.cms.key.pair.pool.size"));
+    }
+
+    // Thread pool for writing new studies' CMS private keys to S3 while the certificate is written. See
+    // UploadCertificateServiceImpl. It has no queue: when all its threads are busy, the caller writes the private key
+    // itself, so study creation never waits behind other work.
+    @Bean(name = "cmsKeyWriteExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService cmsKeyWriteExecutorService(BridgeConfig bridgeConfig) {
+        return new MonitoredThreadPoolExecutor("cms-key-write", bridgeConfig.getPropertyAsInt(
+                "upload.cms.key.write.thread.count"), new SynchronousQueue<Runnable>(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Bean(name = "uploadSchemaIndexCache")
+    @Autowired
+    public LoadingCache<String, UploadSchemaIndex> uploadSchemaIndexCache(BridgeConfig bridgeConfig,
+            UploadSchemaIndexCacheLoader cacheLoader) {
+        return CacheBuilder.newBuilder().expireAfterWrite(bridgeConfig.getPropertyAsInt(
+                "upload.schema.cache.expire.seconds"), TimeUnit.SECONDS).build(cacheLoader);
     }
 
     @Bean(name = "healthDataAttachmentDdbMapper")
@@ -220,8 +355,12 @@ public class BridgeSpringConfig {
     @Bean(name = "s3Helper")
     @Resource(name = "s3Client")
     public S3Helper s3Helper(AmazonS3Client s3Client) {
+        BridgeConfig bridgeConfig = bridgeConfig();
         S3Helper s3Helper = new S3Helper();
         s3Helper.setS3Client(s3Client);
+        s3Helper.setMultipartExecutorService(s3MultipartExecutorService(bridgeConfig));
+        s3Helper.setMultipartPartSize(bridgeConfig.getPropertyAsInt("s3.multipart.part.size.bytes"));
+        s3Helper.setMultipartThreshold(bridgeConfig.getPropertyAsInt("s3.multipart.threshold.bytes"));
         return s3Helper;
     }
 
@@ -241,11 +380,15 @@ public class BridgeSpringConfig {
     @Bean(name = "uploadValidationHandlerList")
     @Autowired
     public List<UploadValidationHandler> uploadValidationHandlerList(S3DownloadHandler s3DownloadHandler,
+            ParticipantOptionsHandler participantOptionsHandler, UploadSchemaIndexHandler uploadSchemaIndexHandler,
             DecryptHandler decryptHandler, UnzipHandler unzipHandler, ParseJsonHandler parseJsonHandler,
             IosSchemaValidationHandler iosSchemaValidationHandler, TranscribeConsentHandler transcribeConsentHandler,
             UploadArtifactsHandler uploadArtifactsHandler) {
-        return ImmutableList.of(s3DownloadHandler, decryptHandler, unzipHandler, parseJsonHandler,
-                iosSchemaValidationHandler, transcribeConsentHandler, uploadArtifactsHandler);
+        // The participant options and schema lookups don't depend on the upload, so they run on the stage thread pool
+        // while the upload is downloaded and unpacked. See UploadValidationTask.
+        return ImmutableList.<UploadValidationHandler>of(s3DownloadHandler, participantOptionsHandler,
+                uploadSchemaIndexHandler, decryptHandler, unzipHandler, parseJsonHandler, iosSchemaValidationHandler,
+                transcribeConsentHandler, uploadArtifactsHandler);
     }
 
     @Bean(name = "uploadSchemaDdbMapper")
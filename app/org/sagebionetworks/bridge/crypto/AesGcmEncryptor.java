@@ -30,14 +30,15 @@ public class AesGcmEncryptor implements Encryptor {
 
     AesGcmEncryptor() {
         aesCipher = createCipher();
-        key = Base64.encodeToString(aesCipher.generateNewKey(KEY_BIT_SIZE).getEncoded());
+        key = aesCipher.generateNewKey(KEY_BIT_SIZE).getEncoded();
     }
 
     public AesGcmEncryptor(String key) {
         if (key == null || key.isEmpty()) {
             throw new IllegalArgumentException("Key must not be null or empty.");
         }
-        this.key = key;
+        // Decode the key once, rather than on every call.
+        this.key = Base64.decode(key);
         aesCipher = createCipher();
     }
 
@@ -52,7 +53,7 @@ public class AesGcmEncryptor implements Encryptor {
             throw new IllegalArgumentException("Text to encrypt cannot be null.");
         }
         byte[] base64 = Base64.encode(text.getBytes(StandardCharsets.UTF_8));
-        ByteSource bytes = aesCipher.encrypt(base64, Base64.decode(key));
+        ByteSource bytes = aesCipher.encrypt(base64, key);
         return bytes.toBase64();
     }
 
@@ -61,7 +62,7 @@ public class AesGcmEncryptor implements Encryptor {
         if (text == null) {
             throw new IllegalArgumentException("Text to decrypt cannot be null.");
         }
-        ByteSource bytes = aesCipher.decrypt(Base64.decode(text), Base64.decode(key));
+        ByteSource bytes = aesCipher.decrypt(Base64.decode(text), key);
         return Base64.decodeToString(bytes.getBytes());
     }
 
@@ -76,5 +77,5 @@ public class AesGcmEncryptor implements Encryptor {
 
     private static final int KEY_BIT_SIZE = 256;
     private final AesCipherService aesCipher;
-    private final String key;
+    private final byte[] key;
 }
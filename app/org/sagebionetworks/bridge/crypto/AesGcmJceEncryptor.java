@@ -0,0 +1,129 @@
+package org.sagebionetworks.bridge.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.shiro.codec.Base64;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * <p>
+ * AES-GCM encryptor that calls JCE directly. The key is decoded once, each thread reuses its own Cipher, and the text
+ * is encrypted as UTF-8, without Base64-encoding it first. Encrypted values are the Base64 encoding of a random
+ * 12-byte IV followed by the ciphertext and the 128-bit authentication tag.
+ * </p>
+ * <p>
+ * This format isn't compatible with {@link AesGcmEncryptor}, so this is a separate encryptor version. Values
+ * encrypted by the older version are still decrypted by {@link AesGcmEncryptor}.
+ * </p>
+ */
+public class AesGcmJceEncryptor implements Encryptor {
+
+    public static final Integer VERSION = new Integer(3);
+
+    private static final String ALGORITHM = "AES";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String PROVIDER = "BC";
+    private static final int IV_BYTE_SIZE = 12;
+    private static final int KEY_BYTE_SIZE = 32;
+    private static final int TAG_BIT_SIZE = 128;
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    // SecureRandom is thread-safe. Ciphers aren't, so each thread gets its own, initialized on every call with a
+    // fresh IV.
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION, PROVIDER);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final SecretKey key;
+
+    AesGcmJceEncryptor() {
+        byte[] keyBytes = new byte[KEY_BYTE_SIZE];
+        RANDOM.nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, ALGORITHM);
+    }
+
+    /**
+     * @param key
+     *         Base64-encoded 256-bit AES key, the same format as {@link AesGcmEncryptor} keys
+     */
+    public AesGcmJceEncryptor(String key) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Key must not be null or empty.");
+        }
+        byte[] keyBytes = Base64.decode(key);
+        if (keyBytes.length != KEY_BYTE_SIZE) {
+            throw new IllegalArgumentException("Key must be " + (KEY_BYTE_SIZE * 8) + " bits.");
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+    }
+
+    @Override
+    public Integer getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public String encrypt(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Text to encrypt cannot be null.");
+        }
+        byte[] plaintext = text.getBytes(StandardCharsets.UTF_8);
+        byte[] iv = new byte[IV_BYTE_SIZE];
+        RANDOM.nextBytes(iv);
+
+        Cipher cipher = CIPHER.get();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BIT_SIZE, iv));
+            // Write the ciphertext straight after the IV, so we don't need to copy it.
+            byte[] output = Arrays.copyOf(iv, IV_BYTE_SIZE + cipher.getOutputSize(plaintext.length));
+            int length = cipher.doFinal(plaintext, 0, plaintext.length, output, IV_BYTE_SIZE);
+            if (IV_BYTE_SIZE + length != output.length) {
+                output = Arrays.copyOf(output, IV_BYTE_SIZE + length);
+            }
+            return Base64.encodeToString(output);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String decrypt(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Text to decrypt cannot be null.");
+        }
+        byte[] input = Base64.decode(text);
+        if (input.length < IV_BYTE_SIZE + TAG_BIT_SIZE / 8) {
+            throw new IllegalArgumentException("Text to decrypt is too short.");
+        }
+
+        Cipher cipher = CIPHER.get();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BIT_SIZE, input, 0, IV_BYTE_SIZE));
+            byte[] plaintext = cipher.doFinal(input, IV_BYTE_SIZE, input.length - IV_BYTE_SIZE);
+            return new String(plaintext, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            // Includes a bad authentication tag, which means the text was tampered with or used a different key.
+            throw new IllegalArgumentException("Text could not be decrypted.", e);
+        }
+    }
+}
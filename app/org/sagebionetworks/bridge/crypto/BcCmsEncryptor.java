@@ -2,18 +2,22 @@ package org.sagebionetworks.bridge.crypto;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 
+import com.google.common.io.ByteStreams;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cms.CMSEnvelopedData;
-import org.bouncycastle.cms.CMSEnvelopedDataGenerator;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSEnvelopedDataParser;
+import org.bouncycastle.cms.CMSEnvelopedDataStreamGenerator;
 import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSProcessableByteArray;
-import org.bouncycastle.cms.CMSTypedData;
 import org.bouncycastle.cms.KeyTransRecipientId;
 import org.bouncycastle.cms.Recipient;
 import org.bouncycastle.cms.RecipientId;
@@ -25,44 +29,86 @@ import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.OutputEncryptor;
 
+/**
+ * <p>
+ * CMS encryptor backed by BouncyCastle's streaming enveloped data generator and parser. The byte array methods are
+ * thin wrappers around the stream methods.
+ * </p>
+ * <p>
+ * Everything that depends only on the certificate and private key (the recipient ID, the recipient and the content
+ * encryptor builder) is built once, in the constructor, and shared by all calls. None of these hold per-message
+ * state, so an encryptor can be used from multiple threads. Each encrypt call still builds its own content encryptor,
+ * since that's what generates the per-message content key.
+ * </p>
+ */
 public final class BcCmsEncryptor implements CmsEncryptor {
 
-    private final CMSEnvelopedDataGenerator generator;
-    private final X509Certificate cert;
-    private final PrivateKey privateKey;
+    // Registering the provider is synchronized and instantiating it registers hundreds of algorithms, so only do it
+    // once, not once per encryptor.
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private final CMSEnvelopedDataStreamGenerator generator;
+    private final JceCMSContentEncryptorBuilder contentEncryptorBuilder;
+    private final RecipientId recipientId;
+    private final Recipient recipient;
 
     public BcCmsEncryptor(X509Certificate cert, PrivateKey privateKey) throws CertificateEncodingException {
         checkNotNull(cert);
         checkNotNull(privateKey);
-        Security.addProvider(new BouncyCastleProvider());
-        generator = new CMSEnvelopedDataGenerator();
+        generator = new CMSEnvelopedDataStreamGenerator();
         RecipientInfoGenerator recipientInfoGenerator =
                 new JceKeyTransRecipientInfoGenerator(cert).setProvider(BcCmsConstants.PROVIDER);
         generator.addRecipientInfoGenerator(recipientInfoGenerator);
-        this.cert = cert;
-        this.privateKey = privateKey;
+        contentEncryptorBuilder = new JceCMSContentEncryptorBuilder(BcCmsConstants.ENCRYPTOR_ALGO_ID)
+                .setProvider(BcCmsConstants.PROVIDER);
+
+        // The recipient info generator identifies the recipient by issuer and serial number, so look it up the same
+        // way.
+        X509CertificateHolder certHolder = new JcaX509CertificateHolder(cert);
+        recipientId = new KeyTransRecipientId(certHolder.getIssuer(), certHolder.getSerialNumber());
+
+        // X500Name caches its hash code lazily, and not thread-safely: a concurrent caller can see the "calculated"
+        // flag before the hash code itself, and miss the recipient info lookup. Calculate it here, before the
+        // recipient ID is shared.
+        recipientId.hashCode();
+        recipient = new JceKeyTransEnvelopedRecipient(privateKey);
     }
 
     @Override
     public byte[] encrypt(byte[] bytes) throws CMSException, IOException {
         checkNotNull(bytes);
-        CMSTypedData cmsData = new CMSProcessableByteArray(bytes);
-        OutputEncryptor encryptor = new JceCMSContentEncryptorBuilder(BcCmsConstants.ENCRYPTOR_ALGO_ID)
-                .setProvider(BcCmsConstants.PROVIDER).build();
-        CMSEnvelopedData envelopedData = generator.generate(cmsData, encryptor);
-        byte[] encrypted = envelopedData.getEncoded();
-        return encrypted;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream encryptingStream = encrypt(baos)) {
+            encryptingStream.write(bytes);
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public OutputStream encrypt(OutputStream stream) throws CMSException, IOException {
+        checkNotNull(stream);
+        OutputEncryptor encryptor = contentEncryptorBuilder.build();
+        return generator.open(stream, encryptor);
     }
 
     @Override
     public byte[] decrypt(byte[] bytes) throws CMSException, CertificateEncodingException, IOException {
         checkNotNull(bytes);
-        CMSEnvelopedData envelopedData = new CMSEnvelopedData(bytes);
-        X509CertificateHolder certHolder = new X509CertificateHolder(cert.getEncoded());
-        RecipientId recipientId = new KeyTransRecipientId(certHolder.getIssuer(), certHolder.getSerialNumber());
-        RecipientInformation recInfo = envelopedData.getRecipientInfos().get(recipientId);
-        Recipient recipient = new JceKeyTransEnvelopedRecipient(privateKey);
-        byte[] decrypted = recInfo.getContent(recipient);
-        return decrypted;
+        try (InputStream decryptedStream = decrypt(new ByteArrayInputStream(bytes))) {
+            return ByteStreams.toByteArray(decryptedStream);
+        }
+    }
+
+    @Override
+    public InputStream decrypt(InputStream stream) throws CMSException, CertificateEncodingException, IOException {
+        checkNotNull(stream);
+        CMSEnvelopedDataParser envelopedDataParser = new CMSEnvelopedDataParser(stream);
+        RecipientInformation recInfo = envelopedDataParser.getRecipientInfos().get(recipientId);
+        if (recInfo == null) {
+            throw new CMSException("No recipient info found for this encryptor's certificate");
+        }
+        return recInfo.getContentStream(recipient).getContentStream();
     }
 }
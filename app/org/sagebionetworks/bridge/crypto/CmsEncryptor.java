@@ -1,6 +1,8 @@
 package org.sagebionetworks.bridge.crypto;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.cert.CertificateEncodingException;
 
 import org.bouncycastle.cms.CMSException;
@@ -12,5 +14,18 @@ public interface CmsEncryptor {
 
     byte[] encrypt(byte[] bytes) throws CMSException, IOException;
 
+    /**
+     * Opens an encrypting stream. Data written to the returned stream is encrypted as it's written and the CMS
+     * envelope is written to the given stream. The returned stream must be closed to finish the CMS envelope. Closing
+     * the returned stream does not close the given stream.
+     */
+    OutputStream encrypt(OutputStream stream) throws CMSException, IOException;
+
     byte[] decrypt(byte[] bytes) throws CMSException, CertificateEncodingException, IOException;
+
+    /**
+     * Decrypts the given CMS stream. The returned stream decrypts lazily as it is read, so the plaintext is never
+     * buffered in memory as a whole. Closing the returned stream does not close the source stream.
+     */
+    InputStream decrypt(InputStream stream) throws CMSException, CertificateEncodingException, IOException;
 }
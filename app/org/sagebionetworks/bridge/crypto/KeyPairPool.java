@@ -0,0 +1,153 @@
+package org.sagebionetworks.bridge.crypto;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * <p>
+ * Bounded pool of pre-generated key pairs, so callers don't have to wait for key generation. RSA-2048 key generation
+ * takes anywhere from a hundred milliseconds to a few seconds.
+ * </p>
+ * <p>
+ * A low-priority background thread generates key pairs until the pool is full, then waits for the pool to drain. If
+ * the pool is empty when a key pair is needed, the key pair is generated on the calling thread. Each key pair is
+ * handed out at most once. Pool metrics are exported as JMX attributes when the pool is a Spring bean.
+ * </p>
+ */
+@ManagedResource(description = "Pool of pre-generated key pairs")
+public class KeyPairPool {
+    private static final Logger logger = LoggerFactory.getLogger(KeyPairPool.class);
+
+    // How long the fill thread waits before trying again, after key generation fails.
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private static final Supplier<KeyPair> RSA_2048_SUPPLIER = new Supplier<KeyPair>() {
+        @Override
+        public KeyPair get() {
+            return KeyPairFactory.newRsa2048();
+        }
+    };
+
+    private final String name;
+    private final BlockingQueue<KeyPair> queue;
+    private final Supplier<KeyPair> keyPairSupplier;
+    private final AtomicLong pooledCount = new AtomicLong();
+    private final AtomicLong generatedOnDemandCount = new AtomicLong();
+    private Thread fillThread;
+
+    /**
+     * Creates a pool of RSA-2048 key pairs. The pool isn't filled until start() is called.
+     *
+     * @param name
+     *         pool name, used to name the fill thread
+     * @param capacity
+     *         maximum number of key pairs kept in the pool, must be positive
+     */
+    public KeyPairPool(String name, int capacity) {
+        this(name, capacity, RSA_2048_SUPPLIER);
+    }
+
+    // Package-scoped to facilitate unit tests, so tests don't have to wait for real key generation.
+    /* package-scoped */ KeyPairPool(String name, int capacity, Supplier<KeyPair> keyPairSupplier) {
+        checkNotNull(name);
+        checkArgument(capacity > 0, "capacity must be positive");
+        checkNotNull(keyPairSupplier);
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.keyPairSupplier = keyPairSupplier;
+    }
+
+    /** Starts the background thread that fills the pool. Does nothing if it's already started. */
+    @PostConstruct
+    public synchronized void start() {
+        if (fillThread != null) {
+            return;
+        }
+        fillThread = new ThreadFactoryBuilder().setNameFormat(name + "-fill").setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY).build().newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        fill();
+                    }
+                });
+        fillThread.start();
+    }
+
+    /**
+     * Stops the background thread. Key pairs already in the pool can still be taken. The thread may still add the key
+     * pair it had already generated, but doesn't generate any more.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (fillThread != null) {
+            fillThread.interrupt();
+            fillThread = null;
+        }
+    }
+
+    /**
+     * Takes a key pair from the pool. If the pool is empty, generates a new key pair on the calling thread. Never
+     * returns null.
+     */
+    public KeyPair take() {
+        KeyPair keyPair = queue.poll();
+        if (keyPair != null) {
+            pooledCount.incrementAndGet();
+            return keyPair;
+        }
+        generatedOnDemandCount.incrementAndGet();
+        return keyPairSupplier.get();
+    }
+
+    /** Number of key pairs currently in the pool. */
+    @ManagedAttribute(description = "Number of key pairs currently in the pool")
+    public int getAvailableCount() {
+        return queue.size();
+    }
+
+    /** Number of key pairs taken from the pool. */
+    @ManagedAttribute(description = "Number of key pairs taken from the pool")
+    public long getPooledCount() {
+        return pooledCount.get();
+    }
+
+    /** Number of key pairs generated on the calling thread, because the pool was empty. */
+    @ManagedAttribute(description = "Number of key pairs generated on the calling thread because the pool was empty")
+    public long getGeneratedOnDemandCount() {
+        return generatedOnDemandCount.get();
+    }
+
+    // Generates key pairs until the thread is interrupted. put() blocks while the pool is full.
+    private void fill() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                queue.put(keyPairSupplier.get());
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                logger.error("Error generating key pair for pool " + name, ex);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException interruptedEx) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -4,6 +4,11 @@ package org.sagebionetworks.bridge.dao;
  * Lock on an identifier for any specific class of system objects 
  * (thought to make this BridgeEntity but that's not used systematically
  * at this point).
+ * <p>
+ * Locks expire, so a holder that dies can't hold a lock forever. Holders that may run longer than the expiration
+ * should call startRenewal() once they hold the lock. Each lock returned by acquireLock() carries a fencing token,
+ * which is larger than the fencing token of every lock acquired before it. A holder can pass the fencing token along
+ * with its writes, so that storage can reject writes from a holder whose lock has since expired.
  */
 public interface DistributedLockDao {
 
@@ -11,5 +16,38 @@ public interface DistributedLockDao {
 
     String acquireLock(Class<?> clazz, String identifier, int expireInSeconds);
 
+    /**
+     * Acquires the lock, waiting up to waitMillis for it if it's held by someone else. Retries with increasing delays
+     * while waiting.
+     *
+     * @throws org.sagebionetworks.bridge.exceptions.ConcurrentModificationException
+     *         if the lock is still held after waitMillis
+     */
+    String acquireLock(Class<?> clazz, String identifier, int expireInSeconds, long waitMillis);
+
+    /**
+     * Releases the lock, if it's still held with the given lock. Stops renewing the lock.
+     *
+     * @return true if the lock was released, false if it was no longer held with the given lock
+     */
     boolean releaseLock(Class<?> clazz, String identifier, String lock);
+
+    /**
+     * Resets the lock's expiration, if it's still held with the given lock.
+     *
+     * @return true if the lock was renewed, false if it was no longer held with the given lock
+     */
+    boolean renewLock(Class<?> clazz, String identifier, String lock, int expireInSeconds);
+
+    /**
+     * Renews the lock in the background, a few times per expiration period, until it's released or found to be lost.
+     * This keeps the lock for as long as the holder is alive, however long it runs. If the holder dies, the lock still
+     * expires.
+     */
+    void startRenewal(Class<?> clazz, String identifier, String lock, int expireInSeconds);
+
+    /**
+     * Returns the lock's fencing token, which is larger than the fencing token of every lock acquired before it.
+     */
+    long getFencingToken(String lock);
 }
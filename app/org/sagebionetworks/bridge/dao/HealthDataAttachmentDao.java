@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
 import javax.annotation.Nonnull;
 
 import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
@@ -18,6 +19,19 @@ public interface HealthDataAttachmentDao {
      */
     String createOrUpdateAttachment(@Nonnull HealthDataAttachment attachment);
 
+    /**
+     * DAO method used by worker apps to create or update several health data attachments at once, generally all the
+     * attachments from a single upload. Attachments with no ID are assigned one. New attachments (with no version)
+     * are written in batches. This lets callers assign attachment IDs ahead of time, for example to write the
+     * attachment files before the metadata. Existing attachments (with a version) are updated one at a time, the same
+     * as {@link #createOrUpdateAttachment}.
+     *
+     * @param attachmentList
+     *         attachment objects to create or update
+     * @return IDs of the created or updated attachments, in the same order as the attachment list
+     */
+    List<String> createOrUpdateAttachments(@Nonnull List<HealthDataAttachment> attachmentList);
+
     /** Gets a builder instance, used for building prototype health data records for create or update. */
     HealthDataAttachmentBuilder getRecordBuilder();
 }
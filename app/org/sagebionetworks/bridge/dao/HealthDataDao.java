@@ -10,7 +10,10 @@ import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 public interface HealthDataDao {
     /**
      * DAO method used by worker apps to creating (or updating) a health data record and persisting it, generally from
-     * unpacking uploads.
+     * unpacking uploads. If the record has no ID, one is generated. A record with no version is created, and the
+     * write fails with a ConditionalCheckFailedException if a record with that ID already exists, so callers can
+     * assign the record ID ahead of time. A record with a version is updated, and the write fails if the version
+     * doesn't match.
      *
      * @param record
      *         health data record prototype, from which the record should be created from, must be non-null
@@ -1,8 +1,11 @@
 package org.sagebionetworks.bridge.dao;
 
 import javax.annotation.Nonnull;
+import java.util.Iterator;
 import java.util.List;
 
+import org.joda.time.LocalDate;
+
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.models.upload.UploadRequest;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
@@ -36,6 +39,65 @@ public interface UploadDao {
      */
     void uploadComplete(@Nonnull Upload upload);
 
+    /**
+     * Finds an earlier upload from the same user, with the same content MD5, which has already been validated
+     * successfully. Clients often retry uploads after network errors, and this lets us skip validating the same content
+     * twice.
+     *
+     * @param upload
+     *         upload to find a duplicate of, must be non-null
+     * @return earlier upload with the same content, or null if there is none
+     */
+    Upload getDuplicateUpload(@Nonnull Upload upload);
+
+    /**
+     * Marks the upload as a duplicate of the given earlier upload. This sets the upload's status to SUCCEEDED, without
+     * validating it, and links it to the earlier upload, which holds the validation result.
+     *
+     * @param upload
+     *         upload to mark as a duplicate, must be non-null
+     * @param originalUpload
+     *         earlier upload with the same content, generally returned by {@link #getDuplicateUpload}, must be
+     *         non-null
+     */
+    void markDuplicate(@Nonnull Upload upload, @Nonnull Upload originalUpload);
+
+    /**
+     * Returns all uploads completed on the given upload date which currently have the given status, for example to
+     * re-validate all uploads from a given day that failed validation. Uploads are loaded lazily as the iterator
+     * advances, so this can be used to walk through a large number of uploads. Uploads aren't returned in any
+     * particular order. Uploads that failed validation before the upload date and status index was added are only
+     * returned once they've been backfilled (see UploadDateStatusBackfill).
+     *
+     * @param uploadDate
+     *         upload date, as set when the upload was completed, must be non-null
+     * @param status
+     *         upload status, must be non-null
+     * @return iterator over the matching uploads
+     */
+    Iterator<Upload> getUploadsForDateAndStatus(@Nonnull LocalDate uploadDate, @Nonnull UploadStatus status);
+
+    /**
+     * Returns all uploads with the given status that aren't in the upload date and status index, because they haven't
+     * been saved since the index was added. This scans the whole upload table, so it's only meant for backfills.
+     * Uploads are loaded lazily as the iterator advances.
+     *
+     * @param status
+     *         upload status, must be non-null
+     * @return iterator over the matching uploads
+     * @see #getUploadsForDateAndStatus
+     */
+    Iterator<Upload> getUploadsMissingUploadDateStatus(@Nonnull UploadStatus status);
+
+    /**
+     * Saves the upload again, without changing it, so that it's added to the upload date and status index. This is
+     * used to backfill uploads returned by {@link #getUploadsMissingUploadDateStatus}.
+     *
+     * @param upload
+     *         upload to save, must be non-null
+     */
+    void backfillUploadDateStatus(@Nonnull Upload upload);
+
     /**
      * Persists the validation status and message list to the Upload metadata object.
      *
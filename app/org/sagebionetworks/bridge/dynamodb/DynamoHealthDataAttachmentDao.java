@@ -1,9 +1,12 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Component;
 
@@ -39,6 +42,37 @@ public class DynamoHealthDataAttachmentDao implements HealthDataAttachmentDao {
         return dynamoAttachment.getId();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> createOrUpdateAttachments(@Nonnull List<HealthDataAttachment> attachmentList) {
+        List<String> idList = new ArrayList<>();
+        List<DynamoHealthDataAttachment> newAttachmentList = new ArrayList<>();
+        for (HealthDataAttachment oneAttachment : attachmentList) {
+            DynamoHealthDataAttachment dynamoAttachment = (DynamoHealthDataAttachment) oneAttachment;
+
+            if (StringUtils.isBlank(dynamoAttachment.getId())) {
+                dynamoAttachment.setId(BridgeUtils.generateGuid());
+            }
+
+            if (dynamoAttachment.getVersion() == null) {
+                // New attachment. Save it in the batch below. Batch writes don't go through the mapper's optimistic
+                // locking, so we need to set the initial version ourselves, the same as save() would.
+                dynamoAttachment.setVersion(1L);
+                newAttachmentList.add(dynamoAttachment);
+            } else {
+                // Existing attachment. Save it individually so the version check still applies.
+                mapper.save(dynamoAttachment);
+            }
+            idList.add(dynamoAttachment.getId());
+        }
+
+        if (!newAttachmentList.isEmpty()) {
+            List<FailedBatch> failures = mapper.batchSave(newAttachmentList);
+            BridgeUtils.ifFailuresThrowException(failures);
+        }
+        return idList;
+    }
+
     /** {@inheritDoc} */
     @Override
     public HealthDataAttachmentBuilder getRecordBuilder() {
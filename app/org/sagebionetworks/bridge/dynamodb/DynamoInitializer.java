@@ -6,8 +6,10 @@ import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.LocalDate;
 import org.sagebionetworks.bridge.config.BridgeConfig;
@@ -26,11 +28,14 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.CreateGlobalSecondaryIndexAction;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexUpdate;
+import com.amazonaws.services.dynamodbv2.model.IndexStatus;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
@@ -44,6 +49,7 @@ import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
 import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.ClassPath;
@@ -59,6 +65,15 @@ public class DynamoInitializer {
 
     private static final BridgeConfig CONFIG = BridgeConfigFactory.getConfig();
 
+    // Whether global secondary indices missing from existing tables are created on startup. Creating an index on a
+    // large table can take a long time, so this is only on in local and dev. Elsewhere, indices are created as a
+    // migration step before deploying.
+    private static final boolean CREATE_MISSING_INDICES = Boolean.parseBoolean(CONFIG.getProperty(
+            "dynamo.create.missing.indices"));
+
+    // How long to wait for a new global secondary index to become ACTIVE.
+    private static final long INDEX_ACTIVE_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
     private static final AmazonDynamoDB DYNAMO;
     static {
         String awsKey = CONFIG.getProperty("aws.key");
@@ -70,7 +85,8 @@ public class DynamoInitializer {
      * Creates DynamoDB tables, if they do not exist yet, from the annotated types.
      * in the package "org.sagebionetworks.bridge.dynamodb". Throws an error
      * if the table exists but the schema (hash key, range key, and secondary indices)
-     * does not match.
+     * does not match. Global secondary indices missing from existing tables are created if
+     * dynamo.create.missing.indices is true, and logged as errors otherwise.
      */
     public static void init(String dynamoPackage) {
         beforeInit();
@@ -313,6 +329,18 @@ public class DynamoInitializer {
             } else {
                 final TableDescription existingTable = existingTables.get(table.getTableName());
                 compareSchema(table, existingTable);
+                for (UpdateTableRequest updateTableRequest : getCreateGlobalIndexRequests(table, existingTable)) {
+                    String indexName = updateTableRequest.getGlobalSecondaryIndexUpdates().get(0).getCreate()
+                            .getIndexName();
+                    if (!CREATE_MISSING_INDICES) {
+                        logger.error("Missing global secondary index " + indexName + " on table "
+                                + table.getTableName() + ". Queries that use this index will fail until it's created.");
+                        continue;
+                    }
+                    logger.info("Creating global secondary index " + indexName + " on table " + table.getTableName());
+                    DYNAMO.updateTable(updateTableRequest);
+                    waitForIndexActive(table, indexName);
+                }
             }
             waitForActive(table);
         }
@@ -382,6 +410,49 @@ public class DynamoInitializer {
         return request;
     }
 
+    /**
+     * Gets the requests to create the global secondary indices that are in the annotated table but not in the existing
+     * table, one request per index. DynamoDB only creates one index on a table at a time, so each request must finish,
+     * including backfilling the index from the table, before the next one is sent.
+     */
+    static List<UpdateTableRequest> getCreateGlobalIndexRequests(TableDescription table,
+            TableDescription existingTable) {
+        Set<String> existingIndexNames = new HashSet<>();
+        if (existingTable.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndexDescription existingIndex : existingTable.getGlobalSecondaryIndexes()) {
+                existingIndexNames.add(existingIndex.getIndexName());
+            }
+        }
+        Map<String, AttributeDefinition> attributeMap = new HashMap<>();
+        for (AttributeDefinition attribute : table.getAttributeDefinitions()) {
+            attributeMap.put(attribute.getAttributeName(), attribute);
+        }
+
+        List<UpdateTableRequest> requests = new ArrayList<>();
+        for (GlobalSecondaryIndexDescription globalIndexDesc : table.getGlobalSecondaryIndexes()) {
+            if (existingIndexNames.contains(globalIndexDesc.getIndexName())) {
+                continue;
+            }
+            // The index's key attributes must be defined in the request.
+            List<AttributeDefinition> attributes = new ArrayList<>();
+            for (KeySchemaElement key : globalIndexDesc.getKeySchema()) {
+                attributes.add(attributeMap.get(key.getAttributeName()));
+            }
+            CreateGlobalSecondaryIndexAction createAction = new CreateGlobalSecondaryIndexAction()
+                    .withIndexName(globalIndexDesc.getIndexName())
+                    .withKeySchema(globalIndexDesc.getKeySchema())
+                    .withProjection(globalIndexDesc.getProjection())
+                    .withProvisionedThroughput(new ProvisionedThroughput(
+                            globalIndexDesc.getProvisionedThroughput().getReadCapacityUnits(),
+                            globalIndexDesc.getProvisionedThroughput().getWriteCapacityUnits()));
+            requests.add(new UpdateTableRequest()
+                    .withTableName(table.getTableName())
+                    .withAttributeDefinitions(attributes)
+                    .withGlobalSecondaryIndexUpdates(new GlobalSecondaryIndexUpdate().withCreate(createAction)));
+        }
+        return requests;
+    }
+
     /**
      * Compares hash key, range key of the two tables. Throws an exception
      * if there is difference.
@@ -435,6 +506,35 @@ public class DynamoInitializer {
         }
     }
 
+    /**
+     * Wait for the global secondary index to become ACTIVE. New indices on existing tables are backfilled first, which
+     * can take a while on a large table. Throws an exception if the index isn't ACTIVE within the timeout.
+     */
+    private static void waitForIndexActive(TableDescription table, String indexName) {
+        final long deadline = System.currentTimeMillis() + INDEX_ACTIVE_TIMEOUT_MILLIS;
+        while (true) {
+            DescribeTableResult describeResult = DYNAMO.describeTable(
+                    new DescribeTableRequest(table.getTableName()));
+            for (GlobalSecondaryIndexDescription index : describeResult.getTable().getGlobalSecondaryIndexes()) {
+                if (indexName.equals(index.getIndexName())
+                        && IndexStatus.ACTIVE.name().equalsIgnoreCase(index.getIndexStatus())) {
+                    logger.info("Global secondary index " + indexName + " on table " + table.getTableName()
+                            + " is active.");
+                    return;
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new BridgeInitializationException("Timed out waiting for global secondary index " + indexName
+                        + " on table " + table.getTableName() + " to become active.");
+            }
+            try {
+                Thread.sleep(5000L);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Shouldn't be interrupted.", e);
+            }
+        }
+    }
+
     /**
      * Wait for the table to be deleted.
      */
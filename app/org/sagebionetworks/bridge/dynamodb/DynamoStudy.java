@@ -40,6 +40,10 @@ public class DynamoStudy implements Study {
     private static final String SUPPORT_EMAIL_PROPERTY = "supportEmail";
     private static final String CONSENT_NOTIFICATION_EMAIL_PROPERTY = "consentNotificationEmail";
     private static final String USER_PROFILE_ATTRIBUTES_PROPERTY = "userProfileAttributes";
+    private static final String MAX_UPLOAD_ZIP_ENTRIES_PROPERTY = "maxUploadZipEntries";
+    private static final String MAX_UPLOAD_ZIP_ENTRY_BYTES_PROPERTY = "maxUploadZipEntryBytes";
+    private static final String MAX_UPLOAD_ZIP_TOTAL_BYTES_PROPERTY = "maxUploadZipTotalBytes";
+    private static final String MAX_UPLOAD_ZIP_COMPRESSION_RATIO_PROPERTY = "maxUploadZipCompressionRatio";
     
     private String name;
     private String identifier;
@@ -52,6 +56,10 @@ public class DynamoStudy implements Study {
     private Long version;
     private StudyIdentifier studyIdentifier;
     private Set<String> profileAttributes;
+    private int maxUploadZipEntries;
+    private long maxUploadZipEntryBytes;
+    private long maxUploadZipTotalBytes;
+    private int maxUploadZipCompressionRatio;
 
     public static DynamoStudy fromJson(JsonNode node) {
         DynamoStudy study = new DynamoStudy();
@@ -63,6 +71,11 @@ public class DynamoStudy implements Study {
         study.setSupportEmail(JsonUtils.asText(node, SUPPORT_EMAIL_PROPERTY));
         study.setConsentNotificationEmail(JsonUtils.asText(node, CONSENT_NOTIFICATION_EMAIL_PROPERTY));
         study.setUserProfileAttributes(JsonUtils.asStringSet(node, USER_PROFILE_ATTRIBUTES_PROPERTY));
+        study.setMaxUploadZipEntries(JsonUtils.asIntPrimitive(node, MAX_UPLOAD_ZIP_ENTRIES_PROPERTY));
+        study.setMaxUploadZipEntryBytes(JsonUtils.asLongPrimitive(node, MAX_UPLOAD_ZIP_ENTRY_BYTES_PROPERTY));
+        study.setMaxUploadZipTotalBytes(JsonUtils.asLongPrimitive(node, MAX_UPLOAD_ZIP_TOTAL_BYTES_PROPERTY));
+        study.setMaxUploadZipCompressionRatio(JsonUtils.asIntPrimitive(node,
+                MAX_UPLOAD_ZIP_COMPRESSION_RATIO_PROPERTY));
         return study;
     }
 
@@ -189,6 +202,46 @@ public class DynamoStudy implements Study {
     public void setUserProfileAttributes(Set<String> profileAttributes) {
         this.profileAttributes = profileAttributes;
     }
+    /**
+     * Maximum number of entries in an upload archive for this study. Zero means the server default applies. The same
+     * goes for the other upload zip limits.
+     */
+    @DynamoDBIgnore
+    @Override
+    public int getMaxUploadZipEntries() {
+        return maxUploadZipEntries;
+    }
+    @Override
+    public void setMaxUploadZipEntries(int maxEntries) {
+        this.maxUploadZipEntries = maxEntries;
+    }
+    @DynamoDBIgnore
+    @Override
+    public long getMaxUploadZipEntryBytes() {
+        return maxUploadZipEntryBytes;
+    }
+    @Override
+    public void setMaxUploadZipEntryBytes(long maxEntryBytes) {
+        this.maxUploadZipEntryBytes = maxEntryBytes;
+    }
+    @DynamoDBIgnore
+    @Override
+    public long getMaxUploadZipTotalBytes() {
+        return maxUploadZipTotalBytes;
+    }
+    @Override
+    public void setMaxUploadZipTotalBytes(long maxTotalBytes) {
+        this.maxUploadZipTotalBytes = maxTotalBytes;
+    }
+    @DynamoDBIgnore
+    @Override
+    public int getMaxUploadZipCompressionRatio() {
+        return maxUploadZipCompressionRatio;
+    }
+    @Override
+    public void setMaxUploadZipCompressionRatio(int maxCompressionRatio) {
+        this.maxUploadZipCompressionRatio = maxCompressionRatio;
+    }
     
     @DynamoDBAttribute
     @JsonIgnore
@@ -207,6 +260,10 @@ public class DynamoStudy implements Study {
             }
         }
         node.set(USER_PROFILE_ATTRIBUTES_PROPERTY, array);    
+        node.put(MAX_UPLOAD_ZIP_ENTRIES_PROPERTY, maxUploadZipEntries);
+        node.put(MAX_UPLOAD_ZIP_ENTRY_BYTES_PROPERTY, maxUploadZipEntryBytes);
+        node.put(MAX_UPLOAD_ZIP_TOTAL_BYTES_PROPERTY, maxUploadZipTotalBytes);
+        node.put(MAX_UPLOAD_ZIP_COMPRESSION_RATIO_PROPERTY, maxUploadZipCompressionRatio);
         return node.toString();
     }
     public void setData(String data) {
@@ -219,6 +276,11 @@ public class DynamoStudy implements Study {
             this.consentNotificationEmail = JsonUtils.asText(node, CONSENT_NOTIFICATION_EMAIL_PROPERTY);
             this.stormpathHref = JsonUtils.asText(node, STORMPATH_HREF_PROPERTY);
             this.profileAttributes = JsonUtils.asStringSet(node, USER_PROFILE_ATTRIBUTES_PROPERTY);
+            this.maxUploadZipEntries = JsonUtils.asIntPrimitive(node, MAX_UPLOAD_ZIP_ENTRIES_PROPERTY);
+            this.maxUploadZipEntryBytes = JsonUtils.asLongPrimitive(node, MAX_UPLOAD_ZIP_ENTRY_BYTES_PROPERTY);
+            this.maxUploadZipTotalBytes = JsonUtils.asLongPrimitive(node, MAX_UPLOAD_ZIP_TOTAL_BYTES_PROPERTY);
+            this.maxUploadZipCompressionRatio = JsonUtils.asIntPrimitive(node,
+                    MAX_UPLOAD_ZIP_COMPRESSION_RATIO_PROPERTY);
         } catch (IOException e) {
             throw new BridgeServiceException(e);
         }
@@ -238,6 +300,10 @@ public class DynamoStudy implements Study {
         result = prime * result + ((stormpathHref == null) ? 0 : stormpathHref.hashCode());
         result = prime * result + ((version == null) ? 0 : version.hashCode());
         result = prime * result + ((profileAttributes == null) ? 0 : profileAttributes.hashCode());
+        result = prime * result + maxUploadZipEntries;
+        result = prime * result + (int) (maxUploadZipEntryBytes ^ (maxUploadZipEntryBytes >>> 32));
+        result = prime * result + (int) (maxUploadZipTotalBytes ^ (maxUploadZipTotalBytes >>> 32));
+        result = prime * result + maxUploadZipCompressionRatio;
         return result;
     }
 
@@ -294,6 +360,14 @@ public class DynamoStudy implements Study {
                 return false;
         } else if (!profileAttributes.equals(other.profileAttributes))
             return false;
+        if (maxUploadZipEntries != other.maxUploadZipEntries)
+            return false;
+        if (maxUploadZipEntryBytes != other.maxUploadZipEntryBytes)
+            return false;
+        if (maxUploadZipTotalBytes != other.maxUploadZipTotalBytes)
+            return false;
+        if (maxUploadZipCompressionRatio != other.maxUploadZipCompressionRatio)
+            return false;
         return true;
     }
 
@@ -303,6 +377,8 @@ public class DynamoStudy implements Study {
             + ", stormpathHref=" + stormpathHref + ", minAgeOfConsent=" + minAgeOfConsent
             + ", maxNumOfParticipants=" + maxNumOfParticipants + ", supportEmail=" + supportEmail
             + ", consentNotificationEmail=" + consentNotificationEmail + ", version=" + version
-            + ", userProfileAttributes=" + profileAttributes + "]";
+            + ", userProfileAttributes=" + profileAttributes + ", maxUploadZipEntries=" + maxUploadZipEntries
+            + ", maxUploadZipEntryBytes=" + maxUploadZipEntryBytes + ", maxUploadZipTotalBytes="
+            + maxUploadZipTotalBytes + ", maxUploadZipCompressionRatio=" + maxUploadZipCompressionRatio + "]";
     }
 }
@@ -29,8 +29,10 @@ public class DynamoUpload2 implements Upload {
     private long contentLength;
     private String contentMd5;
     private String contentType;
+    private String duplicateUploadId;
     private String filename;
     private String healthCode;
+    private String healthCodeContentMd5;
     private UploadStatus status;
     private LocalDate uploadDate;
     private String uploadId;
@@ -47,6 +49,7 @@ public class DynamoUpload2 implements Upload {
         contentMd5 = uploadRequest.getContentMd5();
         filename = uploadRequest.getName();
         this.healthCode = healthCode;
+        healthCodeContentMd5 = makeHealthCodeContentMd5(healthCode, contentMd5);
         status = UploadStatus.REQUESTED;
         uploadId = BridgeUtils.generateGuid();
     }
@@ -90,6 +93,20 @@ public class DynamoUpload2 implements Upload {
         this.contentType = contentType;
     }
 
+    /**
+     * If this upload has the same content as an earlier upload from the same user, which was already validated, this
+     * is the upload ID of the earlier upload. The upload's data lives in the earlier upload's health data record. Null
+     * if this upload isn't a duplicate.
+     */
+    public String getDuplicateUploadId() {
+        return duplicateUploadId;
+    }
+
+    /** @see #getDuplicateUploadId */
+    public void setDuplicateUploadId(String duplicateUploadId) {
+        this.duplicateUploadId = duplicateUploadId;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String getFilename() {
@@ -113,6 +130,29 @@ public class DynamoUpload2 implements Upload {
         this.healthCode = healthCode;
     }
 
+    /**
+     * Health code and content MD5, in the form [healthCode]:[contentMd5]. This is indexed, so we can find earlier
+     * uploads of the same content from the same user. Null if the upload has no content MD5.
+     */
+    @DynamoDBIndexHashKey(attributeName = "healthCodeContentMd5",
+            globalSecondaryIndexName = "healthCodeContentMd5-index")
+    public String getHealthCodeContentMd5() {
+        return healthCodeContentMd5;
+    }
+
+    /** @see #getHealthCodeContentMd5 */
+    public void setHealthCodeContentMd5(String healthCodeContentMd5) {
+        this.healthCodeContentMd5 = healthCodeContentMd5;
+    }
+
+    /** Makes the index key for {@link #getHealthCodeContentMd5}, or returns null if either part is missing. */
+    public static String makeHealthCodeContentMd5(String healthCode, String contentMd5) {
+        if (healthCode == null || contentMd5 == null) {
+            return null;
+        }
+        return healthCode + ":" + contentMd5;
+    }
+
     /** {@inheritDoc} */
     @DynamoDBIgnore
     @Override
@@ -145,6 +185,35 @@ public class DynamoUpload2 implements Upload {
         this.uploadDate = uploadDate;
     }
 
+    /**
+     * Upload date and status, in the form [uploadDate]:[status], for example 2015-04-02:VALIDATION_FAILED. This is
+     * indexed, so we can find all uploads from a given day with a given status, for example to re-validate them after
+     * a schema fix. This is derived from the upload date and status, so it's always in sync with them. Null if the
+     * upload has no upload date, which means the upload was never completed.
+     */
+    @DynamoDBIndexHashKey(attributeName = "uploadDateStatus", globalSecondaryIndexName = "uploadDateStatus-index")
+    public String getUploadDateStatus() {
+        return makeUploadDateStatus(uploadDate, status);
+    }
+
+    /**
+     * This is derived from the upload date and status, so this setter does nothing. The setter is needed by the
+     * DynamoDB mapper.
+     *
+     * @see #getUploadDateStatus
+     */
+    public void setUploadDateStatus(String uploadDateStatus) {
+        // no-op
+    }
+
+    /** Makes the index key for {@link #getUploadDateStatus}, or returns null if either part is missing. */
+    public static String makeUploadDateStatus(LocalDate uploadDate, UploadStatus status) {
+        if (uploadDate == null || status == null) {
+            return null;
+        }
+        return uploadDate.toString() + ":" + status.name();
+    }
+
     /**
      * Unique ID for the upload. This is used both as a DynamoDB key and as an S3 filename. We generate a guid for the
      * S3 filename to avoid hotspots in S3 from poorly distributed filenames.
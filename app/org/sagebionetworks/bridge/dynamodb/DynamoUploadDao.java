@@ -6,9 +6,22 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.PaginationLoadingStrategy;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.google.common.collect.AbstractIterator;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTimeZone;
@@ -22,6 +35,15 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class DynamoUploadDao implements UploadDao {
+    // TODO: If we globalize Bridge, we'll need to make this timezone configurable.
+    private static final DateTimeZone UPLOAD_DATE_TIME_ZONE = DateTimeZone.forID("America/Los_Angeles");
+
+    /* package-scoped */ static final String CONTENT_MD5_INDEX_NAME = "healthCodeContentMd5-index";
+    /* package-scoped */ static final String UPLOAD_DATE_STATUS_INDEX_NAME = "uploadDateStatus-index";
+
+    // Number of index keys read per query page. This is also the most keys DynamoDB can batch load at once.
+    /* package-scoped */ static final int UPLOAD_DATE_STATUS_PAGE_SIZE = 100;
+
     // TODO: remove mapperOld once the migration is complete
     private DynamoDBMapper mapperOld;
     private DynamoDBMapper mapper;
@@ -90,9 +112,7 @@ public class DynamoUploadDao implements UploadDao {
         if (upload instanceof DynamoUpload2) {
             DynamoUpload2 upload2 = (DynamoUpload2) upload;
             upload2.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
-
-            // TODO: If we globalize Bridge, we'll need to make this timezone configurable.
-            upload2.setUploadDate(LocalDate.now(DateTimeZone.forID(("America/Los_Angeles"))));
+            upload2.setUploadDate(LocalDate.now(UPLOAD_DATE_TIME_ZONE));
             mapper.save(upload2);
         } else {
             DynamoUpload uploadOld = (DynamoUpload) upload;
@@ -101,6 +121,187 @@ public class DynamoUploadDao implements UploadDao {
         }
     }
 
+    /**
+     * Looks up the content MD5 index. Only DynamoUpload2 objects have a content MD5, so DynamoUpload objects never
+     * have duplicates. The index only projects keys, so this loads each match to check its status. Users rarely upload
+     * the same content more than a few times, so this is only a handful of loads.
+     *
+     * @see org.sagebionetworks.bridge.dao.UploadDao#getDuplicateUpload
+     */
+    @Override
+    public Upload getDuplicateUpload(@Nonnull Upload upload) {
+        if (!(upload instanceof DynamoUpload2)) {
+            return null;
+        }
+        String healthCodeContentMd5 = ((DynamoUpload2) upload).getHealthCodeContentMd5();
+        if (healthCodeContentMd5 == null) {
+            return null;
+        }
+
+        // Global secondary indices don't support consistent reads.
+        DynamoUpload2 hashKey = new DynamoUpload2();
+        hashKey.setHealthCodeContentMd5(healthCodeContentMd5);
+        DynamoDBQueryExpression<DynamoUpload2> query = new DynamoDBQueryExpression<DynamoUpload2>()
+                .withIndexName(CONTENT_MD5_INDEX_NAME).withHashKeyValues(hashKey).withConsistentRead(false);
+        List<DynamoUpload2> keyList = mapper.queryPage(DynamoUpload2.class, query).getResults();
+
+        for (DynamoUpload2 oneKey : keyList) {
+            if (oneKey.getUploadId().equals(upload.getUploadId())) {
+                continue;
+            }
+            DynamoUpload2 oneUpload = mapper.load(oneKey);
+            if (oneUpload != null && oneUpload.getStatus() == UploadStatus.SUCCEEDED) {
+                return oneUpload;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Only DynamoUpload2 objects can be duplicates, since only they have a content MD5 and a status. DynamoUpload
+     * objects will be ignored. If the original upload is itself a duplicate, this upload is linked to the same
+     * original, so duplicates always point to the upload that was actually validated.
+     *
+     * @see org.sagebionetworks.bridge.dao.UploadDao#markDuplicate
+     */
+    @Override
+    public void markDuplicate(@Nonnull Upload upload, @Nonnull Upload originalUpload) {
+        // only for DynamoUpload2
+        if (!(upload instanceof DynamoUpload2)) {
+            return;
+        }
+
+        String originalUploadId = originalUpload.getUploadId();
+        if (originalUpload instanceof DynamoUpload2) {
+            String originalDuplicateUploadId = ((DynamoUpload2) originalUpload).getDuplicateUploadId();
+            if (originalDuplicateUploadId != null) {
+                originalUploadId = originalDuplicateUploadId;
+            }
+        }
+
+        DynamoUpload2 upload2 = (DynamoUpload2) upload;
+        upload2.setDuplicateUploadId(originalUploadId);
+        upload2.setStatus(UploadStatus.SUCCEEDED);
+        upload2.setUploadDate(LocalDate.now(UPLOAD_DATE_TIME_ZONE));
+        mapper.save(upload2);
+    }
+
+    /**
+     * Queries the upload date and status index one page at a time, as the iterator advances, so callers can walk
+     * through thousands of uploads without holding them all in memory. The index only projects keys, so each page of
+     * keys is batch loaded from the table. Only DynamoUpload2 objects have an upload date and status, so DynamoUpload
+     * objects are never returned.
+     *
+     * @see org.sagebionetworks.bridge.dao.UploadDao#getUploadsForDateAndStatus
+     */
+    @Override
+    public Iterator<Upload> getUploadsForDateAndStatus(@Nonnull LocalDate uploadDate, @Nonnull UploadStatus status) {
+        checkNotNull(uploadDate, "Upload date is null");
+        checkNotNull(status, "Status is null");
+        return new UploadDateStatusIterator(uploadDate, status);
+    }
+
+    // Iterates over the upload date and status index, loading the next page when the current page runs out.
+    private class UploadDateStatusIterator extends AbstractIterator<Upload> {
+        private final UploadStatus status;
+        private final DynamoUpload2 hashKey = new DynamoUpload2();
+        private Iterator<DynamoUpload2> pageIter = Collections.emptyIterator();
+        private Map<String, AttributeValue> lastEvaluatedKey;
+        private boolean lastPage = false;
+
+        UploadDateStatusIterator(LocalDate uploadDate, UploadStatus status) {
+            this.status = status;
+            hashKey.setUploadDate(uploadDate);
+            hashKey.setStatus(status);
+        }
+
+        @Override
+        protected Upload computeNext() {
+            while (true) {
+                while (pageIter.hasNext()) {
+                    // Global secondary indices are eventually consistent, so the upload may have changed status
+                    // since it was indexed.
+                    DynamoUpload2 oneUpload = pageIter.next();
+                    if (oneUpload.getStatus() == status) {
+                        return oneUpload;
+                    }
+                }
+                if (lastPage) {
+                    return endOfData();
+                }
+                pageIter = loadPage().iterator();
+            }
+        }
+
+        private List<DynamoUpload2> loadPage() {
+            // Global secondary indices don't support consistent reads.
+            DynamoDBQueryExpression<DynamoUpload2> query = new DynamoDBQueryExpression<DynamoUpload2>()
+                    .withIndexName(UPLOAD_DATE_STATUS_INDEX_NAME).withHashKeyValues(hashKey)
+                    .withConsistentRead(false).withLimit(UPLOAD_DATE_STATUS_PAGE_SIZE)
+                    .withExclusiveStartKey(lastEvaluatedKey);
+            QueryResultPage<DynamoUpload2> resultPage = mapper.queryPage(DynamoUpload2.class, query);
+            lastEvaluatedKey = resultPage.getLastEvaluatedKey();
+            lastPage = lastEvaluatedKey == null;
+
+            List<DynamoUpload2> keyList = resultPage.getResults();
+            if (keyList.isEmpty()) {
+                return keyList;
+            }
+            return batchLoad(keyList);
+        }
+    }
+
+    // For some reason, batchLoad() takes a List<Object> and returns a map of table names to lists of objects. There's
+    // only one table here, so flatten the map.
+    @SuppressWarnings("unchecked")
+    private List<DynamoUpload2> batchLoad(List<DynamoUpload2> keyList) {
+        Map<String, List<Object>> resultMap = mapper.batchLoad((List<Object>) (List<?>) keyList);
+        List<DynamoUpload2> uploadList = new ArrayList<>();
+        for (List<Object> oneResultList : resultMap.values()) {
+            for (Object oneResult : oneResultList) {
+                uploadList.add((DynamoUpload2) oneResult);
+            }
+        }
+        return uploadList;
+    }
+
+    /**
+     * Scans the upload table for uploads with the given status and an upload date, but no upload date and status
+     * attribute. The scan is iteration-only, so pages aren't kept in memory once the iterator moves past them. Only
+     * DynamoUpload2 objects have an upload date and status, so DynamoUpload objects are never returned.
+     *
+     * @see org.sagebionetworks.bridge.dao.UploadDao#getUploadsMissingUploadDateStatus
+     */
+    @Override
+    public Iterator<Upload> getUploadsMissingUploadDateStatus(@Nonnull UploadStatus status) {
+        checkNotNull(status, "Status is null");
+
+        DynamoDBScanExpression scan = new DynamoDBScanExpression();
+        scan.addFilterCondition("status", new Condition().withComparisonOperator(ComparisonOperator.EQ)
+                .withAttributeValueList(new AttributeValue().withS(status.name())));
+        scan.addFilterCondition("uploadDate", new Condition().withComparisonOperator(ComparisonOperator.NOT_NULL));
+        scan.addFilterCondition("uploadDateStatus", new Condition().withComparisonOperator(ComparisonOperator.NULL));
+
+        List<DynamoUpload2> uploadList = mapper.scan(DynamoUpload2.class, scan,
+                new DynamoDBMapperConfig(PaginationLoadingStrategy.ITERATION_ONLY));
+        return Collections.<Upload>unmodifiableList(uploadList).iterator();
+    }
+
+    /**
+     * The upload date and status attribute is derived from the upload date and status, so saving a DynamoUpload2
+     * writes it. DynamoUpload objects aren't indexed and will be ignored.
+     *
+     * @see org.sagebionetworks.bridge.dao.UploadDao#backfillUploadDateStatus
+     */
+    @Override
+    public void backfillUploadDateStatus(@Nonnull Upload upload) {
+        // only for DynamoUpload2
+        if (!(upload instanceof DynamoUpload2)) {
+            return;
+        }
+        mapper.save((DynamoUpload2) upload);
+    }
+
     /**
      * Writes validation status and appends messages to Dynamo DB. Only DynamoUpload2 objects can have status and
      * validation. DynamoUpload objects will be ignored.
@@ -0,0 +1,26 @@
+package org.sagebionetworks.bridge.exceptions;
+
+/**
+ * Thrown when an upload archive exceeds one of its unzip limits, such as the maximum number of entries or the maximum
+ * inflated size. See {@link org.sagebionetworks.bridge.models.upload.UploadArchiveLimits}.
+ */
+@SuppressWarnings("serial")
+public class UploadArchiveLimitException extends BadRequestException {
+    private final String limitName;
+
+    /**
+     * @param limitName
+     *         name of the limit that was exceeded, one of the LIMIT_ constants in UploadArchiveLimits
+     * @param message
+     *         exception message
+     */
+    public UploadArchiveLimitException(String limitName, String message) {
+        super(message);
+        this.limitName = limitName;
+    }
+
+    /** Name of the limit that was exceeded, one of the LIMIT_ constants in UploadArchiveLimits. */
+    public String getLimitName() {
+        return limitName;
+    }
+}
@@ -2,6 +2,8 @@ package org.sagebionetworks.bridge.json;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 
@@ -20,6 +22,7 @@ import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
 import com.fasterxml.jackson.databind.ser.impl.ObjectIdWriter;
 import com.fasterxml.jackson.databind.ser.std.BeanSerializerBase;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.base.Optional;
 
 /**
  * Use this version of the ObjectMapper in preference to its parent class. This version
@@ -32,6 +35,10 @@ import com.fasterxml.jackson.datatype.joda.JodaModule;
 public class BridgeObjectMapper extends ObjectMapper {
     
     private static final BridgeObjectMapper INSTANCE = new BridgeObjectMapper();
+
+    // The "type" property to add for each class, or absent if the class has its own getType() method or no type name.
+    // Looking this up reflects over every method of the class, so only do it once per class.
+    private static final ConcurrentMap<Class<?>, Optional<String>> EXTRA_TYPE_NAMES = new ConcurrentHashMap<>();
     
     public static final BridgeObjectMapper get() {
         return INSTANCE;
@@ -84,11 +91,9 @@ public class BridgeObjectMapper extends ObjectMapper {
             jgen.writeStartObject();
             serializeFields(bean, jgen, provider);
             // We only want to do this if there is not a getType() method
-            if (noTypeProperty(bean)) {
-                String typeName = BridgeUtils.getTypeName(bean.getClass());
-                if (typeName != null) {
-                    jgen.writeStringField("type", typeName);    
-                }
+            Optional<String> typeName = getExtraTypeName(bean.getClass());
+            if (typeName.isPresent()) {
+                jgen.writeStringField("type", typeName.get());
             }
             jgen.writeEndObject();
         }
@@ -96,8 +101,17 @@ public class BridgeObjectMapper extends ObjectMapper {
         protected BeanSerializerBase asArraySerializer() {
             return this;
         }
-        private boolean noTypeProperty(Object bean) {
-            for (Method method : bean.getClass().getMethods()) {
+        private Optional<String> getExtraTypeName(Class<?> clazz) {
+            Optional<String> typeName = EXTRA_TYPE_NAMES.get(clazz);
+            if (typeName == null) {
+                typeName = noTypeProperty(clazz) ? Optional.fromNullable(BridgeUtils.getTypeName(clazz))
+                        : Optional.<String>absent();
+                EXTRA_TYPE_NAMES.putIfAbsent(clazz, typeName);
+            }
+            return typeName;
+        }
+        private boolean noTypeProperty(Class<?> clazz) {
+            for (Method method : clazz.getMethods()) {
                 if ("getType".equals(method.getName())) {
                     return false;
                 }
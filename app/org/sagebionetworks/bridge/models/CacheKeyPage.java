@@ -0,0 +1,29 @@
+package org.sagebionetworks.bridge.models;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * One page of cache keys. To get the next page, pass the next cursor back in. The next cursor is null after the last
+ * page. A page may be empty even when there are more pages.
+ */
+public final class CacheKeyPage {
+    private final List<String> items;
+    private final String nextCursor;
+
+    public CacheKeyPage(List<String> items, String nextCursor) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextCursor = nextCursor;
+    }
+
+    /** Keys in this page. */
+    public List<String> getItems() {
+        return items;
+    }
+
+    /** Cursor for the next page, or null if this is the last page. */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -47,4 +47,16 @@ public class StudyInfo {
     public Set<String> getUserProfileAttributes() {
         return study.getUserProfileAttributes();
     }
+    public int getMaxUploadZipEntries() {
+        return study.getMaxUploadZipEntries();
+    }
+    public long getMaxUploadZipEntryBytes() {
+        return study.getMaxUploadZipEntryBytes();
+    }
+    public long getMaxUploadZipTotalBytes() {
+        return study.getMaxUploadZipTotalBytes();
+    }
+    public int getMaxUploadZipCompressionRatio() {
+        return study.getMaxUploadZipCompressionRatio();
+    }
 }
@@ -37,4 +37,20 @@ public interface Study extends BridgeEntity, StudyIdentifier {
     
     public Set<String> getUserProfileAttributes();
     public void setUserProfileAttributes(Set<String> attributes);
+
+    /**
+     * Limits on unzipping this study's uploads. Zero means the server default applies. See
+     * {@link org.sagebionetworks.bridge.models.upload.UploadArchiveLimits}.
+     */
+    public int getMaxUploadZipEntries();
+    public void setMaxUploadZipEntries(int maxEntries);
+
+    public long getMaxUploadZipEntryBytes();
+    public void setMaxUploadZipEntryBytes(long maxEntryBytes);
+
+    public long getMaxUploadZipTotalBytes();
+    public void setMaxUploadZipTotalBytes(long maxTotalBytes);
+
+    public int getMaxUploadZipCompressionRatio();
+    public void setMaxUploadZipCompressionRatio(int maxCompressionRatio);
 }
@@ -0,0 +1,70 @@
+package org.sagebionetworks.bridge.models.upload;
+
+/**
+ * Limits on unzipping an upload archive. These protect upload validation from zip bombs and other oversized archives.
+ * They're enforced while the archive is unzipped, so an oversized archive fails as soon as it crosses a limit, rather
+ * than after it's been fully inflated. See
+ * {@link org.sagebionetworks.bridge.services.UploadArchiveService#unzip(java.io.InputStream, long, UploadArchiveLimits)}.
+ */
+public final class UploadArchiveLimits {
+    /** Limit name for the number of entries in the archive. */
+    public static final String LIMIT_ENTRIES = "entries";
+
+    /** Limit name for the inflated size of a single entry. */
+    public static final String LIMIT_ENTRY_BYTES = "entryBytes";
+
+    /** Limit name for the inflated size of all entries. */
+    public static final String LIMIT_TOTAL_BYTES = "totalBytes";
+
+    /** Limit name for the ratio of inflated bytes to compressed bytes. */
+    public static final String LIMIT_COMPRESSION_RATIO = "compressionRatio";
+
+    private final int maxEntries;
+    private final long maxEntryBytes;
+    private final long maxTotalBytes;
+    private final int maxCompressionRatio;
+
+    /**
+     * @param maxEntries
+     *         maximum number of entries in the archive, including directories
+     * @param maxEntryBytes
+     *         maximum inflated size of a single entry, in bytes
+     * @param maxTotalBytes
+     *         maximum inflated size of all entries, in bytes
+     * @param maxCompressionRatio
+     *         maximum ratio of inflated bytes to compressed bytes, across the whole archive
+     */
+    public UploadArchiveLimits(int maxEntries, long maxEntryBytes, long maxTotalBytes, int maxCompressionRatio) {
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxCompressionRatio = maxCompressionRatio;
+    }
+
+    /** Maximum number of entries in the archive, including directories. */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** Maximum inflated size of a single entry, in bytes. */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /** Maximum inflated size of all entries, in bytes. */
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /** Maximum ratio of inflated bytes to compressed bytes, across the whole archive. */
+    public int getMaxCompressionRatio() {
+        return maxCompressionRatio;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "UploadArchiveLimits [maxEntries=" + maxEntries + ", maxEntryBytes=" + maxEntryBytes
+                + ", maxTotalBytes=" + maxTotalBytes + ", maxCompressionRatio=" + maxCompressionRatio + "]";
+    }
+}
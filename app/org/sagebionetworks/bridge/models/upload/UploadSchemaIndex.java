@@ -0,0 +1,156 @@
+package org.sagebionetworks.bridge.models.upload;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+/**
+ * <p>
+ * Immutable snapshot of all revisions of all upload schemas in a study, with lookups precomputed for upload
+ * validation: the latest revision of each schema by schema ID and by name, the set of field names in each schema, and
+ * an inverted index from field name to the schemas containing that field.
+ * </p>
+ * <p>
+ * Field name sets are keyed by schema ID and revision, and are only available for schemas in this index.
+ * </p>
+ * <p>
+ * The inverted index is used to find schemas that could match a set of JSON keys. A schema can only match if it has
+ * every key as a field, so the candidates are the schemas in the smallest posting list that contain all the keys.
+ * (An exact lookup on a fingerprint of the sorted key set isn't enough, since uploads may leave out optional fields.)
+ * </p>
+ */
+public class UploadSchemaIndex {
+    private static final Ordering<UploadSchema> REVISION_DESC_ORDERING = new Ordering<UploadSchema>() {
+        @Override
+        public int compare(UploadSchema left, UploadSchema right) {
+            return Integer.compare(right.getRevision(), left.getRevision());
+        }
+    };
+
+    private final List<UploadSchema> schemaList;
+    private final Map<String, UploadSchema> latestSchemaById;
+    private final Map<String, UploadSchema> latestSchemaByName;
+    private final Map<String, Set<String>> fieldNameSetBySchemaKey;
+    private final ImmutableListMultimap<String, UploadSchema> schemasByFieldName;
+    private final List<UploadSchema> schemasByRevisionDesc;
+
+    /**
+     * Builds an index from the given schemas.
+     *
+     * @param schemaList
+     *         all revisions of all schemas in the study, must be non-null
+     */
+    public UploadSchemaIndex(@Nonnull List<UploadSchema> schemaList) {
+        Map<String, UploadSchema> latestSchemaById = new HashMap<>();
+        Map<String, UploadSchema> latestSchemaByName = new HashMap<>();
+        ImmutableMap.Builder<String, Set<String>> fieldNameSetBySchemaKey = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<String, UploadSchema> schemasByFieldName = ImmutableListMultimap.builder();
+
+        // Sort by revision, newest first, so candidate lists are in the order upload validation wants to try them.
+        // The sort is stable, so schemas with the same revision stay in their original order.
+        List<UploadSchema> schemasByRevisionDesc = REVISION_DESC_ORDERING.sortedCopy(schemaList);
+        for (UploadSchema oneSchema : schemasByRevisionDesc) {
+            putIfNewer(latestSchemaById, oneSchema.getSchemaId(), oneSchema);
+            putIfNewer(latestSchemaByName, oneSchema.getName(), oneSchema);
+
+            ImmutableSet.Builder<String> fieldNameSetBuilder = ImmutableSet.builder();
+            for (UploadFieldDefinition oneFieldDef : oneSchema.getFieldDefinitions()) {
+                fieldNameSetBuilder.add(oneFieldDef.getName());
+            }
+            Set<String> fieldNameSet = fieldNameSetBuilder.build();
+            fieldNameSetBySchemaKey.put(getSchemaKey(oneSchema), fieldNameSet);
+            for (String oneFieldName : fieldNameSet) {
+                schemasByFieldName.put(oneFieldName, oneSchema);
+            }
+        }
+
+        this.schemaList = ImmutableList.copyOf(schemaList);
+        this.latestSchemaById = ImmutableMap.copyOf(latestSchemaById);
+        this.latestSchemaByName = ImmutableMap.copyOf(latestSchemaByName);
+        this.fieldNameSetBySchemaKey = fieldNameSetBySchemaKey.build();
+        this.schemasByFieldName = schemasByFieldName.build();
+        this.schemasByRevisionDesc = ImmutableList.copyOf(schemasByRevisionDesc);
+    }
+
+    /** All revisions of all schemas in the study. */
+    public List<UploadSchema> getSchemaList() {
+        return schemaList;
+    }
+
+    /** Latest revision of the schema with the given schema ID, or null if there is no such schema. */
+    public UploadSchema getLatestSchemaById(String schemaId) {
+        return latestSchemaById.get(schemaId);
+    }
+
+    /** Latest revision of the schema with the given name, or null if there is no such schema. */
+    public UploadSchema getLatestSchemaByName(String name) {
+        return latestSchemaByName.get(name);
+    }
+
+    /**
+     * Names of the fields in the given schema.
+     *
+     * @param schema
+     *         schema from this index
+     * @return set of field names, or null if the schema isn't in this index
+     */
+    public Set<String> getFieldNameSet(@Nonnull UploadSchema schema) {
+        return fieldNameSetBySchemaKey.get(getSchemaKey(schema));
+    }
+
+    /**
+     * Finds schemas that have a field for every one of the given keys. These are the only schemas that could match
+     * JSON data with these keys. Field types and required fields aren't checked.
+     *
+     * @param keySet
+     *         keys in the JSON data
+     * @return candidate schemas, sorted by revision, newest first, empty if there are none
+     */
+    public List<UploadSchema> getCandidateSchemas(@Nonnull Set<String> keySet) {
+        if (keySet.isEmpty()) {
+            // vacuously, every schema has all the keys
+            return schemasByRevisionDesc;
+        }
+
+        // Start with the smallest posting list. Any key without a posting list means no schema can match.
+        List<UploadSchema> smallestList = null;
+        for (String oneKey : keySet) {
+            List<UploadSchema> postingList = schemasByFieldName.get(oneKey);
+            if (postingList.isEmpty()) {
+                return ImmutableList.of();
+            }
+            if (smallestList == null || postingList.size() < smallestList.size()) {
+                smallestList = postingList;
+            }
+        }
+
+        ImmutableList.Builder<UploadSchema> candidateList = ImmutableList.builder();
+        for (UploadSchema oneSchema : smallestList) {
+            if (getFieldNameSet(oneSchema).containsAll(keySet)) {
+                candidateList.add(oneSchema);
+            }
+        }
+        return candidateList.build();
+    }
+
+    // Keeps the schema with the highest revision for each key. Revisions are unique per schema ID, but names aren't
+    // guaranteed to be unique, in which case this keeps the highest revision across schemas with the same name.
+    private static void putIfNewer(Map<String, UploadSchema> map, String key, UploadSchema schema) {
+        UploadSchema existing = map.get(key);
+        if (existing == null || schema.getRevision() > existing.getRevision()) {
+            map.put(key, schema);
+        }
+    }
+
+    private static String getSchemaKey(UploadSchema schema) {
+        return schema.getSchemaId() + ":" + schema.getRevision();
+    }
+}
@@ -0,0 +1,120 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Compresses values with deflate, in zlib format, which includes a checksum. JSON compresses well, since the same
+ * field names repeat throughout. Values shorter than the minimum size are stored as plain UTF-8, since they don't
+ * compress enough to be worth the CPU, and can still be read by servers that don't know about codecs.
+ * </p>
+ * <p>
+ * Deflaters and inflaters hold native buffers that are expensive to create, so each thread reuses its own.
+ * </p>
+ */
+public class DeflateRedisCodec implements RedisCodec {
+    public static final String NAME = "deflate";
+
+    /** Codec ID written in the header. Never reuse this for a different format. */
+    static final byte ID = 1;
+
+    /** Values shorter than this many bytes are stored plain. */
+    static final int DEFAULT_MIN_SIZE = 128;
+
+    // Compression level. JSON compresses nearly as well at the fastest level as at the default level.
+    private static final int LEVEL = Deflater.BEST_SPEED;
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(LEVEL);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final int minSize;
+
+    public DeflateRedisCodec() {
+        this(DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * @param minSize
+     *         values shorter than this many bytes (in UTF-8) are stored plain, must not be negative
+     */
+    public DeflateRedisCodec(int minSize) {
+        checkArgument(minSize >= 0, "minSize must not be negative");
+        this.minSize = minSize;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(String value) {
+        checkNotNull(value);
+        byte[] plain = value.getBytes(StandardCharsets.UTF_8);
+        if (plain.length < minSize) {
+            return plain;
+        }
+
+        Deflater deflater = DEFLATER.get();
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            // Deflate output is almost always smaller than the input, so this rarely needs to grow.
+            byte[] output = new byte[HEADER_LENGTH + plain.length + 16];
+            output[0] = HEADER_MARKER;
+            output[1] = ID;
+            int length = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    // Decodes a value written by encode(), starting after the header. Called by RedisCodecs.decode().
+    static String decode(byte[] bytes) {
+        Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            byte[] output = new byte[Math.max(64, bytes.length * 4)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int count = inflater.inflate(output, length, output.length - length);
+                if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Deflated Redis value is truncated");
+                }
+                length += count;
+            }
+            return new String(output, 0, length, StandardCharsets.UTF_8);
+        } catch (DataFormatException ex) {
+            throw new IllegalArgumentException("Deflated Redis value is corrupt", ex);
+        } finally {
+            inflater.reset();
+        }
+    }
+}
@@ -1,24 +1,68 @@
 package org.sagebionetworks.bridge.redis;
 
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+/**
+ * <p>
+ * Redis commands, each run on a connection borrowed from the pool. If Redis is unavailable, commands return null.
+ * </p>
+ * <p>
+ * Each method is one round trip to Redis, except clearRedis(). To run several commands in one round trip, use the
+ * multi-key methods, or {@link #pipelined} with a {@link PipelineCallback}. Round trips are counted by
+ * {@link RedisRoundTripCounter}.
+ * </p>
+ */
 @Component
 public class JedisStringOps {
 
+    /**
+     * Queues commands on a pipeline. Commands on a pipeline return {@link Response}s, which can be read once
+     * pipelined() returns true.
+     */
+    public interface PipelineCallback {
+        void execute(Pipeline pipeline);
+    }
+
+    /**
+     * Number of keys each SCAN call looks at, from the redis.scan.count config setting. Each call blocks Redis for
+     * about as long as it takes to look at this many keys.
+     */
+    public static final int SCAN_COUNT = BridgeConfigFactory.getConfig().getPropertyAsInt("redis.scan.count");
+
     private JedisPool jedisPool;
+    private int scanCount = SCAN_COUNT;
+    private RedisCodec codec = RedisCodecs.forName(BridgeConfigFactory.getConfig().getProperty("redis.value.codec"));
     
     @Autowired
     public void setJedisPool(JedisPool jedisPool) {
         this.jedisPool = jedisPool;
     }
 
+    /** Number of keys each SCAN call looks at. Defaults to SCAN_COUNT. Exposed for unit tests. */
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    /** Codec used by setexEncoded(). Defaults to the redis.value.codec config setting. Exposed for unit tests. */
+    public void setCodec(RedisCodec codec) {
+        this.codec = codec;
+    }
+
     /**
      * The specified key will expire after seconds.
      *
@@ -58,6 +102,27 @@ public class JedisStringOps {
         }.execute();
     }
 
+    /**
+     * Like setex(), but encodes the value with the configured {@link RedisCodec}, which may compress it. Values
+     * written with this must be read with getDecoded(), and can't be used as counters.
+     *
+     * @param key
+     *            key of the key-value pair.
+     * @param seconds
+     *            number of seconds until expiration.
+     * @param value
+     *            value of the key-value pair.
+     */
+    public String setexEncoded(final String key, final int seconds, final String value) {
+        final byte[] encoded = codec.encode(value);
+        return new AbstractJedisTemplate<String>() {
+            @Override
+            String execute(Jedis jedis) {
+                return jedis.setex(key.getBytes(StandardCharsets.UTF_8), seconds, encoded);
+            }
+        }.execute();
+    }
+
     /**
      * Sets the value of the key if and only if the key does not already have a
      * value.
@@ -91,6 +156,114 @@ public class JedisStringOps {
         }.execute();
     }
 
+    /**
+     * Gets the value of the specified key, decoding values written by setexEncoded() with any codec, as well as plain
+     * values. If the key does not exist null is returned.
+     */
+    public String getDecoded(final String key) {
+        byte[] bytes = new AbstractJedisTemplate<byte[]>() {
+            @Override
+            byte[] execute(Jedis jedis) {
+                return jedis.get(key.getBytes(StandardCharsets.UTF_8));
+            }
+        }.execute();
+        return RedisCodecs.decode(bytes);
+    }
+
+    /**
+     * Gets the value of the specified key, like getDecoded(), and in the same round trip makes the key expire after
+     * the specified seconds, if it exists.
+     *
+     * @param key
+     *            key of the key-value pair.
+     * @param seconds
+     *            number of seconds until expiration.
+     * @return the value, or null if the key does not exist or Redis is unavailable
+     */
+    public String getDecodedAndExpire(final String key, final int seconds) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final AtomicReference<Response<byte[]>> response = new AtomicReference<>();
+        boolean executed = pipelined(new PipelineCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                response.set(pipeline.get(keyBytes));
+                pipeline.expire(keyBytes, seconds);
+            }
+        });
+        return executed ? RedisCodecs.decode(response.get().get()) : null;
+    }
+
+    /**
+     * Gets the values of all the specified keys in one round trip.
+     *
+     * @param keys
+     *            keys to get.
+     * @return values in the same order as the keys, with null for keys that do not exist, or null if Redis is
+     *         unavailable
+     */
+    public List<String> mget(final String... keys) {
+        return new AbstractJedisTemplate<List<String>>() {
+            @Override
+            List<String> execute(Jedis jedis) {
+                return jedis.mget(keys);
+            }
+        }.execute();
+    }
+
+    /**
+     * Sets all the values, each of which expires after the specified seconds, in one round trip. Redis has no
+     * multi-key SETEX, so this pipelines one SETEX per key. The values are not set atomically.
+     *
+     * @param values
+     *            map of keys to values.
+     * @param seconds
+     *            number of seconds until expiration.
+     * @return the number of values set, or null if Redis is unavailable
+     */
+    public Long msetex(final Map<String, String> values, final int seconds) {
+        final Response<?>[] responses = new Response<?>[values.size()];
+        boolean executed = pipelined(new PipelineCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                int i = 0;
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    responses[i++] = pipeline.setex(entry.getKey(), seconds, entry.getValue());
+                }
+            }
+        });
+        if (!executed) {
+            return null;
+        }
+        long count = 0;
+        for (Response<?> response : responses) {
+            if ("OK".equals(response.get())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs the commands queued by the callback in one round trip. Once this returns true, the {@link Response}s
+     * returned by the pipeline's commands can be read.
+     *
+     * @param callback
+     *            queues the commands to run.
+     * @return true if the commands were run, false if Redis is unavailable
+     */
+    public boolean pipelined(final PipelineCallback callback) {
+        Boolean executed = new AbstractJedisTemplate<Boolean>() {
+            @Override
+            Boolean execute(Jedis jedis) {
+                Pipeline pipeline = jedis.pipelined();
+                callback.execute(pipeline);
+                pipeline.sync();
+                return Boolean.TRUE;
+            }
+        }.execute();
+        return executed != null;
+    }
+
     /**
      * Deletes the value of the specified key.
      *
@@ -125,15 +298,36 @@ public class JedisStringOps {
         }.execute();
     }
 
+    /**
+     * Deletes all keys matching the pattern. Keys are found with SCAN, a page at a time, rather than KEYS, which blocks
+     * Redis until it has looked at every key. Each page of keys is deleted with a single DEL. Keys added while this
+     * runs may not be deleted.
+     *
+     * @param keyPattern
+     *            glob-style pattern of the keys to delete.
+     * @return the number of keys deleted, or null if Redis is unavailable
+     */
     public Long clearRedis(final String keyPattern) {
         return new AbstractJedisTemplate<Long>() {
             @Override
             Long execute(Jedis jedis) {
-                Set<String> keys = jedis.keys(keyPattern);
-                for (String key : keys) {
-                    jedis.del(key);
-                }
-                return new Long(keys.size());
+                ScanParams params = new ScanParams().match(keyPattern).count(scanCount);
+                String cursor = ScanParams.SCAN_POINTER_START;
+                long deleted = 0;
+                int roundTrips = 0;
+                do {
+                    ScanResult<String> result = jedis.scan(cursor, params);
+                    roundTrips++;
+                    List<String> keys = result.getResult();
+                    if (!keys.isEmpty()) {
+                        deleted += jedis.del(keys.toArray(new String[keys.size()]));
+                        roundTrips++;
+                    }
+                    cursor = result.getStringCursor();
+                } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+                // The template counts one.
+                RedisRoundTripCounter.add(roundTrips - 1);
+                return deleted;
             }
         }.execute();
     }
@@ -166,10 +360,123 @@ public class JedisStringOps {
         }.execute();
     }
 
+    /**
+     * Pushes the value onto the head of the list.
+     *
+     * @param key
+     *            key of the list.
+     * @param value
+     *            value to push.
+     * @return the length of the list after the push, or null if Redis is unavailable
+     */
+    public Long lpush(final String key, final String value) {
+        return new AbstractJedisTemplate<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return jedis.lpush(key, value);
+            }
+        }.execute();
+    }
+
+    /**
+     * Atomically pops the value from the tail of the source list and pushes it onto the head of the destination list.
+     *
+     * @param sourceKey
+     *            key of the list to pop from.
+     * @param destKey
+     *            key of the list to push to.
+     * @return the value moved, or null if the source list is empty
+     */
+    public String rpoplpush(final String sourceKey, final String destKey) {
+        return new AbstractJedisTemplate<String>() {
+            @Override
+            String execute(Jedis jedis) {
+                return jedis.rpoplpush(sourceKey, destKey);
+            }
+        }.execute();
+    }
+
+    /**
+     * Removes all occurrences of the value from the list.
+     *
+     * @param key
+     *            key of the list.
+     * @param value
+     *            value to remove.
+     * @return the number of values removed
+     */
+    public Long lrem(final String key, final String value) {
+        return new AbstractJedisTemplate<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return jedis.lrem(key, 0, value);
+            }
+        }.execute();
+    }
+
+    /**
+     * Gets all values in the list, from head to tail.
+     *
+     * @param key
+     *            key of the list.
+     * @return values in the list, empty if the list doesn't exist
+     */
+    public List<String> lrange(final String key) {
+        return new AbstractJedisTemplate<List<String>>() {
+            @Override
+            List<String> execute(Jedis jedis) {
+                return jedis.lrange(key, 0, -1);
+            }
+        }.execute();
+    }
+
+    /**
+     * Runs a Lua script. Redis runs scripts atomically, so a script can read and write keys without any other command
+     * running in between.
+     *
+     * @param script
+     *            Lua script.
+     * @param keys
+     *            keys the script uses, available to the script as KEYS.
+     * @param args
+     *            other arguments, available to the script as ARGV.
+     * @return the script's result: Long for integers, String for strings, null for nil or false. Null if Redis is
+     *         unavailable.
+     */
+    public Object eval(final String script, final List<String> keys, final List<String> args) {
+        return new AbstractJedisTemplate<Object>() {
+            @Override
+            Object execute(Jedis jedis) {
+                return jedis.eval(script, keys, args);
+            }
+        }.execute();
+    }
+
+    /**
+     * Publishes the message to all subscribers of the channel.
+     *
+     * @param channel
+     *            channel to publish to.
+     * @param message
+     *            message to publish.
+     * @return the number of subscribers that received the message, or null if Redis is unavailable
+     */
+    public Long publish(final String channel, final String message) {
+        return new AbstractJedisTemplate<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return jedis.publish(channel, message);
+            }
+        }.execute();
+    }
+
     private abstract class AbstractJedisTemplate<T> {
         public T execute() {
-            Jedis jedis = jedisPool.getResource();
+            RedisRoundTripCounter.add(1);
+            Jedis jedis = null;
             try {
+                // Throws JedisConnectionException if Redis can't be reached or the pool is exhausted.
+                jedis = jedisPool.getResource();
                 return execute(jedis);
             } catch (JedisConnectionException e) {
                 if (jedis != null) {
@@ -0,0 +1,21 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+
+/** Stores values as plain UTF-8, with no header. Every version of the server can read these values. */
+public class PlainRedisCodec implements RedisCodec {
+    public static final String NAME = "plain";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(String value) {
+        checkNotNull(value);
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -33,7 +33,7 @@ public class RedisCache implements Cache {
         String redisKey = String.format(KEY_PATTERN, clazz.getName(), key);
 
         try {
-            String json = stringOps.get(redisKey);
+            String json = stringOps.getDecoded(redisKey);
             if (json != null) {
                 return BridgeObjectMapper.get().readValue(json, clazz);
             } else {
@@ -50,7 +50,7 @@ public class RedisCache implements Cache {
         String redisKey = String.format(LIST_KEY_PATTERN, clazz.getName(), key);
 
         try {
-            String json = stringOps.get(redisKey);
+            String json = stringOps.getDecoded(redisKey);
             if (json == null) {
                 return null;
             }
@@ -89,7 +89,7 @@ public class RedisCache implements Cache {
     private <T> void putInternal(String internalKey, T value, int ttlSeconds) {
         try {
             String json = BridgeObjectMapper.get().writeValueAsString(value);
-            String result = stringOps.setex(internalKey, ttlSeconds, json);
+            String result = stringOps.setexEncoded(internalKey, ttlSeconds, json);
             if (!"OK".equals(result)) {
                 logger.error(String.format("Error putting redis object for key %s, result code %s", internalKey, result));
             }
@@ -0,0 +1,38 @@
+package org.sagebionetworks.bridge.redis;
+
+/**
+ * <p>
+ * Encodes string values into the bytes stored in Redis. Values are stored in one of two forms:
+ * </p>
+ * <ul>
+ * <li>plain UTF-8, with no header, which is how all values were stored before codecs</li>
+ * <li>a two-byte header, {@link #HEADER_MARKER} followed by the codec ID, and then the codec's encoding of the
+ * value</li>
+ * </ul>
+ * <p>
+ * Values are always decoded with {@link RedisCodecs#decode}, which reads both forms whichever codec is configured for
+ * writing. To roll out a new codec, first deploy code that can decode it everywhere, then switch writes over.
+ * </p>
+ */
+public interface RedisCodec {
+    /**
+     * First byte of a value with a codec header. The values we store are JSON or other text, and never start with a
+     * NUL character, so this can't be mistaken for the start of a plain value.
+     */
+    byte HEADER_MARKER = 0;
+
+    /** Length of the codec header, in bytes. */
+    int HEADER_LENGTH = 2;
+
+    /** Name of the codec, as used in the redis.value.codec config setting. */
+    String getName();
+
+    /**
+     * Encodes the value for storage in Redis.
+     *
+     * @param value
+     *         value to encode, must be non-null
+     * @return encoded value, either plain UTF-8 or starting with a codec header
+     */
+    byte[] encode(String value);
+}
@@ -0,0 +1,49 @@
+package org.sagebionetworks.bridge.redis;
+
+import java.nio.charset.StandardCharsets;
+
+/** Looks up codecs by name, and decodes values written by any codec. */
+public final class RedisCodecs {
+    private RedisCodecs() {
+    }
+
+    /**
+     * Returns the codec with the given name, as used in the redis.value.codec config setting.
+     *
+     * @throws IllegalArgumentException
+     *         if there is no codec with that name
+     */
+    public static RedisCodec forName(String name) {
+        if (PlainRedisCodec.NAME.equals(name)) {
+            return new PlainRedisCodec();
+        } else if (DeflateRedisCodec.NAME.equals(name)) {
+            return new DeflateRedisCodec();
+        }
+        throw new IllegalArgumentException("Unknown Redis codec: " + name);
+    }
+
+    /**
+     * Decodes a value read from Redis. Values with no codec header are plain UTF-8. This doesn't depend on which codec
+     * is configured for writing, so values written by any version of the server can be read.
+     *
+     * @param bytes
+     *         value from Redis, may be null
+     * @return decoded value, or null if bytes is null
+     * @throws IllegalArgumentException
+     *         if the value has an unknown codec ID or can't be decoded
+     */
+    public static String decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length < RedisCodec.HEADER_LENGTH || bytes[0] != RedisCodec.HEADER_MARKER) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        switch (bytes[1]) {
+            case DeflateRedisCodec.ID:
+                return DeflateRedisCodec.decode(bytes);
+            default:
+                throw new IllegalArgumentException("Unknown Redis codec ID: " + bytes[1]);
+        }
+    }
+}
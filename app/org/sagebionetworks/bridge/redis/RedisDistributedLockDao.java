@@ -3,6 +3,18 @@ package org.sagebionetworks.bridge.redis;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.BridgeUtils;
@@ -10,10 +22,66 @@ import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p>
+ * Locks are Redis keys that expire. Acquiring, releasing and renewing a lock are each a single Lua script, so each is
+ * one round trip and atomic: a lock is never set without its expiration, and a holder can only release or renew its own
+ * lock, even if the lock expired and someone else acquired it in the meantime.
+ * </p>
+ * <p>
+ * A lock is its fencing token and a random GUID, separated by a colon. Fencing tokens come from a single counter in
+ * Redis, which is incremented on every acquire.
+ * </p>
+ */
 @Component
 public class RedisDistributedLockDao implements DistributedLockDao {
+    private static final Logger logger = LoggerFactory.getLogger(RedisDistributedLockDao.class);
 
     private static final int EXPIRATION_IN_SECONDS = 3 * 60;
+
+    /** Counter that fencing tokens are taken from. It never expires, so fencing tokens only increase. */
+    static final String FENCING_TOKEN_KEY = RedisKey.LOCK.getRedisKey("fencing-token");
+
+    // Delays between attempts, when waiting for a lock. The delay doubles after each attempt, up to the maximum.
+    private static final long MIN_RETRY_DELAY_MILLIS = 50;
+    private static final long MAX_RETRY_DELAY_MILLIS = 1000;
+
+    // How many times a lock is renewed per expiration period, so a renewal can fail and be retried before the lock
+    // expires.
+    private static final int RENEWALS_PER_EXPIRATION = 3;
+
+    // KEYS[1] is the lock key, KEYS[2] the fencing token counter, ARGV[1] a GUID and ARGV[2] the expiration in
+    // seconds. Returns the lock, or 0 if the lock is already held. A lock set by older code without an expiration is
+    // given one, so it can't be held forever.
+    private static final String ACQUIRE_SCRIPT =
+            "if redis.call('EXISTS', KEYS[1]) == 1 then\n"
+            + "  if redis.call('TTL', KEYS[1]) == -1 then redis.call('EXPIRE', KEYS[1], ARGV[2]) end\n"
+            + "  return 0\n"
+            + "end\n"
+            + "local lock = redis.call('INCR', KEYS[2]) .. ':' .. ARGV[1]\n"
+            + "redis.call('SET', KEYS[1], lock, 'NX', 'EX', ARGV[2])\n"
+            + "return lock";
+
+    // KEYS[1] is the lock key, ARGV[1] the lock. Returns 1 if the lock was deleted, 0 if it's no longer held.
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n"
+            + "return 0";
+
+    // KEYS[1] is the lock key, ARGV[1] the lock and ARGV[2] the expiration in seconds. Returns 1 if the lock was
+    // renewed, 0 if it's no longer held.
+    private static final String RENEW_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('EXPIRE', KEYS[1], ARGV[2]) end\n"
+            + "return 0";
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lock-watchdog").setDaemon(true).build());
+
+    // Scheduled renewals, by lock.
+    private final ConcurrentMap<String, ScheduledFuture<?>> renewals = new ConcurrentHashMap<>();
+
     private JedisStringOps stringOps;
 
     @Autowired
@@ -21,6 +89,12 @@ public class RedisDistributedLockDao implements DistributedLockDao {
         this.stringOps = stringOps;
     }
 
+    /** Stops renewing locks. Locks that were being renewed expire. */
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+    }
+
     @Override
     public String acquireLock(final Class<?> clazz, final String identifier) {
         return acquireLock(clazz, identifier, EXPIRATION_IN_SECONDS);
@@ -28,21 +102,39 @@ public class RedisDistributedLockDao implements DistributedLockDao {
 
     @Override
     public String acquireLock(final Class<?> clazz, final String identifier, final int expireInSeconds) {
+        return acquireLock(clazz, identifier, expireInSeconds, 0);
+    }
+
+    @Override
+    public String acquireLock(final Class<?> clazz, final String identifier, final int expireInSeconds,
+            final long waitMillis) {
         checkNotNull(clazz);
         checkNotNull(identifier);
         checkArgument(expireInSeconds > 0);
+        checkArgument(waitMillis >= 0);
         final String redisKey = createRedisKey(clazz, identifier);
-        final String lock = BridgeUtils.generateGuid();
-        final Long result = stringOps.setnx(redisKey, lock);
-        if (result != 1L) {
-            Long expire = stringOps.ttl(redisKey);
-            if (expire < 0L) {
-                expire(redisKey, expireInSeconds);
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        long delayMillis = MIN_RETRY_DELAY_MILLIS;
+        while (true) {
+            String lock = tryAcquireLock(redisKey, expireInSeconds);
+            if (lock != null) {
+                return lock;
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new ConcurrentModificationException("Lock already set.");
+            }
+            // Sleep for somewhere between half the delay and the whole delay, so waiters don't retry in lockstep.
+            long sleepMillis = Math.min(remainingMillis,
+                    delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1));
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ConcurrentModificationException("Interrupted while waiting for lock.");
             }
-            throw new ConcurrentModificationException("Lock already set.");
+            delayMillis = Math.min(delayMillis * 2, MAX_RETRY_DELAY_MILLIS);
         }
-        expire(redisKey, expireInSeconds);
-        return lock;
     }
 
     @Override
@@ -50,29 +142,101 @@ public class RedisDistributedLockDao implements DistributedLockDao {
         checkNotNull(clazz);
         checkNotNull(identifier);
         checkNotNull(lock);
+        stopRenewal(lock);
         final String redisKey = createRedisKey(clazz, identifier);
-        final String redisLockId = stringOps.get(redisKey);
-        if (!lock.equals(redisLockId)) {
-            return false;
-        }
-        Long result = stringOps.delete(redisKey);
-        if (result != 1L) {
+        Object result = stringOps.eval(RELEASE_SCRIPT, ImmutableList.of(redisKey), ImmutableList.of(lock));
+        if (result == null) {
             throw new BridgeServiceException("Lock not released.");
         }
-        return true;
+        return Long.valueOf(1L).equals(result);
     }
 
-    private String createRedisKey(Class<?> clazz, String identifier) {
-        String key = identifier + RedisKey.SEPARATOR + clazz.getCanonicalName();
-        return RedisKey.LOCK.getRedisKey(key);
+    @Override
+    public boolean renewLock(Class<?> clazz, String identifier, String lock, int expireInSeconds) {
+        checkNotNull(clazz);
+        checkNotNull(identifier);
+        checkNotNull(lock);
+        checkArgument(expireInSeconds > 0);
+        final String redisKey = createRedisKey(clazz, identifier);
+        Object result = stringOps.eval(RENEW_SCRIPT, ImmutableList.of(redisKey),
+                ImmutableList.of(lock, Integer.toString(expireInSeconds)));
+        if (result == null) {
+            throw new BridgeServiceException("Lock not renewed.");
+        }
+        return Long.valueOf(1L).equals(result);
     }
 
-    private void expire(final String redisKey, final int expireInSeconds) {
-        Long result = stringOps.expire(redisKey, expireInSeconds);
-        if (result != 1L) {
-            // Try to recover by deleting the key
-            stringOps.delete(redisKey);
-            throw new BridgeServiceException("Lock expiration not set.");
+    @Override
+    public void startRenewal(final Class<?> clazz, final String identifier, final String lock,
+            final int expireInSeconds) {
+        checkNotNull(clazz);
+        checkNotNull(identifier);
+        checkNotNull(lock);
+        checkArgument(expireInSeconds > 0);
+        long periodMillis = Math.max(1L, expireInSeconds * 1000L / RENEWALS_PER_EXPIRATION);
+        ScheduledFuture<?> renewal = watchdog.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renewOrStop(clazz, identifier, lock, expireInSeconds);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previousRenewal = renewals.put(lock, renewal);
+        if (previousRenewal != null) {
+            previousRenewal.cancel(false);
         }
     }
+
+    @Override
+    public long getFencingToken(String lock) {
+        checkNotNull(lock);
+        int separatorIndex = lock.indexOf(':');
+        if (separatorIndex <= 0) {
+            throw new IllegalArgumentException("Lock has no fencing token: " + lock);
+        }
+        try {
+            return Long.parseLong(lock.substring(0, separatorIndex));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Lock has no fencing token: " + lock, ex);
+        }
+    }
+
+    // Package-scoped to facilitate unit tests. Number of locks being renewed.
+    /* package-scoped */ int getRenewalCount() {
+        return renewals.size();
+    }
+
+    // Returns the lock, or null if the lock is held by someone else.
+    private String tryAcquireLock(String redisKey, int expireInSeconds) {
+        Object result = stringOps.eval(ACQUIRE_SCRIPT, ImmutableList.of(redisKey, FENCING_TOKEN_KEY),
+                ImmutableList.of(BridgeUtils.generateGuid(), Integer.toString(expireInSeconds)));
+        if (result == null) {
+            throw new BridgeServiceException("Lock not acquired.");
+        }
+        return (result instanceof String) ? (String) result : null;
+    }
+
+    // Called by the watchdog. Stops renewing if the lock is lost. Errors are retried on the next renewal.
+    private void renewOrStop(Class<?> clazz, String identifier, String lock, int expireInSeconds) {
+        try {
+            // The lock may have been released while this renewal was running.
+            if (!renewLock(clazz, identifier, lock, expireInSeconds) && renewals.containsKey(lock)) {
+                logger.error("Lost lock on " + identifier + " for " + clazz.getName() + " before it was released");
+                stopRenewal(lock);
+            }
+        } catch (RuntimeException ex) {
+            logger.warn("Error renewing lock on " + identifier + " for " + clazz.getName(), ex);
+        }
+    }
+
+    private void stopRenewal(String lock) {
+        ScheduledFuture<?> renewal = renewals.remove(lock);
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+    }
+
+    private String createRedisKey(Class<?> clazz, String identifier) {
+        String key = identifier + RedisKey.SEPARATOR + clazz.getCanonicalName();
+        return RedisKey.LOCK.getRedisKey(key);
+    }
 }
@@ -43,6 +43,12 @@ public interface RedisKey {
     
     /** A cached JSON response. */
     RedisKey VIEW = new SimpleKey("view");
+
+    /** Upload validation work queue lists (pending and processing). */
+    RedisKey UPLOAD_VALIDATION_QUEUE = new SimpleKey("upload-validation-queue");
+
+    /** Lease on an upload validation queue item, held by the worker processing it. */
+    RedisKey UPLOAD_VALIDATION_LEASE = new SimpleKey("upload-validation-lease");
     
     String SEPARATOR = ":";
 
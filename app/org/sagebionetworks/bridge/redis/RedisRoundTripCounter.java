@@ -0,0 +1,32 @@
+package org.sagebionetworks.bridge.redis;
+
+/**
+ * Counts Redis round trips made by the current thread, so they can be reported in request metrics. A pipeline counts
+ * as one round trip, however many commands it sends. Round trips made on other threads, such as async workers, aren't
+ * counted against the request.
+ */
+public final class RedisRoundTripCounter {
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private RedisRoundTripCounter() {
+    }
+
+    /** Resets the current thread's count to zero, for example at the start of a request. */
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    /** Number of round trips the current thread has made since the last reset. */
+    public static int get() {
+        return COUNT.get()[0];
+    }
+
+    static void add(int roundTrips) {
+        COUNT.get()[0] += roundTrips;
+    }
+}
@@ -2,21 +2,71 @@ package org.sagebionetworks.bridge.s3;
 
 import javax.annotation.Nonnull;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.google.common.base.Charsets;
 import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 /**
  * Helper class that simplifies reading S3 files. This is generally created by Spring. However, we don't use the
  * Component annotation because there are multiple S3 clients, so there may be multiple S3 helpers.
  */
 public class S3Helper {
+    private static final Logger logger = LoggerFactory.getLogger(S3Helper.class);
+
+    // S3 requires every part except the last to be at least 5 MB.
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private ExecutorService multipartExecutorService;
+    private long multipartPartSize = MIN_PART_SIZE;
+    private long multipartThreshold = Long.MAX_VALUE;
     private AmazonS3Client s3Client;
 
+    /**
+     * Executor service used to upload the parts of a multipart upload in parallel. This is configured by Spring. If
+     * this isn't set, all files are written with a single put. Part uploads don't submit further tasks, so this can be
+     * shared by concurrent writes without deadlocking.
+     */
+    public void setMultipartExecutorService(ExecutorService multipartExecutorService) {
+        this.multipartExecutorService = multipartExecutorService;
+    }
+
+    /** Part size for multipart uploads, in bytes. This is configured by Spring. Must be at least 5 MB. */
+    public void setMultipartPartSize(long multipartPartSize) {
+        if (multipartPartSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("multipartPartSize must be at least " + MIN_PART_SIZE);
+        }
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    /**
+     * Files at least this many bytes are written with a multipart upload. Smaller files are written with a single
+     * put. This is configured by Spring.
+     */
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
     /**
      * S3 Client. This is configured by Spring. We don't use the Autowired annotation because there are multiple S3
      * clients.
@@ -43,6 +93,21 @@ public class S3Helper {
         }
     }
 
+    /**
+     * Opens the given S3 file as a stream. Unlike {@link #readS3FileAsBytes}, this does not buffer the file in memory.
+     * The caller is responsible for closing the returned stream, which also releases the underlying HTTP connection.
+     *
+     * @param bucket
+     *         S3 bucket to read from, must be non-null and non-empty
+     * @param key
+     *         S3 key (filename), must be non-null and non-empty
+     * @return an input stream over the S3 file contents
+     */
+    public InputStream getS3FileAsStream(@Nonnull String bucket, @Nonnull String key) {
+        S3Object s3File = s3Client.getObject(bucket, key);
+        return s3File.getObjectContent();
+    }
+
     /**
      * Read the given S3 file contents as a string. The encoding is assumed to be UTF-8.
      *
@@ -59,9 +124,121 @@ public class S3Helper {
         return new String(bytes, Charsets.UTF_8);
     }
 
+    /**
+     * Writes the given bytes to the given S3 file. Files at or above the multipart threshold are split into parts,
+     * which are uploaded in parallel. Smaller files are written with a single put.
+     *
+     * @param bucket
+     *         S3 bucket to write to, must be non-null and non-empty
+     * @param key
+     *         S3 key (filename), must be non-null and non-empty
+     * @param data
+     *         file contents, must be non-null
+     * @throws IOException
+     *         if a part upload fails or is interrupted
+     */
     public void writeBytesToS3(@Nonnull String bucket, @Nonnull String key, @Nonnull byte[] data) throws IOException {
-        try (InputStream dataInputStream = new ByteArrayInputStream(data)) {
-            s3Client.putObject(bucket, key, dataInputStream, null);
+        writeBufferToS3(bucket, key, SpillBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the given buffer to the given S3 file. This is the same as {@link #writeBytesToS3}, except that buffers
+     * that have spilled to disk are uploaded straight from the temp file, without reading it into memory.
+     *
+     * @param bucket
+     *         S3 bucket to write to, must be non-null and non-empty
+     * @param key
+     *         S3 key (filename), must be non-null and non-empty
+     * @param buffer
+     *         file contents, must be non-null
+     * @throws IOException
+     *         if reading the buffer fails, or if a part upload fails or is interrupted
+     */
+    public void writeBufferToS3(@Nonnull String bucket, @Nonnull String key, @Nonnull SpillBuffer buffer)
+            throws IOException {
+        if (multipartExecutorService != null && buffer.size() >= multipartThreshold) {
+            writeBufferToS3Multipart(bucket, key, buffer);
+            return;
+        }
+
+        if (buffer.isSpilled()) {
+            // The S3 client gets the content length from the file.
+            s3Client.putObject(bucket, key, buffer.getFile());
+            return;
+        }
+
+        // Set the content length, so the S3 client doesn't need to buffer the stream to compute it.
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(buffer.size());
+        try (InputStream dataInputStream = buffer.openStream()) {
+            s3Client.putObject(bucket, key, dataInputStream, metadata);
+        }
+    }
+
+    // Uploads each part from a slice of the in-memory bytes, or from a range of the temp file for buffers that have
+    // spilled to disk, so parts don't need to be copied. If any part fails, the multipart upload is aborted, so S3
+    // doesn't keep the uploaded parts around.
+    private void writeBufferToS3Multipart(final String bucket, final String key, final SpillBuffer buffer)
+            throws IOException {
+        File file = buffer.getFile();
+        byte[] data = file == null ? buffer.getBytes() : null;
+        long size = buffer.size();
+
+        final String uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key))
+                .getUploadId();
+
+        List<Future<PartETag>> futureList = new ArrayList<>();
+        try {
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += multipartPartSize) {
+                long partSize = Math.min(multipartPartSize, size - offset);
+                final UploadPartRequest request = new UploadPartRequest().withBucketName(bucket).withKey(key)
+                        .withUploadId(uploadId).withPartNumber(partNumber++).withPartSize(partSize);
+                if (file != null) {
+                    request.withFile(file).withFileOffset(offset);
+                } else {
+                    request.withInputStream(new ByteArrayInputStream(data, (int) offset, (int) partSize));
+                }
+                futureList.add(multipartExecutorService.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() {
+                        return s3Client.uploadPart(request).getPartETag();
+                    }
+                }));
+            }
+
+            List<PartETag> partETagList = new ArrayList<>();
+            for (Future<PartETag> oneFuture : futureList) {
+                partETagList.add(oneFuture.get());
+            }
+            s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId,
+                    partETagList));
+        } catch (ExecutionException ex) {
+            abortMultipartUpload(bucket, key, uploadId, futureList);
+            throw new IOException("Error uploading part of " + bucket + "/" + key + ": " + ex.getCause().getMessage(),
+                    ex.getCause());
+        } catch (InterruptedException ex) {
+            abortMultipartUpload(bucket, key, uploadId, futureList);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted uploading " + bucket + "/" + key, ex);
+        } catch (RuntimeException ex) {
+            abortMultipartUpload(bucket, key, uploadId, futureList);
+            throw ex;
+        }
+    }
+
+    private void abortMultipartUpload(String bucket, String key, String uploadId,
+            List<Future<PartETag>> futureList) {
+        // Don't bother uploading parts that haven't started yet.
+        for (Future<PartETag> oneFuture : futureList) {
+            oneFuture.cancel(false);
+        }
+
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (RuntimeException ex) {
+            // Log and move on, so we don't hide the original error.
+            logger.warn("Error aborting multipart upload " + uploadId + " for " + bucket + "/" + key, ex);
         }
     }
 }
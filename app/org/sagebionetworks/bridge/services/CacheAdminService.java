@@ -3,21 +3,29 @@ package org.sagebionetworks.bridge.services;
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
-import java.util.Set;
+import java.util.List;
 
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.CacheKeyPage;
 import org.sagebionetworks.bridge.redis.RedisKey;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
 @Component
 public class CacheAdminService {
 
+    /** Largest page size callers can ask for. */
+    public static final int MAX_PAGE_SIZE = 10000;
+
     private final String SUFFIX = RedisKey.SEPARATOR + RedisKey.SESSION.getSuffix(); 
     private JedisPool jedisPool;
     
@@ -27,23 +35,50 @@ public class CacheAdminService {
     }
 
     /**
-     * Returns all keys in the cache that are not user session keys.
-     * @return
+     * Returns a page of the keys in the cache that are not user session keys. Keys are listed with SCAN, so listing
+     * never blocks Redis for longer than it takes to look at one page of keys. Keys added or removed while paging may
+     * or may not be listed, and a key may occasionally be listed more than once.
+     * 
+     * @param cursor
+     *            cursor from the previous page, or null for the first page
+     * @param pageSize
+     *            number of keys to look at, from 1 to MAX_PAGE_SIZE. Session keys are left out, so pages are often
+     *            smaller than this.
+     * @return the page of keys, and the cursor for the next page
      */
-    public Set<String> listItems() {
+    public CacheKeyPage listItems(String cursor, int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new BadRequestException("pageSize must be from 1 to " + MAX_PAGE_SIZE);
+        }
+        String scanCursor = (cursor == null) ? ScanParams.SCAN_POINTER_START : cursor;
+        if (!scanCursor.matches("\\d+")) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+
+        ScanResult<String> result = null;
         Jedis jedis = jedisPool.getResource();
-        
-        Set<String> allKeys = jedis.keys("*");
-        
-        Set<String> set = Sets.newHashSet();
-        for (String key : allKeys) {
+        try {
+            result = jedis.scan(scanCursor, new ScanParams().count(pageSize));
+        } catch (JedisConnectionException e) {
+            jedisPool.returnBrokenResource(jedis);
+            jedis = null;
+            throw e;
+        } finally {
+            if (jedis != null) {
+                jedisPool.returnResource(jedis);
+            }
+        }
+
+        List<String> keys = Lists.newArrayList();
+        for (String key : result.getResult()) {
             if (!key.endsWith(SUFFIX)) {
-                set.add(key);
+                keys.add(key);
             }
         }
-        return set;
+        String nextCursor = result.getStringCursor();
+        return new CacheKeyPage(keys, ScanParams.SCAN_POINTER_START.equals(nextCursor) ? null : nextCursor);
     }
-    
+
     /**
      * Delete an item by its key from the cache (cannot delete sessions).
      * @param cacheKey
@@ -53,7 +88,17 @@ public class CacheAdminService {
         Long removed = null;
         if (!cacheKey.endsWith(SUFFIX)) {
             Jedis jedis = jedisPool.getResource();
-            removed = jedis.del(cacheKey);
+            try {
+                removed = jedis.del(cacheKey);
+            } catch (JedisConnectionException e) {
+                jedisPool.returnBrokenResource(jedis);
+                jedis = null;
+                throw e;
+            } finally {
+                if (jedis != null) {
+                    jedisPool.returnResource(jedis);
+                }
+            }
         }
         if (removed == null || removed == 0) {
             throw new BridgeServiceException("Item could not be removed from cache: does key '"+cacheKey+"' exist?"); 
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.services;
 
 import java.util.List;
 
+import com.google.common.collect.ImmutableList;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -145,6 +146,32 @@ public class HealthDataService {
         return healthDataAttachmentDao.createOrUpdateAttachment(attachment);
     }
 
+    /**
+     * Creates or updates several health data attachments at once, generally all the attachments for a single record.
+     * New attachments are written in batches, which is much faster than writing them one at a time.
+     *
+     * @param attachmentList
+     *         health data attachments to create or update, must be non-null and contain no null elements
+     * @return attachment IDs of the created or updated attachments, in the same order as the attachment list
+     */
+    public List<String> createOrUpdateAttachments(List<HealthDataAttachment> attachmentList) {
+        // validate attachments
+        if (attachmentList == null) {
+            throw new InvalidEntityException(String.format(Validate.CANNOT_BE_NULL, "HealthDataAttachment list"));
+        }
+        for (HealthDataAttachment oneAttachment : attachmentList) {
+            if (oneAttachment == null) {
+                throw new InvalidEntityException(String.format(Validate.CANNOT_BE_NULL, "HealthDataAttachment"));
+            }
+        }
+        if (attachmentList.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        // call through to DAO
+        return healthDataAttachmentDao.createOrUpdateAttachments(attachmentList);
+    }
+
     /* BUILDERS */
 
     /** Returns a builder object, used for building attachments, for create or update. */
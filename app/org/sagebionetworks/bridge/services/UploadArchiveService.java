@@ -2,26 +2,42 @@ package org.sagebionetworks.bridge.services;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.cert.CertificateEncodingException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 
 import com.google.common.base.Strings;
 import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.io.IOUtils;
 import org.bouncycastle.cms.CMSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.crypto.CmsEncryptor;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.UploadArchiveLimitException;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.upload.UploadArchiveLimits;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 import org.sagebionetworks.bridge.validators.Validate;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,7 +49,21 @@ import org.springframework.stereotype.Component;
  */
 @Component
 public class UploadArchiveService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadArchiveService.class);
+
+    private static final boolean PRELOAD_DEFAULT = Boolean.parseBoolean(BridgeConfigFactory.getConfig().getProperty(
+            "upload.cms.cache.preload"));
+
+    /**
+     * The compression ratio limit only applies once an archive has inflated to at least this many bytes. Package-scoped
+     * to facilitate unit tests.
+     */
+    /* package-scoped */ static final long COMPRESSION_RATIO_MIN_BYTES = 1024 * 1024;
+
     private LoadingCache<String, CmsEncryptor> cmsEncryptorCache;
+    private ExecutorService cmsEncryptorReloadExecutorService;
+    private StudyService studyService;
+    private boolean preload = PRELOAD_DEFAULT;
 
     /** Loading cache for CMS encryptor, keyed by study ID. This is configured by Spring. */
     @Autowired
@@ -41,6 +71,68 @@ public class UploadArchiveService {
         this.cmsEncryptorCache = cmsEncryptorCache;
     }
 
+    /** Thread pool the CMS encryptor cache reloads on, also used to preload the cache. This is configured by Spring. */
+    @Resource(name = "cmsEncryptorReloadExecutorService")
+    public void setCmsEncryptorReloadExecutorService(ExecutorService cmsEncryptorReloadExecutorService) {
+        this.cmsEncryptorReloadExecutorService = cmsEncryptorReloadExecutorService;
+    }
+
+    /** Study service, used to list the studies to preload encryptors for. This is configured by Spring. */
+    @Autowired
+    public void setStudyService(StudyService studyService) {
+        this.studyService = studyService;
+    }
+
+    /**
+     * True if encryptors for all studies should be loaded at startup. Defaults to the upload.cms.cache.preload config
+     * property. This is exposed primarily for unit tests.
+     */
+    public void setPreload(boolean preload) {
+        this.preload = preload;
+    }
+
+    /**
+     * Preloads the CMS encryptor cache in the background, so the first upload for each study after startup doesn't
+     * wait for S3. This is called by Spring.
+     */
+    @PostConstruct
+    public void start() {
+        if (!preload) {
+            return;
+        }
+        cmsEncryptorReloadExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                preloadCmsEncryptors();
+            }
+        });
+    }
+
+    /**
+     * Loads the CMS encryptors for all studies into the cache. Studies whose encryptor can't be loaded are logged and
+     * skipped, and will be loaded on first use as before. Package-scoped to facilitate unit tests.
+     */
+    /* package-scoped */ void preloadCmsEncryptors() {
+        List<Study> studyList;
+        try {
+            studyList = studyService.getStudies();
+        } catch (RuntimeException ex) {
+            logger.error("Error listing studies to preload CMS encryptors", ex);
+            return;
+        }
+
+        int loadedCount = 0;
+        for (Study oneStudy : studyList) {
+            try {
+                cmsEncryptorCache.get(oneStudy.getIdentifier());
+                loadedCount++;
+            } catch (ExecutionException | UncheckedExecutionException ex) {
+                logger.warn("Error preloading CMS encryptor for study " + oneStudy.getIdentifier(), ex);
+            }
+        }
+        logger.info(String.format("Preloaded CMS encryptors for %d of %d studies", loadedCount, studyList.size()));
+    }
+
     /**
      * Encrypts the specified data, using the encryption materials for the specified study.
      *
@@ -74,6 +166,39 @@ public class UploadArchiveService {
         return encryptedData;
     }
 
+    /**
+     * Opens an encrypting stream, using the encryption materials for the specified study. Data written to the returned
+     * stream is encrypted and written to the given stream, so the data is never buffered in memory as a whole. The
+     * caller must close the returned stream to finish encryption.
+     *
+     * @param studyId
+     *         study ID, must be non-null, non-empty, and refer to a valid study
+     * @param stream
+     *         stream to write encrypted data to, must be non-null
+     * @return stream to write the data to encrypt to
+     * @throws BridgeServiceException
+     *         if we fail to load the encryptor, or if we fail to open the encrypting stream
+     */
+    public OutputStream encrypt(@Nonnull String studyId, @Nonnull OutputStream stream) throws BridgeServiceException {
+        // validate
+        if (Strings.isNullOrEmpty(studyId)) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_BLANK, "studyId"));
+        }
+        if (stream == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "stream"));
+        }
+
+        // get encryptor from cache
+        CmsEncryptor encryptor = getEncryptorForStudy(studyId);
+
+        // encrypt
+        try {
+            return encryptor.encrypt(stream);
+        } catch (CMSException | IOException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
+
     /**
      * Decrypts the specified data, using the encryption materials for the specified study.
      *
@@ -105,6 +230,39 @@ public class UploadArchiveService {
         }
     }
 
+    /**
+     * Decrypts the specified stream, using the encryption materials for the specified study. The returned stream
+     * decrypts as it's read, so the decrypted data is never held in memory as a whole. The caller is responsible for
+     * closing the source stream once it's done reading the decrypted stream.
+     *
+     * @param studyId
+     *         study ID, must be non-null, non-empty, and refer to a valid study
+     * @param stream
+     *         stream of data to decrypt, must be non-null
+     * @return stream of decrypted data
+     * @throws BridgeServiceException
+     *         if we fail to load the encryptor, or if the encrypted stream can't be parsed
+     */
+    public InputStream decrypt(@Nonnull String studyId, @Nonnull InputStream stream) throws BridgeServiceException {
+        // validate
+        if (Strings.isNullOrEmpty(studyId)) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_BLANK, "studyId"));
+        }
+        if (stream == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "stream"));
+        }
+
+        // get encryptor from cache
+        CmsEncryptor encryptor = getEncryptorForStudy(studyId);
+
+        // decrypt
+        try {
+            return encryptor.decrypt(stream);
+        } catch (CertificateEncodingException | CMSException | IOException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
+
     /**
      * Helper function to get the encryptor for the given study.
      *
@@ -176,23 +334,220 @@ public class UploadArchiveService {
             throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "bytes"));
         }
 
-        Map<String, byte[]> dataMap = new HashMap<>();
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-                ZipInputStream zis = new ZipInputStream(bais)) {
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
+            return unzipHelper(bais);
+        } catch (IOException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Unzips the given stream. This reads the zip entries one at a time directly from the stream, so the zipped
+     * archive itself is never buffered in memory. Only the unzipped entries are materialized. Directory entries are
+     * skipped, since they carry no data.
+     * </p>
+     * <p>
+     * This method will throw a BadRequestException if the zip file somehow contains duplicate filenames. This method
+     * does not close the given stream.
+     * </p>
+     *
+     * @param stream
+     *         stream containing the raw data to unzip, must be non-null
+     * @return raw bytes of unzipped data, keyed by filename
+     * @throws BridgeServiceException
+     *         if unzipping fails
+     */
+    public Map<String, byte[]> unzip(@Nonnull InputStream stream) throws BridgeServiceException {
+        if (stream == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "stream"));
+        }
+
+        try {
+            return unzipHelper(stream);
+        } catch (IOException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Unzips the given stream into buffers. This is the same as {@link #unzip(InputStream)}, except that entries
+     * larger than spillThreshold are written to temp files instead of being held in memory. See {@link SpillBuffer}.
+     * </p>
+     * <p>
+     * The given limits are enforced as the entries are inflated, so an archive that exceeds a limit fails as soon as it
+     * crosses it, without inflating the rest of the archive. The compression ratio limit only applies once the archive
+     * has inflated to at least {@link #COMPRESSION_RATIO_MIN_BYTES}, since small files of repetitive JSON can
+     * legitimately compress very well.
+     * </p>
+     * <p>
+     * The caller is responsible for closing the returned buffers. If unzipping fails, any buffers already created are
+     * closed before this method throws.
+     * </p>
+     *
+     * @param stream
+     *         stream containing the raw data to unzip, must be non-null
+     * @param spillThreshold
+     *         entries larger than this many bytes are written to temp files
+     * @param limits
+     *         limits on the number and size of entries, must be non-null
+     * @return buffers of unzipped data, keyed by filename
+     * @throws UploadArchiveLimitException
+     *         if the archive exceeds one of the limits
+     * @throws BridgeServiceException
+     *         if unzipping fails
+     */
+    public Map<String, SpillBuffer> unzip(@Nonnull InputStream stream, long spillThreshold,
+            @Nonnull UploadArchiveLimits limits) throws BridgeServiceException {
+        if (stream == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "stream"));
+        }
+        if (limits == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "limits"));
+        }
+
+        Map<String, SpillBuffer> bufferMap = new HashMap<>();
+        boolean success = false;
+        try {
+            // Count the compressed bytes going into the zip stream, for the compression ratio limit. Don't close the
+            // zip stream, since that would close the caller's stream.
+            CountingInputStream compressedStream = new CountingInputStream(stream);
+            ZipInputStream zis = new ZipInputStream(compressedStream);
+            LimitedEntryStream entryStream = new LimitedEntryStream(zis, compressedStream, limits);
+
+            int numEntries = 0;
             ZipEntry zipEntry = zis.getNextEntry();
             while (zipEntry != null) {
+                numEntries++;
+                if (numEntries > limits.getMaxEntries()) {
+                    throw new UploadArchiveLimitException(UploadArchiveLimits.LIMIT_ENTRIES, String.format(
+                            "Upload archive has more than %d entries", limits.getMaxEntries()));
+                }
+
                 String entryName = zipEntry.getName();
-                if (dataMap.containsKey(entryName)) {
+                if (bufferMap.containsKey(entryName)) {
                     throw new BadRequestException(String.format("Duplicate filename %s", entryName));
                 }
 
+                if (!zipEntry.isDirectory()) {
+                    entryStream.startEntry(entryName);
+                    bufferMap.put(entryName, SpillBuffer.copyOf(entryStream, spillThreshold));
+                }
+                zipEntry = zis.getNextEntry();
+            }
+            success = true;
+            return bufferMap;
+        } catch (IOException ex) {
+            throw new BridgeServiceException(ex);
+        } finally {
+            if (!success) {
+                // Don't leave temp files behind.
+                for (SpillBuffer oneBuffer : bufferMap.values()) {
+                    oneBuffer.close();
+                }
+            }
+        }
+    }
+
+    // Helper method which unzips the given stream, entry by entry. Shared by the byte array and stream variants of
+    // unzip().
+    private static Map<String, byte[]> unzipHelper(InputStream stream) throws IOException {
+        Map<String, byte[]> dataMap = new HashMap<>();
+
+        // Don't close the zip stream, since that would close the caller's stream.
+        ZipInputStream zis = new ZipInputStream(stream);
+        ZipEntry zipEntry = zis.getNextEntry();
+        while (zipEntry != null) {
+            String entryName = zipEntry.getName();
+            if (dataMap.containsKey(entryName)) {
+                throw new BadRequestException(String.format("Duplicate filename %s", entryName));
+            }
+
+            if (!zipEntry.isDirectory()) {
                 byte[] content = IOUtils.toByteArray(zis);
                 dataMap.put(entryName, content);
-                zipEntry = zis.getNextEntry();
             }
-            return dataMap;
-        } catch (IOException e) {
-            throw new BridgeServiceException(e);
+            zipEntry = zis.getNextEntry();
+        }
+        return dataMap;
+    }
+
+    // Stream over the current entry of a zip stream, which counts the inflated bytes and throws as soon as the entry or
+    // the archive exceeds a limit. Closing this stream doesn't close the zip stream.
+    private static class LimitedEntryStream extends FilterInputStream {
+        private final CountingInputStream compressedStream;
+        private final UploadArchiveLimits limits;
+        private String entryName;
+        private long entryBytes;
+        private long totalBytes;
+
+        LimitedEntryStream(ZipInputStream zis, CountingInputStream compressedStream, UploadArchiveLimits limits) {
+            super(zis);
+            this.compressedStream = compressedStream;
+            this.limits = limits;
+        }
+
+        void startEntry(String entryName) {
+            this.entryName = entryName;
+            this.entryBytes = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            int numRead = super.read(b, off, len);
+            if (numRead > 0) {
+                count(numRead);
+            }
+            return numRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Route skips through read(), so skipped bytes are counted too.
+            return ByteStreams.copy(ByteStreams.limit(this, n), ByteStreams.nullOutputStream());
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // Leave the zip stream open for the next entry.
+        }
+
+        private void count(int numBytes) {
+            entryBytes += numBytes;
+            totalBytes += numBytes;
+
+            if (entryBytes > limits.getMaxEntryBytes()) {
+                throw new UploadArchiveLimitException(UploadArchiveLimits.LIMIT_ENTRY_BYTES, String.format(
+                        "Upload archive entry %s is larger than %d bytes", entryName, limits.getMaxEntryBytes()));
+            }
+            if (totalBytes > limits.getMaxTotalBytes()) {
+                throw new UploadArchiveLimitException(UploadArchiveLimits.LIMIT_TOTAL_BYTES, String.format(
+                        "Upload archive is larger than %d bytes unzipped", limits.getMaxTotalBytes()));
+            }
+
+            // The zip stream reads ahead, so the compressed count may be slightly ahead of the entries. This only
+            // makes the ratio look smaller, so it never rejects a valid archive.
+            long compressedBytes = compressedStream.getCount();
+            if (totalBytes >= COMPRESSION_RATIO_MIN_BYTES
+                    && totalBytes > limits.getMaxCompressionRatio() * Math.max(compressedBytes, 1)) {
+                throw new UploadArchiveLimitException(UploadArchiveLimits.LIMIT_COMPRESSION_RATIO, String.format(
+                        "Upload archive compression ratio is more than %d:1", limits.getMaxCompressionRatio()));
+            }
         }
     }
 }
@@ -8,6 +8,9 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Resource;
 
@@ -15,8 +18,9 @@ import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.crypto.BcCertificateFactory;
 import org.sagebionetworks.bridge.crypto.CertificateFactory;
-import org.sagebionetworks.bridge.crypto.KeyPairFactory;
+import org.sagebionetworks.bridge.crypto.KeyPairPool;
 import org.sagebionetworks.bridge.crypto.PemUtils;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.s3.AmazonS3;
@@ -30,12 +34,26 @@ public class UploadCertificateServiceImpl implements UploadCertificateService {
     private static final String CERT_BUCKET = CONFIG.getProperty("upload.cms.cert.bucket");
 
     private final CertificateFactory certificateFactory;
+    private ExecutorService executorService;
+    private KeyPairPool keyPairPool;
     private AmazonS3 s3CmsClient;
 
     public UploadCertificateServiceImpl() {
         certificateFactory = new BcCertificateFactory();
     }
 
+    /** Thread pool used to write the private key to S3 while the certificate is written. */
+    @Resource(name="cmsKeyWriteExecutorService")
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /** Pool of pre-generated key pairs, so creating a study doesn't wait for key generation. */
+    @Resource(name="cmsKeyPairPool")
+    public void setKeyPairPool(KeyPairPool keyPairPool) {
+        this.keyPairPool = keyPairPool;
+    }
+
     @Resource(name="s3CmsClient")
     public void setS3CmsClient(AmazonS3 s3CmsClient) {
         this.s3CmsClient = s3CmsClient;
@@ -44,16 +62,39 @@ public class UploadCertificateServiceImpl implements UploadCertificateService {
     @Override
     public void createCmsKeyPair(String studyIdentifier) {
         checkNotNull(studyIdentifier);
-        final KeyPair keyPair = KeyPairFactory.newRsa2048();
+        final KeyPair keyPair = keyPairPool.take();
         final String studyFqdn = CONFIG.getStudyHostname(studyIdentifier);
         final X509Certificate cert = certificateFactory.newCertificate(keyPair, studyFqdn);
         final String name = studyIdentifier + ".pem";
+        final String privateKeyPem;
+        final String certPem;
         try {
-            s3Put(PRIVATE_KEY_BUCKET, name,  PemUtils.toPem(keyPair.getPrivate()));
-            s3Put(CERT_BUCKET, name, PemUtils.toPem(cert));
+            privateKeyPem = PemUtils.toPem(keyPair.getPrivate());
+            certPem = PemUtils.toPem(cert);
         } catch (CertificateEncodingException e) {
             throw new RuntimeException(e);
         }
+
+        // The two writes are independent, so write the private key on another thread while writing the certificate.
+        Future<?> privateKeyFuture = executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                s3Put(PRIVATE_KEY_BUCKET, name, privateKeyPem);
+            }
+        });
+        s3Put(CERT_BUCKET, name, certPem);
+        try {
+            privateKeyFuture.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new BridgeServiceException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException(e);
+        }
     }
 
     private void s3Put(String bucket, String name, String pem) {
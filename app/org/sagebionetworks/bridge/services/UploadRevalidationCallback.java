@@ -0,0 +1,23 @@
+package org.sagebionetworks.bridge.services;
+
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.models.upload.Upload;
+
+/**
+ * Calls back about the progress of an upload re-validation run. See {@link UploadRevalidationService}. Uploads are
+ * validated in parallel, so implementations must be thread-safe.
+ */
+public interface UploadRevalidationCallback {
+    /** When the re-validation run starts. */
+    void start(String studyId, LocalDate uploadDate);
+
+    /** When an upload has been validated. The upload's status is the result of validation. */
+    void uploadValidated(Upload upload);
+
+    /** When an upload couldn't be validated, or the run couldn't start. */
+    void error(String message);
+
+    /** When the re-validation run is finished. */
+    void done();
+}
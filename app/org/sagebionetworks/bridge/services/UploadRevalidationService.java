@@ -0,0 +1,263 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Resource;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.dao.HealthCodeDao;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.User;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
+
+/**
+ * <p>
+ * Re-validates all uploads in a study from a given upload date that failed validation. This is generally used after a
+ * schema is fixed, to re-process the uploads that failed against the broken schema.
+ * </p>
+ * <p>
+ * Uploads are read from the upload date and status index page by page, and validated on a dedicated thread pool, with
+ * at most upload.revalidation.concurrency uploads in flight at once. Reads from DynamoDB and downloads from S3 are
+ * each rate limited, so a large re-validation run doesn't starve live upload validation of throughput. Only one run
+ * per study and upload date can be in progress at a time.
+ * </p>
+ */
+@Component
+public class UploadRevalidationService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadRevalidationService.class);
+
+    private static final BridgeConfig CONFIG = BridgeConfigFactory.getConfig();
+    private static final int CONCURRENCY_DEFAULT = CONFIG.getPropertyAsInt("upload.revalidation.concurrency");
+    private static final int DDB_READS_PER_SECOND_DEFAULT = CONFIG.getPropertyAsInt(
+            "upload.revalidation.ddb.reads.per.second");
+    private static final int S3_READS_PER_SECOND_DEFAULT = CONFIG.getPropertyAsInt(
+            "upload.revalidation.s3.reads.per.second");
+    private static final int LOCK_EXPIRE_SECONDS = CONFIG.getPropertyAsInt("upload.revalidation.lock.seconds");
+
+    // Runs re-validation in the background, so the caller can stream progress back to the client.
+    private final ExecutorService runExecutorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("upload-revalidation-run-%d").setDaemon(true).build());
+
+    private HealthCodeDao healthCodeDao;
+    private DistributedLockDao lockDao;
+    private ExecutorService revalidationExecutorService;
+    private UploadDao uploadDao;
+    private UploadValidationTaskFactory taskFactory;
+    private int concurrency = CONCURRENCY_DEFAULT;
+    private double ddbReadsPerSecond = DDB_READS_PER_SECOND_DEFAULT;
+    private double s3ReadsPerSecond = S3_READS_PER_SECOND_DEFAULT;
+
+    /** Health code DAO, used to filter uploads by study. This is configured by Spring. */
+    @Autowired
+    public void setHealthCodeDao(HealthCodeDao healthCodeDao) {
+        this.healthCodeDao = healthCodeDao;
+    }
+
+    /** Lock DAO, so only one run per study and upload date is in progress. This is configured by Spring. */
+    @Autowired
+    public void setDistributedLockDao(DistributedLockDao lockDao) {
+        this.lockDao = lockDao;
+    }
+
+    /** Thread pool that uploads are re-validated on. This is configured by Spring. */
+    @Resource(name = "uploadRevalidationExecutorService")
+    public void setRevalidationExecutorService(ExecutorService revalidationExecutorService) {
+        this.revalidationExecutorService = revalidationExecutorService;
+    }
+
+    /** Upload DAO, used to find uploads to re-validate. This is configured by Spring. */
+    @Autowired
+    public void setUploadDao(UploadDao uploadDao) {
+        this.uploadDao = uploadDao;
+    }
+
+    /** Task factory. This is configured by Spring. */
+    @Autowired
+    public void setTaskFactory(UploadValidationTaskFactory taskFactory) {
+        this.taskFactory = taskFactory;
+    }
+
+    /**
+     * Maximum number of uploads validated at once. Defaults to the upload.revalidation.concurrency config property.
+     * This is exposed primarily for unit tests.
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Maximum number of uploads read from DynamoDB per second, including uploads from other studies, which are
+     * skipped. Defaults to the upload.revalidation.ddb.reads.per.second config property. This is exposed primarily
+     * for unit tests.
+     */
+    public void setDdbReadsPerSecond(double ddbReadsPerSecond) {
+        this.ddbReadsPerSecond = ddbReadsPerSecond;
+    }
+
+    /**
+     * Maximum number of uploads downloaded from S3 per second. Defaults to the upload.revalidation.s3.reads.per.second
+     * config property. This is exposed primarily for unit tests.
+     */
+    public void setS3ReadsPerSecond(double s3ReadsPerSecond) {
+        this.s3ReadsPerSecond = s3ReadsPerSecond;
+    }
+
+    /**
+     * Kicks off re-validation of all uploads in the given study from the given upload date with status
+     * VALIDATION_FAILED. This method returns immediately. Progress is reported through the callback, which is always
+     * called back with done() when the run is finished, even if it couldn't start.
+     *
+     * @param study
+     *         study to re-validate uploads for, must be non-null
+     * @param uploadDate
+     *         upload date to re-validate uploads for, must be non-null
+     * @param callback
+     *         called back with progress, must be non-null
+     */
+    public void revalidateUploads(@Nonnull final Study study, @Nonnull final LocalDate uploadDate,
+            @Nonnull final UploadRevalidationCallback callback) {
+        checkNotNull(study);
+        checkNotNull(uploadDate);
+        checkNotNull(callback);
+        runExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                revalidateUploadsWithLock(study, uploadDate, callback);
+            }
+        });
+    }
+
+    // Package-scoped to facilitate unit tests. Runs re-validation on the calling thread, holding the lock for the study
+    // and upload date.
+    /* package-scoped */ void revalidateUploadsWithLock(Study study, LocalDate uploadDate,
+            UploadRevalidationCallback callback) {
+        String lockId = study.getIdentifier() + ":" + uploadDate;
+        String lock = null;
+        try {
+            lock = lockDao.acquireLock(UploadRevalidationService.class, lockId, LOCK_EXPIRE_SECONDS);
+            lockDao.startRenewal(UploadRevalidationService.class, lockId, lock, LOCK_EXPIRE_SECONDS);
+            revalidateUploadsHelper(study, uploadDate, callback);
+        } catch (ConcurrentModificationException ex) {
+            callback.error(String.format("Upload re-validation for study %s and upload date %s is already running",
+                    study.getIdentifier(), uploadDate));
+        } catch (RuntimeException ex) {
+            logger.error(String.format("Upload re-validation for study %s and upload date %s failed",
+                    study.getIdentifier(), uploadDate), ex);
+            callback.error("Upload re-validation failed: " + ex.getMessage());
+        } finally {
+            if (lock != null) {
+                lockDao.releaseLock(UploadRevalidationService.class, lockId, lock);
+            }
+            callback.done();
+        }
+    }
+
+    private void revalidateUploadsHelper(Study study, LocalDate uploadDate, UploadRevalidationCallback callback) {
+        String studyId = study.getIdentifier();
+        callback.start(studyId, uploadDate);
+
+        RateLimiter ddbRateLimiter = RateLimiter.create(ddbReadsPerSecond);
+        RateLimiter s3RateLimiter = RateLimiter.create(s3ReadsPerSecond);
+        Semaphore inFlightSemaphore = new Semaphore(concurrency);
+        AtomicInteger succeededCount = new AtomicInteger();
+        int uploadCount = 0;
+
+        // Uploads aren't keyed by study, so look up each upload's study by its health code. Users generally upload
+        // several times a day, so remember the health codes we've already looked up.
+        Map<String, String> studyIdByHealthCode = new HashMap<>();
+
+        try {
+            Iterator<Upload> uploadIter = uploadDao.getUploadsForDateAndStatus(uploadDate,
+                    UploadStatus.VALIDATION_FAILED);
+            while (true) {
+                ddbRateLimiter.acquire();
+                if (!uploadIter.hasNext()) {
+                    break;
+                }
+                Upload upload = uploadIter.next();
+
+                String healthCode = upload.getHealthCode();
+                String uploadStudyId = studyIdByHealthCode.get(healthCode);
+                if (uploadStudyId == null && !studyIdByHealthCode.containsKey(healthCode)) {
+                    uploadStudyId = healthCodeDao.getStudyIdentifier(healthCode);
+                    studyIdByHealthCode.put(healthCode, uploadStudyId);
+                }
+                if (!studyId.equals(uploadStudyId)) {
+                    continue;
+                }
+
+                // Wait for a free slot before downloading, so we never have more than concurrency uploads in flight.
+                inFlightSemaphore.acquireUninterruptibly();
+                s3RateLimiter.acquire();
+                submitUpload(study, upload, callback, inFlightSemaphore, succeededCount);
+                uploadCount++;
+            }
+        } finally {
+            // Wait for the remaining uploads to finish, even if reading uploads failed, so the callback isn't called
+            // after done().
+            inFlightSemaphore.acquireUninterruptibly(concurrency);
+            inFlightSemaphore.release(concurrency);
+        }
+
+        logger.info(String.format("Upload re-validation for study %s and upload date %s validated %d uploads, %d "
+                + "succeeded", studyId, uploadDate, uploadCount, succeededCount.get()));
+    }
+
+    // Validates the upload on the re-validation thread pool, or on this thread if the thread pool is shut down.
+    private void submitUpload(Study study, final Upload upload, final UploadRevalidationCallback callback,
+            final Semaphore inFlightSemaphore, final AtomicInteger succeededCount) {
+        // The only part of the user that upload validation needs is the health code.
+        User user = new User();
+        user.setHealthCode(upload.getHealthCode());
+        final Runnable task = taskFactory.newTask(study, user, upload);
+
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                    if (upload.getStatus() == UploadStatus.SUCCEEDED) {
+                        succeededCount.incrementAndGet();
+                    }
+                    callback.uploadValidated(upload);
+                } catch (RuntimeException ex) {
+                    logger.error("Error re-validating upload " + upload.getUploadId(), ex);
+                    callback.error(String.format("Error re-validating upload %s: %s", upload.getUploadId(),
+                            ex.getMessage()));
+                } finally {
+                    inFlightSemaphore.release();
+                }
+            }
+        };
+
+        try {
+            revalidationExecutorService.execute(runnable);
+        } catch (RejectedExecutionException ex) {
+            runnable.run();
+        }
+    }
+}
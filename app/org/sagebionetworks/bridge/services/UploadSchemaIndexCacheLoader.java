@@ -0,0 +1,32 @@
+package org.sagebionetworks.bridge.services;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.CacheLoader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dao.UploadSchemaDao;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
+
+/**
+ * This is the cache loader for upload schema indexes, keyed by study ID. On a cache miss, this loads all revisions
+ * of all upload schemas in the study and builds the index.
+ */
+@Component
+public class UploadSchemaIndexCacheLoader extends CacheLoader<String, UploadSchemaIndex> {
+    private UploadSchemaDao uploadSchemaDao;
+
+    /** DAO for upload schemas. This is configured by Spring. */
+    @Autowired
+    public void setUploadSchemaDao(UploadSchemaDao uploadSchemaDao) {
+        this.uploadSchemaDao = uploadSchemaDao;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public UploadSchemaIndex load(@Nonnull String studyId) {
+        return new UploadSchemaIndex(uploadSchemaDao.getUploadSchemasForStudy(new StudyIdentifierImpl(studyId)));
+    }
+}
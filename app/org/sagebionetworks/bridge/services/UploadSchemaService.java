@@ -1,16 +1,22 @@
 package org.sagebionetworks.bridge.services;
 
+import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.dao.UploadSchemaDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
 import org.sagebionetworks.bridge.validators.UploadSchemaValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 
@@ -20,6 +26,7 @@ import org.sagebionetworks.bridge.validators.Validate;
 @Component
 public class UploadSchemaService {
     private UploadSchemaDao uploadSchemaDao;
+    private LoadingCache<String, UploadSchemaIndex> uploadSchemaIndexCache;
 
     /** DAO for upload schemas. This is configured by Spring. */
     @Autowired
@@ -27,6 +34,12 @@ public class UploadSchemaService {
         this.uploadSchemaDao = uploadSchemaDao;
     }
 
+    /** Loading cache for upload schema indexes, keyed by study ID. This is configured by Spring. */
+    @Resource(name = "uploadSchemaIndexCache")
+    public void setUploadSchemaIndexCache(LoadingCache<String, UploadSchemaIndex> uploadSchemaIndexCache) {
+        this.uploadSchemaIndexCache = uploadSchemaIndexCache;
+    }
+
     /**
      * <p>
      * Service handler for creating and updating upload schemas. This method creates an upload schema, using the study
@@ -50,7 +63,13 @@ public class UploadSchemaService {
         Validate.entityThrowingException(UploadSchemaValidator.INSTANCE, uploadSchema);
 
         // call through to DAO
-        return uploadSchemaDao.createOrUpdateUploadSchema(studyIdentifier.getIdentifier(), uploadSchema);
+        UploadSchema createdSchema = uploadSchemaDao.createOrUpdateUploadSchema(studyIdentifier.getIdentifier(),
+                uploadSchema);
+
+        // The study's schemas changed, so drop the cached index. Other nodes pick up the change when their cached
+        // index expires.
+        uploadSchemaIndexCache.invalidate(studyIdentifier.getIdentifier());
+        return createdSchema;
     }
 
     /**
@@ -92,4 +111,30 @@ public class UploadSchemaService {
     public List<UploadSchema> getUploadSchemasForStudy(StudyIdentifier studyId) {
         return uploadSchemaDao.getUploadSchemasForStudy(studyId);
     }
+
+    /**
+     * <p>
+     * Service handler for fetching an index of all revisions of all upload schemas in a study, with the latest
+     * revision of each schema and each schema's field names precomputed. This is used by upload validation, which
+     * looks up schemas for every upload.
+     * </p>
+     * <p>
+     * The index is cached. The cache entry is invalidated when a schema in the study is created or updated on this
+     * node, and expires after upload.schema.cache.expire.seconds, so changes made on other nodes are picked up.
+     * </p>
+     * <p>
+     * This method does not validate the study ID, as that is not user input.
+     * </p>
+     *
+     * @param studyId
+     *         study ID to fetch the schema index for
+     * @return the upload schema index for the study, will be non-null
+     */
+    public UploadSchemaIndex getUploadSchemaIndexForStudy(StudyIdentifier studyId) {
+        try {
+            return uploadSchemaIndexCache.get(studyId.getIdentifier());
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
 }
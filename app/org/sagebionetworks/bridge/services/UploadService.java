@@ -152,6 +152,24 @@ public class UploadService {
         if (!AES_256_SERVER_SIDE_ENCRYPTION.equals(sse)) {
             logger.error("Missing S3 server-side encryption (SSE) for presigned upload " + uploadId + ".");
         }
+
+        // Clients often retry uploads after network errors. S3 checks the Content-MD5 signed into the presigned URL,
+        // so if the same user already uploaded the same MD5 and it validated, this is the same content. Link it to
+        // the earlier upload instead of validating it again. The lookup is only an optimization, so if it fails,
+        // validate as usual.
+        Upload originalUpload = null;
+        try {
+            originalUpload = uploadDao.getDuplicateUpload(upload);
+        } catch (RuntimeException ex) {
+            logger.warn("Error looking up duplicates for upload " + uploadId + ": " + ex.getMessage(), ex);
+        }
+        if (originalUpload != null) {
+            logger.info(String.format("Upload %s is a duplicate of upload %s, skipping validation", uploadId,
+                    originalUpload.getUploadId()));
+            uploadDao.markDuplicate(upload, originalUpload);
+            return;
+        }
+
         uploadDao.uploadComplete(upload);
     }
 }
@@ -1,28 +1,96 @@
 package org.sagebionetworks.bridge.services;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
 import org.sagebionetworks.bridge.models.User;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationQueue;
+import org.sagebionetworks.bridge.upload.UploadValidationQueueItem;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
 
-/** Service handler for upload validation. */
+/**
+ * <p>
+ * Service handler for upload validation. Uploads are queued in the durable upload validation queue (see
+ * {@link UploadValidationQueue}), so validation survives node restarts and can be picked up by any worker node.
+ * </p>
+ * <p>
+ * On worker nodes (upload.validation.queue.worker = true), a poller leases queued uploads whenever the validation
+ * thread pool has a free thread, and a sweeper periodically re-queues uploads whose worker died before finishing.
+ * Uploads that fail this way too many times are marked as failed. The poller and sweeper are started by the Play app
+ * (see GlobalWithFilters), so tools that load the Spring context, like UploadArchiveUtil, don't process the queue.
+ * </p>
+ */
 @Component
 public class UploadValidationService {
-    private ExecutorService asyncExecutorService;
+    private static final Logger logger = LoggerFactory.getLogger(UploadValidationService.class);
+
+    private static final BridgeConfig CONFIG = BridgeConfigFactory.getConfig();
+    private static final boolean WORKER_DEFAULT = Boolean.parseBoolean(CONFIG.getProperty(
+            "upload.validation.queue.worker"));
+    private static final int MAX_ATTEMPTS_DEFAULT = CONFIG.getPropertyAsInt("upload.validation.queue.max.attempts");
+    private static final int MAX_IN_FLIGHT_DEFAULT = CONFIG.getPropertyAsInt("upload.validation.thread.count");
+    private static final int POLL_MILLIS = CONFIG.getPropertyAsInt("upload.validation.queue.poll.millis");
+    private static final int SWEEP_SECONDS = CONFIG.getPropertyAsInt("upload.validation.queue.sweep.seconds");
+
+    private ExecutorService uploadValidationExecutorService;
+    private StudyService studyService;
+    private UploadDao uploadDao;
+    private UploadValidationQueue uploadValidationQueue;
     private UploadValidationTaskFactory taskFactory;
+    private boolean worker = WORKER_DEFAULT;
+    private int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+    private int maxInFlight = MAX_IN_FLIGHT_DEFAULT;
+
+    // Number of leased uploads submitted to the thread pool that haven't finished yet. The poller only leases
+    // uploads when this is below maxInFlight, so leased uploads never wait behind a full thread pool.
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private ScheduledExecutorService queueScheduler;
 
-    /** Async thread pool. This is configured by Spring. */
-    @Resource(name = "asyncExecutorService")
-    public void setAsyncExecutorService(ExecutorService asyncExecutorService) {
-        this.asyncExecutorService = asyncExecutorService;
+    /** Upload validation thread pool, which has a bounded queue. This is configured by Spring. */
+    @Resource(name = "uploadValidationExecutorService")
+    public void setUploadValidationExecutorService(ExecutorService uploadValidationExecutorService) {
+        this.uploadValidationExecutorService = uploadValidationExecutorService;
+    }
+
+    /** Study service, used to load the study for queued uploads. This is configured by Spring. */
+    @Autowired
+    public void setStudyService(StudyService studyService) {
+        this.studyService = studyService;
+    }
+
+    /** Upload DAO, used to load queued uploads and to reset uploads that can't be validated. Configured by Spring. */
+    @Autowired
+    public void setUploadDao(UploadDao uploadDao) {
+        this.uploadDao = uploadDao;
+    }
+
+    /** Durable upload validation queue. This is configured by Spring. */
+    @Autowired
+    public void setUploadValidationQueue(UploadValidationQueue uploadValidationQueue) {
+        this.uploadValidationQueue = uploadValidationQueue;
     }
 
     /** Task factory. This is configured by Spring. */
@@ -31,6 +99,75 @@ public class UploadValidationService {
         this.taskFactory = taskFactory;
     }
 
+    /**
+     * True if this node should process uploads from the queue. Defaults to the upload.validation.queue.worker config
+     * property. This is exposed primarily for unit tests.
+     */
+    public void setWorker(boolean worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * Number of times an upload is leased from the queue before it's marked as failed. Defaults to the
+     * upload.validation.queue.max.attempts config property. This is exposed primarily for unit tests.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Maximum number of leased uploads this node validates at once. Defaults to the upload.validation.thread.count
+     * config property. This is exposed primarily for unit tests.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Starts the queue poller and sweeper, if this node is a worker. This is called by the Play app on startup, not
+     * by Spring, so other processes that load the Spring context don't lease uploads from the queue.
+     */
+    public synchronized void start() {
+        if (!worker || queueScheduler != null) {
+            return;
+        }
+
+        queueScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("upload-validation-queue-%d").setDaemon(true).build());
+        queueScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollQueue();
+                } catch (RuntimeException ex) {
+                    logger.error("Error polling upload validation queue", ex);
+                }
+            }
+        }, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        queueScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweepQueue();
+                } catch (RuntimeException ex) {
+                    logger.error("Error sweeping upload validation queue", ex);
+                }
+            }
+        }, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the queue poller and sweeper. Uploads this node has leased but not finished are picked up by another
+     * node's sweeper once their lease expires. This is called by Spring.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (queueScheduler != null) {
+            queueScheduler.shutdownNow();
+            queueScheduler = null;
+        }
+    }
+
     /**
      * <p>
      * Kick off upload validation. Since upload validation can take some time, we handle this asynchronously. This
@@ -40,6 +177,16 @@ public class UploadValidationService {
      * Study and user comes from the controller and upload comes from UploadService.getUpload(), so none of the fields
      * are user input, so validation is not needed.
      * </p>
+     * <p>
+     * The upload is added to the durable upload validation queue. If the queue is unavailable, the upload is
+     * validated on this node's thread pool instead. If that thread pool is saturated, the upload is reset to
+     * REQUESTED, so the client can call uploadComplete again later, and this method throws a
+     * ServiceUnavailableException.
+     * </p>
+     * <p>
+     * Uploads that UploadService.uploadComplete() already marked as SUCCEEDED are duplicates of an earlier upload and
+     * aren't validated again.
+     * </p>
      *
      * @param study
      *         study this upload lives in
@@ -49,7 +196,122 @@ public class UploadValidationService {
      *         upload metadata object for the upload
      */
     public void validateUpload(@Nonnull Study study, @Nonnull User user, @Nonnull Upload upload) {
+        if (upload.getStatus() == UploadStatus.SUCCEEDED) {
+            return;
+        }
+
+        if (uploadValidationQueue.enqueue(study.getIdentifier(), upload.getUploadId())) {
+            return;
+        }
+
+        logger.warn(String.format("Upload validation queue unavailable, validating upload %s for study %s locally",
+                upload.getUploadId(), study.getIdentifier()));
         UploadValidationTask task = taskFactory.newTask(study, user, upload);
-        asyncExecutorService.execute(task);
+        try {
+            uploadValidationExecutorService.execute(task);
+        } catch (RejectedExecutionException ex) {
+            logger.warn(String.format("Upload validation queue full, rejecting upload %s for study %s",
+                    upload.getUploadId(), study.getIdentifier()));
+            uploadDao.writeValidationStatus(upload, UploadStatus.REQUESTED, ImmutableList.of(
+                    "Upload validation is busy. Call upload complete again to retry."));
+            throw new ServiceUnavailableException(String.format(
+                    "Upload validation is busy. Please retry upload complete for upload %s later.",
+                    upload.getUploadId()));
+        }
+    }
+
+    /**
+     * Leases uploads from the queue and submits them to the validation thread pool, until either the queue is empty
+     * or this node has maxInFlight uploads in progress. This is called periodically by the queue poller, and is
+     * exposed primarily for unit tests.
+     */
+    public void pollQueue() {
+        while (inFlightCount.get() < maxInFlight) {
+            UploadValidationQueueItem item = uploadValidationQueue.lease();
+            if (item == null) {
+                return;
+            }
+            if (!submitItem(item)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Re-queues uploads whose worker died before finishing. Uploads that have used up their attempts are marked as
+     * failed instead. This is called periodically by the queue sweeper, and is exposed primarily for unit tests.
+     */
+    public void sweepQueue() {
+        for (UploadValidationQueueItem oneItem : uploadValidationQueue.getExpiredItems()) {
+            logger.warn("Upload validation lease expired for queue item " + oneItem);
+            retryOrFail(oneItem);
+        }
+    }
+
+    // Submits a leased item to the thread pool. Returns false if the thread pool rejected the item, in which case the
+    // item has been put back in the queue.
+    private boolean submitItem(final UploadValidationQueueItem item) {
+        final UploadValidationTask task;
+        try {
+            Upload upload = uploadDao.getUpload(item.getUploadId());
+            if (upload.getStatus() != UploadStatus.VALIDATION_IN_PROGRESS) {
+                // Already validated. This happens if a worker finished validation but died before acknowledging.
+                uploadValidationQueue.ack(item);
+                return true;
+            }
+
+            Study study = studyService.getStudy(item.getStudyId());
+
+            // The only part of the user that upload validation needs is the health code.
+            User user = new User();
+            user.setHealthCode(upload.getHealthCode());
+
+            task = taskFactory.newTask(study, user, upload);
+        } catch (RuntimeException ex) {
+            logger.error("Error loading upload validation queue item " + item, ex);
+            retryOrFail(item);
+            return true;
+        }
+
+        inFlightCount.incrementAndGet();
+        try {
+            uploadValidationExecutorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        inFlightCount.decrementAndGet();
+                        uploadValidationQueue.ack(item);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            // The thread pool is shared with local fallback validation, so it can fill up. Try again later.
+            inFlightCount.decrementAndGet();
+            uploadValidationQueue.requeue(item, item);
+            return false;
+        }
+    }
+
+    // Re-queues the item for another attempt, or marks the upload as failed if it's out of attempts.
+    private void retryOrFail(UploadValidationQueueItem item) {
+        UploadValidationQueueItem nextItem = item.nextAttempt();
+        if (nextItem.getAttempt() < maxAttempts) {
+            uploadValidationQueue.requeue(item, nextItem);
+            return;
+        }
+
+        logger.error(String.format("Upload validation for upload %s in study %s failed after %d attempts",
+                item.getUploadId(), item.getStudyId(), nextItem.getAttempt()));
+        try {
+            Upload upload = uploadDao.getUpload(item.getUploadId());
+            uploadDao.writeValidationStatus(upload, UploadStatus.VALIDATION_FAILED, ImmutableList.of(String.format(
+                    "Upload validation did not complete after %d attempts.", nextItem.getAttempt())));
+        } catch (RuntimeException ex) {
+            logger.error("Error marking upload " + item.getUploadId() + " as failed", ex);
+        }
+        uploadValidationQueue.ack(item);
     }
 }
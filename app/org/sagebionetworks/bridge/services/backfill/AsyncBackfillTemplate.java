@@ -65,18 +65,11 @@ abstract class AsyncBackfillTemplate implements BackfillService {
         String lock = null;
         try {
             lock = lockDao.acquireLock(clazz, obj, getLockExpireInSeconds());
+            // Backfills can outlast the lock expiration. Keep the lock for as long as the backfill runs.
+            lockDao.startRenewal(clazz, obj, lock, getLockExpireInSeconds());
             backfillTask(user, name, callback);
         } catch (ConcurrentModificationException e) {
-            long since = DateTime.now(DateTimeZone.UTC).getMillis() - getLockExpireInSeconds() * 1000L;
-            List<? extends BackfillTask> tasks = backfillDao.getTasks(name, since);
-            if (tasks.isEmpty()) {
-                throw new RuntimeException("Failed to acquire lock but there is not recent backfill of " + name);
-            }
-            // A backfill task may complete well within the lock expiration. If we look back over the
-            // duration of lock expiration, we could get more than one backfill tasks. Only the most
-            // recent one is blocking us; the rest should have finished. Check the most recent one and
-            // report back the progress.
-            final BackfillTask recentTask = tasks.get(tasks.size() - 1);
+            final BackfillTask recentTask = getBlockingTask(name);
             final int count = backfillDao.getRecordCount(recentTask.getId());
             final String msg = "Found a recent task of " + name
                     + " started at " + (new DateTime(recentTask.getTimestamp())).toString()
@@ -90,6 +83,40 @@ abstract class AsyncBackfillTemplate implements BackfillService {
         }
     }
 
+    /**
+     * Finds the task that holds the lock. A backfill task may complete well within the lock expiration, so looking
+     * back over the duration of lock expiration can find more than one task; only the most recent in-process one is
+     * blocking us. But the lock is renewed for as long as the backfill runs, so the blocking task may have started
+     * before that. If there's no in-process task within the lock expiration, look through all the tasks.
+     */
+    private BackfillTask getBlockingTask(final String name) {
+        long since = DateTime.now(DateTimeZone.UTC).getMillis() - getLockExpireInSeconds() * 1000L;
+        BackfillTask task = getLastInProcessTask(backfillDao.getTasks(name, since));
+        if (task != null) {
+            return task;
+        }
+        List<? extends BackfillTask> tasks = backfillDao.getTasks(name, 0L);
+        task = getLastInProcessTask(tasks);
+        if (task != null) {
+            return task;
+        }
+        if (tasks.isEmpty()) {
+            throw new RuntimeException("Failed to acquire lock but there is no backfill of " + name);
+        }
+        // The task holding the lock may not be marked in-process yet. Report the most recent one.
+        return tasks.get(tasks.size() - 1);
+    }
+
+    private BackfillTask getLastInProcessTask(final List<? extends BackfillTask> tasks) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            BackfillTask task = tasks.get(i);
+            if (BackfillStatus.IN_PROCESS.name().equals(task.getStatus())) {
+                return task;
+            }
+        }
+        return null;
+    }
+
     private void backfillTask(final String user, final String name, final BackfillCallback callback) {
         BackfillTask task = null;
         try {
@@ -109,7 +136,8 @@ abstract class AsyncBackfillTemplate implements BackfillService {
     }
 
     /**
-     * How long (in seconds) should the lock expire.
+     * How long (in seconds) should the lock expire. The lock is renewed while the backfill runs, so this is how long
+     * the lock is held after a server dies mid-backfill.
      */
     abstract int getLockExpireInSeconds();
 
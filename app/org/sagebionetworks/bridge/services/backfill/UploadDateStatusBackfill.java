@@ -0,0 +1,59 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import java.util.Iterator;
+
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.models.BackfillTask;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Backfills the upload date and status index for uploads that failed validation before the index was added, so they
+ * can be found by date and re-validated.
+ */
+@Component
+public class UploadDateStatusBackfill extends AsyncBackfillTemplate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploadDateStatusBackfill.class);
+
+    private BackfillRecordFactory backfillRecordFactory;
+    private UploadDao uploadDao;
+
+    @Autowired
+    @Override
+    public void setBackfillRecordFactory(BackfillRecordFactory backfillRecordFactory) {
+        super.setBackfillRecordFactory(backfillRecordFactory);
+        this.backfillRecordFactory = backfillRecordFactory;
+    }
+
+    @Autowired
+    public void setUploadDao(UploadDao uploadDao) {
+        this.uploadDao = uploadDao;
+    }
+
+    @Override
+    int getLockExpireInSeconds() {
+        return 30 * 60;
+    }
+
+    @Override
+    void doBackfill(final BackfillTask task, final BackfillCallback callback) {
+        for (Iterator<Upload> i = uploadDao.getUploadsMissingUploadDateStatus(UploadStatus.VALIDATION_FAILED);
+                i.hasNext();) {
+            Upload upload = i.next();
+            try {
+                uploadDao.backfillUploadDateStatus(upload);
+                String msg = "Upload " + upload.getUploadId() + " added to the upload date and status index.";
+                callback.newRecords(backfillRecordFactory.createOnly(task, msg));
+            } catch (final RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+                String msg = "Upload " + upload.getUploadId() + ": " + e.getClass().getName() + " " + e.getMessage();
+                callback.newRecords(backfillRecordFactory.createOnly(task, msg));
+            }
+        }
+    }
+}
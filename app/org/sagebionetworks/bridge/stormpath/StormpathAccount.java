@@ -21,8 +21,8 @@ import com.stormpath.sdk.group.Group;
 
 /**
  * Account values are decrypted with the appropriate Encryptor implementation based on the version 
- * stored with the encrypted value; values are always encrypted with the most recent Encryptor 
- * implementation. To migrate to the latest encryption implementation, you can simply call (using 
+ * stored with the encrypted value; values are always encrypted with the write version, normally 
+ * the most recent Encryptor implementation. To migrate to the write version, you can simply call (using 
  * the example of the phone number) <code>account.setPhone(account.getPhone())</code>, and then 
  * save the account via the AccountDao.
  * 
@@ -47,6 +47,7 @@ class StormpathAccount implements Account {
     private final com.stormpath.sdk.account.Account acct;
     private final StudyIdentifier studyIdentifier;
     private final SortedMap<Integer,Encryptor> encryptors;
+    private final int writeVersion;
     private final String healthIdKey;
     private final String consentSignatureKey;
     private final String oldHealthIdVersionKey;
@@ -54,7 +55,7 @@ class StormpathAccount implements Account {
     private final Set<String> roles;
     
     StormpathAccount(StudyIdentifier studyIdentifier, com.stormpath.sdk.account.Account acct,
-            SortedMap<Integer, Encryptor> encryptors) {
+            SortedMap<Integer, Encryptor> encryptors, int writeVersion) {
         checkNotNull(studyIdentifier);
         checkNotNull(acct);
         checkNotNull(encryptors);
@@ -64,6 +65,7 @@ class StormpathAccount implements Account {
         this.acct = acct;
         this.studyIdentifier = studyIdentifier;
         this.encryptors = encryptors;
+        this.writeVersion = writeVersion;
         this.healthIdKey = studyId + HEALTH_CODE_SUFFIX;
         this.consentSignatureKey = studyId + CONSENT_SIGNATURE_SUFFIX;
         this.oldHealthIdVersionKey = studyId + OLD_VERSION_SUFFIX;
@@ -217,9 +219,12 @@ class StormpathAccount implements Account {
             acct.getCustomData().remove(key);
             return;
         }
-        // Encryption is always done with the most recent encryptor, which is last in the list (most revent version #)
-        Integer encryptorKey = encryptors.lastKey();
-        Encryptor encryptor = encryptors.get(encryptorKey);
+        // Encryption is always done with the write version, which may be older than the most recent encryptor while
+        // servers that can't read the most recent one are still running.
+        Encryptor encryptor = encryptors.get(writeVersion);
+        if (encryptor == null) {
+            throw new BridgeServiceException("No encryptor can be found for version " + writeVersion);
+        }
 
         String encrypted = encryptor.encrypt(value);
         acct.getCustomData().put(key, encrypted);
@@ -70,6 +70,8 @@ public class StormpathAccountDao implements AccountDao {
     private Client client;
     private StudyService studyService;
     private SortedMap<Integer,Encryptor> encryptors = Maps.newTreeMap();
+    private int writeEncryptorVersion = BridgeConfigFactory.getConfig().getPropertyAsInt(
+            "account.encryptor.write.version");
 
     @Resource(name = "stormpathApplication")
     public void setStormpathApplication(Application application) {
@@ -89,6 +91,13 @@ public class StormpathAccountDao implements AccountDao {
             encryptors.put(encryptor.getVersion(), encryptor);
         }
     }
+    /**
+     * Version of the encryptor account values are written with. Defaults to the account.encryptor.write.version config
+     * setting. Values written with any version in the encryptor list can be read.
+     */
+    public void setWriteEncryptorVersion(int writeEncryptorVersion) {
+        this.writeEncryptorVersion = writeEncryptorVersion;
+    }
 
     @Override
     public Iterator<Account> getAllAccounts() {
@@ -109,7 +118,8 @@ public class StormpathAccountDao implements AccountDao {
         checkNotNull(study);
 
         Directory directory = client.getResource(study.getStormpathHref(), Directory.class);
-        return new StormpathAccountIterator(study, encryptors, directory.getAccounts().iterator());
+        return new StormpathAccountIterator(study, encryptors, writeEncryptorVersion,
+                directory.getAccounts().iterator());
     }
 
     @Override
@@ -119,7 +129,7 @@ public class StormpathAccountDao implements AccountDao {
         
         try {
             com.stormpath.sdk.account.Account acct = client.verifyAccountEmail(verification.getSptoken());
-            return (acct == null) ? null : new StormpathAccount(study, acct, encryptors);
+            return (acct == null) ? null : new StormpathAccount(study, acct, encryptors, writeEncryptorVersion);
         } catch(ResourceException e) {
             rethrowResourceException(e, null);
         }
@@ -223,7 +233,8 @@ public class StormpathAccountDao implements AccountDao {
             UsernamePasswordRequest request = new UsernamePasswordRequest(signIn.getUsername(), signIn.getPassword(), directory);
             AuthenticationResult result = application.authenticateAccount(request);
             if (result.getAccount() != null) {
-                return new StormpathAccount(study.getStudyIdentifier(), result.getAccount(), encryptors);
+                return new StormpathAccount(study.getStudyIdentifier(), result.getAccount(), encryptors,
+                        writeEncryptorVersion);
             }
         } catch (ResourceException e) {
             rethrowResourceException(e, null);
@@ -242,7 +253,7 @@ public class StormpathAccountDao implements AccountDao {
                 .withCustomData().withGroups().withGroupMemberships());
         if (accounts.iterator().hasNext()) {
             com.stormpath.sdk.account.Account acct = accounts.iterator().next();
-            return new StormpathAccount(study.getStudyIdentifier(), acct, encryptors);
+            return new StormpathAccount(study.getStudyIdentifier(), acct, encryptors, writeEncryptorVersion);
         }
         return null;
     }
@@ -253,7 +264,7 @@ public class StormpathAccountDao implements AccountDao {
         checkNotNull(signUp);
         
         com.stormpath.sdk.account.Account acct = client.instantiate(com.stormpath.sdk.account.Account.class);
-        Account account = new StormpathAccount(study.getStudyIdentifier(), acct, encryptors);
+        Account account = new StormpathAccount(study.getStudyIdentifier(), acct, encryptors, writeEncryptorVersion);
         account.setUsername(signUp.getUsername());
         account.setEmail(signUp.getEmail());
         account.setFirstName(StormpathAccount.PLACEHOLDER_STRING);
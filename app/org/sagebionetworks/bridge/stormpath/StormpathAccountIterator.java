@@ -13,15 +13,18 @@ public final class StormpathAccountIterator implements Iterator<Account> {
 
     private final Study study;
     private final SortedMap<Integer,Encryptor> encryptors;
+    private final int writeVersion;
     private final Iterator<com.stormpath.sdk.account.Account> iterator;
     
-    public StormpathAccountIterator(Study study, SortedMap<Integer,Encryptor> encryptors, Iterator<com.stormpath.sdk.account.Account> iterator) {
+    public StormpathAccountIterator(Study study, SortedMap<Integer,Encryptor> encryptors, int writeVersion,
+            Iterator<com.stormpath.sdk.account.Account> iterator) {
         checkNotNull(study);
         checkNotNull(encryptors);
         checkNotNull(iterator);
         
         this.study = study;
         this.encryptors = encryptors;
+        this.writeVersion = writeVersion;
         this.iterator = iterator;
     }
     
@@ -34,7 +37,7 @@ public final class StormpathAccountIterator implements Iterator<Account> {
     public Account next() {
         com.stormpath.sdk.account.Account acct = iterator.next();
         if (acct != null) {
-            return new StormpathAccount(study, acct, encryptors);
+            return new StormpathAccount(study, acct, encryptors, writeVersion);
         }
         return null;
     }
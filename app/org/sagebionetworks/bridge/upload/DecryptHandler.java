@@ -1,19 +1,29 @@
 package org.sagebionetworks.bridge.upload;
 
 import javax.annotation.Nonnull;
+import java.io.InputStream;
+import java.util.Set;
 
+import com.google.common.collect.Sets;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.services.UploadArchiveService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
 
 /**
  * Validation handler for decrypting the upload. This handler reads from
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getData}, decrypts it, and writes the decrypted
- * data to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDecryptedData }.
+ * data to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDecryptedData }. In streaming mode, this
+ * handler instead wraps {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getDataStream} in a
+ * decrypting stream and writes it to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDecryptedDataStream}.
  */
 @Component
-public class DecryptHandler implements UploadValidationHandler {
+public class DecryptHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.STUDY, Field.DATA);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.DECRYPTED_DATA);
+
     private UploadArchiveService uploadArchiveService;
 
     /** Upload archive service, which handles decrypting and unzipping of files. This is configured by Spring. */
@@ -22,9 +32,28 @@ public class DecryptHandler implements UploadValidationHandler {
         this.uploadArchiveService = uploadArchiveService;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) {
+        if (context.isStreaming()) {
+            InputStream decryptedDataStream = uploadArchiveService.decrypt(context.getStudy().getIdentifier(),
+                    context.getDataStream());
+            context.setDecryptedDataStream(decryptedDataStream);
+            return;
+        }
+
         byte[] decryptedData = uploadArchiveService.decrypt(context.getStudy().getIdentifier(), context.getData());
         context.setDecryptedData(decryptedData);
     }
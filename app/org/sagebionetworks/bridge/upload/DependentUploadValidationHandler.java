@@ -0,0 +1,27 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.Set;
+
+/**
+ * <p>
+ * Upload validation handler that declares which parts of the {@link UploadValidationContext} it reads and writes.
+ * UploadValidationTask uses these to find handlers that don't depend on each other, and runs them concurrently. For
+ * example, looking up the user's participant options doesn't depend on downloading the upload, so the two can overlap.
+ * </p>
+ * <p>
+ * A handler runs after every earlier handler in the list that writes something it reads, reads something it writes,
+ * or writes something it writes. Handlers that don't implement this interface depend on every other handler, so they
+ * always run alone, in list order.
+ * </p>
+ * <p>
+ * Declarations must be complete. A handler that reads or writes a part of the context it doesn't declare may race
+ * with other handlers.
+ * </p>
+ */
+public interface DependentUploadValidationHandler extends UploadValidationHandler {
+    /** Parts of the context this handler reads. */
+    Set<UploadValidationContext.Field> getInputs();
+
+    /** Parts of the context this handler writes, including parts it modifies in place. */
+    Set<UploadValidationContext.Field> getOutputs();
+}
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.upload;
 
 import javax.annotation.Nonnull;
 
+import java.io.ByteArrayOutputStream;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,10 +15,10 @@ import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,12 +33,20 @@ import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
 import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
 import org.sagebionetworks.bridge.services.UploadSchemaService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 // TODO: Currently, all apps are iOS-based. However, when we start having non-iOS apps, we'll need to restructure this
 // so that it only runs in the iOS context.
 @Component
-public class IosSchemaValidationHandler implements UploadValidationHandler {
+public class IosSchemaValidationHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.STUDY, Field.UPLOAD, Field.UNZIPPED_DATA,
+            Field.JSON_DATA, Field.UPLOAD_SCHEMA_INDEX);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.UNZIPPED_DATA, Field.JSON_DATA,
+            Field.HEALTH_DATA_RECORD, Field.ATTACHMENTS);
+
     private static final Set<UploadFieldType> ATTACHMENT_TYPE_SET = EnumSet.of(UploadFieldType.ATTACHMENT_BLOB,
             UploadFieldType.ATTACHMENT_CSV, UploadFieldType.ATTACHMENT_JSON_BLOB,
             UploadFieldType.ATTACHMENT_JSON_TABLE);
@@ -71,14 +80,26 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
         this.uploadSchemaService = uploadSchemaService;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
     // iOS data comes from a third party, and we have no control over the data format. So our data validation needs to
     // be as flexible as possible. Which means our error handling strategy is to write a warning to the logs, and then
     // attempt to recover. This will, however, cause cascading errors further down the validation chain.
     @Override
     public void handle(@Nonnull UploadValidationContext context)
             throws UploadValidationException {
-        Map<String, JsonNode> jsonDataMap = context.getJsonDataMap();
-        Map<String, byte[]> unzippedDataMap = context.getUnzippedDataMap();
+        LazyJsonDataMap jsonDataMap = context.getJsonDataMap();
+        Map<String, SpillBuffer> unzippedDataMap = context.getUnzippedDataMap();
         Upload upload = context.getUpload();
         String uploadId = upload.getUploadId();
         Study study = context.getStudy();
@@ -87,7 +108,7 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
         // Add empty record builder and attachment map to the context. We'll fill these in as we need them.
         HealthDataRecordBuilder recordBuilder = healthDataDao.getRecordBuilder();
         context.setHealthDataRecordBuilder(recordBuilder);
-        Map<String, byte[]> attachmentMap = new HashMap<>();
+        Map<String, SpillBuffer> attachmentMap = new HashMap<>();
         context.setAttachmentsByFieldName(attachmentMap);
 
         // health data records fields
@@ -119,22 +140,23 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
         removeTimestampsFromFilenames(jsonDataMap);
         removeTimestampsFromFilenames(unzippedDataMap);
 
-        // get schemas
-        // TODO: cache this
-        List<UploadSchema> schemaList = uploadSchemaService.getUploadSchemasForStudy(study);
-        UploadSchema surveySchema = uploadSchemaService.getUploadSchema(study, SCHEMA_IOS_SURVEY);
+        // get schemas (cached), generally looked up ahead of time by UploadSchemaIndexHandler
+        UploadSchemaIndex schemaIndex = context.getUploadSchemaIndex();
+        if (schemaIndex == null) {
+            schemaIndex = uploadSchemaService.getUploadSchemaIndexForStudy(study);
+        }
 
         if (!unzippedDataMap.isEmpty()) {
-            handleNonJsonData(context, uploadId, jsonDataMap, unzippedDataMap, item, schemaList, recordBuilder,
+            handleNonJsonData(context, uploadId, jsonDataMap, unzippedDataMap, item, schemaIndex, recordBuilder,
                     attachmentMap);
         } else {
             // This means our data is in JSON format, so we can look inside it to figure out what it is.
 
             if (isSurvey(jsonDataMap)) {
-                handleSurvey(context, uploadId, jsonDataMap, item, taskRunId, surveySchema, recordBuilder,
+                handleSurvey(context, uploadId, jsonDataMap, item, taskRunId, schemaIndex, recordBuilder,
                         attachmentMap, dataMap);
             } else {
-                handleJsonData(context, uploadId, jsonDataMap, schemaList, recordBuilder, attachmentMap, dataMap);
+                handleJsonData(context, uploadId, jsonDataMap, schemaIndex, recordBuilder, attachmentMap, dataMap);
             }
         }
     }
@@ -154,7 +176,7 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
     }
 
     private static void validateInfoJsonFileList(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> unzippedDataMap, JsonNode infoJson,
+            Map<String, JsonNode> jsonDataMap, Map<String, SpillBuffer> unzippedDataMap, JsonNode infoJson,
             HealthDataRecordBuilder recordBuilder) {
         // Make sure all files specified by info.json are accounted for.
         // Because ParseJsonHandler moves files from unzippedDataMap to jsonDataMap, there is no overlap between the
@@ -237,18 +259,34 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
         // hitting concurrent modification exceptions.
         ImmutableSet<String> filenameSet = ImmutableSet.copyOf(fileMap.keySet());
         for (String oneFilename : filenameSet) {
-            Matcher filenameMatcher = FILENAME_TIMESTAMP_PATTERN.matcher(oneFilename);
-            if (filenameMatcher.find()) {
+            String newFilename = removeTimestampFromFilename(oneFilename);
+            if (newFilename != null) {
                 T fileData = fileMap.remove(oneFilename);
-                String newFilename = filenameMatcher.replaceAll("");
                 fileMap.put(newFilename, fileData);
             }
         }
     }
 
+    // Same as above, but renames the JSON files in place, so they don't need to be parsed.
+    private static void removeTimestampsFromFilenames(LazyJsonDataMap jsonDataMap) {
+        ImmutableSet<String> filenameSet = ImmutableSet.copyOf(jsonDataMap.keySet());
+        for (String oneFilename : filenameSet) {
+            String newFilename = removeTimestampFromFilename(oneFilename);
+            if (newFilename != null) {
+                jsonDataMap.rename(oneFilename, newFilename);
+            }
+        }
+    }
+
+    // Returns the filename with timestamps removed, or null if the filename has no timestamps.
+    private static String removeTimestampFromFilename(String filename) {
+        Matcher filenameMatcher = FILENAME_TIMESTAMP_PATTERN.matcher(filename);
+        return filenameMatcher.find() ? filenameMatcher.replaceAll("") : null;
+    }
+
     private static void handleNonJsonData(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> unzippedDataMap, String infoJsonItem,
-            List<UploadSchema> schemaList, HealthDataRecordBuilder recordBuilder, Map<String, byte[]> attachmentMap)
+            LazyJsonDataMap jsonDataMap, Map<String, SpillBuffer> unzippedDataMap, String infoJsonItem,
+            UploadSchemaIndex schemaIndex, HealthDataRecordBuilder recordBuilder, Map<String, SpillBuffer> attachmentMap)
             throws UploadValidationException {
         // Attempting to parse into the non-JSON data is an exercise in madness. Our best strategy here is to
         // match the "item" field in info.json with one of the schema names, and pick the one with the latest
@@ -260,14 +298,7 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
         }
 
         // Try to find the schema.
-        UploadSchema latestSchema = null;
-        for (UploadSchema oneSchema : schemaList) {
-            if (oneSchema.getName().equals(infoJsonItem)) {
-                if (latestSchema == null || oneSchema.getRevision() > latestSchema.getRevision()) {
-                    latestSchema = oneSchema;
-                }
-            }
-        }
+        UploadSchema latestSchema = schemaIndex.getLatestSchemaByName(infoJsonItem);
         if (latestSchema == null) {
             // No schema, no health data record. Game over.
             throw new UploadValidationException(String.format("No schema found for item %s", infoJsonItem));
@@ -289,27 +320,20 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
 
         // Find fields of type in ATTACHMENT_TYPE_SET to store the attachment ref in. The field name is the same as the
         // filename.
-        Set<String> fieldNameSet = new HashSet<>();
+        Set<String> fieldNameSet = schemaIndex.getFieldNameSet(latestSchema);
         for (UploadFieldDefinition oneFieldDef : fieldDefList) {
             String fieldName = oneFieldDef.getName();
-            fieldNameSet.add(fieldName);
 
             if (ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
-                byte[] data = unzippedDataMap.get(fieldName);
+                SpillBuffer data = unzippedDataMap.get(fieldName);
                 if (data != null) {
                     // Write this to the attachment map. UploadArtifactsHandler will take care of the rest.
                     attachmentMap.put(fieldName, data);
                 } else {
-                    JsonNode jsonData = jsonDataMap.get(fieldName);
+                    byte[] jsonData = jsonDataMap.getRawBytes(fieldName);
                     if (jsonData != null) {
-                        // Convert to raw bytes, then add to attachment map.
-                        try {
-                            attachmentMap.put(fieldName, BridgeObjectMapper.get().writeValueAsBytes(jsonData));
-                        } catch (JsonProcessingException ex) {
-                            addMessageAndWarn(context, String.format(
-                                    "Upload ID %s attachment field %s could not be converted to JSON: %s", uploadId,
-                                    fieldName, ex.getMessage()));
-                        }
+                        // Use the raw JSON bytes directly. There's no need to parse them.
+                        attachmentMap.put(fieldName, SpillBuffer.wrap(jsonData));
                     } else if (oneFieldDef.isRequired()) {
                         addMessageAndWarn(context, String.format(
                                 "Upload ID %s with schema ID %s has required field %s with no corresponding file",
@@ -376,30 +400,41 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
     }
 
     private static void handleSurvey(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> jsonDataMap, String infoJsonItem, String taskRunId, UploadSchema surveySchema,
-            HealthDataRecordBuilder recordBuilder, Map<String, byte[]> attachmentMap, ObjectNode dataMap) {
+            LazyJsonDataMap jsonDataMap, String infoJsonItem, String taskRunId, UploadSchemaIndex schemaIndex,
+            HealthDataRecordBuilder recordBuilder, Map<String, SpillBuffer> attachmentMap, ObjectNode dataMap)
+            throws UploadValidationException {
+        UploadSchema surveySchema = schemaIndex.getLatestSchemaById(SCHEMA_IOS_SURVEY);
+        if (surveySchema == null) {
+            // No schema, no health data record. Game over.
+            throw new UploadValidationException(String.format("No schema found for %s", SCHEMA_IOS_SURVEY));
+        }
+
         // Currently, the 3rd party iOS apps don't tag surveys or questions with guids. (In fact, some of the
         // surveys aren't even in the Surveys table yet.) So we can't store survey answers in the Survey
         // Responses table. Instead, let's take all the answers, create a big ATTACHMENT_JSON_TABLE out of
-        // them.
-        ArrayNode answerArray = BridgeObjectMapper.get().createArrayNode();
-        for (Map.Entry<String, JsonNode> oneJsonFile : jsonDataMap.entrySet()) {
-            if (oneJsonFile.getKey().equals(FILENAME_INFO_JSON)) {
+        // them. Each answer file is already valid JSON, so we build the table by joining the raw bytes, rather than
+        // building a JSON array and serializing it again.
+        ByteArrayOutputStream answerArrayStream = new ByteArrayOutputStream();
+        answerArrayStream.write('[');
+        boolean isFirst = true;
+        for (String oneFilename : jsonDataMap.keySet()) {
+            if (oneFilename.equals(FILENAME_INFO_JSON)) {
                 // Not info.json. Skip.
                 continue;
             }
 
-            // add the JSON directly to our object. We're making a table.
-            answerArray.add(oneJsonFile.getValue());
+            // add the JSON directly to our table
+            if (!isFirst) {
+                answerArrayStream.write(',');
+            }
+            isFirst = false;
+            byte[] answerBytes = jsonDataMap.getRawBytes(oneFilename);
+            answerArrayStream.write(answerBytes, 0, answerBytes.length);
         }
+        answerArrayStream.write(']');
 
         // answers should be treated as an attachment
-        try {
-            attachmentMap.put(KEY_ANSWERS, BridgeObjectMapper.get().writeValueAsBytes(answerArray));
-        } catch (JsonProcessingException ex) {
-            addMessageAndWarn(context, String.format(
-                    "Upload ID %s could not convert survey answers to JSON: %s", uploadId, ex.getMessage()));
-        }
+        attachmentMap.put(KEY_ANSWERS, SpillBuffer.wrap(answerArrayStream.toByteArray()));
 
         // also, add item and taskRun to dataMap
         dataMap.put(KEY_ITEM, infoJsonItem);
@@ -411,15 +446,17 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
     }
 
     private static void handleJsonData(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> jsonDataMap, List<UploadSchema> schemaList, HealthDataRecordBuilder recordBuilder,
-            Map<String, byte[]> attachmentMap, ObjectNode dataMap) throws UploadValidationException {
+            LazyJsonDataMap jsonDataMap, UploadSchemaIndex schemaIndex, HealthDataRecordBuilder recordBuilder,
+            Map<String, SpillBuffer> attachmentMap, ObjectNode dataMap) throws UploadValidationException {
         // JSON data may contain more than one JSON file. However, Health Data Records stores a single map.
-        // Flatten all the JSON maps together (other than info.json).
-        Map<String, JsonNode> dataFieldMap = flattenJsonDataMap(jsonDataMap);
+        // Flatten all the JSON maps together (other than info.json). Also keep track of which file each field came
+        // from, so attachment fields can be copied straight from the file's raw bytes.
+        Map<String, String> filenamesByDataField = new HashMap<>();
+        Map<String, JsonNode> dataFieldMap = flattenJsonDataMap(jsonDataMap, filenamesByDataField);
         Set<String> keySet = dataFieldMap.keySet();
 
         // select schema
-        UploadSchema schema = selectSchema(context, uploadId, dataFieldMap, schemaList);
+        UploadSchema schema = selectSchema(context, uploadId, dataFieldMap, schemaIndex);
         if (schema == null) {
             // No schema, no health data record. Game over.
             throw new UploadValidationException(String.format("No schema found for keys (%s)",
@@ -431,10 +468,12 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
         recordBuilder.withSchemaRevision(schema.getRevision());
 
         // copy fields to health data
-        copyJsonDataToHealthData(context, uploadId, dataFieldMap, schema, dataMap, attachmentMap);
+        copyJsonDataToHealthData(context, uploadId, jsonDataMap, filenamesByDataField, dataFieldMap, schema, dataMap,
+                attachmentMap);
     }
 
-    private static Map<String, JsonNode> flattenJsonDataMap(Map<String, JsonNode> jsonDataMap) {
+    private static Map<String, JsonNode> flattenJsonDataMap(Map<String, JsonNode> jsonDataMap,
+            Map<String, String> filenamesByDataField) {
         Map<String, JsonNode> dataFieldMap = new HashMap<>();
         for (Map.Entry<String, JsonNode> oneJsonFile : jsonDataMap.entrySet()) {
             String filename = oneJsonFile.getKey();
@@ -448,27 +487,26 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
             while (fieldNameIter.hasNext()) {
                 // Pre-pend file name with field name, so if there are duplicate filenames, they get disambiguated.
                 String oneFieldName = fieldNameIter.next();
-                dataFieldMap.put(filename + "." + oneFieldName, oneJsonFileNode.get(oneFieldName));
+                String dataFieldName = filename + "." + oneFieldName;
+                dataFieldMap.put(dataFieldName, oneJsonFileNode.get(oneFieldName));
+                filenamesByDataField.put(dataFieldName, filename);
             }
         }
 
         return dataFieldMap;
     }
 
-    private static UploadSchema selectSchema(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> dataFieldMap, List<UploadSchema> schemaList) {
-        // cross-ref our data map with our schema list to see which schema matches
-        UploadSchema latestSchema = null;
-        for (UploadSchema oneSchema : schemaList) {
-            Set<String> schemaKeySet = new HashSet<>();
-
+    // Package-scoped to facilitate unit tests and benchmarks.
+    /* package-scoped */ static UploadSchema selectSchema(UploadValidationContext context, String uploadId,
+            Map<String, JsonNode> dataFieldMap, UploadSchemaIndex schemaIndex) {
+        // Only schemas with a field for every key in our data can match. Candidates are sorted newest revision first,
+        // so the first candidate whose fields validate is the match. (If more than one schema matches, we want the
+        // one with the highest revision, as that's the one that's newest.)
+        for (UploadSchema oneSchema : schemaIndex.getCandidateSchemas(dataFieldMap.keySet())) {
             // strategy: assume the schema matches, unless we find a field that doesn't match
             boolean isMatch = true;
             for (UploadFieldDefinition oneFieldDef : oneSchema.getFieldDefinitions()) {
-                String fieldName = oneFieldDef.getName();
-                schemaKeySet.add(fieldName);
-
-                JsonNode fieldValue = dataFieldMap.get(fieldName);
+                JsonNode fieldValue = dataFieldMap.get(oneFieldDef.getName());
                 isMatch = validateField(context, uploadId, fieldValue, oneFieldDef);
 
                 if (!isMatch) {
@@ -477,29 +515,17 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
                 }
             }
 
-            if (isMatch && !schemaKeySet.containsAll(dataFieldMap.keySet())) {
-                // There are keys in the JSON that aren't present in the schema. This may refer to a different
-                // revision of the schema, or to a different schema entirely. Mark it as not a match.
-                // (Only check if we haven't already flagged it as non-match. Otherwise, this check may be
-                // meaningless.)
-                isMatch = false;
-            }
-
             if (isMatch) {
-                // If we have more than one match, choose the one with the highest revision, as that's the one
-                // that's newest. (This assumes that while schema revisions may be the same, entirely different
-                // schemas will be different.(
-                if (latestSchema == null || oneSchema.getRevision() > latestSchema.getRevision()) {
-                    latestSchema = oneSchema;
-                }
+                return oneSchema;
             }
         }
 
-        return latestSchema;
+        return null;
     }
 
-    private static boolean validateField(UploadValidationContext context, String uploadId, JsonNode fieldValue,
-            UploadFieldDefinition fieldDef) {
+    // Package-scoped to facilitate unit tests and benchmarks.
+    /* package-scoped */ static boolean validateField(UploadValidationContext context, String uploadId,
+            JsonNode fieldValue, UploadFieldDefinition fieldDef) {
         if (fieldValue == null) {
             // if field is not required, we're fine
             return !fieldDef.isRequired();
@@ -576,16 +602,26 @@ public class IosSchemaValidationHandler implements UploadValidationHandler {
     }
 
     private static void copyJsonDataToHealthData(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> dataFieldMap, UploadSchema schema, ObjectNode dataMap,
-            Map<String, byte[]> attachmentMap) {
+            LazyJsonDataMap jsonDataMap, Map<String, String> filenamesByDataField, Map<String, JsonNode> dataFieldMap,
+            UploadSchema schema, ObjectNode dataMap, Map<String, SpillBuffer> attachmentMap) {
         // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
         for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
             String fieldName = oneFieldDef.getName();
             JsonNode fieldValue = dataFieldMap.get(fieldName);
 
             if (ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
+                // Attachments (JSON tables in particular) can be large. Copy the field's raw bytes out of the file
+                // instead of serializing the field's JSON tree.
+                String filename = filenamesByDataField.get(fieldName);
+                if (filename != null && fieldValue != null && fieldValue.isContainerNode()) {
+                    attachmentMap.put(fieldName, SpillBuffer.wrap(jsonDataMap.getRawFieldBytes(filename,
+                            fieldName.substring(filename.length() + 1))));
+                    continue;
+                }
+
                 try {
-                    attachmentMap.put(fieldName, BridgeObjectMapper.get().writeValueAsBytes(fieldValue));
+                    attachmentMap.put(fieldName, SpillBuffer.wrap(BridgeObjectMapper.get().writeValueAsBytes(
+                            fieldValue)));
                 } catch (JsonProcessingException ex) {
                     addMessageAndWarn(context, String.format(
                             "Upload ID %s field %s could not be converted to JSON: %s", uploadId, fieldName,
@@ -0,0 +1,309 @@
+package org.sagebionetworks.bridge.upload;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * <p>
+ * Map of JSON files, keyed by filename, which keeps each file as raw bytes and only parses it into a JSON tree the
+ * first time the value is read. This is created by ParseJsonHandler, which only checks that the files are
+ * syntactically valid JSON, and is read by IosSchemaValidationHandler, which may only need some of the files as
+ * trees.
+ * </p>
+ * <p>
+ * Files that are stored as attachments don't need to be parsed at all. {@link #getRawBytes} and
+ * {@link #getRawFieldBytes} return the original bytes, so they can be written out without a parse and re-serialize
+ * round trip.
+ * </p>
+ * <p>
+ * Like the other maps in UploadValidationContext, this is not thread-safe.
+ * </p>
+ */
+public class LazyJsonDataMap extends AbstractMap<String, JsonNode> {
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    private final Map<String, LazyJsonValue> valueMap = new HashMap<>();
+
+    /**
+     * Adds a JSON file as raw bytes. The bytes are assumed to be valid JSON. They're parsed the first time the value
+     * is read.
+     *
+     * @param filename
+     *         JSON filename
+     * @param rawBytes
+     *         raw JSON bytes, UTF-8 encoded, optionally with a byte order mark
+     */
+    public void putRawBytes(@Nonnull String filename, @Nonnull byte[] rawBytes) {
+        valueMap.put(filename, new LazyJsonValue(rawBytes));
+    }
+
+    /**
+     * Gets the bytes of the given JSON file. If the file was added as raw bytes, these are the original bytes, minus
+     * the byte order mark, if any. Otherwise, the JSON tree is serialized.
+     *
+     * @param filename
+     *         JSON filename
+     * @return JSON bytes, or null if there's no such file
+     */
+    public byte[] getRawBytes(String filename) {
+        LazyJsonValue value = valueMap.get(filename);
+        return value != null ? value.getRawBytes() : null;
+    }
+
+    /**
+     * Gets the bytes of a single top-level field in the given JSON file, without parsing the rest of the file into a
+     * tree. This is used for large fields stored as attachments, like JSON tables.
+     *
+     * @param filename
+     *         JSON filename
+     * @param fieldName
+     *         name of the top-level field
+     * @return JSON bytes of the field value, or null if there's no such file or field
+     */
+    public byte[] getRawFieldBytes(String filename, String fieldName) {
+        LazyJsonValue value = valueMap.get(filename);
+        return value != null ? value.getRawFieldBytes(fieldName) : null;
+    }
+
+    /**
+     * Renames a file, without parsing it. This is used to normalize filenames.
+     *
+     * @param oldFilename
+     *         current filename
+     * @param newFilename
+     *         new filename
+     */
+    public void rename(String oldFilename, String newFilename) {
+        LazyJsonValue value = valueMap.remove(oldFilename);
+        if (value != null) {
+            valueMap.put(newFilename, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsKey(Object key) {
+        return valueMap.containsKey(key);
+    }
+
+    /** Gets the JSON file as a tree, parsing it if this is the first time it's read. */
+    @Override
+    public JsonNode get(Object key) {
+        LazyJsonValue value = valueMap.get(key);
+        return value != null ? value.getJsonNode() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public JsonNode put(String key, JsonNode jsonNode) {
+        LazyJsonValue oldValue = valueMap.put(key, new LazyJsonValue(jsonNode));
+        return oldValue != null ? oldValue.getJsonNode() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public JsonNode remove(Object key) {
+        LazyJsonValue oldValue = valueMap.remove(key);
+        return oldValue != null ? oldValue.getJsonNode() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return valueMap.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<String> keySet() {
+        return valueMap.keySet();
+    }
+
+    /** Entry set. Values are parsed when the entry's value is read, not when the entry set is iterated. */
+    @Override
+    public Set<Map.Entry<String, JsonNode>> entrySet() {
+        return new AbstractSet<Map.Entry<String, JsonNode>>() {
+            @Override
+            public Iterator<Map.Entry<String, JsonNode>> iterator() {
+                final Iterator<Map.Entry<String, LazyJsonValue>> valueIter = valueMap.entrySet().iterator();
+                return new Iterator<Map.Entry<String, JsonNode>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return valueIter.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, JsonNode> next() {
+                        return new LazyJsonEntry(valueIter.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        valueIter.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return valueMap.size();
+            }
+        };
+    }
+
+    // Length of the UTF-8 byte order mark at the start of the given bytes, or 0 if there isn't one. Jackson skips the
+    // BOM on its own, but its byte offsets are then relative to the end of the BOM, so we skip it ourselves.
+    /* package-scoped */ static int getBomLength(byte[] bytes) {
+        if (bytes.length >= UTF8_BOM.length && bytes[0] == UTF8_BOM[0] && bytes[1] == UTF8_BOM[1]
+                && bytes[2] == UTF8_BOM[2]) {
+            return UTF8_BOM.length;
+        }
+        return 0;
+    }
+
+    // Map entry that parses the value when it's read. Read-only, and equal to any other entry with the same key and
+    // value, per the Map.Entry contract.
+    private static class LazyJsonEntry implements Map.Entry<String, JsonNode> {
+        private final String key;
+        private final LazyJsonValue value;
+
+        LazyJsonEntry(Map.Entry<String, LazyJsonValue> valueEntry) {
+            this.key = valueEntry.getKey();
+            this.value = valueEntry.getValue();
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public JsonNode getValue() {
+            return value.getJsonNode();
+        }
+
+        @Override
+        public JsonNode setValue(JsonNode value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return Objects.equals(key, other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+        }
+    }
+
+    // A single JSON file, as raw bytes, as a parsed tree, or both.
+    private static class LazyJsonValue {
+        private byte[] rawBytes;
+        private JsonNode jsonNode;
+
+        LazyJsonValue(byte[] rawBytes) {
+            this.rawBytes = rawBytes;
+        }
+
+        LazyJsonValue(JsonNode jsonNode) {
+            this.jsonNode = jsonNode;
+        }
+
+        JsonNode getJsonNode() {
+            if (jsonNode == null) {
+                try {
+                    jsonNode = BridgeObjectMapper.get().readTree(rawBytes);
+                } catch (IOException ex) {
+                    // ParseJsonHandler already checked that the bytes are valid JSON, so this should never happen.
+                    throw new IllegalStateException("Error parsing JSON: " + ex.getMessage(), ex);
+                }
+            }
+            return jsonNode;
+        }
+
+        byte[] getRawBytes() {
+            if (rawBytes == null) {
+                try {
+                    rawBytes = BridgeObjectMapper.get().writeValueAsBytes(jsonNode);
+                } catch (JsonProcessingException ex) {
+                    // Serializing a JSON tree shouldn't fail.
+                    throw new IllegalStateException("Error serializing JSON: " + ex.getMessage(), ex);
+                }
+            }
+
+            int bomLength = getBomLength(rawBytes);
+            return bomLength > 0 ? Arrays.copyOfRange(rawBytes, bomLength, rawBytes.length) : rawBytes;
+        }
+
+        byte[] getRawFieldBytes(String fieldName) {
+            if (rawBytes == null) {
+                // Only the tree is available.
+                JsonNode fieldNode = jsonNode.get(fieldName);
+                if (fieldNode == null) {
+                    return null;
+                }
+                try {
+                    return BridgeObjectMapper.get().writeValueAsBytes(fieldNode);
+                } catch (JsonProcessingException ex) {
+                    throw new IllegalStateException("Error serializing JSON: " + ex.getMessage(), ex);
+                }
+            }
+
+            // Scan the top-level fields with a streaming parser, skipping over the values of other fields, and copy
+            // out the bytes of the one we want.
+            int bomLength = getBomLength(rawBytes);
+            try (JsonParser parser = BridgeObjectMapper.get().getFactory().createParser(rawBytes, bomLength,
+                    rawBytes.length - bomLength)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String oneFieldName = parser.getCurrentName();
+                    JsonToken valueToken = parser.nextToken();
+                    if (!fieldName.equals(oneFieldName)) {
+                        parser.skipChildren();
+                        continue;
+                    }
+
+                    if (valueToken != JsonToken.START_ARRAY && valueToken != JsonToken.START_OBJECT) {
+                        // Scalars are small, and their token location isn't reliable in this version of Jackson.
+                        // Just serialize them.
+                        return BridgeObjectMapper.get().writeValueAsBytes(parser.readValueAsTree());
+                    }
+
+                    // The current location is just past the opening bracket. After skipping the children, it's just
+                    // past the closing bracket.
+                    int start = bomLength + (int) parser.getCurrentLocation().getByteOffset() - 1;
+                    parser.skipChildren();
+                    int end = bomLength + (int) parser.getCurrentLocation().getByteOffset();
+                    return Arrays.copyOfRange(rawBytes, start, end);
+                }
+                return null;
+            } catch (IOException ex) {
+                throw new IllegalStateException("Error parsing JSON: " + ex.getMessage(), ex);
+            }
+        }
+    }
+}
@@ -1,48 +1,142 @@
 package org.sagebionetworks.bridge.upload;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nonnull;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 /**
+ * <p>
  * Validation handler for parsing the upload data into JSON, if applicable. This handler reads unzipped data from
- * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}. As it iterates over the unzipped
- * data, if it's able to parse any entries into JSON, it will remove it from getUnzippedDataMap, and write it to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}. As it iterates over the
+ * unzipped data, if an entry is valid JSON, it will remove it from getUnzippedDataMap, and write it to
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getJsonDataMap}.
+ * </p>
+ * <p>
+ * Entries are only checked for valid JSON syntax here. They aren't parsed into JSON trees until a later handler reads
+ * them (see {@link LazyJsonDataMap}). Entries that obviously aren't JSON, such as audio files, are skipped without
+ * being scanned, based on the filename and the first non-whitespace byte. Entries that were spilled to disk are only
+ * read into memory if they look like JSON.
+ * </p>
  */
 @Component
-public class ParseJsonHandler implements UploadValidationHandler {
+public class ParseJsonHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.UNZIPPED_DATA);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.UNZIPPED_DATA, Field.JSON_DATA);
+
+    // Extensions of binary files commonly found in uploads. These are never JSON, so don't bother looking inside.
+    private static final Set<String> BINARY_EXTENSION_SET = ImmutableSet.of("aac", "caf", "gz", "jpeg", "jpg", "m4a",
+            "mp3", "mp4", "png", "wav", "zip");
+
+    // Number of bytes read from the start of a spilled entry to check whether it could be JSON.
+    private static final int SNIFF_LENGTH = 1024;
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
     /** {@inheritDoc} */
     @Override
-    public void handle(@Nonnull UploadValidationContext context) {
-        Map<String, byte[]> unzippedDataMap = context.getUnzippedDataMap();
-        Map<String, JsonNode> jsonDataMap = new HashMap<>();
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        Map<String, SpillBuffer> unzippedDataMap = context.getUnzippedDataMap();
+        LazyJsonDataMap jsonDataMap = new LazyJsonDataMap();
 
         // We use the iterator directly, because we may want to modify unzippedDataMap as we iterate it, and this is
         // the most straightforward way to do that without hitting a ConcurrentModificationException.
-        Iterator<Map.Entry<String, byte[]>> unzippedDataIter = unzippedDataMap.entrySet().iterator();
+        Iterator<Map.Entry<String, SpillBuffer>> unzippedDataIter = unzippedDataMap.entrySet().iterator();
         while (unzippedDataIter.hasNext()) {
-            Map.Entry<String, byte[]> oneUnzippedData = unzippedDataIter.next();
+            Map.Entry<String, SpillBuffer> oneUnzippedData = unzippedDataIter.next();
             String entryName = oneUnzippedData.getKey();
+            SpillBuffer buffer = oneUnzippedData.getValue();
 
+            // If it's JSON, remove the entry from unzippedDataMap and add it to jsonDataMap. Otherwise, this could be
+            // normal (for example, for audio files), so leave it in unzippedDataMap and move on.
             try {
-                // Try to parse it as JSON. If you can, remove the entry from unzippedDataMap and add it to
-                // jsonDataMap.
-                JsonNode jsonNode = BridgeObjectMapper.get().readTree(oneUnzippedData.getValue());
-                jsonDataMap.put(entryName, jsonNode);
-                unzippedDataIter.remove();
-            } catch (Exception ex) {
-                // Can't parse this as a JSON node. This could be normal (for example, for audio files). Ignore the
-                // error and move on.
+                if (mayBeJson(entryName, buffer)) {
+                    byte[] data = buffer.getBytes();
+                    if (isJson(entryName, data)) {
+                        jsonDataMap.putRawBytes(entryName, data);
+                        unzippedDataIter.remove();
+
+                        // The JSON is in memory now, so we don't need the buffer anymore.
+                        buffer.close();
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UploadValidationException(String.format("Error reading unzipped entry %s: %s", entryName,
+                        ex.getMessage()), ex);
             }
         }
 
         context.setJsonDataMap(jsonDataMap);
     }
+
+    // Cheap check on the filename and the first few bytes, so we don't read large binary entries into memory. For
+    // entries already in memory, isJson() does the same check, so this only needs to look inside spilled entries.
+    private static boolean mayBeJson(String entryName, SpillBuffer buffer) throws IOException {
+        if (hasBinaryExtension(entryName)) {
+            return false;
+        }
+        return !buffer.isSpilled() || startsWithBracket(buffer.getBytes(0, Math.min(buffer.size(), SNIFF_LENGTH)));
+    }
+
+    // Package-scoped to facilitate unit tests.
+    /* package-scoped */ static boolean isJson(String entryName, byte[] data) {
+        if (hasBinaryExtension(entryName)) {
+            return false;
+        }
+
+        // Upload JSON files are always objects or arrays. Anything that doesn't start with a bracket isn't JSON.
+        if (!startsWithBracket(data)) {
+            return false;
+        }
+
+        // Check the syntax with a streaming parser. This reads every token, but doesn't build a tree. Also make sure
+        // there's nothing after the root value, since later handlers may use the raw bytes as is.
+        try (JsonParser parser = BridgeObjectMapper.get().getFactory().createParser(data)) {
+            parser.nextToken();
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (IOException ex) {
+            // Starts with a bracket, but isn't valid JSON. Treat it as non-JSON.
+            return false;
+        }
+    }
+
+    // True if the first non-whitespace byte, after the byte order mark, is an open bracket or brace.
+    private static boolean startsWithBracket(byte[] data) {
+        for (int i = LazyJsonDataMap.getBomLength(data); i < data.length; i++) {
+            if (!isJsonWhitespace(data[i])) {
+                return data[i] == '{' || data[i] == '[';
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasBinaryExtension(String entryName) {
+        int dotIndex = entryName.lastIndexOf('.');
+        return dotIndex >= 0 && BINARY_EXTENSION_SET.contains(entryName.substring(dotIndex + 1).toLowerCase());
+    }
+
+    private static boolean isJsonWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
 }
@@ -0,0 +1,50 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.Set;
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Sets;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.services.ParticipantOptionsService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+
+/**
+ * Validation handler for looking up the uploading user's participant options. This handler reads
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUser} and writes the options to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setParticipantOptions}, for
+ * TranscribeConsentHandler. This doesn't depend on the upload itself, so it runs while the upload is downloaded and
+ * unpacked.
+ */
+@Component
+public class ParticipantOptionsHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.USER);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.PARTICIPANT_OPTIONS);
+
+    private ParticipantOptionsService optionsService;
+
+    /** Participant options service. This is configured by Spring. */
+    @Autowired
+    public void setOptionsService(ParticipantOptionsService optionsService) {
+        this.optionsService = optionsService;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(@Nonnull UploadValidationContext context) {
+        context.setParticipantOptions(optionsService.getAllParticipantOptions(context.getUser().getHealthCode()));
+    }
+}
@@ -3,19 +3,28 @@ package org.sagebionetworks.bridge.upload;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
 
+import com.google.common.collect.Sets;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
 
 /**
  * Validation handler for downloading the upload from S3. This handler reads
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUpload} and writes the downloaded data (as a
- * byte array) to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setData}.
+ * byte array) to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setData}. In streaming mode, this
+ * handler instead opens the S3 object as a stream and writes it to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDataStream}.
  */
 @Component
-public class S3DownloadHandler implements UploadValidationHandler {
+public class S3DownloadHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.UPLOAD);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.DATA);
+
     private static final String UPLOAD_BUCKET = BridgeConfigFactory.getConfig().getProperty("upload.bucket");
 
     private S3Helper s3Helper;
@@ -26,9 +35,28 @@ public class S3DownloadHandler implements UploadValidationHandler {
         this.s3Helper = s3Helper;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        if (context.isStreaming()) {
+            // Don't read the stream here. Downstream handlers will consume it.
+            InputStream s3Stream = s3Helper.getS3FileAsStream(UPLOAD_BUCKET, context.getUpload().getObjectId());
+            context.setDataStream(s3Stream);
+            return;
+        }
+
         try {
             byte[] s3Bytes = s3Helper.readS3FileAsBytes(UPLOAD_BUCKET, context.getUpload().getObjectId());
             context.setData(s3Bytes);
@@ -1,9 +1,11 @@
 package org.sagebionetworks.bridge.upload;
 
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.Sets;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.dao.ParticipantOption;
@@ -11,9 +13,14 @@ import org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope;
 import org.sagebionetworks.bridge.models.User;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.services.ParticipantOptionsService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
 
 @Component
-public class TranscribeConsentHandler implements UploadValidationHandler {
+public class TranscribeConsentHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.USER, Field.PARTICIPANT_OPTIONS,
+            Field.HEALTH_DATA_RECORD);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.HEALTH_DATA_RECORD);
+
     private ParticipantOptionsService optionsService;
 
     @Autowired
@@ -21,12 +28,26 @@ public class TranscribeConsentHandler implements UploadValidationHandler {
         this.optionsService = optionsService;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
     @Override
     public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
-        // read sharing scope from options service
-        User user = context.getUser();
-        
-        Map<ParticipantOption,String> options = optionsService.getAllParticipantOptions(user.getHealthCode());
+        // read sharing scope from options, generally looked up ahead of time by ParticipantOptionsHandler
+        Map<ParticipantOption,String> options = context.getParticipantOptions();
+        if (options == null) {
+            User user = context.getUser();
+            options = optionsService.getAllParticipantOptions(user.getHealthCode());
+        }
         SharingScope userSharingScope = SharingScope.valueOf(options.get(ParticipantOption.SHARING_SCOPE));
         String userExternalId = options.get(ParticipantOption.EXTERNAL_IDENTIFIER);
 
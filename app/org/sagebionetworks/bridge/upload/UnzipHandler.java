@@ -1,21 +1,75 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.Sets;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.exceptions.UploadArchiveLimitException;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.upload.UploadArchiveLimits;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 /**
+ * <p>
  * Validation handler for unzipping the upload. This handler reads decrypted from
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getDecryptedData}, unzips it, and writes the
- * unzipped data to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}.
+ * unzipped data to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}. In streaming
+ * mode, this handler instead reads the entries one by one from
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getDecryptedDataStream}. Entries larger than the
+ * spill threshold are written to temp files instead of being held in memory.
+ * </p>
+ * <p>
+ * Archives are unzipped under the limits in {@link UploadArchiveLimits}. Each limit comes from the study if the study
+ * sets it, and from the upload.validation.unzip config properties otherwise. Archives that exceed a limit fail
+ * validation, and are counted in {@link UploadValidationMetrics}.
+ * </p>
  */
 @Component
-public class UnzipHandler implements UploadValidationHandler {
+public class UnzipHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.STUDY, Field.DECRYPTED_DATA);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.UNZIPPED_DATA);
+
+    private static final long SPILL_THRESHOLD_DEFAULT = BridgeConfigFactory.getConfig().getPropertyAsInt(
+            "upload.validation.spill.threshold.bytes");
+
+    private static final UploadArchiveLimits ARCHIVE_LIMITS_DEFAULT;
+    static {
+        BridgeConfig config = BridgeConfigFactory.getConfig();
+        ARCHIVE_LIMITS_DEFAULT = new UploadArchiveLimits(
+                config.getPropertyAsInt("upload.validation.unzip.max.entries"),
+                Long.parseLong(config.getProperty("upload.validation.unzip.max.entry.bytes")),
+                Long.parseLong(config.getProperty("upload.validation.unzip.max.total.bytes")),
+                config.getPropertyAsInt("upload.validation.unzip.max.compression.ratio"));
+    }
+
+    private UploadArchiveLimits defaultArchiveLimits = ARCHIVE_LIMITS_DEFAULT;
+    private UploadValidationMetrics metrics;
     private UploadArchiveService uploadArchiveService;
+    private long spillThreshold = SPILL_THRESHOLD_DEFAULT;
+
+    /**
+     * Unzip limits for studies that don't set their own. Defaults to the upload.validation.unzip config properties.
+     * This is exposed primarily for unit tests.
+     */
+    public void setDefaultArchiveLimits(UploadArchiveLimits defaultArchiveLimits) {
+        this.defaultArchiveLimits = defaultArchiveLimits;
+    }
+
+    /** Upload validation metrics, which count archives that exceed their limits. This is configured by Spring. */
+    @Autowired
+    public void setMetrics(UploadValidationMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     /** Upload archive service, which handles decrypting and unzipping of files. This is configured by Spring. */
     @Autowired
@@ -23,10 +77,58 @@ public class UnzipHandler implements UploadValidationHandler {
         this.uploadArchiveService = uploadArchiveService;
     }
 
+    /**
+     * Unzipped entries larger than this many bytes are written to temp files. Defaults to the
+     * upload.validation.spill.threshold.bytes config property. This is exposed primarily for unit tests.
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
     /** {@inheritDoc} */
     @Override
-    public void handle(@Nonnull UploadValidationContext context) {
-        Map<String, byte[]> unzippedDataMap = uploadArchiveService.unzip(context.getDecryptedData());
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        InputStream zippedStream;
+        if (context.isStreaming()) {
+            zippedStream = context.getDecryptedDataStream();
+        } else {
+            zippedStream = new ByteArrayInputStream(context.getDecryptedData());
+        }
+
+        Map<String, SpillBuffer> unzippedDataMap;
+        try {
+            unzippedDataMap = uploadArchiveService.unzip(zippedStream, spillThreshold,
+                    getArchiveLimits(context.getStudy()));
+        } catch (UploadArchiveLimitException ex) {
+            metrics.recordArchiveLimitExceeded(ex.getLimitName());
+            throw new UploadValidationException(ex.getMessage(), ex);
+        }
         context.setUnzippedDataMap(unzippedDataMap);
     }
+
+    // Limits for the given study. Limits the study doesn't set (zero) fall back to the defaults. Package-scoped to
+    // facilitate unit tests.
+    /* package-scoped */ UploadArchiveLimits getArchiveLimits(Study study) {
+        int maxEntries = study.getMaxUploadZipEntries() > 0 ? study.getMaxUploadZipEntries()
+                : defaultArchiveLimits.getMaxEntries();
+        long maxEntryBytes = study.getMaxUploadZipEntryBytes() > 0 ? study.getMaxUploadZipEntryBytes()
+                : defaultArchiveLimits.getMaxEntryBytes();
+        long maxTotalBytes = study.getMaxUploadZipTotalBytes() > 0 ? study.getMaxUploadZipTotalBytes()
+                : defaultArchiveLimits.getMaxTotalBytes();
+        int maxCompressionRatio = study.getMaxUploadZipCompressionRatio() > 0
+                ? study.getMaxUploadZipCompressionRatio() : defaultArchiveLimits.getMaxCompressionRatio();
+        return new UploadArchiveLimits(maxEntries, maxEntryBytes, maxTotalBytes, maxCompressionRatio);
+    }
 }
@@ -1,33 +1,65 @@
 package org.sagebionetworks.bridge.upload;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.Set;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
-import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.services.HealthDataService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 @Component
-public class UploadArtifactsHandler implements UploadValidationHandler {
+public class UploadArtifactsHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.UPLOAD, Field.HEALTH_DATA_RECORD,
+            Field.ATTACHMENTS);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.HEALTH_DATA_RECORD);
+
     private static final Logger logger = LoggerFactory.getLogger(UploadArtifactsHandler.class);
 
     private static final String ATTACHMENT_BUCKET = BridgeConfigFactory.getConfig().getProperty("attachment.bucket");
 
+    private int attachmentParallelism = BridgeConfigFactory.getConfig().getPropertyAsInt(
+            "upload.attachment.parallelism");
+    private ExecutorService attachmentUploadExecutorService;
     private HealthDataService healthDataService;
     private S3Helper s3Helper;
 
+    /** Max number of attachments from a single upload that are uploaded to S3 at once. Defaults to config. */
+    public void setAttachmentParallelism(int attachmentParallelism) {
+        this.attachmentParallelism = attachmentParallelism;
+    }
+
+    /** Executor service for uploading attachments to S3. This is configured by Spring. */
+    @Resource(name = "attachmentUploadExecutorService")
+    public void setAttachmentUploadExecutorService(ExecutorService attachmentUploadExecutorService) {
+        this.attachmentUploadExecutorService = attachmentUploadExecutorService;
+    }
+
     @Autowired
     public void setHealthDataService(HealthDataService healthDataService) {
         this.healthDataService = healthDataService;
@@ -38,63 +70,120 @@ public class UploadArtifactsHandler implements UploadValidationHandler {
         this.s3Helper = s3Helper;
     }
 
+    /** {@inheritDoc} */
     @Override
-    public void handle(@Nonnull UploadValidationContext context) {
-        String uploadId = context.getUpload().getUploadId();
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
 
-        // step 1: upload health data record
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
+    @Override
+    public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
         HealthDataRecordBuilder recordBuilder = context.getHealthDataRecordBuilder();
-        HealthDataRecord record = recordBuilder.build();
-        String recordId = healthDataService.createOrUpdateRecord(record);
+        Map<String, SpillBuffer> attachmentMap = context.getAttachmentsByFieldName();
+
+        // Generate the record ID up front, so the attachments can point to the record before the record is written,
+        // and the record can be written once, with the attachment IDs already in it. The record has no version, so
+        // the DAO still writes it as a new record, and the write fails if the ID is somehow already taken.
+        String recordId = BridgeUtils.generateGuid();
+        recordBuilder.withId(recordId);
 
-        Map<String, byte[]> attachmentMap = context.getAttachmentsByFieldName();
         if (!attachmentMap.isEmpty()) {
-            // step 2: upload health data attachments
+            // step 1: generate attachment IDs, which are also the S3 keys
             Map<String, String> attachmentIdsByFieldName = new HashMap<>();
-            for (Map.Entry<String, byte[]> oneAttachment : attachmentMap.entrySet()) {
-                String fieldName = oneAttachment.getKey();
-                byte[] data = oneAttachment.getValue();
-
-                // step 2a: upload attachments to metadata table
-                HealthDataAttachment attachmentMetadata = healthDataService.getAttachmentBuilder()
-                        .withRecordId(recordId).build();
-                String attachmentId = healthDataService.createOrUpdateAttachment(attachmentMetadata);
-                attachmentIdsByFieldName.put(fieldName, attachmentId);
-
-                // step 2b: upload attachments to S3
-                try {
-                    s3Helper.writeBytesToS3(ATTACHMENT_BUCKET, attachmentId, data);
-                } catch (IOException ex) {
-                    addMessageAndWarn(context, String.format("Upload ID %s error uploading attachment for field %s: %s",
-                            uploadId, fieldName, ex.getMessage()), ex);
-                }
+            List<HealthDataAttachment> attachmentMetadataList = new ArrayList<>();
+            for (String oneFieldName : attachmentMap.keySet()) {
+                String attachmentId = BridgeUtils.generateGuid();
+                attachmentIdsByFieldName.put(oneFieldName, attachmentId);
+                attachmentMetadataList.add(healthDataService.getAttachmentBuilder().withId(attachmentId)
+                        .withRecordId(recordId).build());
             }
 
-            // step 3: add attachment IDs to health data record
+            // step 2: upload attachments to S3, in parallel
+            uploadAttachmentsToS3(context, attachmentIdsByFieldName);
 
-            // Get the record back from the health data table (as it might have added new fields, like a record ID and
-            // a version.
-            HealthDataRecord downloadedRecord = healthDataService.getRecordById(recordId);
-            HealthDataRecordBuilder updatedRecordBuilder = healthDataService.getRecordBuilder().copyOf(
-                    downloadedRecord);
+            // step 3: upload attachments to metadata table, all in one batch
+            healthDataService.createOrUpdateAttachments(attachmentMetadataList);
 
+            // step 4: write attachment fields and IDs (foreign keys / S3 keys) to the record's data map.
             // For code hygiene, make a deep copy of the dataMap. This shouldn't be too expensive, since all the large
             // fields are shunted off into attachments.
             // IosSchemaValidationHandler guarantees getData() to return an ObjectNode.
-            ObjectNode downloadedDataMap = (ObjectNode) downloadedRecord.getData();
-            ObjectNode updatedDataMap = downloadedDataMap.deepCopy();
-
-            // write attachment fields and IDs (foreign keys / S3 keys) to the updated data map
+            ObjectNode dataMap = ((ObjectNode) recordBuilder.getData()).deepCopy();
             for (Map.Entry<String, String> oneAttachmentId : attachmentIdsByFieldName.entrySet()) {
-                String fieldName = oneAttachmentId.getKey();
-                String attachmentId = oneAttachmentId.getValue();
-                updatedDataMap.put(fieldName, attachmentId);
+                dataMap.put(oneAttachmentId.getKey(), oneAttachmentId.getValue());
+            }
+            recordBuilder.withData(dataMap);
+        }
+
+        // step 5: write the health data record, once
+        healthDataService.createOrUpdateRecord(recordBuilder.build());
+    }
+
+    // Uploads the attachments to S3 on the attachment upload executor, with at most attachmentParallelism in flight at
+    // once. Errors are collected on this thread, since the validation context isn't thread-safe. As before, IO errors are
+    // added to the context messages, and unexpected errors fail the handler, once all the other attachments are done.
+    private void uploadAttachmentsToS3(UploadValidationContext context, Map<String, String> attachmentIdsByFieldName)
+            throws UploadValidationException {
+        String uploadId = context.getUpload().getUploadId();
+        Map<String, SpillBuffer> attachmentMap = context.getAttachmentsByFieldName();
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(attachmentUploadExecutorService);
+        Map<Future<Void>, String> fieldNamesByFuture = new HashMap<>();
+        Iterator<Map.Entry<String, String>> attachmentIdIter = attachmentIdsByFieldName.entrySet().iterator();
+        RuntimeException unexpectedException = null;
+
+        try {
+            while (attachmentIdIter.hasNext() || !fieldNamesByFuture.isEmpty()) {
+                // submit attachments until we hit the parallelism limit
+                while (attachmentIdIter.hasNext() && fieldNamesByFuture.size() < attachmentParallelism) {
+                    Map.Entry<String, String> oneAttachmentId = attachmentIdIter.next();
+                    final String fieldName = oneAttachmentId.getKey();
+                    final String attachmentId = oneAttachmentId.getValue();
+                    final SpillBuffer data = attachmentMap.get(fieldName);
+
+                    Future<Void> future = completionService.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            s3Helper.writeBufferToS3(ATTACHMENT_BUCKET, attachmentId, data);
+                            return null;
+                        }
+                    });
+                    fieldNamesByFuture.put(future, fieldName);
+                }
+
+                // wait for the next attachment to finish
+                Future<Void> doneFuture = completionService.take();
+                String fieldName = fieldNamesByFuture.remove(doneFuture);
+                try {
+                    doneFuture.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        addMessageAndWarn(context, String.format(
+                                "Upload ID %s error uploading attachment for field %s: %s", uploadId, fieldName,
+                                cause.getMessage()), cause);
+                    } else if (unexpectedException == null) {
+                        unexpectedException = cause instanceof RuntimeException ? (RuntimeException) cause :
+                                new UncheckedExecutionException(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            for (Future<Void> oneFuture : fieldNamesByFuture.keySet()) {
+                oneFuture.cancel(true);
             }
+            Thread.currentThread().interrupt();
+            throw new UploadValidationException(String.format("Upload ID %s interrupted uploading attachments",
+                    uploadId), ex);
+        }
 
-            // Write the updated data map to the record. Write the record to the record table.
-            updatedRecordBuilder.withData(updatedDataMap);
-            HealthDataRecord updatedRecord = updatedRecordBuilder.build();
-            healthDataService.createOrUpdateRecord(updatedRecord);
+        if (unexpectedException != null) {
+            throw unexpectedException;
         }
     }
 
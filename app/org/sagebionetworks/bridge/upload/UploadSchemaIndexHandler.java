@@ -0,0 +1,50 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.Set;
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Sets;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.services.UploadSchemaService;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+
+/**
+ * Validation handler for looking up the study's upload schemas. This handler reads
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getStudy} and writes the schemas to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setUploadSchemaIndex}, for
+ * IosSchemaValidationHandler. This doesn't depend on the upload itself, so if the study's schemas aren't cached,
+ * they're loaded while the upload is downloaded and unpacked.
+ */
+@Component
+public class UploadSchemaIndexHandler implements DependentUploadValidationHandler {
+    private static final Set<Field> INPUT_SET = Sets.immutableEnumSet(Field.STUDY);
+    private static final Set<Field> OUTPUT_SET = Sets.immutableEnumSet(Field.UPLOAD_SCHEMA_INDEX);
+
+    private UploadSchemaService uploadSchemaService;
+
+    /** Upload schema service, which caches schemas per study. This is configured by Spring. */
+    @Autowired
+    public void setUploadSchemaService(UploadSchemaService uploadSchemaService) {
+        this.uploadSchemaService = uploadSchemaService;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getInputs() {
+        return INPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Field> getOutputs() {
+        return OUTPUT_SET;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(@Nonnull UploadValidationContext context) {
+        context.setUploadSchemaIndex(uploadSchemaService.getUploadSchemaIndexForStudy(context.getStudy()));
+    }
+}
@@ -1,30 +1,84 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
 
+import org.sagebionetworks.bridge.dao.ParticipantOption;
 import org.sagebionetworks.bridge.models.User;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
-/** This class encapsulates data read and generated during the process of upload validation. */
+/**
+ * <p>
+ * This class encapsulates data read and generated during the process of upload validation.
+ * </p>
+ * <p>
+ * Independent handlers may run concurrently (see {@link DependentUploadValidationHandler}). The success flag and the
+ * message list are thread-safe. Other fields are only written by the handlers that declare them as outputs, and
+ * UploadValidationTask makes sure those writes are visible to the handlers that run after them.
+ * </p>
+ */
 public class UploadValidationContext {
+    /** Parts of the context that handlers read and write. See {@link DependentUploadValidationHandler}. */
+    public enum Field {
+        /** {@link #getStudy}, set by the task factory. */
+        STUDY,
+
+        /** {@link #getUser}, set by the task factory. */
+        USER,
+
+        /** {@link #getUpload}, set by the task factory. */
+        UPLOAD,
+
+        /** {@link #getData} or {@link #getDataStream}. */
+        DATA,
+
+        /** {@link #getDecryptedData} or {@link #getDecryptedDataStream}. */
+        DECRYPTED_DATA,
+
+        /** {@link #getUnzippedDataMap}. */
+        UNZIPPED_DATA,
+
+        /** {@link #getJsonDataMap}. */
+        JSON_DATA,
+
+        /** {@link #getParticipantOptions}. */
+        PARTICIPANT_OPTIONS,
+
+        /** {@link #getUploadSchemaIndex}. */
+        UPLOAD_SCHEMA_INDEX,
+
+        /** {@link #getHealthDataRecordBuilder}. */
+        HEALTH_DATA_RECORD,
+
+        /** {@link #getAttachmentsByFieldName}. */
+        ATTACHMENTS
+    }
+
     private Study study;
     private User user;
     private Upload upload;
-    private boolean success = true;
-    private List<String> messageList = new ArrayList<>();
+    private volatile boolean success = true;
+    private final List<String> messageList = Collections.synchronizedList(new ArrayList<String>());
+    private boolean streaming;
     private byte[] data;
+    private InputStream dataStream;
     private byte[] decryptedData;
-    private Map<String, byte[]> unzippedDataMap;
-    private Map<String, JsonNode> jsonDataMap;
+    private InputStream decryptedDataStream;
+    private Map<String, SpillBuffer> unzippedDataMap;
+    private LazyJsonDataMap jsonDataMap;
     private HealthDataRecordBuilder healthDataRecordBuilder;
-    private Map<String, byte[]> attachmentsByFieldName;
+    private Map<String, SpillBuffer> attachmentsByFieldName;
+    private Map<ParticipantOption, String> participantOptions;
+    private UploadSchemaIndex uploadSchemaIndex;
 
     /**
      * This is the study that the upload lives in and is validated against. This is made available by the upload
@@ -81,7 +135,10 @@ public class UploadValidationContext {
      * but validation handlers can add messages for other reasons.
      */
     public List<String> getMessageList() {
-        return ImmutableList.copyOf(messageList);
+        // Copying a synchronized list has to lock the list.
+        synchronized (messageList) {
+            return ImmutableList.copyOf(messageList);
+        }
     }
 
     /** @see #getMessageList */
@@ -89,6 +146,21 @@ public class UploadValidationContext {
         messageList.add(msg);
     }
 
+    /**
+     * True if this upload should be validated in streaming mode. In streaming mode, S3DownloadHandler, DecryptHandler,
+     * and UnzipHandler pass the upload along as a chain of streams ({@link #getDataStream} and
+     * {@link #getDecryptedDataStream}) instead of as byte arrays, so the only data materialized in memory are the
+     * unzipped entries. This is set by the upload validation task factory.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /** @see #isStreaming */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     /** Raw upload data as bytes. This is created by S3DownloadHandler abd read by the UnzipHandler. */
     public byte[] getData() {
         return data;
@@ -99,6 +171,20 @@ public class UploadValidationContext {
         this.data = data;
     }
 
+    /**
+     * Raw upload data as a stream, used in streaming mode instead of {@link #getData}. This is created by
+     * S3DownloadHandler and read by DecryptHandler. UploadValidationTask closes this stream once validation is
+     * finished.
+     */
+    public InputStream getDataStream() {
+        return dataStream;
+    }
+
+    /** @see #getDataStream */
+    public void setDataStream(InputStream dataStream) {
+        this.dataStream = dataStream;
+    }
+
     /** Decrypted upload data as bytes. This is created by DecryptHandler and read by UnzipHandler. */
     public byte[] getDecryptedData() {
         return decryptedData;
@@ -110,25 +196,43 @@ public class UploadValidationContext {
     }
 
     /**
-     * Unzipped data as bytes, keyed by filename. This is initially created by the UnzipHandler. The ParseJsonHandler
-     * will read this and remove entries that can be parsed into JSON. Non-JSON entries will still remain in this map.
+     * Decrypted upload data as a stream, used in streaming mode instead of {@link #getDecryptedData}. This is created
+     * by DecryptHandler and read by UnzipHandler. UploadValidationTask closes this stream once validation is finished.
      */
-    public Map<String, byte[]> getUnzippedDataMap() {
+    public InputStream getDecryptedDataStream() {
+        return decryptedDataStream;
+    }
+
+    /** @see #getDecryptedDataStream */
+    public void setDecryptedDataStream(InputStream decryptedDataStream) {
+        this.decryptedDataStream = decryptedDataStream;
+    }
+
+    /**
+     * Unzipped data as buffers, keyed by filename. This is initially created by the UnzipHandler. Large entries are
+     * spilled to temp files (see {@link SpillBuffer}), which are deleted by UploadValidationTask when validation
+     * finishes. The ParseJsonHandler will read this and remove entries that can be parsed into JSON. Non-JSON entries
+     * will still remain in this map.
+     */
+    public Map<String, SpillBuffer> getUnzippedDataMap() {
         return unzippedDataMap;
     }
 
     /** @see #getUnzippedDataMap */
-    public void setUnzippedDataMap(Map<String, byte[]> unzippedDataMap) {
+    public void setUnzippedDataMap(Map<String, SpillBuffer> unzippedDataMap) {
         this.unzippedDataMap = unzippedDataMap;
     }
 
-    /** Parsed JSON data, keyed by filename. This is initially created by the ParseJsonHandler. */
-    public Map<String, JsonNode> getJsonDataMap() {
+    /**
+     * JSON data, keyed by filename. This is initially created by the ParseJsonHandler. Files are parsed into JSON trees
+     * the first time they're read.
+     */
+    public LazyJsonDataMap getJsonDataMap() {
         return jsonDataMap;
     }
 
     /** @see #getJsonDataMap */
-    public void setJsonDataMap(Map<String, JsonNode> jsonDataMap) {
+    public void setJsonDataMap(LazyJsonDataMap jsonDataMap) {
         this.jsonDataMap = jsonDataMap;
     }
 
@@ -150,14 +254,40 @@ public class UploadValidationContext {
      * Map of health data attachments, keyed off the field name in the health data record. These files will be uploaded
      * to external storage (most likely S3) with metadata stored in Health Data Attachments table and field references
      * in the health data record. This is created by IosSchemaValidationHandler and is uploaded by
-     * UploadArtifactsHandler.
+     * UploadArtifactsHandler. Attachments may share buffers with {@link #getUnzippedDataMap}.
      */
-    public Map<String, byte[]> getAttachmentsByFieldName() {
+    public Map<String, SpillBuffer> getAttachmentsByFieldName() {
         return attachmentsByFieldName;
     }
 
     /** @see #getAttachmentsByFieldName */
-    public void setAttachmentsByFieldName(Map<String, byte[]> attachmentsByFieldName) {
+    public void setAttachmentsByFieldName(Map<String, SpillBuffer> attachmentsByFieldName) {
         this.attachmentsByFieldName = attachmentsByFieldName;
     }
+
+    /**
+     * The uploading user's participant options, such as sharing scope. This is looked up by ParticipantOptionsHandler
+     * and read by TranscribeConsentHandler.
+     */
+    public Map<ParticipantOption, String> getParticipantOptions() {
+        return participantOptions;
+    }
+
+    /** @see #getParticipantOptions */
+    public void setParticipantOptions(Map<ParticipantOption, String> participantOptions) {
+        this.participantOptions = participantOptions;
+    }
+
+    /**
+     * Upload schemas for the study. This is looked up by UploadSchemaIndexHandler, which warms up the schema cache
+     * while the upload is downloaded, and is read by IosSchemaValidationHandler.
+     */
+    public UploadSchemaIndex getUploadSchemaIndex() {
+        return uploadSchemaIndex;
+    }
+
+    /** @see #getUploadSchemaIndex */
+    public void setUploadSchemaIndex(UploadSchemaIndex uploadSchemaIndex) {
+        this.uploadSchemaIndex = uploadSchemaIndex;
+    }
 }
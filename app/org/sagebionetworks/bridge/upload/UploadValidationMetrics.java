@@ -0,0 +1,226 @@
+package org.sagebionetworks.bridge.upload;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.util.LatencyHistogram;
+import org.sagebionetworks.bridge.util.MonitoredCacheStats;
+
+/**
+ * <p>
+ * Metrics for the upload validation chain, recorded by {@link UploadValidationTask}. This tracks latency histograms
+ * per handler, per study, and end-to-end, success and failure counts per handler, bytes processed per stage, and how
+ * often upload archives hit their unzip limits.
+ * </p>
+ * <p>
+ * Metrics are kept in memory since this node started. They're exported through JMX, and through the upload
+ * validation metrics admin API via {@link #getReport}. The report also includes the CMS encryptor cache stats, since
+ * every upload is decrypted with an encryptor from that cache.
+ * </p>
+ */
+@Component
+@ManagedResource(description = "Upload validation latency, success and failure counts, and bytes per stage")
+public class UploadValidationMetrics {
+    /** Stage name for bytes downloaded from S3. */
+    public static final String STAGE_DOWNLOAD = "download";
+
+    /** Stage name for bytes produced by decryption. */
+    public static final String STAGE_DECRYPT = "decrypt";
+
+    /** Stage name for bytes produced by unzipping. */
+    public static final String STAGE_UNZIP = "unzip";
+
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> handlerLatencyMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> studyLatencyMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> handlerSuccessMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> handlerFailureMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> stageBytesMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> archiveLimitExceededMap = new ConcurrentHashMap<>();
+    private final AtomicLong validationSuccessCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+
+    private MonitoredCacheStats cmsEncryptorCacheStats;
+
+    /** CMS encryptor cache stats, included in the report. This is configured by Spring. */
+    @Resource(name = "cmsEncryptorCacheStats")
+    public void setCmsEncryptorCacheStats(MonitoredCacheStats cmsEncryptorCacheStats) {
+        this.cmsEncryptorCacheStats = cmsEncryptorCacheStats;
+    }
+
+    /**
+     * Records a single handler run.
+     *
+     * @param handlerName
+     *         name of the handler
+     * @param elapsedMillis
+     *         time the handler took, in milliseconds
+     * @param success
+     *         true if the handler succeeded, false if it threw
+     */
+    public void recordHandler(@Nonnull String handlerName, long elapsedMillis, boolean success) {
+        getHistogram(handlerLatencyMap, handlerName).record(elapsedMillis);
+        getCounter(success ? handlerSuccessMap : handlerFailureMap, handlerName).incrementAndGet();
+    }
+
+    /**
+     * Records a single upload validation, from the first handler to writing the validation status.
+     *
+     * @param studyId
+     *         study the upload lives in
+     * @param elapsedMillis
+     *         total validation time, in milliseconds
+     * @param success
+     *         true if the upload passed validation
+     */
+    public void recordValidation(@Nonnull String studyId, long elapsedMillis, boolean success) {
+        endToEndLatency.record(elapsedMillis);
+        getHistogram(studyLatencyMap, studyId).record(elapsedMillis);
+        (success ? validationSuccessCount : validationFailureCount).incrementAndGet();
+    }
+
+    /**
+     * Records bytes processed by a stage of the validation chain.
+     *
+     * @param stage
+     *         stage name, such as {@link #STAGE_DOWNLOAD}
+     * @param numBytes
+     *         number of bytes
+     */
+    public void recordBytes(@Nonnull String stage, long numBytes) {
+        getCounter(stageBytesMap, stage).addAndGet(numBytes);
+    }
+
+    /**
+     * Records an upload archive that was rejected for exceeding one of its unzip limits.
+     *
+     * @param limitName
+     *         name of the limit, one of the LIMIT_ constants in
+     *         {@link org.sagebionetworks.bridge.models.upload.UploadArchiveLimits}
+     */
+    public void recordArchiveLimitExceeded(@Nonnull String limitName) {
+        getCounter(archiveLimitExceededMap, limitName).incrementAndGet();
+    }
+
+    /** End-to-end validation latency summary (count, mean, p50, p95, p99, max), in milliseconds. */
+    @ManagedAttribute(description = "End-to-end validation latency in milliseconds")
+    public Map<String, Long> getEndToEndLatency() {
+        return endToEndLatency.getSummary();
+    }
+
+    /** Latency summary per handler, keyed by handler name. */
+    @ManagedAttribute(description = "Latency in milliseconds per handler")
+    public Map<String, Map<String, Long>> getHandlerLatency() {
+        return summarize(handlerLatencyMap);
+    }
+
+    /** End-to-end latency summary per study, keyed by study ID. */
+    @ManagedAttribute(description = "End-to-end validation latency in milliseconds per study")
+    public Map<String, Map<String, Long>> getStudyLatency() {
+        return summarize(studyLatencyMap);
+    }
+
+    /** Number of successful runs per handler. */
+    @ManagedAttribute(description = "Number of successful runs per handler")
+    public Map<String, Long> getHandlerSuccessCounts() {
+        return snapshot(handlerSuccessMap);
+    }
+
+    /** Number of failed runs per handler. */
+    @ManagedAttribute(description = "Number of failed runs per handler")
+    public Map<String, Long> getHandlerFailureCounts() {
+        return snapshot(handlerFailureMap);
+    }
+
+    /** Total bytes processed per stage. */
+    @ManagedAttribute(description = "Total bytes processed per stage")
+    public Map<String, Long> getStageBytes() {
+        return snapshot(stageBytesMap);
+    }
+
+    /** Number of upload archives rejected per unzip limit. */
+    @ManagedAttribute(description = "Number of upload archives rejected per unzip limit")
+    public Map<String, Long> getArchiveLimitExceededCounts() {
+        return snapshot(archiveLimitExceededMap);
+    }
+
+    /** Number of uploads that passed validation. */
+    @ManagedAttribute(description = "Number of uploads that passed validation")
+    public long getValidationSuccessCount() {
+        return validationSuccessCount.get();
+    }
+
+    /** Number of uploads that failed validation. */
+    @ManagedAttribute(description = "Number of uploads that failed validation")
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    /** All upload validation metrics in a single map, for the admin API. */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("validationSuccessCount", getValidationSuccessCount());
+        report.put("validationFailureCount", getValidationFailureCount());
+        report.put("endToEndLatency", getEndToEndLatency());
+        report.put("handlerLatency", getHandlerLatency());
+        report.put("studyLatency", getStudyLatency());
+        report.put("handlerSuccessCounts", getHandlerSuccessCounts());
+        report.put("handlerFailureCounts", getHandlerFailureCounts());
+        report.put("stageBytes", getStageBytes());
+        report.put("archiveLimitExceededCounts", getArchiveLimitExceededCounts());
+        if (cmsEncryptorCacheStats != null) {
+            report.put("cmsEncryptorCache", cmsEncryptorCacheStats.getReport());
+        }
+        return report;
+    }
+
+    private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> map, String key) {
+        LatencyHistogram histogram = map.get(key);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = map.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    private static AtomicLong getCounter(ConcurrentMap<String, AtomicLong> map, String key) {
+        AtomicLong counter = map.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = map.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    private static Map<String, Map<String, Long>> summarize(Map<String, LatencyHistogram> map) {
+        Map<String, Map<String, Long>> summaryMap = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> oneEntry : map.entrySet()) {
+            summaryMap.put(oneEntry.getKey(), oneEntry.getValue().getSummary());
+        }
+        return summaryMap;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> map) {
+        Map<String, Long> snapshotMap = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> oneEntry : map.entrySet()) {
+            snapshotMap.put(oneEntry.getKey(), oneEntry.getValue().get());
+        }
+        return snapshotMap;
+    }
+}
@@ -0,0 +1,264 @@
+package org.sagebionetworks.bridge.upload;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.redis.JedisStringOps;
+import org.sagebionetworks.bridge.redis.RedisKey;
+
+/**
+ * <p>
+ * Durable work queue for upload validation, backed by two Redis lists. New items are pushed onto the pending list.
+ * A worker leases an item by atomically moving it to the processing list (RPOPLPUSH) and setting a lease key with a
+ * TTL. While the item is leased, the lease is renewed in the background, so validation that takes longer than the
+ * lease isn't re-queued and run twice. When the worker is done, it acknowledges the item, which removes it from the
+ * processing list, stops the renewals and deletes the lease.
+ * </p>
+ * <p>
+ * If a worker dies mid-validation (for example, the node restarts), its item stays in the processing list and its
+ * lease expires. {@link #getExpiredItems} finds these items, so they can be re-queued with {@link #requeue}. Since
+ * every node shares the same lists, any node can pick up any upload.
+ * </p>
+ */
+@Component
+public class UploadValidationQueue {
+    private static final Logger logger = LoggerFactory.getLogger(UploadValidationQueue.class);
+
+    private static final int LEASE_SECONDS_DEFAULT = BridgeConfigFactory.getConfig().getPropertyAsInt(
+            "upload.validation.queue.lease.seconds");
+    private static final String LEASE_VALUE = "leased";
+
+    // How many times a lease is renewed per lease period, so a renewal can fail and be retried before the lease
+    // expires.
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    /* package-scoped */ static final String PENDING_LIST_KEY = RedisKey.UPLOAD_VALIDATION_QUEUE.getRedisKey(
+            "pending");
+    /* package-scoped */ static final String PROCESSING_LIST_KEY = RedisKey.UPLOAD_VALIDATION_QUEUE.getRedisKey(
+            "processing");
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("upload-validation-lease-watchdog").setDaemon(true).build());
+
+    // Scheduled lease renewals, by serialized item.
+    private final ConcurrentMap<String, ScheduledFuture<?>> renewals = new ConcurrentHashMap<>();
+
+    private JedisStringOps stringOps;
+    private int leaseSeconds = LEASE_SECONDS_DEFAULT;
+
+    // Items found without a lease on the previous sweep. An item is moved to the processing list before its lease is
+    // set, so an item is only considered expired if it's still missing its lease on two consecutive sweeps.
+    private final Set<String> suspectItemSet = new HashSet<>();
+
+    /** Redis ops. This is configured by Spring. */
+    @Autowired
+    public void setStringOps(JedisStringOps stringOps) {
+        this.stringOps = stringOps;
+    }
+
+    /**
+     * How long a worker holds a lease on an item before the item is considered abandoned. Defaults to the
+     * upload.validation.queue.lease.seconds config property. This is exposed primarily for unit tests.
+     */
+    public void setLeaseSeconds(int leaseSeconds) {
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    /** Stops renewing leases. Items that are still leased by this node are re-queued once their leases expire. */
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Adds an upload to the queue.
+     *
+     * @param studyId
+     *         study this upload lives in
+     * @param uploadId
+     *         upload to validate
+     * @return true if the upload was queued, false if Redis is unavailable
+     */
+    public boolean enqueue(@Nonnull String studyId, @Nonnull String uploadId) {
+        UploadValidationQueueItem item = new UploadValidationQueueItem(studyId, uploadId, 0);
+        return stringOps.lpush(PENDING_LIST_KEY, item.serialize()) != null;
+    }
+
+    /**
+     * Leases the oldest pending item. The lease is renewed until the caller calls {@link #ack} or {@link #requeue}, so
+     * the caller must call one of them once it's done with the item. If this node dies before then, the lease
+     * expires and the item becomes eligible for re-queueing.
+     *
+     * @return leased item, or null if there are no pending items
+     */
+    public UploadValidationQueueItem lease() {
+        String value = stringOps.rpoplpush(PENDING_LIST_KEY, PROCESSING_LIST_KEY);
+        if (value == null) {
+            return null;
+        }
+        stringOps.setex(getLeaseKey(value), leaseSeconds, LEASE_VALUE);
+
+        final UploadValidationQueueItem item;
+        try {
+            item = UploadValidationQueueItem.deserialize(value);
+        } catch (BridgeServiceException ex) {
+            // Nothing can process this item. Drop it, so it doesn't come back through the sweeper.
+            logger.error("Dropping invalid upload validation queue item " + value, ex);
+            ack(value);
+            return null;
+        }
+        startLeaseRenewal(value);
+        return item;
+    }
+
+    /**
+     * Acknowledges a leased item, removing it from the queue.
+     *
+     * @param item
+     *         item to acknowledge, as returned by {@link #lease}
+     */
+    public void ack(@Nonnull UploadValidationQueueItem item) {
+        ack(item.serialize());
+    }
+
+    private void ack(String value) {
+        stopLeaseRenewal(value);
+        stringOps.lrem(PROCESSING_LIST_KEY, value);
+        stringOps.delete(getLeaseKey(value));
+    }
+
+    /**
+     * Moves a leased item back to the pending list as the given item. This is a no-op if the item is no longer in
+     * the processing list, for example, if another node already re-queued it.
+     *
+     * @param item
+     *         item to remove from the processing list
+     * @param newItem
+     *         item to add to the pending list, generally the same item or the item for the next attempt
+     * @return true if the item was re-queued
+     */
+    public boolean requeue(@Nonnull UploadValidationQueueItem item, @Nonnull UploadValidationQueueItem newItem) {
+        String value = item.serialize();
+        stopLeaseRenewal(value);
+        Long numRemoved = stringOps.lrem(PROCESSING_LIST_KEY, value);
+        if (numRemoved == null || numRemoved == 0) {
+            return false;
+        }
+        stringOps.delete(getLeaseKey(value));
+        stringOps.lpush(PENDING_LIST_KEY, newItem.serialize());
+        return true;
+    }
+
+    /**
+     * Finds items in the processing list whose lease has expired, generally because the worker processing them died.
+     * This should be called periodically by a sweeper. All the leases are checked in one round trip.
+     *
+     * @return items with expired leases, empty if there are none or if Redis is unavailable
+     */
+    public synchronized List<UploadValidationQueueItem> getExpiredItems() {
+        List<String> processingList = stringOps.lrange(PROCESSING_LIST_KEY);
+        if (processingList == null || processingList.isEmpty()) {
+            suspectItemSet.clear();
+            return ImmutableList.of();
+        }
+
+        String[] leaseKeys = new String[processingList.size()];
+        for (int i = 0; i < leaseKeys.length; i++) {
+            leaseKeys[i] = getLeaseKey(processingList.get(i));
+        }
+        List<String> leaseList = stringOps.mget(leaseKeys);
+        if (leaseList == null) {
+            // Redis is unavailable. Don't mistake that for missing leases.
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<UploadValidationQueueItem> expiredItemListBuilder = ImmutableList.builder();
+        Set<String> newSuspectItemSet = new HashSet<>();
+        for (int i = 0; i < leaseKeys.length; i++) {
+            String oneValue = processingList.get(i);
+            if (leaseList.get(i) != null) {
+                continue;
+            }
+            if (!suspectItemSet.contains(oneValue)) {
+                // first time we've seen this item without a lease, check again next sweep
+                newSuspectItemSet.add(oneValue);
+                continue;
+            }
+
+            try {
+                expiredItemListBuilder.add(UploadValidationQueueItem.deserialize(oneValue));
+            } catch (BridgeServiceException ex) {
+                logger.error("Dropping invalid upload validation queue item " + oneValue, ex);
+                ack(oneValue);
+            }
+        }
+
+        suspectItemSet.clear();
+        suspectItemSet.addAll(newSuspectItemSet);
+        return expiredItemListBuilder.build();
+    }
+
+    // Package-scoped to facilitate unit tests. Number of leases being renewed.
+    /* package-scoped */ int getLeaseRenewalCount() {
+        return renewals.size();
+    }
+
+    private void startLeaseRenewal(final String value) {
+        long periodMillis = Math.max(1L, leaseSeconds * 1000L / RENEWALS_PER_LEASE);
+        ScheduledFuture<?> renewal = watchdog.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renewLease(value);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previousRenewal = renewals.put(value, renewal);
+        if (previousRenewal != null) {
+            previousRenewal.cancel(false);
+        }
+    }
+
+    // Called by the watchdog. The lease is set rather than extended, so it comes back even if it expired while Redis
+    // was unavailable. Errors are retried on the next renewal.
+    private void renewLease(String value) {
+        if (!renewals.containsKey(value)) {
+            // The item was acknowledged or re-queued while this renewal was waiting to run.
+            return;
+        }
+        try {
+            if (stringOps.setex(getLeaseKey(value), leaseSeconds, LEASE_VALUE) == null) {
+                logger.warn("Error renewing lease for upload validation queue item " + value);
+            }
+        } catch (RuntimeException ex) {
+            logger.warn("Error renewing lease for upload validation queue item " + value, ex);
+        }
+    }
+
+    private void stopLeaseRenewal(String value) {
+        ScheduledFuture<?> renewal = renewals.remove(value);
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+    }
+
+    private static String getLeaseKey(String value) {
+        return RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey(value);
+    }
+}
@@ -0,0 +1,122 @@
+package org.sagebionetworks.bridge.upload;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import org.apache.commons.lang3.StringUtils;
+
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+
+/**
+ * An entry in the upload validation work queue. This is the serialized form stored in Redis, so it contains only what
+ * a worker on any node needs to reconstruct the validation task: the study, the upload, and how many times validation
+ * has been attempted.
+ */
+public class UploadValidationQueueItem {
+    private static final char SEPARATOR = ':';
+    private static final Joiner JOINER = Joiner.on(SEPARATOR);
+    private static final Splitter SPLITTER = Splitter.on(SEPARATOR);
+
+    private final String studyId;
+    private final String uploadId;
+    private final int attempt;
+
+    /**
+     * Creates a queue item.
+     *
+     * @param studyId
+     *         study this upload lives in, must be non-blank and must not contain ':'
+     * @param uploadId
+     *         upload to validate, must be non-blank and must not contain ':'
+     * @param attempt
+     *         number of previous attempts to validate this upload, starting at zero
+     */
+    public UploadValidationQueueItem(@Nonnull String studyId, @Nonnull String uploadId, int attempt) {
+        if (StringUtils.isBlank(studyId) || studyId.indexOf(SEPARATOR) >= 0) {
+            throw new BridgeServiceException("Invalid study ID for upload validation queue: " + studyId);
+        }
+        if (StringUtils.isBlank(uploadId) || uploadId.indexOf(SEPARATOR) >= 0) {
+            throw new BridgeServiceException("Invalid upload ID for upload validation queue: " + uploadId);
+        }
+        this.studyId = studyId;
+        this.uploadId = uploadId;
+        this.attempt = attempt;
+    }
+
+    /**
+     * Parses a queue item from its serialized form.
+     *
+     * @param value
+     *         serialized queue item, as returned by {@link #serialize}
+     * @return parsed queue item
+     * @throws BridgeServiceException
+     *         if the value isn't a valid queue item
+     */
+    public static UploadValidationQueueItem deserialize(@Nonnull String value) {
+        List<String> parts = SPLITTER.splitToList(value);
+        if (parts.size() != 3) {
+            throw new BridgeServiceException("Invalid upload validation queue item: " + value);
+        }
+        int attempt;
+        try {
+            attempt = Integer.parseInt(parts.get(2));
+        } catch (NumberFormatException ex) {
+            throw new BridgeServiceException("Invalid upload validation queue item: " + value);
+        }
+        return new UploadValidationQueueItem(parts.get(0), parts.get(1), attempt);
+    }
+
+    /** Serialized form of this queue item, as stored in Redis. */
+    public String serialize() {
+        return JOINER.join(studyId, uploadId, attempt);
+    }
+
+    /** Study this upload lives in. */
+    public String getStudyId() {
+        return studyId;
+    }
+
+    /** Upload to validate. */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /** Number of previous attempts to validate this upload. Zero for a newly enqueued upload. */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /** Copy of this queue item for the next validation attempt. */
+    public UploadValidationQueueItem nextAttempt() {
+        return new UploadValidationQueueItem(studyId, uploadId, attempt + 1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        UploadValidationQueueItem that = (UploadValidationQueueItem) o;
+        return attempt == that.attempt && Objects.equal(studyId, that.studyId)
+                && Objects.equal(uploadId, that.uploadId);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(studyId, uploadId, attempt);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return serialize();
+    }
+}
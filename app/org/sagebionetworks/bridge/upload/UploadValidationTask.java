@@ -1,19 +1,42 @@
 package org.sagebionetworks.bridge.upload;
 
 import javax.annotation.Nonnull;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 /**
+ * <p>
  * This class represents an asynchronous upload validation task, corresponding with exactly one upload. It implements
  * the Runnable interface, so we can run it as asynchronous code.
+ * </p>
+ * <p>
+ * Handlers run in list order, except that handlers that don't depend on each other may run at the same time. For
+ * example, the participant options lookup runs on the stage thread pool while the upload is downloaded and unzipped
+ * on the task's own thread. See {@link DependentUploadValidationHandler}.
+ * </p>
  */
 public class UploadValidationTask implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(UploadValidationTask.class);
@@ -21,6 +44,8 @@ public class UploadValidationTask implements Runnable {
     private final UploadValidationContext context;
 
     private List<UploadValidationHandler> handlerList;
+    private UploadValidationMetrics metrics;
+    private ExecutorService stageExecutorService;
     private UploadDao uploadDao;
 
     /**
@@ -47,6 +72,29 @@ public class UploadValidationTask implements Runnable {
         return handlerList;
     }
 
+    /** Upload validation metrics. This is configured by Spring through the task factory. */
+    public void setMetrics(UploadValidationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ UploadValidationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Thread pool for running handlers that don't depend on each other at the same time. If this isn't set, handlers
+     * run one at a time, in list order. This is configured by Spring through the task factory.
+     */
+    public void setStageExecutorService(ExecutorService stageExecutorService) {
+        this.stageExecutorService = stageExecutorService;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ ExecutorService getStageExecutorService() {
+        return stageExecutorService;
+    }
+
     /** Upload DAO, for writing upload validation status. This is configured by Spring through the task factory. */
     public void setUploadDao(UploadDao uploadDao) {
         this.uploadDao = uploadDao;
@@ -60,28 +108,18 @@ public class UploadValidationTask implements Runnable {
     /** {@inheritDoc} */
     @Override
     public void run() {
-        Stopwatch stopwatch = Stopwatch.createUnstarted();
-        for (UploadValidationHandler oneHandler : handlerList) {
-            String handlerName = oneHandler.getClass().getName();
-            stopwatch.start();
-
-            try {
-                oneHandler.handle(context);
-            } catch (RuntimeException | UploadValidationException ex) {
-                context.setSuccess(false);
-                context.addMessage(String.format("Exception thrown from upload validation handler %s: %s", handlerName,
-                        ex.getMessage()));
-                logger.warn(String.format(
-                        "Exception thrown from upload validation handler %s for study %s, upload %s, filename %s",
-                        handlerName, context.getStudy().getIdentifier(), context.getUpload().getUploadId(),
-                        context.getUpload().getFilename()), ex);
-                break;
-            } finally {
-                long elapsedMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
-                stopwatch.reset();
-                // TODO: send this to somewhere other than the logs
-                logger.info(String.format("Upload validation handler %s took %d ms", handlerName, elapsedMillis));
-            }
+        Stopwatch totalStopwatch = Stopwatch.createStarted();
+        try {
+            runHandlers();
+        } finally {
+            // In streaming mode, the S3 download and decryption streams are left open by the handlers. Close them
+            // here, which also releases the S3 connection if validation failed before the streams were fully read.
+            // Also delete the temp files of any unzipped entries that were spilled to disk. This is in a finally
+            // block, so temp files don't pile up even if a handler throws an Error.
+            IOUtils.closeQuietly(context.getDecryptedDataStream());
+            IOUtils.closeQuietly(context.getDataStream());
+            closeBuffers(context.getUnzippedDataMap());
+            closeBuffers(context.getAttachmentsByFieldName());
         }
 
         // write validation status to the upload DAO
@@ -90,6 +128,217 @@ public class UploadValidationTask implements Runnable {
         logger.info(String.format("Upload validation for study %s, upload %s, with status %s",
                 context.getStudy().getIdentifier(), context.getUpload().getUploadId(), status));
 
+        recordBytes();
+        metrics.recordValidation(context.getStudy().getIdentifier(), totalStopwatch.elapsed(TimeUnit.MILLISECONDS),
+                context.getSuccess());
+
         // TODO: if validation fails, wipe the files from S3
     }
+
+    // Runs the handlers, each one as soon as the handlers it depends on have finished. Stops starting handlers once a
+    // handler fails, but waits for handlers that are already running, so they don't race with cleanup.
+    private void runHandlers() {
+        int numHandlers = handlerList.size();
+        List<Set<Integer>> dependencyList = getDependencies(handlerList);
+        boolean[] started = new boolean[numHandlers];
+        boolean[] finished = new boolean[numHandlers];
+        BlockingQueue<Integer> finishedQueue = new LinkedBlockingQueue<>();
+        int numRunning = 0;
+
+        while (true) {
+            // Find the handlers that are ready to run, in list order.
+            List<Integer> readyList = new ArrayList<>();
+            if (context.getSuccess()) {
+                for (int i = 0; i < numHandlers; i++) {
+                    if (!started[i] && allFinished(dependencyList.get(i), finished)) {
+                        readyList.add(i);
+                    }
+                }
+            }
+            if (readyList.isEmpty() && numRunning == 0) {
+                break;
+            }
+
+            // Run the first ready handler on this thread, and the rest on the stage thread pool. In the common case,
+            // only one handler is ready, and this is the same as running the handlers in sequence.
+            for (int j = 1; j < readyList.size(); j++) {
+                int index = readyList.get(j);
+                started[index] = true;
+                if (submitHandler(index, finishedQueue)) {
+                    numRunning++;
+                } else {
+                    runHandler(index);
+                    finished[index] = true;
+                }
+            }
+            if (!readyList.isEmpty()) {
+                int index = readyList.get(0);
+                started[index] = true;
+                runHandler(index);
+                finished[index] = true;
+            }
+
+            // Collect handlers that finished on the thread pool. Only wait if there's nothing else to run.
+            Integer finishedIndex = readyList.isEmpty() ? Uninterruptibles.takeUninterruptibly(finishedQueue)
+                    : finishedQueue.poll();
+            while (finishedIndex != null) {
+                finished[finishedIndex] = true;
+                numRunning--;
+                finishedIndex = finishedQueue.poll();
+            }
+        }
+    }
+
+    // Submits the handler to the stage thread pool. The handler's index is added to finishedQueue once it finishes.
+    // Returns false if there is no thread pool or it rejects the handler, in which case the caller should run the
+    // handler itself.
+    private boolean submitHandler(final int index, final BlockingQueue<Integer> finishedQueue) {
+        if (stageExecutorService == null) {
+            return false;
+        }
+
+        try {
+            stageExecutorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runHandler(index);
+                    } catch (Error err) {
+                        // Don't leave the task waiting for a handler that will never finish.
+                        context.setSuccess(false);
+                        context.addMessage(String.format("Error thrown from upload validation handler %s: %s",
+                                handlerList.get(index).getClass().getName(), err.getMessage()));
+                        throw err;
+                    } finally {
+                        finishedQueue.add(index);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            logger.warn("Upload validation stage thread pool rejected handler, running it on the task thread", ex);
+            return false;
+        }
+    }
+
+    // Runs a single handler. On failure, marks the task as failed and adds a validation message.
+    private void runHandler(int index) {
+        UploadValidationHandler oneHandler = handlerList.get(index);
+        String handlerName = oneHandler.getClass().getName();
+        boolean handlerSuccess = false;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        try {
+            oneHandler.handle(context);
+            handlerSuccess = true;
+        } catch (RuntimeException | UploadValidationException ex) {
+            context.setSuccess(false);
+            context.addMessage(String.format("Exception thrown from upload validation handler %s: %s", handlerName,
+                    ex.getMessage()));
+            logger.warn(String.format(
+                    "Exception thrown from upload validation handler %s for study %s, upload %s, filename %s",
+                    handlerName, context.getStudy().getIdentifier(), context.getUpload().getUploadId(),
+                    context.getUpload().getFilename()), ex);
+        } finally {
+            long elapsedMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            metrics.recordHandler(oneHandler.getClass().getSimpleName(), elapsedMillis, handlerSuccess);
+            logger.info(String.format("Upload validation handler %s took %d ms", handlerName, elapsedMillis));
+            countStreams(oneHandler);
+        }
+    }
+
+    /**
+     * For each handler, the indices of the earlier handlers it depends on. A handler depends on an earlier handler if
+     * either one doesn't declare its inputs and outputs, or if one writes something the other reads or writes. See
+     * {@link DependentUploadValidationHandler}. Package-scoped to facilitate unit tests.
+     */
+    /* package-scoped */ static List<Set<Integer>> getDependencies(List<UploadValidationHandler> handlerList) {
+        List<Set<Integer>> dependencyList = new ArrayList<>();
+        for (int j = 0; j < handlerList.size(); j++) {
+            Set<Integer> dependencySet = new HashSet<>();
+            for (int i = 0; i < j; i++) {
+                if (dependsOn(handlerList.get(j), handlerList.get(i))) {
+                    dependencySet.add(i);
+                }
+            }
+            dependencyList.add(dependencySet);
+        }
+        return dependencyList;
+    }
+
+    private static boolean dependsOn(UploadValidationHandler later, UploadValidationHandler earlier) {
+        if (!(later instanceof DependentUploadValidationHandler)
+                || !(earlier instanceof DependentUploadValidationHandler)) {
+            return true;
+        }
+        DependentUploadValidationHandler laterHandler = (DependentUploadValidationHandler) later;
+        DependentUploadValidationHandler earlierHandler = (DependentUploadValidationHandler) earlier;
+        return !Collections.disjoint(earlierHandler.getOutputs(), laterHandler.getInputs())
+                || !Collections.disjoint(earlierHandler.getOutputs(), laterHandler.getOutputs())
+                || !Collections.disjoint(earlierHandler.getInputs(), laterHandler.getOutputs());
+    }
+
+    private static boolean allFinished(Set<Integer> indexSet, boolean[] finished) {
+        for (int index : indexSet) {
+            if (!finished[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Attachments may share buffers with the unzipped data map, but closing a buffer twice is harmless.
+    private static void closeBuffers(Map<String, SpillBuffer> bufferMap) {
+        if (bufferMap != null) {
+            for (SpillBuffer oneBuffer : bufferMap.values()) {
+                oneBuffer.close();
+            }
+        }
+    }
+
+    // In streaming mode, handlers pass streams to each other, so the bytes aren't known until downstream handlers
+    // consume the streams. Wrap the streams as handlers create them, so we can count bytes at the end. This runs on
+    // the handler's thread, before anything that depends on the handler starts. Only wrap streams the handler
+    // declares as outputs, so this doesn't race with handlers running at the same time.
+    private void countStreams(UploadValidationHandler handler) {
+        Set<Field> outputSet = handler instanceof DependentUploadValidationHandler
+                ? ((DependentUploadValidationHandler) handler).getOutputs() : EnumSet.allOf(Field.class);
+
+        InputStream dataStream = context.getDataStream();
+        if (outputSet.contains(Field.DATA) && dataStream != null && !(dataStream instanceof CountingInputStream)) {
+            context.setDataStream(new CountingInputStream(dataStream));
+        }
+
+        InputStream decryptedDataStream = context.getDecryptedDataStream();
+        if (outputSet.contains(Field.DECRYPTED_DATA) && decryptedDataStream != null
+                && !(decryptedDataStream instanceof CountingInputStream)) {
+            context.setDecryptedDataStream(new CountingInputStream(decryptedDataStream));
+        }
+    }
+
+    // Records bytes processed by the download, decrypt, and unzip stages, for stages that ran.
+    private void recordBytes() {
+        if (context.getData() != null) {
+            metrics.recordBytes(UploadValidationMetrics.STAGE_DOWNLOAD, context.getData().length);
+        } else if (context.getDataStream() instanceof CountingInputStream) {
+            metrics.recordBytes(UploadValidationMetrics.STAGE_DOWNLOAD,
+                    ((CountingInputStream) context.getDataStream()).getCount());
+        }
+
+        if (context.getDecryptedData() != null) {
+            metrics.recordBytes(UploadValidationMetrics.STAGE_DECRYPT, context.getDecryptedData().length);
+        } else if (context.getDecryptedDataStream() instanceof CountingInputStream) {
+            metrics.recordBytes(UploadValidationMetrics.STAGE_DECRYPT,
+                    ((CountingInputStream) context.getDecryptedDataStream()).getCount());
+        }
+
+        Map<String, SpillBuffer> unzippedDataMap = context.getUnzippedDataMap();
+        if (unzippedDataMap != null) {
+            long unzippedBytes = 0;
+            for (SpillBuffer oneData : unzippedDataMap.values()) {
+                unzippedBytes += oneData.size();
+            }
+            metrics.recordBytes(UploadValidationMetrics.STAGE_UNZIP, unzippedBytes);
+        }
+    }
 }
@@ -3,10 +3,12 @@ package org.sagebionetworks.bridge.upload;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.models.User;
 import org.sagebionetworks.bridge.models.studies.Study;
@@ -19,8 +21,14 @@ import org.sagebionetworks.bridge.models.upload.Upload;
  */
 @Component
 public class UploadValidationTaskFactory {
+    private static final boolean STREAMING_DEFAULT = Boolean.parseBoolean(BridgeConfigFactory.getConfig().getProperty(
+            "upload.validation.streaming"));
+
     private List<UploadValidationHandler> handlerList;
+    private UploadValidationMetrics metrics;
+    private ExecutorService stageExecutorService;
     private UploadDao uploadDao;
+    private boolean streaming = STREAMING_DEFAULT;
 
     /** Validation handler list. This is configured by Spring. */
     @Resource(name = "uploadValidationHandlerList")
@@ -28,12 +36,35 @@ public class UploadValidationTaskFactory {
         this.handlerList = handlerList;
     }
 
+    /** Upload validation metrics, shared by all tasks. This is configured by Spring. */
+    @Autowired
+    public void setMetrics(UploadValidationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Thread pool for running independent handlers at the same time, shared by all tasks. This is configured by
+     * Spring.
+     */
+    @Resource(name = "uploadValidationStageExecutorService")
+    public void setStageExecutorService(ExecutorService stageExecutorService) {
+        this.stageExecutorService = stageExecutorService;
+    }
+
     /** Upload DAO, used to write validation status. This is configured by Spring. */
     @Autowired
     public void setUploadDao(UploadDao uploadDao) {
         this.uploadDao = uploadDao;
     }
 
+    /**
+     * True if new tasks should validate uploads in streaming mode. Defaults to the upload.validation.streaming config
+     * property. This is exposed primarily for unit tests.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     /**
      * Factory method for creating a validation task instance, for validating a single upload.
      *
@@ -51,10 +82,13 @@ public class UploadValidationTaskFactory {
         context.setStudy(study);
         context.setUser(user);
         context.setUpload(upload);
+        context.setStreaming(streaming);
 
         // task
         UploadValidationTask task = new UploadValidationTask(context);
         task.setHandlerList(handlerList);
+        task.setMetrics(metrics);
+        task.setStageExecutorService(stageExecutorService);
         task.setUploadDao(uploadDao);
         return task;
     }
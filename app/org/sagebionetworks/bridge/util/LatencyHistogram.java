@@ -0,0 +1,136 @@
+package org.sagebionetworks.bridge.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock-free histogram of latencies in milliseconds, for computing percentiles such as p50, p95, and p99 without
+ * keeping every sample.
+ * </p>
+ * <p>
+ * Values below 8 ms are counted exactly. Above that, each power of two is split into 8 buckets, so a reported
+ * percentile is within 12.5% of the true value. Values above about 12 days are counted in the last bucket.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + 1;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * Records a single latency.
+     *
+     * @param millis
+     *         latency in milliseconds, negative values are counted as zero
+     */
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        bucketCounts.incrementAndGet(bucketIndex(millis));
+        count.incrementAndGet();
+        totalMillis.addAndGet(millis);
+
+        long curMax = maxMillis.get();
+        while (millis > curMax && !maxMillis.compareAndSet(curMax, millis)) {
+            curMax = maxMillis.get();
+        }
+    }
+
+    /** Number of latencies recorded. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Mean latency in milliseconds, or zero if nothing has been recorded. */
+    public long getMeanMillis() {
+        long curCount = count.get();
+        return curCount == 0 ? 0 : totalMillis.get() / curCount;
+    }
+
+    /** Largest latency recorded, in milliseconds. */
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * Returns the latency at the given percentile. This is the upper bound of the bucket containing the percentile,
+     * capped at the max recorded latency.
+     *
+     * @param percentile
+     *         percentile, between 0 and 100
+     * @return latency in milliseconds at the given percentile, or zero if nothing has been recorded
+     */
+    public long getPercentileMillis(double percentile) {
+        long curCount = count.get();
+        if (curCount == 0) {
+            return 0;
+        }
+
+        // rank of the sample we're looking for, 1-based
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * curCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += bucketCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMillis.get());
+            }
+        }
+
+        // Buckets were updated concurrently with this call. Fall back to the max.
+        return maxMillis.get();
+    }
+
+    /**
+     * Summary of this histogram as a map, suitable for serializing to JSON or exporting through JMX. Keys are count,
+     * mean, p50, p95, p99, and max. Latencies are in milliseconds.
+     */
+    public Map<String, Long> getSummary() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", getCount());
+        summary.put("mean", getMeanMillis());
+        summary.put("p50", getPercentileMillis(50));
+        summary.put("p95", getPercentileMillis(95));
+        summary.put("p99", getPercentileMillis(99));
+        summary.put("max", getMaxMillis());
+        return summary;
+    }
+
+    // Values below SUB_BUCKET_COUNT get their own bucket. Above that, bucket by exponent, then by the next
+    // SUB_BUCKET_BITS bits below the leading bit.
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    // Largest value that falls into the given bucket.
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        if (index == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + width - 1;
+    }
+}
@@ -0,0 +1,91 @@
+package org.sagebionetworks.bridge.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the stats of a Guava cache as JMX attributes, when this is a Spring bean. The cache must be built with
+ * recordStats(), otherwise all stats are zero. Stats are cumulative since the cache was created.
+ */
+@ManagedResource(description = "Cache size, hit and miss counts, and load times")
+public class MonitoredCacheStats {
+    private final Cache<?, ?> cache;
+
+    /**
+     * @param cache
+     *         cache to report stats for, built with recordStats()
+     */
+    public MonitoredCacheStats(Cache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    /** Approximate number of entries in the cache. */
+    @ManagedAttribute(description = "Approximate number of entries in the cache")
+    public long getSize() {
+        return cache.size();
+    }
+
+    /** Number of lookups that found a cached value. */
+    @ManagedAttribute(description = "Number of lookups that found a cached value")
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /** Number of lookups that had to load a value. */
+    @ManagedAttribute(description = "Number of lookups that had to load a value")
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /** Fraction of lookups that found a cached value, or 1.0 if there haven't been any lookups. */
+    @ManagedAttribute(description = "Fraction of lookups that found a cached value")
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    /** Number of successful loads and reloads. */
+    @ManagedAttribute(description = "Number of successful loads and reloads")
+    public long getLoadSuccessCount() {
+        return cache.stats().loadSuccessCount();
+    }
+
+    /** Number of loads and reloads that threw. Failed reloads keep the old value. */
+    @ManagedAttribute(description = "Number of loads and reloads that failed")
+    public long getLoadExceptionCount() {
+        return cache.stats().loadExceptionCount();
+    }
+
+    /** Average time spent loading a value, in milliseconds. */
+    @ManagedAttribute(description = "Average time spent loading a value, in milliseconds")
+    public long getAverageLoadPenaltyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) cache.stats().averageLoadPenalty());
+    }
+
+    /** Number of entries evicted because the cache was full or entries expired. */
+    @ManagedAttribute(description = "Number of entries evicted")
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /** All cache stats in a single map, for admin APIs. */
+    public Map<String, Object> getReport() {
+        // Take a single snapshot, so the numbers are consistent with each other.
+        CacheStats stats = cache.stats();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("size", cache.size());
+        report.put("hitCount", stats.hitCount());
+        report.put("missCount", stats.missCount());
+        report.put("hitRate", stats.hitRate());
+        report.put("loadSuccessCount", stats.loadSuccessCount());
+        report.put("loadExceptionCount", stats.loadExceptionCount());
+        report.put("averageLoadPenaltyMillis", TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+        report.put("evictionCount", stats.evictionCount());
+        return report;
+    }
+}
@@ -0,0 +1,139 @@
+package org.sagebionetworks.bridge.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * <p>
+ * Fixed-size thread pool that keeps track of queue depth, active threads, rejected tasks, and how long tasks wait in
+ * the queue before they start running. These are exported as JMX attributes when the pool is a Spring bean.
+ * </p>
+ * <p>
+ * The work queue and rejection policy are supplied by the caller. With a bounded queue, the rejection policy decides
+ * what happens when the pool is saturated. Rejections are counted before being passed on to the rejection policy.
+ * </p>
+ */
+@ManagedResource(description = "Thread pool with queue depth, active count, and queue wait time metrics")
+public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Creates a fixed-size thread pool.
+     *
+     * @param name
+     *         pool name, used to name the pool's threads
+     * @param threadCount
+     *         number of threads in the pool
+     * @param workQueue
+     *         queue for tasks waiting for a thread, bounded or unbounded
+     * @param rejectionHandler
+     *         called when a task can't be queued because the queue is full
+     */
+    public MonitoredThreadPoolExecutor(String name, int threadCount, BlockingQueue<Runnable> workQueue,
+            RejectedExecutionHandler rejectionHandler) {
+        super(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, workQueue,
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").build(), rejectionHandler);
+
+        // Wrap the rejection handler, so we count rejections no matter which policy we use.
+        final RejectedExecutionHandler delegateHandler = rejectionHandler;
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                rejectedCount.incrementAndGet();
+                delegateHandler.rejectedExecution(task, executor);
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void execute(Runnable command) {
+        // submit() calls through to execute(), so this covers all tasks.
+        super.execute(new TimedRunnable(command));
+    }
+
+    /** Number of tasks waiting in the queue for a thread. */
+    @ManagedAttribute(description = "Number of tasks waiting in the queue")
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /** Number of tasks that can be added to the queue before it starts rejecting tasks. */
+    @ManagedAttribute(description = "Number of tasks that can be queued before tasks are rejected")
+    public int getRemainingQueueCapacity() {
+        return getQueue().remainingCapacity();
+    }
+
+    /** {@inheritDoc} */
+    @ManagedAttribute(description = "Number of threads actively running tasks")
+    @Override
+    public int getActiveCount() {
+        return super.getActiveCount();
+    }
+
+    /** {@inheritDoc} */
+    @ManagedAttribute(description = "Number of tasks that have finished running")
+    @Override
+    public long getCompletedTaskCount() {
+        return super.getCompletedTaskCount();
+    }
+
+    /** Number of tasks rejected because the pool was saturated. */
+    @ManagedAttribute(description = "Number of tasks rejected because the queue was full")
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /** Average time tasks spent in the queue before starting, in milliseconds. */
+    @ManagedAttribute(description = "Average time tasks waited in the queue, in milliseconds")
+    public long getAverageWaitMillis() {
+        long started = startedCount.get();
+        if (started == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / started);
+    }
+
+    /** Longest time a task spent in the queue before starting, in milliseconds. */
+    @ManagedAttribute(description = "Longest time a task waited in the queue, in milliseconds")
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    // Records the time from when the task was handed to the pool to when it starts running.
+    private void recordWait(long waitNanos) {
+        startedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long curMax = maxWaitNanos.get();
+        while (waitNanos > curMax && !maxWaitNanos.compareAndSet(curMax, waitNanos)) {
+            curMax = maxWaitNanos.get();
+        }
+    }
+
+    // Wrapper around submitted tasks, which remembers when the task was queued.
+    private class TimedRunnable implements Runnable {
+        private final Runnable delegate;
+        private final long queuedNanos = System.nanoTime();
+
+        TimedRunnable(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            recordWait(System.nanoTime() - queuedNanos);
+            delegate.run();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.sagebionetworks.bridge.util;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Immutable buffer of bytes, which is kept in memory if it's small, and in a temp file if it's large. This is used by
+ * upload validation, so that large uploads don't need to be held on the heap.
+ * </p>
+ * <p>
+ * The temp file is written and read through a {@link FileChannel}. It's deleted when the buffer is closed, so callers
+ * must close the buffer when they're done with it. Closing the buffer more than once is a no-op. Reading from a buffer
+ * is safe from multiple threads, as long as the buffer isn't closed at the same time.
+ * </p>
+ */
+public class SpillBuffer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpillBuffer.class);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_FILE_PREFIX = "bridge-spill-";
+
+    private final byte[] bytes;
+    private final Path path;
+    private final long size;
+
+    private SpillBuffer(byte[] bytes, Path path, long size) {
+        this.bytes = bytes;
+        this.path = path;
+        this.size = size;
+    }
+
+    /**
+     * Wraps the given bytes in an in-memory buffer. The bytes aren't copied, so the caller must not modify them.
+     *
+     * @param bytes
+     *         bytes to wrap, must be non-null
+     * @return in-memory buffer
+     */
+    public static SpillBuffer wrap(@Nonnull byte[] bytes) {
+        return new SpillBuffer(bytes, null, bytes.length);
+    }
+
+    /**
+     * Reads the given stream into a buffer. If the stream has no more than spillThreshold bytes, the buffer is kept in
+     * memory. Otherwise, the bytes are written to a temp file as they're read, so at most spillThreshold bytes are
+     * held in memory at once. This doesn't close the stream.
+     *
+     * @param stream
+     *         stream to read, must be non-null
+     * @param spillThreshold
+     *         maximum number of bytes to keep in memory
+     * @return buffer holding the contents of the stream
+     * @throws IOException
+     *         if reading the stream or writing the temp file fails
+     */
+    public static SpillBuffer copyOf(@Nonnull InputStream stream, long spillThreshold) throws IOException {
+        // Read one byte past the threshold, so we know whether the stream fits in memory.
+        ByteArrayOutputStream heapStream = new ByteArrayOutputStream();
+        long heapCount = ByteStreams.copy(ByteStreams.limit(stream, spillThreshold + 1), heapStream);
+        if (heapCount <= spillThreshold) {
+            return wrap(heapStream.toByteArray());
+        }
+
+        Path path = Files.createTempFile(TEMP_FILE_PREFIX, null);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            long size = writeFully(fileChannel, ByteBuffer.wrap(heapStream.toByteArray()));
+
+            // Don't close the stream channel, since that would close the caller's stream.
+            ReadableByteChannel streamChannel = Channels.newChannel(stream);
+            ByteBuffer copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            while (streamChannel.read(copyBuffer) >= 0) {
+                copyBuffer.flip();
+                size += writeFully(fileChannel, copyBuffer);
+                copyBuffer.clear();
+            }
+            return new SpillBuffer(null, path, size);
+        } catch (IOException | RuntimeException ex) {
+            deleteQuietly(path);
+            throw ex;
+        }
+    }
+
+    /** Number of bytes in the buffer. */
+    public long size() {
+        return size;
+    }
+
+    /** True if the buffer is kept in a temp file, false if it's in memory. */
+    public boolean isSpilled() {
+        return path != null;
+    }
+
+    /**
+     * The temp file backing this buffer, or null if the buffer is in memory. This lets callers hand the file to APIs
+     * that read files directly, such as the S3 client. Callers must not modify or delete the file.
+     */
+    public File getFile() {
+        return path != null ? path.toFile() : null;
+    }
+
+    /**
+     * Opens a stream over the buffer. The caller is responsible for closing the stream.
+     *
+     * @return stream of the bytes in the buffer
+     * @throws IOException
+     *         if the temp file can't be opened
+     */
+    public InputStream openStream() throws IOException {
+        if (path == null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Gets the bytes in the buffer as a byte array. For in-memory buffers, this is the backing array, so the caller
+     * must not modify it. For spilled buffers, this reads the whole temp file into memory, so only call this on
+     * spilled buffers if the data needs to be in memory anyway.
+     *
+     * @return bytes in the buffer
+     * @throws IOException
+     *         if reading the temp file fails
+     */
+    public byte[] getBytes() throws IOException {
+        return path == null ? bytes : getBytes(0, size);
+    }
+
+    /**
+     * Gets a range of bytes in the buffer, as a new byte array. Spilled buffers read only the given range from the
+     * temp file.
+     *
+     * @param offset
+     *         offset of the first byte to read
+     * @param length
+     *         number of bytes to read, must fit in a byte array
+     * @return bytes in the range
+     * @throws IOException
+     *         if reading the temp file fails
+     */
+    public byte[] getBytes(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > size || length > Integer.MAX_VALUE) {
+            throw new IndexOutOfBoundsException(String.format("offset %d, length %d, size %d", offset, length,
+                    size));
+        }
+        if (path == null) {
+            byte[] range = new byte[(int) length];
+            System.arraycopy(bytes, (int) offset, range, 0, (int) length);
+            return range;
+        }
+
+        ByteBuffer rangeBuffer = ByteBuffer.allocate((int) length);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (rangeBuffer.hasRemaining()) {
+                if (fileChannel.read(rangeBuffer, offset + rangeBuffer.position()) < 0) {
+                    throw new IOException("Unexpected end of spill file " + path);
+                }
+            }
+        }
+        return rangeBuffer.array();
+    }
+
+    /** Deletes the temp file, if any. */
+    @Override
+    public void close() {
+        if (path != null) {
+            deleteQuietly(path);
+        }
+    }
+
+    private static long writeFully(FileChannel fileChannel, ByteBuffer buffer) throws IOException {
+        long count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        return count;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.warn("Error deleting spill file " + path, ex);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.sagebionetworks.bridge.services.UploadArchiveService;
+
+/**
+ * <p>
+ * Encrypts or decrypts many upload archives at once, for {@link UploadArchiveUtil}. Files are processed in parallel,
+ * one file per worker thread, and each file is streamed from disk through the CMS stream APIs to disk, so files are
+ * never held in memory as a whole. Output files are written to the output directory, with the same name as the input
+ * file.
+ * </p>
+ * <p>
+ * A file that fails is reported and skipped, and the rest of the batch carries on. Progress and throughput are printed
+ * periodically, and once more at the end.
+ * </p>
+ */
+public class UploadArchiveBatch {
+    /** Encrypt or decrypt. */
+    public enum Method {
+        ENCRYPT,
+        DECRYPT,
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_INTERVAL_SECONDS = 10;
+
+    private final UploadArchiveService uploadArchiveService;
+    private final Method method;
+    private final String studyId;
+    private final int threadCount;
+    private final PrintStream out;
+
+    private final AtomicInteger succeededCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private int totalCount;
+    private long startNanos;
+
+    /**
+     * @param uploadArchiveService
+     *         service to encrypt or decrypt with, must be non-null
+     * @param method
+     *         encrypt or decrypt, must be non-null
+     * @param studyId
+     *         study whose encryption materials are used, must be non-null
+     * @param threadCount
+     *         number of files processed at once, must be positive
+     * @param out
+     *         where progress and errors are printed, must be non-null
+     */
+    public UploadArchiveBatch(UploadArchiveService uploadArchiveService, Method method, String studyId,
+            int threadCount, PrintStream out) {
+        checkNotNull(uploadArchiveService);
+        checkNotNull(method);
+        checkNotNull(studyId);
+        checkArgument(threadCount > 0, "threadCount must be positive");
+        checkNotNull(out);
+        this.uploadArchiveService = uploadArchiveService;
+        this.method = method;
+        this.studyId = studyId;
+        this.threadCount = threadCount;
+        this.out = out;
+    }
+
+    /**
+     * <p>
+     * Lists the input files for a batch. The input is one of:
+     * </p>
+     * <ul>
+     * <li>a directory, for all files in that directory (not including subdirectories)</li>
+     * <li>a manifest file, prefixed with @, listing one file per line, ignoring blank lines and lines that start with
+     * #</li>
+     * <li>a glob over file names in a directory, for example /data/archives/*.zip</li>
+     * </ul>
+     *
+     * @param input
+     *         directory, @manifest or glob, must be non-null
+     * @return input files, sorted by path for glob and directory inputs, in manifest order for manifests
+     * @throws IOException
+     *         if the directory or manifest can't be read
+     */
+    public static List<File> listInputFiles(String input) throws IOException {
+        checkNotNull(input);
+        List<File> fileList = new ArrayList<>();
+        if (input.startsWith("@")) {
+            for (String oneLine : Files.readAllLines(Paths.get(input.substring(1)), StandardCharsets.UTF_8)) {
+                String filename = oneLine.trim();
+                if (!filename.isEmpty() && !filename.startsWith("#")) {
+                    fileList.add(new File(filename));
+                }
+            }
+            return fileList;
+        }
+
+        Path dir;
+        String glob;
+        Path inputPath = Paths.get(input);
+        if (Files.isDirectory(inputPath)) {
+            dir = inputPath;
+            glob = "*";
+        } else {
+            dir = inputPath.getParent() != null ? inputPath.getParent() : Paths.get(".");
+            glob = inputPath.getFileName().toString();
+        }
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir, glob)) {
+            for (Path onePath : dirStream) {
+                if (Files.isRegularFile(onePath)) {
+                    fileList.add(onePath.toFile());
+                }
+            }
+        }
+        Collections.sort(fileList);
+        return fileList;
+    }
+
+    /**
+     * Encrypts or decrypts the given files into the output directory, and waits for all of them to finish.
+     *
+     * @param inFileList
+     *         files to process, must be non-null, and no two files may have the same name
+     * @param outDir
+     *         directory to write output files to, created if it doesn't exist
+     * @return true if all files succeeded
+     * @throws IOException
+     *         if the output directory can't be created
+     * @throws InterruptedException
+     *         if interrupted while waiting for files to finish
+     */
+    public boolean run(List<File> inFileList, File outDir) throws IOException, InterruptedException {
+        checkNotNull(inFileList);
+        checkNotNull(outDir);
+
+        // Output files are named after input files, so make sure they don't overwrite each other.
+        Set<String> nameSet = new HashSet<>();
+        for (File oneInFile : inFileList) {
+            if (!nameSet.add(oneInFile.getName())) {
+                throw new IllegalArgumentException("More than one input file is named " + oneInFile.getName());
+            }
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Could not create output directory " + outDir);
+        }
+
+        totalCount = inFileList.size();
+        startNanos = System.nanoTime();
+
+        ExecutorService workerExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("upload-archive-batch-%d").setDaemon(true).build());
+        ScheduledExecutorService progressExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("upload-archive-batch-progress").setDaemon(true).build());
+        try {
+            progressExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    printProgress();
+                }
+            }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            for (final File oneInFile : inFileList) {
+                final File outFile = new File(outDir, oneInFile.getName());
+                workerExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processFile(oneInFile, outFile);
+                    }
+                });
+            }
+
+            workerExecutor.shutdown();
+            while (!workerExecutor.awaitTermination(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+                // keep waiting, progress is printed on the progress thread
+            }
+        } finally {
+            workerExecutor.shutdownNow();
+            progressExecutor.shutdownNow();
+        }
+
+        printProgress();
+        return failedCount.get() == 0;
+    }
+
+    /** Number of files that succeeded so far. */
+    public int getSucceededCount() {
+        return succeededCount.get();
+    }
+
+    /** Number of files that failed so far. */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /** Number of input bytes processed so far, including partially processed files. */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    private void processFile(File inFile, File outFile) {
+        try {
+            switch (method) {
+                case ENCRYPT:
+                    encryptFile(inFile, outFile);
+                    break;
+                case DECRYPT:
+                    decryptFile(inFile, outFile);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected method " + method);
+            }
+            succeededCount.incrementAndGet();
+        } catch (IOException | RuntimeException ex) {
+            failedCount.incrementAndGet();
+            out.println(String.format("Error processing %s: %s", inFile, ex.getMessage()));
+
+            // Don't leave a partial output file around, where it could be mistaken for a good one.
+            if (outFile.exists() && !outFile.delete()) {
+                out.println("Could not delete partial output file " + outFile);
+            }
+        }
+    }
+
+    private void encryptFile(File inFile, File outFile) throws IOException {
+        try (InputStream inStream = openCountingStream(inFile);
+                OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE)) {
+            // Closing the encrypting stream finishes the encryption.
+            try (OutputStream encryptingStream = uploadArchiveService.encrypt(studyId, fileStream)) {
+                ByteStreams.copy(inStream, encryptingStream);
+            }
+        }
+    }
+
+    private void decryptFile(File inFile, File outFile) throws IOException {
+        try (InputStream inStream = openCountingStream(inFile);
+                InputStream decryptedStream = uploadArchiveService.decrypt(studyId, inStream);
+                OutputStream outStream = new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE)) {
+            ByteStreams.copy(decryptedStream, outStream);
+        }
+    }
+
+    // Buffered file stream, which adds to bytesRead as it's read, so progress includes files in progress.
+    private InputStream openCountingStream(File inFile) throws IOException {
+        return new BufferedInputStream(new FileInputStream(inFile), BUFFER_SIZE) {
+            @Override
+            public synchronized int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesRead.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if (count > 0) {
+                    bytesRead.addAndGet(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    private void printProgress() {
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        int doneCount = succeededCount.get() + failedCount.get();
+        double megabytes = bytesRead.get() / (1024.0 * 1024.0);
+        out.println(String.format("%d/%d files (%d failed), %.1f MB in %.1f s, %.1f MB/s, %.1f files/s", doneCount,
+                totalCount, failedCount.get(), megabytes, elapsedSeconds, megabytes / elapsedSeconds,
+                doneCount / elapsedSeconds));
+    }
+}
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.util;
 
 import java.io.File;
+import java.util.List;
 
 import com.google.common.io.Files;
 import org.springframework.context.ApplicationContext;
@@ -10,13 +11,24 @@ import org.sagebionetworks.bridge.services.UploadArchiveService;
 
 // Usage: play "run-main org.sagebionetworks.bridge.util.UploadArchiveUtil [encrypt/decrypt] [study ID] [input file]
 // [output file]"
+//
+// Batch usage: play "run-main org.sagebionetworks.bridge.util.UploadArchiveUtil [encrypt-batch/decrypt-batch]
+// [study ID] [input directory, glob or @manifest] [output directory] [thread count, optional]"
+//
+// Batch mode loads Spring once and processes files in parallel, streaming each file from disk to disk. The thread
+// count defaults to the number of cores. See UploadArchiveBatch.
 public class UploadArchiveUtil {
+    private static final String USAGE = "Usage: play \"run-main org.sagebionetworks.bridge.util.UploadArchiveUtil "
+            + "[encrypt/decrypt] [study ID] [input filename] [output filename]\"\n"
+            + "   or: play \"run-main org.sagebionetworks.bridge.util.UploadArchiveUtil "
+            + "[encrypt-batch/decrypt-batch] [study ID] [input directory, glob or @manifest] [output directory] "
+            + "[thread count, optional]\"";
+
     public static void main(String[] args) throws Exception {
         // args / usage
-        if (args.length != 4) {
-            System.out.println(
-                    "Usage: play \"run-main org.sagebionetworks.bridge.util.UploadArchiveUtil [encrypt/decrypt] " +
-                            "[study ID] [input filename] [output filename]\"");
+        boolean isBatch = args.length > 0 && args[0].endsWith("-batch");
+        if (isBatch ? (args.length != 4 && args.length != 5) : args.length != 4) {
+            System.out.println(USAGE);
             System.exit(1);
             return;
         }
@@ -29,6 +41,15 @@ public class UploadArchiveUtil {
         ApplicationContext springCtx = new ClassPathXmlApplicationContext("application-context.xml");
         UploadArchiveService uploadArchiveService = springCtx.getBean(UploadArchiveService.class);
 
+        if (isBatch) {
+            int threadCount = args.length == 5 ? Integer.parseInt(args[4]) : Runtime.getRuntime()
+                    .availableProcessors();
+            boolean succeeded = runBatch(uploadArchiveService, method, studyId, inFilename, outFilename,
+                    threadCount);
+            System.exit(succeeded ? 0 : 1);
+            return;
+        }
+
         // read input file
         File inFile = new File(inFilename);
         byte[] inData = Files.toByteArray(inFile);
@@ -50,4 +71,25 @@ public class UploadArchiveUtil {
         File outFile = new File(outFilename);
         Files.write(outData, outFile);
     }
+
+    private static boolean runBatch(UploadArchiveService uploadArchiveService, String method, String studyId,
+            String input, String outDirname, int threadCount) throws Exception {
+        UploadArchiveBatch.Method batchMethod;
+        switch (method) {
+            case "encrypt-batch":
+                batchMethod = UploadArchiveBatch.Method.ENCRYPT;
+                break;
+            case "decrypt-batch":
+                batchMethod = UploadArchiveBatch.Method.DECRYPT;
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Invalid method %s", method));
+        }
+
+        List<File> inFileList = UploadArchiveBatch.listInputFiles(input);
+        System.out.println(String.format("%s %d files with %d threads", method, inFileList.size(), threadCount));
+        UploadArchiveBatch batch = new UploadArchiveBatch(uploadArchiveService, batchMethod, studyId, threadCount,
+                System.out);
+        return batch.run(inFileList, new File(outDirname));
+    }
 }
@@ -41,6 +41,18 @@ public class StudyValidator implements Validator {
                 errors.rejectValue("userProfileAttributes", msg);
             }
         }
+        if (study.getMaxUploadZipEntries() < 0) {
+            errors.rejectValue("maxUploadZipEntries", "cannot be negative");
+        }
+        if (study.getMaxUploadZipEntryBytes() < 0) {
+            errors.rejectValue("maxUploadZipEntryBytes", "cannot be negative");
+        }
+        if (study.getMaxUploadZipTotalBytes() < 0) {
+            errors.rejectValue("maxUploadZipTotalBytes", "cannot be negative");
+        }
+        if (study.getMaxUploadZipCompressionRatio() < 0) {
+            errors.rejectValue("maxUploadZipCompressionRatio", "cannot be negative");
+        }
         validateEmails(errors, study.getSupportEmail(), "supportEmail");
         validateEmails(errors, study.getConsentNotificationEmail(), "consentNotificationEmail");
     }
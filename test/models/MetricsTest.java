@@ -79,4 +79,12 @@ public class MetricsTest {
     public void testGetCacheKeyRequestIdMustNotBeEmpty() {
         Metrics.getCacheKey(" ");
     }
+
+    @Test
+    public void testSetRedisRoundTrips() {
+        Metrics metrics = new Metrics("12345");
+        metrics.setRedisRoundTrips(3);
+        final String json = metrics.toJsonString();
+        assertTrue(json.contains("\"redis_round_trips\":3"));
+    }
 }
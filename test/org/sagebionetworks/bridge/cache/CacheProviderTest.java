@@ -3,13 +3,28 @@ package org.sagebionetworks.bridge.cache;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.User;
@@ -18,16 +33,39 @@ import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.redis.JedisStringOps;
 import org.sagebionetworks.bridge.redis.RedisKey;
 
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
 public class CacheProviderTest {
+    private static final BridgeConfig CONFIG = BridgeConfigFactory.getConfig();
 
     private CacheProvider cacheProvider;
+    private Map<String,String> map;
+    private List<String> publishedMessages;
+    private AtomicInteger getCount;
+    private AtomicInteger expireCount;
+    private AtomicLong nanos;
 
     @Before
     public void before() {
+        map = Maps.newHashMap();
+        publishedMessages = Lists.newArrayList();
+        getCount = new AtomicInteger();
+        expireCount = new AtomicInteger();
+        nanos = new AtomicLong();
+
         cacheProvider = new CacheProvider();
         cacheProvider.setStringOps(getSimpleStringOps());
+        cacheProvider.setTicker(new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
     }
 
     @Test
@@ -76,13 +114,142 @@ public class CacheProviderTest {
     }
     
     
+    @Test
+    public void sessionNotCachedUntilSubscribed() {
+        cacheProvider.setUserSession("token", makeSession());
+        assertNotNull(cacheProvider.getUserSession("token"));
+        assertNotNull(cacheProvider.getUserSession("token"));
+        assertEquals(2, getCount.get());
+        assertEquals(2, expireCount.get());
+    }
+
+    @Test
+    public void sessionCachedWhileSubscribed() {
+        cacheProvider.handleSubscribed();
+        UserSession session = makeSession();
+        cacheProvider.setUserSession("token", session);
+
+        // The saved session is cached, so reads don't go to Redis.
+        assertSame(session, cacheProvider.getUserSession("token"));
+        assertSame(session, cacheProvider.getUserSession("token"));
+        assertEquals(0, getCount.get());
+        assertEquals(0, expireCount.get());
+
+        // Another server changes the session. The next read goes to Redis, and the one after that is cached again.
+        cacheProvider.handleInvalidation("other-server:token");
+        UserSession readSession = cacheProvider.getUserSession("token");
+        assertNotSame(session, readSession);
+        assertEquals("some health code", readSession.getUser().getHealthCode());
+        assertSame(readSession, cacheProvider.getUserSession("token"));
+        assertEquals(1, getCount.get());
+    }
+
+    @Test
+    public void sessionCacheExpires() {
+        cacheProvider.handleSubscribed();
+        cacheProvider.setUserSession("token", makeSession());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(CONFIG.getPropertyAsInt("session.cache.ttl.seconds") + 1));
+        assertNotNull(cacheProvider.getUserSession("token"));
+        assertEquals(1, getCount.get());
+    }
+
+    @Test
+    public void expirationRefreshIsRateLimited() {
+        cacheProvider.handleSubscribed();
+        cacheProvider.setUserSession("token", makeSession());
+        long refreshNanos = TimeUnit.SECONDS.toNanos(CONFIG.getPropertyAsInt("session.expire.refresh.seconds"));
+
+        // Not yet.
+        nanos.addAndGet(refreshNanos - 1);
+        cacheProvider.getUserSession("token");
+        assertEquals(0, expireCount.get());
+
+        // Refreshed once, then not again until the next interval.
+        nanos.addAndGet(1);
+        cacheProvider.getUserSession("token");
+        cacheProvider.getUserSession("token");
+        assertEquals(1, expireCount.get());
+        assertEquals(0, getCount.get());
+    }
+
+    @Test
+    public void sessionRemovedWithoutMessage() {
+        cacheProvider.handleSubscribed();
+        cacheProvider.setUserSession("token", makeSession());
+
+        // The session disappears from Redis, and we don't hear about it. We find out when refreshing the expiration.
+        map.clear();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(CONFIG.getPropertyAsInt("session.expire.refresh.seconds")));
+        assertNull(cacheProvider.getUserSession("token"));
+    }
+
+    @Test
+    public void changesArePublished() {
+        cacheProvider.handleSubscribed();
+        cacheProvider.setUserSession("token", makeSession());
+        cacheProvider.removeSession("token");
+        assertEquals(2, publishedMessages.size());
+        assertTrue(publishedMessages.get(0).endsWith(":token"));
+        assertEquals(publishedMessages.get(0), publishedMessages.get(1));
+        assertNull(cacheProvider.getUserSession("token"));
+
+        // Our own messages come back to us, and are ignored.
+        UserSession session = makeSession();
+        cacheProvider.setUserSession("token", session);
+        cacheProvider.handleInvalidation(publishedMessages.get(0));
+        assertSame(session, cacheProvider.getUserSession("token"));
+    }
+
+    @Test
+    public void sessionCacheDroppedWhenUnsubscribed() {
+        cacheProvider.handleSubscribed();
+        cacheProvider.setUserSession("token", makeSession());
+        cacheProvider.handleUnsubscribed();
+        assertNotNull(cacheProvider.getUserSession("token"));
+        assertNotNull(cacheProvider.getUserSession("token"));
+        assertEquals(2, getCount.get());
+    }
+
+    @Test
+    public void subscriberUsesItsOwnConnection() {
+        final Jedis jedis = mock(Jedis.class);
+        final CacheProvider provider = new CacheProvider() {
+            @Override
+            Jedis createSubscriberConnection() {
+                return jedis;
+            }
+        };
+        provider.setStringOps(getSimpleStringOps());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                provider.stop();
+                return null;
+            }
+        }).when(jedis).subscribe(any(JedisPubSub.class), eq(CacheProvider.SESSION_INVALIDATION_CHANNEL));
+
+        provider.subscribeUntilStopped();
+        verify(jedis).subscribe(any(JedisPubSub.class), eq(CacheProvider.SESSION_INVALIDATION_CHANNEL));
+        verify(jedis).close();
+    }
+
+    private static UserSession makeSession() {
+        User user = new User();
+        user.setEmail("email");
+        user.setId("id");
+        user.setHealthCode("some health code");
+        UserSession session = new UserSession();
+        session.setUser(user);
+        return session;
+    }
+
     private JedisStringOps getSimpleStringOps() {
         return new JedisStringOps() {
-            private Map<String,String> map = Maps.newHashMap();
             public Long expire(final String key, final int seconds) {
-                return 1L;
+                expireCount.incrementAndGet();
+                return map.containsKey(key) ? 1L : 0L;
             }
-            public String setex(final String key, final int seconds, final String value) {
+            public String setexEncoded(final String key, final int seconds, final String value) {
                 map.put(key, value);
                 return "OK";
             }
@@ -90,13 +257,24 @@ public class CacheProviderTest {
                 map.put(key, value);
                 return 1L;
             }
-            public String get(final String key) {
+            public String getDecoded(final String key) {
+                getCount.incrementAndGet();
                 return map.get(key);
             }
+            public String getDecodedAndExpire(final String key, final int seconds) {
+                String value = getDecoded(key);
+                expire(key, seconds);
+                return value;
+            }
             public Long delete(final String key) {
                 map.remove(key);
                 return 1L;
             }
+            public Long publish(final String channel, final String message) {
+                assertEquals(CacheProvider.SESSION_INVALIDATION_CHANNEL, channel);
+                publishedMessages.add(message);
+                return 1L;
+            }
         };   
     }    
 }
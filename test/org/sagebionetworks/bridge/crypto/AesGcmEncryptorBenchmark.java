@@ -0,0 +1,61 @@
+package org.sagebionetworks.bridge.crypto;
+
+/**
+ * <p>
+ * Compares the throughput of the account encryptors: AesGcmEncryptor (version 2, Shiro's AesCipherService) and
+ * AesGcmJceEncryptor (version 3, thread-local JCE Cipher, key decoded once, no Base64 of the plaintext). Values are
+ * the size of health IDs and consent signatures. This is not a unit test and isn't run as part of the test suite. Run
+ * it by hand with a main class runner, for example:
+ * </p>
+ * <pre>
+ * activator "test:runMain org.sagebionetworks.bridge.crypto.AesGcmEncryptorBenchmark"
+ * </pre>
+ */
+public class AesGcmEncryptorBenchmark {
+    private static final String KEY = "XJHe3omwqIHDQ+Dr2EFnEoX+TlDuAZLrgOeE0TCPyq0=";
+    private static final String HEALTH_ID = "d5a0e58c-b4f7-4d6a-9a9e-3d9b5e5b2c1f";
+    private static final String SIGNATURE = "{\"name\":\"Test User\",\"birthdate\":\"1970-01-01\","
+            + "\"imageData\":null,\"imageMimeType\":null}";
+    private static final int WARMUP_CALLS = 20000;
+    private static final int CALLS = 100000;
+
+    public static void main(String[] args) {
+        Encryptor[] encryptors = { new AesGcmEncryptor(KEY), new AesGcmJceEncryptor(KEY) };
+        String[] values = { HEALTH_ID, SIGNATURE };
+        for (String oneValue : values) {
+            System.out.println(String.format("value %d chars", oneValue.length()));
+            for (Encryptor oneEncryptor : encryptors) {
+                String name = oneEncryptor.getClass().getSimpleName();
+                measureEncrypt(name, oneEncryptor, oneValue);
+                measureDecrypt(name, oneEncryptor, oneEncryptor.encrypt(oneValue));
+            }
+        }
+    }
+
+    private static void measureEncrypt(String name, Encryptor encryptor, String value) {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            encryptor.encrypt(value);
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            encryptor.encrypt(value);
+        }
+        report(name + " encrypt", System.nanoTime() - startNanos);
+    }
+
+    private static void measureDecrypt(String name, Encryptor encryptor, String encrypted) {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            encryptor.decrypt(encrypted);
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            encryptor.decrypt(encrypted);
+        }
+        report(name + " decrypt", System.nanoTime() - startNanos);
+    }
+
+    private static void report(String name, long elapsedNanos) {
+        double opsPerSec = CALLS / (elapsedNanos / 1e9);
+        System.out.println(String.format("  %-28s %12.0f ops/sec", name, opsPerSec));
+    }
+}
@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.shiro.codec.Base64;
+import org.junit.Test;
+
+public class AesGcmJceEncryptorTest {
+    private static final String KEY = "XJHe3omwqIHDQ+Dr2EFnEoX+TlDuAZLrgOeE0TCPyq0=";
+
+    @Test
+    public void test() {
+        AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor(KEY);
+        assertEquals(AesGcmJceEncryptor.VERSION, encryptor.getVersion());
+        assertEquals("a", encryptor.decrypt(encryptor.encrypt("a")));
+        assertEquals("Encrypt me", encryptor.decrypt(encryptor.encrypt("Encrypt me")));
+        assertEquals("$%*&^()!!@", encryptor.decrypt(encryptor.encrypt("$%*&^()!!@")));
+    }
+
+    @Test
+    public void testEmpty() {
+        AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor();
+        assertEquals("", encryptor.decrypt(encryptor.encrypt("")));
+    }
+
+    @Test
+    public void testNonAscii() {
+        AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor(KEY);
+        assertEquals("\u673A\u5BC6\u6587\u4EF6\u9500\u6BC1\u3002",
+                encryptor.decrypt(encryptor.encrypt("\u673A\u5BC6\u6587\u4EF6\u9500\u6BC1\u3002")));
+    }
+
+    @Test
+    public void testEncryptRandomized() {
+        AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor(KEY);
+        assertFalse("Encryption should be randomized.",
+                encryptor.encrypt("Encrypt me").equals(encryptor.encrypt("Encrypt me")));
+    }
+
+    @Test
+    public void testDecryptDeterministic() {
+        AesGcmJceEncryptor encryptor1 = new AesGcmJceEncryptor(KEY);
+        AesGcmJceEncryptor encryptor2 = new AesGcmJceEncryptor(KEY);
+        assertEquals("Decryption should be deterministic.", "Encrypt me",
+                encryptor2.decrypt(encryptor1.encrypt("Encrypt me")));
+    }
+
+    @Test
+    public void testNoBase64Plaintext() {
+        // 12-byte IV, plus 10 bytes of ciphertext, plus a 16-byte tag
+        AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor(KEY);
+        assertEquals(38, Base64.decode(encryptor.encrypt("Encrypt me")).length);
+    }
+
+    @Test
+    public void testSameKeyAsOldVersion() {
+        // Both versions use the same key, and each reads its own values.
+        AesGcmEncryptor oldEncryptor = new AesGcmEncryptor(KEY);
+        AesGcmJceEncryptor newEncryptor = new AesGcmJceEncryptor(KEY);
+        String oldEncrypted = oldEncryptor.encrypt("Encrypt me");
+        String newEncrypted = newEncryptor.encrypt("Encrypt me");
+        assertEquals("Encrypt me", oldEncryptor.decrypt(oldEncrypted));
+        assertEquals("Encrypt me", newEncryptor.decrypt(newEncrypted));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWrongKey() {
+        String encrypted = new AesGcmJceEncryptor(KEY).encrypt("Encrypt me");
+        new AesGcmJceEncryptor("jVoKFK0fxGPdDsWKZHSxIGR0P/QDUUEGpnetUf2jtDs=").decrypt(encrypted);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTampered() {
+        AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor(KEY);
+        byte[] encrypted = Base64.decode(encryptor.encrypt("Encrypt me"));
+        encrypted[15] ^= 1;
+        encryptor.decrypt(Base64.encodeToString(encrypted));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTooShort() {
+        new AesGcmJceEncryptor(KEY).decrypt(Base64.encodeToString(new byte[20]));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testShortKey() {
+        new AesGcmJceEncryptor("c2hvcnQga2V5");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullKey() {
+        new AesGcmJceEncryptor(null);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullEncrypt() {
+        new AesGcmJceEncryptor().encrypt(null);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullDecrypt() {
+        new AesGcmJceEncryptor().decrypt(null);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final AesGcmJceEncryptor encryptor = new AesGcmJceEncryptor(KEY);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futureList = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final String text = "Encrypt me " + i;
+                futureList.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int j = 0; j < 100; j++) {
+                            if (!text.equals(encryptor.decrypt(encryptor.encrypt(text)))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> oneFuture : futureList) {
+                assertEquals(true, oneFuture.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
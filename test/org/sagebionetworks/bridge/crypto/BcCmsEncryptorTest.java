@@ -4,10 +4,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.KeyPair;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.io.ByteStreams;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -55,4 +66,55 @@ public class BcCmsEncryptorTest {
         assertNotNull(encrypted2);
         assertFalse(Arrays.equals(encrypted1, encrypted2));
     }
+
+    @Test
+    public void testDecryptStream() throws Exception {
+        String text = "some streamed text";
+        byte[] encrypted = encryptor.encrypt(text.getBytes("UTF-8"));
+        try (InputStream decryptedStream = decryptor.decrypt(new ByteArrayInputStream(encrypted))) {
+            byte[] decrypted = ByteStreams.toByteArray(decryptedStream);
+            assertEquals(text, new String(decrypted, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testEncryptStream() throws Exception {
+        String text = "some text written to a stream";
+        ByteArrayOutputStream encryptedStream = new ByteArrayOutputStream();
+        try (OutputStream encryptingStream = encryptor.encrypt(encryptedStream)) {
+            encryptingStream.write(text.getBytes("UTF-8"));
+        }
+        byte[] encrypted = encryptedStream.toByteArray();
+        assertNotNull(encrypted);
+        assertFalse(text.equals(new String(encrypted, "UTF-8")));
+
+        // The byte array methods are wrappers around the stream methods, so they should interoperate.
+        byte[] decrypted = decryptor.decrypt(encrypted);
+        assertEquals(text, new String(decrypted, "UTF-8"));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        // The recipient and content encryptor builder are shared by all calls, so make sure concurrent calls don't
+        // step on each other.
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futureList = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final String text = "concurrent text " + i;
+                futureList.add(executorService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        byte[] encrypted = encryptor.encrypt(text.getBytes("UTF-8"));
+                        return new String(decryptor.decrypt(encrypted), "UTF-8");
+                    }
+                }));
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals("concurrent text " + i, futureList.get(i).get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package org.sagebionetworks.bridge.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSEnvelopedData;
+import org.bouncycastle.cms.CMSEnvelopedDataGenerator;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.KeyTransRecipientId;
+import org.bouncycastle.cms.RecipientInformation;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * <p>
+ * Compares peak heap and throughput of decrypting a large upload with the old buffered CMS path (CMSEnvelopedData,
+ * which holds both the ciphertext and plaintext in memory) against the streaming path in BcCmsEncryptor. This is not
+ * a unit test and isn't run as part of the test suite. Run it by hand with a main class runner, for example:
+ * </p>
+ * <pre>
+ * activator "test:runMain org.sagebionetworks.bridge.crypto.CmsEncryptorBenchmark 200"
+ * </pre>
+ * <p>
+ * The optional argument is the payload size in MB (default 100). For meaningful heap numbers, run with a heap large
+ * enough for the buffered path, such as -Xmx2g.
+ * </p>
+ */
+public class CmsEncryptorBenchmark {
+    private static final int DEFAULT_PAYLOAD_MB = 100;
+    private static final int ITERATIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int payloadMb = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAYLOAD_MB;
+
+        // set up encryption materials
+        Security.addProvider(new BouncyCastleProvider());
+        final KeyPair keyPair = KeyPairFactory.newRsa2048();
+        final X509Certificate cert = new BcCertificateFactory().newCertificate(keyPair, "*");
+        final BcCmsEncryptor encryptor = new BcCmsEncryptor(cert, keyPair.getPrivate());
+
+        // Random plaintext, encrypted once. Both paths decrypt the same ciphertext.
+        byte[] plaintext = new byte[payloadMb * 1024 * 1024];
+        new Random(1234).nextBytes(plaintext);
+        byte[] encrypted = encryptBuffered(cert, plaintext);
+        plaintext = null;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            System.out.println(String.format("iteration %d, payload %d MB", i, payloadMb));
+            measure("buffered decrypt", encrypted.length, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    decryptBuffered(cert, keyPair.getPrivate(), input);
+                }
+            }, encrypted);
+            measure("streaming decrypt", encrypted.length, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    try (InputStream decryptedStream = encryptor.decrypt(new ByteArrayInputStream(input))) {
+                        // Drain the stream without keeping the plaintext, the way UnzipHandler consumes it.
+                        ByteStreams.copy(decryptedStream, ByteStreams.nullOutputStream());
+                    }
+                }
+            }, encrypted);
+            measure("streaming encrypt", encrypted.length, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    try (OutputStream encryptingStream = encryptor.encrypt(ByteStreams.nullOutputStream())) {
+                        encryptingStream.write(input);
+                    }
+                }
+            }, encrypted);
+        }
+    }
+
+    // The decryption path BcCmsEncryptor used before it was built on the streaming parser.
+    private static byte[] decryptBuffered(X509Certificate cert, PrivateKey privateKey, byte[] bytes)
+            throws Exception {
+        CMSEnvelopedData envelopedData = new CMSEnvelopedData(bytes);
+        X509CertificateHolder certHolder = new X509CertificateHolder(cert.getEncoded());
+        RecipientInformation recInfo = envelopedData.getRecipientInfos().get(new KeyTransRecipientId(
+                certHolder.getIssuer(), certHolder.getSerialNumber()));
+        return recInfo.getContent(new JceKeyTransEnvelopedRecipient(privateKey));
+    }
+
+    // The encryption path BcCmsEncryptor used before it was built on the streaming generator.
+    private static byte[] encryptBuffered(X509Certificate cert, byte[] bytes) throws Exception {
+        CMSEnvelopedDataGenerator generator = new CMSEnvelopedDataGenerator();
+        generator.addRecipientInfoGenerator(new JceKeyTransRecipientInfoGenerator(cert).setProvider(
+                BcCmsConstants.PROVIDER));
+        CMSEnvelopedData envelopedData = generator.generate(new CMSProcessableByteArray(bytes),
+                new JceCMSContentEncryptorBuilder(BcCmsConstants.ENCRYPTOR_ALGO_ID).setProvider(
+                        BcCmsConstants.PROVIDER).build());
+        return envelopedData.getEncoded();
+    }
+
+    private static void measure(String name, int numBytes, BenchmarkOp op, byte[] input) throws Exception {
+        // Start from a clean heap, so the peak reflects this operation.
+        System.gc();
+        long baseline = usedHeap();
+        for (MemoryPoolMXBean onePool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (onePool.getType() == MemoryType.HEAP) {
+                onePool.resetPeakUsage();
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        op.run(input);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        long peakHeapMb = (peakHeap() - baseline) / (1024 * 1024);
+        double mbPerSec = (numBytes / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+        System.out.println(String.format("  %-18s %8.1f MB/s, peak heap above baseline %5d MB", name, mbPerSec,
+                peakHeapMb));
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Sum of the per-pool peaks. This overestimates the true peak (pools don't peak at the same time), but is
+    // consistent between the two paths.
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean onePool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (onePool.getType() == MemoryType.HEAP) {
+                peak += onePool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private interface BenchmarkOp {
+        void run(byte[] input) throws Exception;
+    }
+}
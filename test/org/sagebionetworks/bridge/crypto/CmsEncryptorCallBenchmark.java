@@ -0,0 +1,153 @@
+package org.sagebionetworks.bridge.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSEnvelopedDataParser;
+import org.bouncycastle.cms.CMSEnvelopedDataStreamGenerator;
+import org.bouncycastle.cms.KeyTransRecipientId;
+import org.bouncycastle.cms.RecipientInformation;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyTransEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * <p>
+ * Measures the per-call overhead of BcCmsEncryptor, comparing the current encryptor (recipient ID, recipient and
+ * content encryptor builder built once per encryptor, provider registered once) against the old per-call setup. Small
+ * payloads show the setup overhead, large payloads show that it's noise next to the cipher. This is not a unit test
+ * and isn't run as part of the test suite. Run it by hand with a main class runner, for example:
+ * </p>
+ * <pre>
+ * activator "test:runMain org.sagebionetworks.bridge.crypto.CmsEncryptorCallBenchmark"
+ * </pre>
+ */
+public class CmsEncryptorCallBenchmark {
+    private static final int SMALL_PAYLOAD_BYTES = 10 * 1024;
+    private static final int SMALL_WARMUP_CALLS = 500;
+    private static final int SMALL_CALLS = 2000;
+    private static final int LARGE_PAYLOAD_BYTES = 50 * 1024 * 1024;
+    private static final int LARGE_WARMUP_CALLS = 1;
+    private static final int LARGE_CALLS = 5;
+    private static final int CONSTRUCTOR_CALLS = 200;
+
+    public static void main(String[] args) throws Exception {
+        // set up encryption materials
+        final KeyPair keyPair = KeyPairFactory.newRsa2048();
+        final X509Certificate cert = new BcCertificateFactory().newCertificate(keyPair, "*");
+        final BcCmsEncryptor encryptor = new BcCmsEncryptor(cert, keyPair.getPrivate());
+
+        // The old encryptor shared its generator across calls too.
+        final CMSEnvelopedDataStreamGenerator oldGenerator = new CMSEnvelopedDataStreamGenerator();
+        oldGenerator.addRecipientInfoGenerator(new JceKeyTransRecipientInfoGenerator(cert).setProvider(
+                BcCmsConstants.PROVIDER));
+
+        // constructor
+        measure("old constructor", 0, CONSTRUCTOR_CALLS / 10, CONSTRUCTOR_CALLS, new BenchmarkOp() {
+            @Override
+            public void run(byte[] input) throws Exception {
+                Security.addProvider(new BouncyCastleProvider());
+                new BcCmsEncryptor(cert, keyPair.getPrivate());
+            }
+        }, null);
+        measure("new constructor", 0, CONSTRUCTOR_CALLS / 10, CONSTRUCTOR_CALLS, new BenchmarkOp() {
+            @Override
+            public void run(byte[] input) throws Exception {
+                new BcCmsEncryptor(cert, keyPair.getPrivate());
+            }
+        }, null);
+
+        // per call, small and large payloads
+        int[][] payloadConfigs = { { SMALL_PAYLOAD_BYTES, SMALL_WARMUP_CALLS, SMALL_CALLS },
+                { LARGE_PAYLOAD_BYTES, LARGE_WARMUP_CALLS, LARGE_CALLS } };
+        for (int[] onePayloadConfig : payloadConfigs) {
+            int payloadBytes = onePayloadConfig[0];
+            int warmupCalls = onePayloadConfig[1];
+            int calls = onePayloadConfig[2];
+
+            byte[] plaintext = new byte[payloadBytes];
+            new Random(1234).nextBytes(plaintext);
+            byte[] encrypted = encryptor.encrypt(plaintext);
+            System.out.println(String.format("payload %d KB", payloadBytes / 1024));
+
+            measure("old encrypt", payloadBytes, warmupCalls, calls, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    try (OutputStream encryptingStream = oldGenerator.open(ByteStreams.nullOutputStream(),
+                            new JceCMSContentEncryptorBuilder(BcCmsConstants.ENCRYPTOR_ALGO_ID).setProvider(
+                                    BcCmsConstants.PROVIDER).build())) {
+                        encryptingStream.write(input);
+                    }
+                }
+            }, plaintext);
+            measure("new encrypt", payloadBytes, warmupCalls, calls, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    try (OutputStream encryptingStream = encryptor.encrypt(ByteStreams.nullOutputStream())) {
+                        encryptingStream.write(input);
+                    }
+                }
+            }, plaintext);
+            measure("old decrypt", payloadBytes, warmupCalls, calls, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    try (InputStream decryptedStream = oldDecrypt(cert, keyPair.getPrivate(), input)) {
+                        ByteStreams.copy(decryptedStream, ByteStreams.nullOutputStream());
+                    }
+                }
+            }, encrypted);
+            measure("new decrypt", payloadBytes, warmupCalls, calls, new BenchmarkOp() {
+                @Override
+                public void run(byte[] input) throws Exception {
+                    try (InputStream decryptedStream = encryptor.decrypt(new ByteArrayInputStream(input))) {
+                        ByteStreams.copy(decryptedStream, ByteStreams.nullOutputStream());
+                    }
+                }
+            }, encrypted);
+        }
+    }
+
+    // The decryption path BcCmsEncryptor used before the recipient ID and recipient were built once per encryptor.
+    private static InputStream oldDecrypt(X509Certificate cert, PrivateKey privateKey, byte[] bytes)
+            throws Exception {
+        CMSEnvelopedDataParser envelopedDataParser = new CMSEnvelopedDataParser(new ByteArrayInputStream(bytes));
+        X509CertificateHolder certHolder = new X509CertificateHolder(cert.getEncoded());
+        RecipientInformation recInfo = envelopedDataParser.getRecipientInfos().get(new KeyTransRecipientId(
+                certHolder.getIssuer(), certHolder.getSerialNumber()));
+        return recInfo.getContentStream(new JceKeyTransEnvelopedRecipient(privateKey)).getContentStream();
+    }
+
+    private static void measure(String name, int numBytes, int warmupCalls, int calls, BenchmarkOp op, byte[] input)
+            throws Exception {
+        for (int i = 0; i < warmupCalls; i++) {
+            op.run(input);
+        }
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            op.run(input);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        double microsPerCall = elapsedNanos / 1000.0 / calls;
+        if (numBytes > 0) {
+            double mbPerSec = (numBytes / (1024.0 * 1024.0)) * calls / (elapsedNanos / 1e9);
+            System.out.println(String.format("  %-16s %12.1f us/call, %8.1f MB/s", name, microsPerCall, mbPerSec));
+        } else {
+            System.out.println(String.format("  %-16s %12.1f us/call", name, microsPerCall));
+        }
+    }
+
+    private interface BenchmarkOp {
+        void run(byte[] input) throws Exception;
+    }
+}
@@ -0,0 +1,106 @@
+package org.sagebionetworks.bridge.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyPairPoolTest {
+    private static final int CAPACITY = 2;
+
+    private AtomicInteger generatedCount;
+    private KeyPairPool pool;
+
+    @Before
+    public void before() {
+        // Key pairs don't need real keys, since the pool never looks inside them.
+        generatedCount = new AtomicInteger();
+        pool = new KeyPairPool("test-pool", CAPACITY, new Supplier<KeyPair>() {
+            @Override
+            public KeyPair get() {
+                generatedCount.incrementAndGet();
+                return new KeyPair(null, null);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        pool.stop();
+    }
+
+    @Test
+    public void takeFromPool() throws Exception {
+        pool.start();
+        waitForAvailableCount(CAPACITY);
+
+        // The fill thread stops at capacity, holding one more key pair until there's room for it.
+        waitForGeneratedCount(CAPACITY + 1);
+
+        // execute and validate
+        assertNotNull(pool.take());
+        assertEquals(1, pool.getPooledCount());
+        assertEquals(0, pool.getGeneratedOnDemandCount());
+
+        // The pool is refilled.
+        waitForAvailableCount(CAPACITY);
+        waitForGeneratedCount(CAPACITY + 2);
+    }
+
+    @Test
+    public void emptyPoolGeneratesOnDemand() {
+        // Pool isn't started, so it's empty.
+        assertNotNull(pool.take());
+        assertEquals(0, pool.getPooledCount());
+        assertEquals(1, pool.getGeneratedOnDemandCount());
+        assertEquals(1, generatedCount.get());
+    }
+
+    @Test
+    public void keyPairsAreNotReused() throws Exception {
+        pool.start();
+        waitForAvailableCount(CAPACITY);
+        KeyPair first = pool.take();
+        KeyPair second = pool.take();
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void stop() throws Exception {
+        pool.start();
+        waitForAvailableCount(CAPACITY);
+        waitForGeneratedCount(CAPACITY + 1);
+        pool.stop();
+
+        // Key pairs already in the pool can still be taken, but no more are generated. The fill thread may still add
+        // the key pair it was holding.
+        for (int i = 0; i < CAPACITY; i++) {
+            pool.take();
+        }
+        Thread.sleep(100);
+        assertTrue(pool.getAvailableCount() <= 1);
+        assertEquals(CAPACITY + 1, generatedCount.get());
+    }
+
+    private void waitForGeneratedCount(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && generatedCount.get() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, generatedCount.get());
+    }
+
+    private void waitForAvailableCount(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.getAvailableCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pool.getAvailableCount());
+    }
+}
@@ -20,6 +20,7 @@ import org.sagebionetworks.bridge.dynamodb.test.HealthDataRecordTest;
 import org.sagebionetworks.bridge.exceptions.BridgeInitializationException;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.CreateGlobalSecondaryIndexAction;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
@@ -28,6 +29,7 @@ import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndex;
 import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndexDescription;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
 
 public class DynamoInitializerTest {
 
@@ -150,6 +152,31 @@ public class DynamoInitializerTest {
         DynamoInitializer.compareSchema(table1, table2);
     }
 
+    @Test
+    public void testGetCreateGlobalIndexRequests() {
+        List<Class<?>> classes = DynamoInitializer.loadDynamoTableClasses(PACKAGE);
+        List<TableDescription> tables = DynamoInitializer.getAnnotatedTables(classes);
+        TableDescription table1 = tables.get(0);
+        TableDescription table2 = copyTableDescription(table1);
+
+        // Nothing to create when the existing table has all the indices
+        assertTrue(DynamoInitializer.getCreateGlobalIndexRequests(table1, table2).isEmpty());
+
+        // The missing index is created, with its key attribute
+        table2.setGlobalSecondaryIndexes(null);
+        List<UpdateTableRequest> requests = DynamoInitializer.getCreateGlobalIndexRequests(table1, table2);
+        assertEquals(1, requests.size());
+        UpdateTableRequest request = requests.get(0);
+        assertEquals(table1.getTableName(), request.getTableName());
+        CreateGlobalSecondaryIndexAction createAction = request.getGlobalSecondaryIndexUpdates().get(0).getCreate();
+        assertEquals("secondary-index", createAction.getIndexName());
+        String keyName = createAction.getKeySchema().get(0).getAttributeName();
+        assertEquals(1, request.getAttributeDefinitions().size());
+        assertEquals(keyName, request.getAttributeDefinitions().get(0).getAttributeName());
+        assertEquals(DynamoInitializer.DEFAULT_READ_CAPACITY,
+                createAction.getProvisionedThroughput().getReadCapacityUnits().longValue());
+    }
+
     // Copies the relevant attributes from a table (name, keys, global and local secondary indices)
     private static TableDescription copyTableDescription(TableDescription table1) {
         TableDescription table2 = new TableDescription();
@@ -1,14 +1,43 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
 
 import com.google.common.collect.ImmutableList;
+import org.joda.time.LocalDate;
 import org.junit.Test;
 
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+
 public class DynamoUpload2Test {
+    @Test
+    public void healthCodeContentMd5() {
+        DynamoUpload2 upload2 = new DynamoUpload2(DynamoUploadDaoTest.createUploadRequest(), "test-health-code");
+        assertEquals("test-health-code:" + upload2.getContentMd5(), upload2.getHealthCodeContentMd5());
+
+        // missing either half gives null, so uploads without an MD5 never match each other
+        assertNull(DynamoUpload2.makeHealthCodeContentMd5("test-health-code", null));
+        assertNull(DynamoUpload2.makeHealthCodeContentMd5(null, "test-md5"));
+    }
+
+    @Test
+    public void uploadDateStatus() {
+        // Not indexed until the upload is completed.
+        DynamoUpload2 upload2 = new DynamoUpload2(DynamoUploadDaoTest.createUploadRequest(), "test-health-code");
+        assertNull(upload2.getUploadDateStatus());
+
+        // Follows the upload date and status as they change.
+        upload2.setUploadDate(new LocalDate(2015, 4, 2));
+        upload2.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        assertEquals("2015-04-02:VALIDATION_IN_PROGRESS", upload2.getUploadDateStatus());
+
+        upload2.setStatus(UploadStatus.VALIDATION_FAILED);
+        assertEquals("2015-04-02:VALIDATION_FAILED", upload2.getUploadDateStatus());
+    }
+
     @Test
     public void testGetSetValidationMessageList() {
         DynamoUpload2 upload2 = new DynamoUpload2();
@@ -1,20 +1,37 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.dynamodb.DynamoUploadDaoTest.createUploadRequest;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedScanList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
 import org.junit.Test;
@@ -159,6 +176,98 @@ public class DynamoUploadDaoMockTest {
         assertTrue(argSave.getValue().isComplete());
     }
 
+    @Test
+    public void getDuplicateUpload() {
+        // The new upload, plus two earlier uploads with the same content. Only the second one validated.
+        DynamoUpload2 upload = makeUploadWithContentMd5("new-upload");
+        DynamoUpload2 failedKey = makeUploadWithContentMd5("failed-upload");
+        DynamoUpload2 succeededKey = makeUploadWithContentMd5("succeeded-upload");
+
+        DynamoUpload2 failedUpload = makeUploadWithContentMd5("failed-upload");
+        failedUpload.setStatus(UploadStatus.VALIDATION_FAILED);
+        DynamoUpload2 succeededUpload = makeUploadWithContentMd5("succeeded-upload");
+        succeededUpload.setStatus(UploadStatus.SUCCEEDED);
+
+        // mock DDB mapper - the index returns keys only, so the DAO loads each one
+        DynamoDBMapper mockMapper = mockContentMd5Query(ImmutableList.of(upload, failedKey, succeededKey));
+        when(mockMapper.load(failedKey)).thenReturn(failedUpload);
+        when(mockMapper.load(succeededKey)).thenReturn(succeededUpload);
+
+        // execute and validate
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        assertSame(succeededUpload, dao.getDuplicateUpload(upload));
+
+        // validate the query, and that we didn't load the upload itself
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoUpload2>> queryCaptor = newQueryCaptor();
+        verify(mockMapper).queryPage(eq(DynamoUpload2.class), queryCaptor.capture());
+        DynamoDBQueryExpression<DynamoUpload2> query = queryCaptor.getValue();
+        assertEquals(DynamoUploadDao.CONTENT_MD5_INDEX_NAME, query.getIndexName());
+        assertEquals(upload.getHealthCodeContentMd5(), query.getHashKeyValues().getHealthCodeContentMd5());
+        verify(mockMapper, never()).load(upload);
+    }
+
+    @Test
+    public void getDuplicateUploadNone() {
+        DynamoUpload2 upload = makeUploadWithContentMd5("new-upload");
+        DynamoDBMapper mockMapper = mockContentMd5Query(ImmutableList.of(upload));
+
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        assertNull(dao.getDuplicateUpload(upload));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getDuplicateUploadNoContentMd5() {
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        assertNull(dao.getDuplicateUpload(new DynamoUpload2()));
+        assertNull(dao.getDuplicateUpload(new DynamoUpload()));
+        verify(mockMapper, never()).queryPage(eq(DynamoUpload2.class), any(DynamoDBQueryExpression.class));
+    }
+
+    @Test
+    public void markDuplicate() {
+        DynamoUpload2 upload = makeUploadWithContentMd5("new-upload");
+        upload.setStatus(UploadStatus.REQUESTED);
+        DynamoUpload2 originalUpload = makeUploadWithContentMd5("original-upload");
+        originalUpload.setStatus(UploadStatus.SUCCEEDED);
+
+        // execute
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        dao.markDuplicate(upload, originalUpload);
+
+        // validate
+        ArgumentCaptor<DynamoUpload2> argSave = ArgumentCaptor.forClass(DynamoUpload2.class);
+        verify(mockMapper).save(argSave.capture());
+        assertEquals(UploadStatus.SUCCEEDED, argSave.getValue().getStatus());
+        assertEquals("original-upload", argSave.getValue().getDuplicateUploadId());
+
+        // There is a slim chance that this will fail if it runs just after midnight.
+        assertEquals(LocalDate.now(DateTimeZone.forID("America/Los_Angeles")), argSave.getValue().getUploadDate());
+    }
+
+    @Test
+    public void markDuplicateOfDuplicate() {
+        // If the original is itself a duplicate, link to the upload that was actually validated.
+        DynamoUpload2 originalUpload = makeUploadWithContentMd5("second-upload");
+        originalUpload.setDuplicateUploadId("first-upload");
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        dao.markDuplicate(makeUploadWithContentMd5("third-upload"), originalUpload);
+
+        ArgumentCaptor<DynamoUpload2> argSave = ArgumentCaptor.forClass(DynamoUpload2.class);
+        verify(mockMapper).save(argSave.capture());
+        assertEquals("first-upload", argSave.getValue().getDuplicateUploadId());
+    }
+
     // branch coverage
     @Test
     public void writeValidationStatusOld() {
@@ -216,4 +325,154 @@ public class DynamoUploadDaoMockTest {
         assertEquals("pre-existing message", messageList.get(0));
         assertEquals("appended this message", messageList.get(1));
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getUploadsForDateAndStatus() {
+        LocalDate uploadDate = new LocalDate(2015, 4, 2);
+
+        // Two pages of keys. The first page says there's more.
+        DynamoUpload2 fooKey = makeUploadKey("foo-upload");
+        DynamoUpload2 barKey = makeUploadKey("bar-upload");
+        DynamoUpload2 bazKey = makeUploadKey("baz-upload");
+
+        QueryResultPage<DynamoUpload2> firstPage = new QueryResultPage<>();
+        firstPage.setResults(ImmutableList.of(fooKey, barKey));
+        firstPage.setLastEvaluatedKey(ImmutableMap.of("uploadId", new AttributeValue("bar-upload")));
+
+        QueryResultPage<DynamoUpload2> secondPage = new QueryResultPage<>();
+        secondPage.setResults(ImmutableList.of(bazKey));
+
+        // Bar was re-validated after it was indexed, so it no longer matches.
+        DynamoUpload2 fooUpload = makeUpload("foo-upload", uploadDate, UploadStatus.VALIDATION_FAILED);
+        DynamoUpload2 barUpload = makeUpload("bar-upload", uploadDate, UploadStatus.SUCCEEDED);
+        DynamoUpload2 bazUpload = makeUpload("baz-upload", uploadDate, UploadStatus.VALIDATION_FAILED);
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        when(mockMapper.queryPage(eq(DynamoUpload2.class), any(DynamoDBQueryExpression.class))).thenReturn(
+                firstPage, secondPage);
+        when(mockMapper.batchLoad(ImmutableList.<Object>of(fooKey, barKey))).thenReturn(
+                ImmutableMap.<String, List<Object>>of("Upload2", ImmutableList.<Object>of(fooUpload, barUpload)));
+        when(mockMapper.batchLoad(ImmutableList.<Object>of(bazKey))).thenReturn(
+                ImmutableMap.<String, List<Object>>of("Upload2", ImmutableList.<Object>of(bazUpload)));
+
+        // execute
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        Iterator<Upload> uploadIter = dao.getUploadsForDateAndStatus(uploadDate, UploadStatus.VALIDATION_FAILED);
+
+        // Pages are only queried as the iterator advances.
+        verify(mockMapper, never()).queryPage(eq(DynamoUpload2.class), any(DynamoDBQueryExpression.class));
+        assertEquals(ImmutableList.<Upload>of(fooUpload, bazUpload), ImmutableList.copyOf(uploadIter));
+
+        // validate the queries
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoUpload2>> queryCaptor = newQueryCaptor();
+        verify(mockMapper, times(2)).queryPage(eq(DynamoUpload2.class), queryCaptor.capture());
+        List<DynamoDBQueryExpression<DynamoUpload2>> queryList = queryCaptor.getAllValues();
+
+        DynamoDBQueryExpression<DynamoUpload2> firstQuery = queryList.get(0);
+        assertEquals(DynamoUploadDao.UPLOAD_DATE_STATUS_INDEX_NAME, firstQuery.getIndexName());
+        assertEquals("2015-04-02:VALIDATION_FAILED", firstQuery.getHashKeyValues().getUploadDateStatus());
+        assertEquals(DynamoUploadDao.UPLOAD_DATE_STATUS_PAGE_SIZE, firstQuery.getLimit().intValue());
+        assertNull(firstQuery.getExclusiveStartKey());
+
+        DynamoDBQueryExpression<DynamoUpload2> secondQuery = queryList.get(1);
+        assertEquals(firstPage.getLastEvaluatedKey(), secondQuery.getExclusiveStartKey());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getUploadsForDateAndStatusNone() {
+        QueryResultPage<DynamoUpload2> emptyPage = new QueryResultPage<>();
+        emptyPage.setResults(ImmutableList.<DynamoUpload2>of());
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        when(mockMapper.queryPage(eq(DynamoUpload2.class), any(DynamoDBQueryExpression.class))).thenReturn(
+                emptyPage);
+
+        // execute and validate
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        assertFalse(dao.getUploadsForDateAndStatus(new LocalDate(2015, 4, 2), UploadStatus.VALIDATION_FAILED)
+                .hasNext());
+        verify(mockMapper, never()).batchLoad(any(List.class));
+    }
+
+    @Test
+    public void getUploadsMissingUploadDateStatus() {
+        DynamoUpload2 upload = makeUpload("test-upload", new LocalDate(2015, 4, 2), UploadStatus.VALIDATION_FAILED);
+
+        // mock DDB mapper
+        @SuppressWarnings("unchecked")
+        PaginatedScanList<DynamoUpload2> mockScanList = mock(PaginatedScanList.class);
+        when(mockScanList.iterator()).thenReturn(ImmutableList.of(upload).iterator());
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        ArgumentCaptor<DynamoDBScanExpression> scanCaptor = ArgumentCaptor.forClass(DynamoDBScanExpression.class);
+        when(mockMapper.scan(eq(DynamoUpload2.class), scanCaptor.capture(), any(DynamoDBMapperConfig.class)))
+                .thenReturn(mockScanList);
+
+        // execute
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+        Iterator<Upload> uploadIter = dao.getUploadsMissingUploadDateStatus(UploadStatus.VALIDATION_FAILED);
+        assertSame(upload, uploadIter.next());
+        assertFalse(uploadIter.hasNext());
+
+        // validate scan
+        Map<String, Condition> scanFilter = scanCaptor.getValue().getScanFilter();
+        assertEquals(ComparisonOperator.EQ.toString(), scanFilter.get("status").getComparisonOperator());
+        assertEquals("VALIDATION_FAILED", scanFilter.get("status").getAttributeValueList().get(0).getS());
+        assertEquals(ComparisonOperator.NOT_NULL.toString(), scanFilter.get("uploadDate").getComparisonOperator());
+        assertEquals(ComparisonOperator.NULL.toString(), scanFilter.get("uploadDateStatus").getComparisonOperator());
+    }
+
+    @Test
+    public void backfillUploadDateStatus() {
+        DynamoUpload2 upload = makeUpload("test-upload", new LocalDate(2015, 4, 2), UploadStatus.VALIDATION_FAILED);
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoUploadDao dao = new DynamoUploadDao();
+        dao.setDdbMapper(mockMapper);
+
+        dao.backfillUploadDateStatus(upload);
+        verify(mockMapper).save(upload);
+        assertEquals("2015-04-02:VALIDATION_FAILED", upload.getUploadDateStatus());
+    }
+
+    private static DynamoUpload2 makeUploadKey(String uploadId) {
+        DynamoUpload2 upload2 = new DynamoUpload2();
+        upload2.setUploadId(uploadId);
+        return upload2;
+    }
+
+    private static DynamoUpload2 makeUpload(String uploadId, LocalDate uploadDate, UploadStatus status) {
+        DynamoUpload2 upload2 = makeUploadKey(uploadId);
+        upload2.setUploadDate(uploadDate);
+        upload2.setStatus(status);
+        return upload2;
+    }
+
+    private static DynamoUpload2 makeUploadWithContentMd5(String uploadId) {
+        DynamoUpload2 upload2 = new DynamoUpload2(createUploadRequest(), "fakeHealthCode");
+        upload2.setUploadId(uploadId);
+        return upload2;
+    }
+
+    // ArgumentCaptor.forClass() only takes a raw class, so capturing a generic type needs an unchecked cast.
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<DynamoDBQueryExpression<DynamoUpload2>> newQueryCaptor() {
+        Class<DynamoDBQueryExpression<DynamoUpload2>> queryClass =
+                (Class<DynamoDBQueryExpression<DynamoUpload2>>) (Class<?>) DynamoDBQueryExpression.class;
+        return ArgumentCaptor.forClass(queryClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DynamoDBMapper mockContentMd5Query(List<DynamoUpload2> resultList) {
+        QueryResultPage<DynamoUpload2> resultPage = new QueryResultPage<>();
+        resultPage.setResults(resultList);
+
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        when(mockMapper.queryPage(eq(DynamoUpload2.class), any(DynamoDBQueryExpression.class))).thenReturn(
+                resultPage);
+        return mockMapper;
+    }
 }
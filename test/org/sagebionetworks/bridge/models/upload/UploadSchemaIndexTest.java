@@ -0,0 +1,83 @@
+package org.sagebionetworks.bridge.models.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadFieldDefinition;
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
+
+public class UploadSchemaIndexTest {
+    @Test
+    public void empty() {
+        UploadSchemaIndex index = new UploadSchemaIndex(ImmutableList.<UploadSchema>of());
+        assertEquals(0, index.getSchemaList().size());
+        assertNull(index.getLatestSchemaById("foo"));
+        assertNull(index.getLatestSchemaByName("Foo"));
+    }
+
+    @Test
+    public void latestRevisionAndFieldNames() {
+        UploadSchema fooV1 = makeSchema("foo", "Foo", 1, "a");
+        UploadSchema fooV3 = makeSchema("foo", "Foo", 3, "a", "b", "c");
+        UploadSchema fooV2 = makeSchema("foo", "Foo", 2, "a", "b");
+        UploadSchema bar = makeSchema("bar", "Bar", 1, "x");
+        List<UploadSchema> schemaList = ImmutableList.of(fooV1, fooV3, fooV2, bar);
+
+        UploadSchemaIndex index = new UploadSchemaIndex(schemaList);
+        assertEquals(schemaList, index.getSchemaList());
+
+        assertSame(fooV3, index.getLatestSchemaById("foo"));
+        assertSame(fooV3, index.getLatestSchemaByName("Foo"));
+        assertSame(bar, index.getLatestSchemaById("bar"));
+        assertSame(bar, index.getLatestSchemaByName("Bar"));
+        assertNull(index.getLatestSchemaById("Foo"));
+
+        assertEquals(ImmutableSet.of("a"), index.getFieldNameSet(fooV1));
+        assertEquals(ImmutableSet.of("a", "b"), index.getFieldNameSet(fooV2));
+        assertEquals(ImmutableSet.of("a", "b", "c"), index.getFieldNameSet(fooV3));
+        assertNull(index.getFieldNameSet(makeSchema("not-in-index", "Nope", 1, "a")));
+    }
+
+    @Test
+    public void candidateSchemas() {
+        UploadSchema fooV1 = makeSchema("foo", "Foo", 1, "a", "b");
+        UploadSchema fooV2 = makeSchema("foo", "Foo", 2, "a", "b", "c");
+        UploadSchema bar = makeSchema("bar", "Bar", 1, "a", "x");
+        UploadSchemaIndex index = new UploadSchemaIndex(ImmutableList.of(fooV1, bar, fooV2));
+
+        // candidates are schemas with all the keys, newest revision first
+        assertEquals(ImmutableList.of(fooV2, fooV1), index.getCandidateSchemas(ImmutableSet.of("a", "b")));
+        assertEquals(ImmutableList.of(fooV2), index.getCandidateSchemas(ImmutableSet.of("c")));
+        assertEquals(ImmutableList.of(fooV2, fooV1, bar), index.getCandidateSchemas(ImmutableSet.of("a")));
+        assertEquals(ImmutableList.of(bar), index.getCandidateSchemas(ImmutableSet.of("a", "x")));
+
+        // no schema has both b and x, and no schema has z
+        assertEquals(0, index.getCandidateSchemas(ImmutableSet.of("b", "x")).size());
+        assertEquals(0, index.getCandidateSchemas(ImmutableSet.of("a", "z")).size());
+
+        // no keys matches everything
+        assertEquals(ImmutableList.of(fooV2, fooV1, bar), index.getCandidateSchemas(ImmutableSet.<String>of()));
+    }
+
+    private static UploadSchema makeSchema(String schemaId, String name, int rev, String... fieldNames) {
+        ImmutableList.Builder<UploadFieldDefinition> fieldDefList = ImmutableList.builder();
+        for (String oneFieldName : fieldNames) {
+            fieldDefList.add(new DynamoUploadFieldDefinition.Builder().withName(oneFieldName)
+                    .withType(UploadFieldType.STRING).build());
+        }
+
+        DynamoUploadSchema schema = new DynamoUploadSchema();
+        schema.setSchemaId(schemaId);
+        schema.setName(name);
+        schema.setRevision(rev);
+        schema.setFieldDefinitions(fieldDefList.build());
+        return schema;
+    }
+}
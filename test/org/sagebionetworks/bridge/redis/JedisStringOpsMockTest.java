@@ -0,0 +1,182 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class JedisStringOpsMockTest {
+    private static final String KEY = "key";
+    private static final byte[] KEY_BYTES = KEY.getBytes(StandardCharsets.UTF_8);
+
+    private JedisPool pool;
+    private Jedis jedis;
+    private StubPipeline pipeline;
+    private JedisStringOps stringOps;
+
+    @Before
+    public void before() {
+        pipeline = new StubPipeline();
+        jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+
+        stringOps = new JedisStringOps();
+        stringOps.setJedisPool(pool);
+        RedisRoundTripCounter.reset();
+    }
+
+    @Test
+    public void getDecodedAndExpireIsOneRoundTrip() {
+        String value = "{\"value\":\"" + Strings.repeat("abc", 100) + "\"}";
+        pipeline.values.put(KEY, new DeflateRedisCodec().encode(value));
+
+        assertEquals(value, stringOps.getDecodedAndExpire(KEY, 60));
+        assertEquals(ImmutableList.of("GET key", "EXPIRE key 60", "SYNC"), pipeline.commands);
+        verify(pool).returnResource(jedis);
+        assertEquals(1, RedisRoundTripCounter.get());
+    }
+
+    @Test
+    public void getDecodedAndExpireMissingKey() {
+        assertNull(stringOps.getDecodedAndExpire(KEY, 60));
+    }
+
+    @Test
+    public void pipelineReturnsFalseWhenRedisIsUnavailable() {
+        pipeline.connectionLost = true;
+
+        assertNull(stringOps.getDecodedAndExpire(KEY, 60));
+        assertFalse(stringOps.pipelined(new JedisStringOps.PipelineCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                pipeline.expire(KEY_BYTES, 60);
+            }
+        }));
+        verify(pool, times(2)).returnBrokenResource(jedis);
+        verify(pool, never()).returnResource(jedis);
+    }
+
+    @Test
+    public void commandsReturnNullWhenPoolCannotConnect() {
+        when(pool.getResource()).thenThrow(new JedisConnectionException("Could not get a resource from the pool"));
+
+        assertNull(stringOps.lpush(KEY, "value"));
+        verify(pool, never()).returnBrokenResource(any(Jedis.class));
+        verify(pool, never()).returnResource(any(Jedis.class));
+    }
+
+    @Test
+    public void msetexCountsValuesSet() {
+        Map<String, String> values = ImmutableMap.of("a", "1", "b", "2", "c", "3");
+
+        assertEquals(new Long(3), stringOps.msetex(values, 60));
+        assertEquals(ImmutableList.of("SETEX a 60 1", "SETEX b 60 2", "SETEX c 60 3", "SYNC"), pipeline.commands);
+        assertEquals(1, RedisRoundTripCounter.get());
+    }
+
+    @Test
+    public void mgetIsOneRoundTrip() {
+        when(jedis.mget("a", "b")).thenReturn(Arrays.asList("1", null));
+        List<String> values = stringOps.mget("a", "b");
+        assertEquals(Arrays.asList("1", null), values);
+        assertEquals(1, RedisRoundTripCounter.get());
+    }
+
+    @Test
+    public void clearRedisCountsEveryCommand() {
+        when(jedis.scan(eq(ScanParams.SCAN_POINTER_START), any(ScanParams.class))).thenReturn(
+                new ScanResult<String>("7", ImmutableList.of("a", "b")));
+        when(jedis.scan(eq("7"), any(ScanParams.class))).thenReturn(
+                new ScanResult<String>(ScanParams.SCAN_POINTER_START, ImmutableList.of("c")));
+        when(jedis.del(new String[] { "a", "b" })).thenReturn(2L);
+        when(jedis.del(new String[] { "c" })).thenReturn(1L);
+
+        assertEquals(new Long(3), stringOps.clearRedis("*"));
+        // Two scans and two deletes.
+        assertEquals(4, RedisRoundTripCounter.get());
+        verify(pool).returnResource(jedis);
+    }
+
+    // Records the commands queued on it, and answers them from a map when synced. Pipeline's methods can't be mocked,
+    // since they're inherited from a package-private class.
+    private static class StubPipeline extends Pipeline {
+        final Map<String, byte[]> values = new HashMap<>();
+        final List<String> commands = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+        boolean connectionLost;
+
+        @Override
+        public Response<byte[]> get(final byte[] key) {
+            final String keyString = new String(key, StandardCharsets.UTF_8);
+            commands.add("GET " + keyString);
+            final Response<byte[]> response = new Response<>(BuilderFactory.BYTE_ARRAY);
+            pending.add(new Runnable() {
+                @Override
+                public void run() {
+                    response.set(values.get(keyString));
+                }
+            });
+            return response;
+        }
+
+        @Override
+        public Response<Long> expire(byte[] key, int seconds) {
+            commands.add("EXPIRE " + new String(key, StandardCharsets.UTF_8) + " " + seconds);
+            return new Response<>(BuilderFactory.LONG);
+        }
+
+        @Override
+        public Response<String> setex(String key, int seconds, String value) {
+            commands.add("SETEX " + key + " " + seconds + " " + value);
+            final Response<String> response = new Response<>(BuilderFactory.STRING);
+            pending.add(new Runnable() {
+                @Override
+                public void run() {
+                    response.set("OK".getBytes(StandardCharsets.UTF_8));
+                }
+            });
+            return response;
+        }
+
+        @Override
+        public void sync() {
+            if (connectionLost) {
+                throw new JedisConnectionException("connection lost");
+            }
+            commands.add("SYNC");
+            for (Runnable oneResponse : pending) {
+                oneResponse.run();
+            }
+        }
+    }
+}
@@ -24,4 +24,23 @@ public class JedisStringOpsTest {
         Thread.sleep(3000);
         assertNull(stringOps.get("testKey"));
     }
+
+    @Test
+    public void clearsKeysMatchingPatternAcrossScanPages() throws Exception {
+        stringOps.setScanCount(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                stringOps.setex("clearTest:" + i, 60, "value");
+            }
+            stringOps.setex("otherTest:0", 60, "value");
+
+            assertEquals(new Long(5), stringOps.clearRedis("clearTest:*"));
+            assertNull(stringOps.get("clearTest:0"));
+            assertNull(stringOps.get("clearTest:4"));
+            assertEquals("value", stringOps.get("otherTest:0"));
+        } finally {
+            stringOps.setScanCount(JedisStringOps.SCAN_COUNT);
+            stringOps.delete("otherTest:0");
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package org.sagebionetworks.bridge.redis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.Sets;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.User;
+import org.sagebionetworks.bridge.models.UserSession;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+
+/**
+ * <p>
+ * Compares the Redis codecs on the values we cache most: a user session, a study, and a view of 20 studies. For each
+ * codec it reports the stored size, and the time per put (serialize to JSON and encode) and per get (decode and
+ * deserialize), not counting the Redis round trip. This is not a unit test and isn't run as part of the test suite.
+ * Run it by hand with a main class runner, for example:
+ * </p>
+ * <pre>
+ * activator "test:runMain org.sagebionetworks.bridge.redis.RedisCodecBenchmark"
+ * </pre>
+ */
+public class RedisCodecBenchmark {
+    private static final int WARMUP_CALLS = 20000;
+    private static final int CALLS = 100000;
+
+    // A value to benchmark: how to serialize it to JSON, and how to deserialize it, the same way the cache does.
+    private static abstract class Sample {
+        final String name;
+
+        Sample(String name) {
+            this.name = name;
+        }
+
+        abstract String write() throws IOException;
+
+        abstract void read(String json) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final UserSession session = makeSession();
+        final DynamoStudy study = makeStudy("api");
+        List<DynamoStudy> studyList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            studyList.add(makeStudy("study-" + i));
+        }
+        final String view = BridgeObjectMapper.get().writeValueAsString(studyList);
+
+        Sample[] samples = {
+            new Sample("session") {
+                @Override
+                String write() throws IOException {
+                    return BridgeObjectMapper.get().writeValueAsString(session);
+                }
+
+                @Override
+                void read(String json) throws IOException {
+                    BridgeObjectMapper.get().readValue(json, UserSession.class);
+                }
+            },
+            new Sample("study") {
+                @Override
+                String write() throws IOException {
+                    return BridgeObjectMapper.get().writeValueAsString(study);
+                }
+
+                @Override
+                void read(String json) throws IOException {
+                    DynamoStudy.fromCacheJson(BridgeObjectMapper.get().readTree(json));
+                }
+            },
+            // Views are cached as JSON strings, so there's nothing to serialize.
+            new Sample("view") {
+                @Override
+                String write() {
+                    return view;
+                }
+
+                @Override
+                void read(String json) {
+                }
+            },
+        };
+        RedisCodec[] codecs = { new PlainRedisCodec(), new DeflateRedisCodec() };
+
+        for (Sample oneSample : samples) {
+            for (RedisCodec oneCodec : codecs) {
+                byte[] encoded = oneCodec.encode(oneSample.write());
+                System.out.println(String.format("%-8s %-8s %6d bytes  put %7.2f us  get %7.2f us", oneSample.name,
+                        oneCodec.getName(), encoded.length, measurePut(oneSample, oneCodec),
+                        measureGet(oneSample, encoded)));
+            }
+        }
+    }
+
+    // Returns microseconds per call.
+    private static double measurePut(Sample sample, RedisCodec codec) throws IOException {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            codec.encode(sample.write());
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            codec.encode(sample.write());
+        }
+        return (System.nanoTime() - startNanos) / 1000.0 / CALLS;
+    }
+
+    // Returns microseconds per call.
+    private static double measureGet(Sample sample, byte[] encoded) throws IOException {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            sample.read(RedisCodecs.decode(encoded));
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            sample.read(RedisCodecs.decode(encoded));
+        }
+        return (System.nanoTime() - startNanos) / 1000.0 / CALLS;
+    }
+
+    private static UserSession makeSession() {
+        User user = new User();
+        user.setId("6sA4nQHb1KMZyxzBL1fS6R");
+        user.setEmail("bridge-testing+participant@sagebridge.org");
+        user.setUsername("bridge-testing-participant");
+        user.setFirstName("Test");
+        user.setLastName("Participant");
+        user.setHealthCode("d5a0e58c-b4f7-4d6a-9a9e-3d9b5e5b2c1f");
+        user.setStudyKey("api");
+        user.setRoles(Sets.newHashSet("api_researcher", "test_users"));
+        user.setConsent(true);
+        user.setSignedMostRecentConsent(true);
+
+        UserSession session = new UserSession();
+        session.setSessionToken("8d2a7bb1-0b1d-4e1f-9d43-2b9b0a3c5f61");
+        session.setInternalSessionToken("0f6d1a9e-74a3-4c6f-8a3d-5b1e2f9c7d40");
+        session.setAuthenticated(true);
+        session.setEnvironment("prod");
+        session.setStudyIdentifier(new StudyIdentifierImpl("api"));
+        session.setUser(user);
+        return session;
+    }
+
+    private static DynamoStudy makeStudy(String identifier) {
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier(identifier);
+        study.setName("Test Study " + identifier);
+        study.setVersion(12L);
+        study.setResearcherRole(identifier + "_researcher");
+        study.setMinAgeOfConsent(18);
+        study.setMaxNumOfParticipants(10000);
+        study.setStormpathHref("https://enterprise.stormpath.io/v1/directories/7fxheMcEARjm7X2XPBufSM");
+        study.setSupportEmail("support@sagebridge.org");
+        study.setConsentNotificationEmail("consent-notification@sagebridge.org");
+        study.setUserProfileAttributes(Sets.newHashSet("phone", "can_be_recontacted"));
+        study.setMaxUploadZipEntries(100);
+        study.setMaxUploadZipEntryBytes(10 * 1024 * 1024);
+        study.setMaxUploadZipTotalBytes(100 * 1024 * 1024);
+        study.setMaxUploadZipCompressionRatio(10);
+        return study;
+    }
+}
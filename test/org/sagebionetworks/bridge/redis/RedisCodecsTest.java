@@ -0,0 +1,96 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+public class RedisCodecsTest {
+    private static final String SHORT_VALUE = "{\"identifier\":\"api\"}";
+    // Long enough to compress, and includes non-ASCII characters.
+    private static final String LONG_VALUE = "{\"name\":\"\u00c9tude \u00fcber \u4e2d\u6587\",\"list\":\""
+            + Strings.repeat("abcdefghij", 100) + "\"}";
+
+    @Test
+    public void plainCodecWritesUtf8() {
+        byte[] encoded = new PlainRedisCodec().encode(LONG_VALUE);
+        assertArrayEquals(LONG_VALUE.getBytes(StandardCharsets.UTF_8), encoded);
+        assertEquals(LONG_VALUE, RedisCodecs.decode(encoded));
+    }
+
+    @Test
+    public void deflateCodecCompressesLongValues() {
+        byte[] encoded = new DeflateRedisCodec().encode(LONG_VALUE);
+        assertEquals(RedisCodec.HEADER_MARKER, encoded[0]);
+        assertEquals(DeflateRedisCodec.ID, encoded[1]);
+        assertTrue(encoded.length < LONG_VALUE.getBytes(StandardCharsets.UTF_8).length / 2);
+        assertEquals(LONG_VALUE, RedisCodecs.decode(encoded));
+    }
+
+    @Test
+    public void deflateCodecWritesShortValuesPlain() {
+        byte[] encoded = new DeflateRedisCodec().encode(SHORT_VALUE);
+        assertArrayEquals(SHORT_VALUE.getBytes(StandardCharsets.UTF_8), encoded);
+        assertEquals(SHORT_VALUE, RedisCodecs.decode(encoded));
+    }
+
+    @Test
+    public void deflateCodecHandlesIncompressibleValues() {
+        // Random-looking data that deflate makes bigger, not smaller.
+        StringBuilder builder = new StringBuilder();
+        long seed = 12345;
+        for (int i = 0; i < 5000; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            builder.append((char) (0x21 + ((seed >>> 33) % 94)));
+        }
+        String value = builder.toString();
+        assertEquals(value, RedisCodecs.decode(new DeflateRedisCodec(0).encode(value)));
+    }
+
+    @Test
+    public void deflateCodecEncodesEmptyValue() {
+        byte[] encoded = new DeflateRedisCodec(0).encode("");
+        assertEquals(DeflateRedisCodec.ID, encoded[1]);
+        assertEquals("", RedisCodecs.decode(encoded));
+    }
+
+    @Test
+    public void decodeNull() {
+        assertNull(RedisCodecs.decode(null));
+    }
+
+    @Test
+    public void decodeLegacyValues() {
+        assertEquals("", RedisCodecs.decode(new byte[0]));
+        assertEquals("1", RedisCodecs.decode("1".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(LONG_VALUE, RedisCodecs.decode(LONG_VALUE.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeUnknownCodec() {
+        RedisCodecs.decode(new byte[] { RedisCodec.HEADER_MARKER, 99, 1, 2, 3 });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeTruncatedValue() {
+        byte[] encoded = new DeflateRedisCodec().encode(LONG_VALUE);
+        RedisCodecs.decode(Arrays.copyOf(encoded, encoded.length / 2));
+    }
+
+    @Test
+    public void forName() {
+        assertTrue(RedisCodecs.forName("plain") instanceof PlainRedisCodec);
+        assertTrue(RedisCodecs.forName("deflate") instanceof DeflateRedisCodec);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forUnknownName() {
+        RedisCodecs.forName("smile");
+    }
+}
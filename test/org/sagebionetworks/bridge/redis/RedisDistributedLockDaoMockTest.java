@@ -0,0 +1,199 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+
+public class RedisDistributedLockDaoMockTest {
+    private static final String ID = "test-id";
+
+    private Map<String, String> redis;
+    private AtomicLong fencingToken;
+    private AtomicInteger evalCount;
+    private AtomicInteger renewCount;
+    private volatile boolean redisUnavailable;
+    private RedisDistributedLockDao lockDao;
+
+    @Before
+    public void before() {
+        redis = new ConcurrentHashMap<>();
+        fencingToken = new AtomicLong();
+        evalCount = new AtomicInteger();
+        renewCount = new AtomicInteger();
+        lockDao = new RedisDistributedLockDao();
+        lockDao.setStringOps(new FakeScriptStringOps());
+    }
+
+    @After
+    public void after() {
+        lockDao.stop();
+    }
+
+    @Test
+    public void acquireIsOneRoundTrip() {
+        String lock = lockDao.acquireLock(getClass(), ID, 60);
+        assertNotNull(lock);
+        assertEquals(1, evalCount.get());
+        assertEquals(lock, redis.get(lockKey()));
+    }
+
+    @Test
+    public void fencingTokensIncrease() {
+        String lock1 = lockDao.acquireLock(getClass(), ID, 60);
+        assertTrue(lockDao.releaseLock(getClass(), ID, lock1));
+        String lock2 = lockDao.acquireLock(getClass(), ID, 60);
+        assertTrue(lockDao.getFencingToken(lock2) > lockDao.getFencingToken(lock1));
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void acquireHeldLock() {
+        lockDao.acquireLock(getClass(), ID, 60);
+        lockDao.acquireLock(getClass(), ID, 60);
+    }
+
+    @Test
+    public void waitsForHeldLock() throws Exception {
+        final String lock = lockDao.acquireLock(getClass(), ID, 60);
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                lockDao.releaseLock(RedisDistributedLockDaoMockTest.class, ID, lock);
+            }
+        });
+        releaser.start();
+        String lock2 = lockDao.acquireLock(getClass(), ID, 60, 5000);
+        assertNotNull(lock2);
+        assertTrue(evalCount.get() > 2);
+        releaser.join();
+    }
+
+    @Test
+    public void waitForHeldLockTimesOut() {
+        lockDao.acquireLock(getClass(), ID, 60);
+        long startNanos = System.nanoTime();
+        try {
+            lockDao.acquireLock(getClass(), ID, 60, 300);
+            fail("expected exception");
+        } catch (ConcurrentModificationException ex) {
+            // expected
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue(elapsedMillis >= 250);
+        assertTrue(elapsedMillis < 2000);
+    }
+
+    @Test
+    public void releaseOnlyOwnLock() {
+        String lock = lockDao.acquireLock(getClass(), ID, 60);
+        assertFalse(lockDao.releaseLock(getClass(), ID, "1:someone-else"));
+        assertEquals(lock, redis.get(lockKey()));
+        assertTrue(lockDao.releaseLock(getClass(), ID, lock));
+        assertFalse(redis.containsKey(lockKey()));
+        assertFalse(lockDao.releaseLock(getClass(), ID, lock));
+    }
+
+    @Test
+    public void renewOnlyOwnLock() {
+        String lock = lockDao.acquireLock(getClass(), ID, 60);
+        assertTrue(lockDao.renewLock(getClass(), ID, lock, 60));
+        assertFalse(lockDao.renewLock(getClass(), ID, "1:someone-else", 60));
+    }
+
+    @Test
+    public void renewsUntilReleased() throws Exception {
+        String lock = lockDao.acquireLock(getClass(), ID, 1);
+        lockDao.startRenewal(getClass(), ID, lock, 1);
+        assertEquals(1, lockDao.getRenewalCount());
+
+        // Renewed every third of a second.
+        Thread.sleep(1200);
+        int renewals = renewCount.get();
+        assertTrue("renewals: " + renewals, renewals >= 2);
+
+        lockDao.releaseLock(getClass(), ID, lock);
+        assertEquals(0, lockDao.getRenewalCount());
+        Thread.sleep(500);
+        assertTrue(renewCount.get() <= renewals + 1);
+    }
+
+    @Test
+    public void stopsRenewingLostLock() throws Exception {
+        String lock = lockDao.acquireLock(getClass(), ID, 1);
+        lockDao.startRenewal(getClass(), ID, lock, 1);
+        redis.remove(lockKey());
+        Thread.sleep(600);
+        assertEquals(0, lockDao.getRenewalCount());
+    }
+
+    @Test
+    public void keepsRenewingAfterRedisError() throws Exception {
+        String lock = lockDao.acquireLock(getClass(), ID, 1);
+        lockDao.startRenewal(getClass(), ID, lock, 1);
+        redisUnavailable = true;
+        Thread.sleep(600);
+        assertEquals(1, lockDao.getRenewalCount());
+        redisUnavailable = false;
+        Thread.sleep(500);
+        assertTrue(renewCount.get() >= 1);
+        lockDao.releaseLock(getClass(), ID, lock);
+    }
+
+    @Test(expected = BridgeServiceException.class)
+    public void acquireWhenRedisIsUnavailable() {
+        redisUnavailable = true;
+        lockDao.acquireLock(getClass(), ID, 60);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fencingTokenOfLegacyLock() {
+        lockDao.getFencingToken("9b0e2c6e-6bcb-4d79-a2a1-4ed4e2f0d13c");
+    }
+
+    private String lockKey() {
+        return RedisKey.LOCK.getRedisKey(ID + RedisKey.SEPARATOR + getClass().getCanonicalName());
+    }
+
+    // Runs the lock scripts against a map, telling them apart by the commands they call. Ignores expiration.
+    private class FakeScriptStringOps extends JedisStringOps {
+        @Override
+        public Object eval(String script, List<String> keys, List<String> args) {
+            evalCount.incrementAndGet();
+            if (redisUnavailable) {
+                return null;
+            }
+            String key = keys.get(0);
+            if (script.contains("'INCR'")) {
+                assertEquals(RedisDistributedLockDao.FENCING_TOKEN_KEY, keys.get(1));
+                String lock = fencingToken.incrementAndGet() + ":" + args.get(0);
+                return (redis.putIfAbsent(key, lock) == null) ? lock : 0L;
+            } else if (script.contains("'DEL'")) {
+                return redis.remove(key, args.get(0)) ? 1L : 0L;
+            } else if (script.contains("'EXPIRE'")) {
+                renewCount.incrementAndGet();
+                return args.get(0).equals(redis.get(key)) ? 1L : 0L;
+            }
+            throw new IllegalArgumentException("Unexpected script: " + script);
+        }
+    }
+}
@@ -70,4 +70,28 @@ public class RedisDistributedLockDaoTest {
         lockId = lockDao.acquireLock(getClass(), id, 1);
         lockDao.releaseLock(getClass(), id, lockId);
     }
+
+    @Test
+    public void fencingTokensIncreaseAndLocksCanBeRenewed() {
+        String lockId = lockDao.acquireLock(getClass(), id, 60);
+        assertTrue(lockDao.renewLock(getClass(), id, lockId, 120));
+        String redisKey = RedisKey.LOCK.getRedisKey(
+                id + RedisKey.SEPARATOR + getClass().getCanonicalName());
+        assertTrue(stringOps.ttl(redisKey) > 60);
+        assertFalse(lockDao.renewLock(getClass(), id, "incorrect lock id", 120));
+        assertTrue(lockDao.releaseLock(getClass(), id, lockId));
+        assertFalse(lockDao.renewLock(getClass(), id, lockId, 120));
+
+        String lockId2 = lockDao.acquireLock(getClass(), id, 60);
+        assertTrue(lockDao.getFencingToken(lockId2) > lockDao.getFencingToken(lockId));
+        lockDao.releaseLock(getClass(), id, lockId2);
+    }
+
+    @Test
+    public void waitsForExpiredLock() {
+        lockDao.acquireLock(getClass(), id, 1);
+        String lockId = lockDao.acquireLock(getClass(), id, 60, 5000);
+        assertNotNull(lockId);
+        lockDao.releaseLock(getClass(), id, lockId);
+    }
 }
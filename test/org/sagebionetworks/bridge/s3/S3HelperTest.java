@@ -1,19 +1,64 @@
 package org.sagebionetworks.bridge.s3;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 public class S3HelperTest {
+    private static final int MB = 1024 * 1024;
+
+    private ExecutorService executorService;
+
+    @Before
+    public void before() {
+        executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after() {
+        executorService.shutdownNow();
+    }
+
     // Test strategy is that given a mock input stream from a mock S3 object, the S3Helper can still turn that
     // input stream into a byte array or a string.
 
@@ -60,4 +105,135 @@ public class S3HelperTest {
         testS3Helper.setS3Client(mockS3Client);
         return testS3Helper;
     }
+
+    @Test
+    public void writeBytesSinglePut() throws Exception {
+        AmazonS3Client mockS3Client = mock(AmazonS3Client.class);
+        S3Helper testS3Helper = new S3Helper();
+        testS3Helper.setS3Client(mockS3Client);
+        testS3Helper.setMultipartExecutorService(executorService);
+        testS3Helper.setMultipartThreshold(100);
+
+        // execute and validate
+        testS3Helper.writeBytesToS3("test-bucket", "test-key", new byte[10]);
+
+        ArgumentCaptor<ObjectMetadata> metadataCaptor = ArgumentCaptor.forClass(ObjectMetadata.class);
+        verify(mockS3Client).putObject(eq("test-bucket"), eq("test-key"), any(InputStream.class),
+                metadataCaptor.capture());
+        assertEquals(10, metadataCaptor.getValue().getContentLength());
+        verify(mockS3Client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void writeBytesMultipart() throws Exception {
+        // 12 MB, in 5 MB parts, means 3 parts, the last of which is 2 MB
+        AmazonS3Client mockS3Client = makeMockS3ClientForMultipart(0);
+        S3Helper testS3Helper = makeS3HelperForMultipart(mockS3Client);
+        testS3Helper.writeBytesToS3("test-bucket", "test-key", new byte[12 * MB]);
+
+        ArgumentCaptor<UploadPartRequest> partCaptor = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(mockS3Client, times(3)).uploadPart(partCaptor.capture());
+        Map<Integer, Long> partSizeByNumber = new HashMap<>();
+        for (UploadPartRequest onePart : partCaptor.getAllValues()) {
+            assertEquals("test-upload-id", onePart.getUploadId());
+            partSizeByNumber.put(onePart.getPartNumber(), onePart.getPartSize());
+        }
+        assertEquals(ImmutableMap.of(1, 5L * MB, 2, 5L * MB, 3, 2L * MB), partSizeByNumber);
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> completeCaptor = ArgumentCaptor.forClass(
+                CompleteMultipartUploadRequest.class);
+        verify(mockS3Client).completeMultipartUpload(completeCaptor.capture());
+        List<PartETag> partETagList = completeCaptor.getValue().getPartETags();
+        assertEquals(3, partETagList.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, partETagList.get(i).getPartNumber());
+            assertEquals("etag-" + (i + 1), partETagList.get(i).getETag());
+        }
+        verify(mockS3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void writeBytesMultipartPartFails() throws Exception {
+        AmazonS3Client mockS3Client = makeMockS3ClientForMultipart(2);
+        S3Helper testS3Helper = makeS3HelperForMultipart(mockS3Client);
+        try {
+            testS3Helper.writeBytesToS3("test-bucket", "test-key", new byte[12 * MB]);
+            fail("expected exception");
+        } catch (IOException ex) {
+            // expected exception
+        }
+
+        verify(mockS3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(mockS3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void writeSpilledBufferSinglePut() throws Exception {
+        AmazonS3Client mockS3Client = mock(AmazonS3Client.class);
+        S3Helper testS3Helper = new S3Helper();
+        testS3Helper.setS3Client(mockS3Client);
+
+        // execute and validate - spilled buffers are uploaded straight from the temp file
+        try (SpillBuffer buffer = SpillBuffer.copyOf(new ByteArrayInputStream(new byte[10]), 5)) {
+            testS3Helper.writeBufferToS3("test-bucket", "test-key", buffer);
+            verify(mockS3Client).putObject("test-bucket", "test-key", buffer.getFile());
+        }
+        verify(mockS3Client, never()).putObject(anyString(), anyString(), any(InputStream.class),
+                any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void writeSpilledBufferMultipart() throws Exception {
+        AmazonS3Client mockS3Client = makeMockS3ClientForMultipart(0);
+        S3Helper testS3Helper = makeS3HelperForMultipart(mockS3Client);
+        try (SpillBuffer buffer = SpillBuffer.copyOf(new ByteArrayInputStream(new byte[12 * MB]), MB)) {
+            testS3Helper.writeBufferToS3("test-bucket", "test-key", buffer);
+
+            // Each part reads its own range of the temp file.
+            ArgumentCaptor<UploadPartRequest> partCaptor = ArgumentCaptor.forClass(UploadPartRequest.class);
+            verify(mockS3Client, times(3)).uploadPart(partCaptor.capture());
+            Map<Integer, Long> partOffsetByNumber = new HashMap<>();
+            for (UploadPartRequest onePart : partCaptor.getAllValues()) {
+                assertEquals(buffer.getFile(), onePart.getFile());
+                assertNull(onePart.getInputStream());
+                partOffsetByNumber.put(onePart.getPartNumber(), onePart.getFileOffset());
+            }
+            assertEquals(ImmutableMap.of(1, 0L, 2, 5L * MB, 3, 10L * MB), partOffsetByNumber);
+        }
+        verify(mockS3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    private S3Helper makeS3HelperForMultipart(AmazonS3Client mockS3Client) {
+        S3Helper testS3Helper = new S3Helper();
+        testS3Helper.setS3Client(mockS3Client);
+        testS3Helper.setMultipartExecutorService(executorService);
+        testS3Helper.setMultipartPartSize(5 * MB);
+        testS3Helper.setMultipartThreshold(10 * MB);
+        return testS3Helper;
+    }
+
+    // Mock S3 client for multipart uploads. Each part returns an ETag based on its part number. If failPartNumber is
+    // non-zero, that part fails.
+    private static AmazonS3Client makeMockS3ClientForMultipart(final int failPartNumber) {
+        InitiateMultipartUploadResult initResult = new InitiateMultipartUploadResult();
+        initResult.setUploadId("test-upload-id");
+
+        AmazonS3Client mockS3Client = mock(AmazonS3Client.class);
+        when(mockS3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initResult);
+        when(mockS3Client.uploadPart(any(UploadPartRequest.class))).thenAnswer(new Answer<UploadPartResult>() {
+            @Override
+            public UploadPartResult answer(InvocationOnMock invocation) {
+                UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+                if (request.getPartNumber() == failPartNumber) {
+                    throw new AmazonClientException("test exception");
+                }
+
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                result.setETag("etag-" + request.getPartNumber());
+                return result;
+            }
+        });
+        return mockS3Client;
+    }
 }
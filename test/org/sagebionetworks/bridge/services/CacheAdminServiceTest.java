@@ -1,49 +1,111 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.CacheKeyPage;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
 public class CacheAdminServiceTest {
 
     private CacheAdminService adminService;
+    private JedisPool pool;
+    private Jedis jedis;
+    private boolean connectionLost;
     
     @Before
     public void before() {
         adminService = new CacheAdminService();
         
-        JedisPool pool = mock(JedisPool.class);
-        when(pool.getResource()).thenReturn(createStubJedis());
+        jedis = createStubJedis();
+        pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
 
         adminService.setJedisPool(pool);
     }
     
     @Test
     public void listsItemsWithoutSessions() {
-        Set<String> set = adminService.listItems();
+        Set<String> set = listAllItems();
         assertEquals(2, set.size());
         assertTrue(set.contains("foo:study"));
         assertTrue(set.contains("baz:Survey:view"));
     }
     
+    @Test
+    public void listsItemsInPages() {
+        // The stub returns two keys per page, and one of the first two keys is a session.
+        CacheKeyPage page = adminService.listItems(null, 100);
+        assertEquals(1, page.getItems().size());
+        assertNotNull(page.getNextCursor());
+
+        page = adminService.listItems(page.getNextCursor(), 100);
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNextCursor());
+    }
+    
+    @Test
+    public void returnsConnectionAfterListing() {
+        adminService.listItems(null, 100);
+        verify(pool).returnResource(jedis);
+    }
+    
+    @Test
+    public void returnsBrokenConnection() {
+        connectionLost = true;
+        try {
+            adminService.listItems(null, 100);
+            fail("expected exception");
+        } catch (JedisConnectionException ex) {
+            // expected
+        }
+        verify(pool).returnBrokenResource(jedis);
+        verify(pool, times(0)).returnResource(jedis);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void rejectsPageSizeTooSmall() {
+        adminService.listItems(null, 0);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void rejectsPageSizeTooLarge() {
+        adminService.listItems(null, CacheAdminService.MAX_PAGE_SIZE + 1);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void rejectsInvalidCursor() {
+        adminService.listItems("not-a-cursor", 100);
+    }
     
     @Test
     public void canRemoveItem() {
         adminService.removeItem("foo:study");
-        Set<String> set = adminService.listItems();
+        Set<String> set = listAllItems();
         assertEquals(1, set.size());
+        verify(pool, times(2)).returnResource(jedis);
     }
     
     @Test(expected = BridgeServiceException.class)
@@ -66,17 +128,35 @@ public class CacheAdminServiceTest {
         adminService.removeItem(null);
     }
     
+    private Set<String> listAllItems() {
+        Set<String> set = Sets.newHashSet();
+        String cursor = null;
+        do {
+            CacheKeyPage page = adminService.listItems(cursor, 100);
+            set.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return set;
+    }
+    
     private Jedis createStubJedis() {
         return new Jedis("") {
-            private Set<String> set = Sets.newHashSet("foo:study", "bar:session", "baz:Survey:view");
+            private List<String> list = Lists.newArrayList("foo:study", "bar:session", "baz:Survey:view");
 
+            // Two keys per page. The cursor is the index of the next key, or 0 after the last page.
             @Override
-            public Set<String> keys(String pattern) {
-                return set;
+            public ScanResult<String> scan(String cursor, ScanParams params) {
+                if (connectionLost) {
+                    throw new JedisConnectionException("connection lost");
+                }
+                int start = Integer.parseInt(cursor);
+                int end = Math.min(start + 2, list.size());
+                String nextCursor = (end == list.size()) ? ScanParams.SCAN_POINTER_START : Integer.toString(end);
+                return new ScanResult<String>(nextCursor, Lists.newArrayList(list.subList(start, end)));
             }
             @Override
             public Long del(String key) {
-                return (set.remove(key)) ? 1L : 0L;
+                return (list.remove(key)) ? 1L : 0L;
             }
         };
     }
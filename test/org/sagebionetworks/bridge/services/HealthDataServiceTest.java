@@ -1,25 +1,32 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import org.sagebionetworks.bridge.dao.HealthDataAttachmentDao;
 import org.sagebionetworks.bridge.dao.HealthDataDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataAttachmentDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 
 public class HealthDataServiceTest {
     // We want to do as much testing as possible through the generic interface, so we have this DAO that we use just
     // for getRecordBuilder().
     private static final HealthDataDao DAO = new DynamoHealthDataDao();
+    private static final HealthDataAttachmentDao ATTACHMENT_DAO = new DynamoHealthDataAttachmentDao();
 
     @Test(expected = InvalidEntityException.class)
     public void createOrUpdateRecordNullRecord() {
@@ -123,4 +130,44 @@ public class HealthDataServiceTest {
         assertEquals("bar healthcode", recordList.get(1).getHealthCode());
         assertEquals("baz healthcode", recordList.get(2).getHealthCode());
     }
+
+    @Test(expected = InvalidEntityException.class)
+    public void createOrUpdateAttachmentsNullList() {
+        new HealthDataService().createOrUpdateAttachments(null);
+    }
+
+    @Test(expected = InvalidEntityException.class)
+    public void createOrUpdateAttachmentsNullElement() {
+        List<HealthDataAttachment> attachmentList = new ArrayList<>();
+        attachmentList.add(null);
+        new HealthDataService().createOrUpdateAttachments(attachmentList);
+    }
+
+    @Test
+    public void createOrUpdateAttachmentsEmptyList() {
+        HealthDataAttachmentDao mockDao = mock(HealthDataAttachmentDao.class);
+        HealthDataService svc = new HealthDataService();
+        svc.setHealthDataAttachmentDao(mockDao);
+
+        List<String> idList = svc.createOrUpdateAttachments(ImmutableList.<HealthDataAttachment>of());
+        assertTrue(idList.isEmpty());
+        verifyZeroInteractions(mockDao);
+    }
+
+    @Test
+    public void createOrUpdateAttachmentsSuccess() {
+        HealthDataAttachment fooAttachment = ATTACHMENT_DAO.getRecordBuilder().withRecordId("test record").build();
+        HealthDataAttachment barAttachment = ATTACHMENT_DAO.getRecordBuilder().withRecordId("test record").build();
+        List<HealthDataAttachment> attachmentList = ImmutableList.of(fooAttachment, barAttachment);
+
+        HealthDataAttachmentDao mockDao = mock(HealthDataAttachmentDao.class);
+        when(mockDao.createOrUpdateAttachments(attachmentList)).thenReturn(ImmutableList.of("foo ID", "bar ID"));
+
+        HealthDataService svc = new HealthDataService();
+        svc.setHealthDataAttachmentDao(mockDao);
+
+        // execute and validate
+        List<String> idList = svc.createOrUpdateAttachments(attachmentList);
+        assertEquals(ImmutableList.of("foo ID", "bar ID"), idList);
+    }
 }
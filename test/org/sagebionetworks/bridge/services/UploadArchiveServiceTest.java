@@ -2,31 +2,52 @@ package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.notNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import com.google.common.base.Charsets;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import org.junit.Before;
 import org.junit.Test;
 
 import org.sagebionetworks.bridge.crypto.BcCmsEncryptor;
 import org.sagebionetworks.bridge.crypto.CmsEncryptor;
 import org.sagebionetworks.bridge.crypto.PemUtils;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.UploadArchiveLimitException;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.upload.UploadArchiveLimits;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 @SuppressWarnings("unchecked")
 public class UploadArchiveServiceTest {
+    private static final UploadArchiveLimits TEST_LIMITS = new UploadArchiveLimits(10, 1000, 10000, 100);
+
     private UploadArchiveService archiveService;
 
     @Before
@@ -49,6 +70,39 @@ public class UploadArchiveServiceTest {
         archiveService.setCmsEncryptorCache(mockEncryptorCache);
     }
 
+    @Test
+    public void preloadCmsEncryptors() throws Exception {
+        // Two studies. The second one has no encryption materials.
+        DynamoStudy fooStudy = new DynamoStudy();
+        fooStudy.setIdentifier("foo-study");
+        DynamoStudy barStudy = new DynamoStudy();
+        barStudy.setIdentifier("bar-study");
+
+        StudyService mockStudyService = mock(StudyService.class);
+        when(mockStudyService.getStudies()).thenReturn(ImmutableList.<Study>of(fooStudy, barStudy));
+
+        LoadingCache<String, CmsEncryptor> mockEncryptorCache = mock(LoadingCache.class);
+        when(mockEncryptorCache.get("bar-study")).thenThrow(new ExecutionException(new IOException()));
+
+        // execute and validate - both are loaded, and the failure doesn't stop the preload
+        UploadArchiveService preloadService = new UploadArchiveService();
+        preloadService.setCmsEncryptorCache(mockEncryptorCache);
+        preloadService.setStudyService(mockStudyService);
+        preloadService.preloadCmsEncryptors();
+        verify(mockEncryptorCache).get("foo-study");
+        verify(mockEncryptorCache).get("bar-study");
+    }
+
+    @Test
+    public void preloadDisabled() {
+        ExecutorService mockExecutorService = mock(ExecutorService.class);
+        UploadArchiveService preloadService = new UploadArchiveService();
+        preloadService.setCmsEncryptorReloadExecutorService(mockExecutorService);
+        preloadService.setPreload(false);
+        preloadService.start();
+        verifyZeroInteractions(mockExecutorService);
+    }
+
     @Test
     public void encryptDecryptRoundTrip() {
         // starting data
@@ -65,6 +119,26 @@ public class UploadArchiveServiceTest {
         assertEquals(inputStr, new String(decryptedData, Charsets.UTF_8));
     }
 
+    @Test
+    public void encryptDecryptStreamRoundTrip() throws Exception {
+        // starting data
+        String inputStr = "This is my raw streamed data.";
+
+        // encrypt
+        ByteArrayOutputStream encryptedStream = new ByteArrayOutputStream();
+        try (OutputStream encryptingStream = archiveService.encrypt("test-study", encryptedStream)) {
+            encryptingStream.write(inputStr.getBytes(Charsets.UTF_8));
+        }
+        byte[] encryptedData = encryptedStream.toByteArray();
+        assertTrue(encryptedData.length > 0);
+
+        // decrypt
+        try (InputStream decryptedStream = archiveService.decrypt("test-study",
+                new ByteArrayInputStream(encryptedData))) {
+            assertEquals(inputStr, new String(ByteStreams.toByteArray(decryptedStream), Charsets.UTF_8));
+        }
+    }
+
     @Test(expected = BridgeServiceException.class)
     public void decryptGarbageData() {
         String garbageStr = "This is not encrypted data.";
@@ -93,6 +167,81 @@ public class UploadArchiveServiceTest {
         assertArrayEquals(inputMap.get("baz"), unzippedData.get("baz"));
     }
 
+    @Test
+    public void unzipToSpillBuffers() throws Exception {
+        Map<String, byte[]> inputMap = ImmutableMap.of(
+                "small", "small".getBytes(Charsets.UTF_8),
+                "large", "this entry is larger than the spill threshold".getBytes(Charsets.UTF_8));
+        byte[] zippedData = archiveService.zip(inputMap);
+
+        // unzip with a spill threshold between the two entry sizes
+        Map<String, SpillBuffer> unzippedData = archiveService.unzip(new ByteArrayInputStream(zippedData), 10,
+                TEST_LIMITS);
+        try {
+            assertEquals(2, unzippedData.size());
+            assertFalse(unzippedData.get("small").isSpilled());
+            assertArrayEquals(inputMap.get("small"), unzippedData.get("small").getBytes());
+            assertTrue(unzippedData.get("large").isSpilled());
+            assertArrayEquals(inputMap.get("large"), unzippedData.get("large").getBytes());
+        } finally {
+            for (SpillBuffer oneBuffer : unzippedData.values()) {
+                oneBuffer.close();
+            }
+        }
+    }
+
+    @Test
+    public void unzipTooManyEntries() {
+        byte[] zippedData = archiveService.zip(ImmutableMap.of("foo", new byte[] { 1 }, "bar", new byte[] { 2 },
+                "baz", new byte[] { 3 }));
+        assertLimitExceeded(UploadArchiveLimits.LIMIT_ENTRIES, zippedData, new UploadArchiveLimits(2, 1000, 10000,
+                100));
+    }
+
+    @Test
+    public void unzipEntryTooLarge() {
+        byte[] zippedData = archiveService.zip(ImmutableMap.of("small", new byte[10], "large", new byte[100]));
+        assertLimitExceeded(UploadArchiveLimits.LIMIT_ENTRY_BYTES, zippedData, new UploadArchiveLimits(10, 50, 10000,
+                100));
+    }
+
+    @Test
+    public void unzipTotalTooLarge() {
+        // Each entry is under the entry limit, but together they're over the total limit.
+        byte[] zippedData = archiveService.zip(ImmutableMap.of("foo", new byte[40], "bar", new byte[40],
+                "baz", new byte[40]));
+        assertLimitExceeded(UploadArchiveLimits.LIMIT_TOTAL_BYTES, zippedData, new UploadArchiveLimits(10, 50, 100,
+                100));
+    }
+
+    @Test
+    public void unzipCompressionRatioTooHigh() {
+        // Zeros compress at roughly 1000:1, well over the ratio limit, and this is over the minimum size for the
+        // ratio check.
+        byte[] zippedData = archiveService.zip(ImmutableMap.of("zeros",
+                new byte[(int) (2 * UploadArchiveService.COMPRESSION_RATIO_MIN_BYTES)]));
+        assertLimitExceeded(UploadArchiveLimits.LIMIT_COMPRESSION_RATIO, zippedData, new UploadArchiveLimits(10,
+                Long.MAX_VALUE, Long.MAX_VALUE, 100));
+    }
+
+    @Test
+    public void unzipSmallHighRatioEntryAllowed() {
+        // Small entries are exempt from the ratio limit, since small files of repetitive JSON compress very well.
+        byte[] zippedData = archiveService.zip(ImmutableMap.of("zeros", new byte[10000]));
+        Map<String, SpillBuffer> unzippedData = archiveService.unzip(new ByteArrayInputStream(zippedData), 100000,
+                new UploadArchiveLimits(10, Long.MAX_VALUE, Long.MAX_VALUE, 2));
+        assertEquals(10000, unzippedData.get("zeros").size());
+    }
+
+    private void assertLimitExceeded(String expectedLimitName, byte[] zippedData, UploadArchiveLimits limits) {
+        try {
+            archiveService.unzip(new ByteArrayInputStream(zippedData), 1000, limits);
+            fail("expected exception");
+        } catch (UploadArchiveLimitException ex) {
+            assertEquals(expectedLimitName, ex.getLimitName());
+        }
+    }
+
     // There was originally a test here for unzipping garbage data. However, it looks like Java
     // ZipInputStream.getNextEntry() will just return null if the stream contains garbage data.
 
@@ -115,4 +264,24 @@ public class UploadArchiveServiceTest {
             assertTrue(oneData.length > 0);
         }
     }
+
+    @Test
+    public void decryptAndUnzipRealFileStreaming() throws Exception {
+        // Decrypting and unzipping as a stream should yield the same entries as doing it with byte arrays.
+        File archiveFile = new File("test/resources/cms/data/archive");
+        byte[] encryptedBytes = Files.readAllBytes(archiveFile.toPath());
+        Map<String, byte[]> expectedData = archiveService.unzip(archiveService.decrypt("test-study",
+                encryptedBytes));
+
+        Map<String, byte[]> unzippedData;
+        try (InputStream archiveStream = new FileInputStream(archiveFile);
+                InputStream decryptedStream = archiveService.decrypt("test-study", archiveStream)) {
+            unzippedData = archiveService.unzip(decryptedStream);
+        }
+
+        assertEquals(3, unzippedData.size());
+        for (Map.Entry<String, byte[]> oneExpectedEntry : expectedData.entrySet()) {
+            assertArrayEquals(oneExpectedEntry.getValue(), unzippedData.get(oneExpectedEntry.getKey()));
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.crypto.BcCmsEncryptor;
+import org.sagebionetworks.bridge.crypto.CmsEncryptor;
+import org.sagebionetworks.bridge.crypto.KeyPairFactory;
+import org.sagebionetworks.bridge.crypto.KeyPairPool;
+import org.sagebionetworks.bridge.crypto.PemUtils;
+
+public class UploadCertificateServiceImplMockTest {
+    private static final BridgeConfig CONFIG = BridgeConfigFactory.getConfig();
+    private static final String CERT_BUCKET = CONFIG.getProperty("upload.cms.cert.bucket");
+    private static final String PRIV_BUCKET = CONFIG.getProperty("upload.cms.priv.bucket");
+
+    // Generating a key pair is slow, so share one across tests.
+    private static final KeyPair KEY_PAIR = KeyPairFactory.newRsa2048();
+
+    private AmazonS3 mockS3Client;
+    private Map<String, String> pemByBucket;
+    private UploadCertificateServiceImpl svc;
+
+    @Before
+    public void before() {
+        KeyPairPool mockPool = mock(KeyPairPool.class);
+        when(mockPool.take()).thenReturn(KEY_PAIR);
+
+        // Remember what was written to each bucket.
+        pemByBucket = new HashMap<>();
+        mockS3Client = mock(AmazonS3.class);
+        when(mockS3Client.putObject(any(String.class), eq("test-study.pem"), any(InputStream.class),
+                any(ObjectMetadata.class))).thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws IOException {
+                        byte[] bytes = ByteStreams.toByteArray((InputStream) invocation.getArguments()[2]);
+                        synchronized (pemByBucket) {
+                            pemByBucket.put((String) invocation.getArguments()[0], new String(bytes,
+                                    StandardCharsets.UTF_8));
+                        }
+                        return null;
+                    }
+                });
+
+        svc = new UploadCertificateServiceImpl();
+        svc.setExecutorService(MoreExecutors.newDirectExecutorService());
+        svc.setKeyPairPool(mockPool);
+        svc.setS3CmsClient(mockS3Client);
+    }
+
+    @Test
+    public void createCmsKeyPair() throws Exception {
+        svc.createCmsKeyPair("test-study");
+
+        // Both the cert and private key are written, and they're from the pooled key pair.
+        assertEquals(2, pemByBucket.size());
+        X509Certificate cert = PemUtils.loadCertificateFromPem(pemByBucket.get(CERT_BUCKET));
+        PrivateKey privateKey = PemUtils.loadPrivateKeyFromPem(pemByBucket.get(PRIV_BUCKET));
+        assertEquals(KEY_PAIR.getPublic(), cert.getPublicKey());
+        assertEquals(KEY_PAIR.getPrivate(), privateKey);
+
+        CmsEncryptor encryptor = new BcCmsEncryptor(cert, privateKey);
+        assertEquals("something", new String(encryptor.decrypt(encryptor.encrypt("something".getBytes()))));
+    }
+
+    @Test
+    public void privateKeyWriteFails() {
+        when(mockS3Client.putObject(eq(PRIV_BUCKET), eq("test-study.pem"), any(InputStream.class),
+                any(ObjectMetadata.class))).thenThrow(new AmazonClientException("test exception"));
+
+        // The error from the other thread is passed on to the caller.
+        try {
+            svc.createCmsKeyPair("test-study");
+        } catch (AmazonClientException ex) {
+            assertEquals("test exception", ex.getMessage());
+            assertTrue(pemByBucket.containsKey(CERT_BUCKET));
+            verify(mockS3Client).putObject(eq(PRIV_BUCKET), eq("test-study.pem"), any(InputStream.class),
+                    any(ObjectMetadata.class));
+            return;
+        }
+        throw new AssertionError("expected exception");
+    }
+}
@@ -0,0 +1,167 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.dao.HealthCodeDao;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.User;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationTask;
+import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
+
+public class UploadRevalidationServiceTest {
+    private static final String LOCK_ID = "test-study:2015-04-02";
+    private static final LocalDate UPLOAD_DATE = new LocalDate(2015, 4, 2);
+
+    private UploadRevalidationCallback mockCallback;
+    private HealthCodeDao mockHealthCodeDao;
+    private DistributedLockDao mockLockDao;
+    private UploadDao mockUploadDao;
+    private UploadValidationTaskFactory mockTaskFactory;
+    private UploadRevalidationService svc;
+    private Study study;
+
+    @Before
+    public void before() {
+        study = new DynamoStudy();
+        study.setIdentifier("test-study");
+
+        mockCallback = mock(UploadRevalidationCallback.class);
+        mockHealthCodeDao = mock(HealthCodeDao.class);
+        mockLockDao = mock(DistributedLockDao.class);
+        when(mockLockDao.acquireLock(eq(UploadRevalidationService.class), eq(LOCK_ID), anyInt())).thenReturn(
+                "test-lock");
+        mockUploadDao = mock(UploadDao.class);
+        mockTaskFactory = mock(UploadValidationTaskFactory.class);
+
+        // Rate limits are high enough that they don't slow down the test.
+        svc = new UploadRevalidationService();
+        svc.setConcurrency(2);
+        svc.setDdbReadsPerSecond(1000);
+        svc.setDistributedLockDao(mockLockDao);
+        svc.setHealthCodeDao(mockHealthCodeDao);
+        svc.setRevalidationExecutorService(MoreExecutors.newDirectExecutorService());
+        svc.setS3ReadsPerSecond(1000);
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setUploadDao(mockUploadDao);
+    }
+
+    @Test
+    public void revalidate() {
+        // Foo and baz are from the same user in this study. Bar is from another study.
+        DynamoUpload2 fooUpload = makeUpload("foo-upload", "test-health-code");
+        DynamoUpload2 barUpload = makeUpload("bar-upload", "other-health-code");
+        DynamoUpload2 bazUpload = makeUpload("baz-upload", "test-health-code");
+        when(mockUploadDao.getUploadsForDateAndStatus(UPLOAD_DATE, UploadStatus.VALIDATION_FAILED)).thenReturn(
+                ImmutableList.<Upload>of(fooUpload, barUpload, bazUpload).iterator());
+        when(mockHealthCodeDao.getStudyIdentifier("test-health-code")).thenReturn("test-study");
+        when(mockHealthCodeDao.getStudyIdentifier("other-health-code")).thenReturn("other-study");
+
+        // Foo succeeds this time. Baz fails again.
+        mockTask(fooUpload, UploadStatus.SUCCEEDED);
+        mockTask(bazUpload, UploadStatus.VALIDATION_FAILED);
+
+        // execute
+        svc.revalidateUploadsWithLock(study, UPLOAD_DATE, mockCallback);
+
+        // validate callbacks
+        InOrder inOrder = inOrder(mockCallback);
+        inOrder.verify(mockCallback).start("test-study", UPLOAD_DATE);
+        inOrder.verify(mockCallback).uploadValidated(fooUpload);
+        inOrder.verify(mockCallback).uploadValidated(bazUpload);
+        inOrder.verify(mockCallback).done();
+        verify(mockCallback, never()).error(anyString());
+
+        // Bar isn't validated, and each health code is only looked up once.
+        verify(mockTaskFactory, never()).newTask(any(Study.class), any(User.class), same(barUpload));
+        verify(mockHealthCodeDao, times(1)).getStudyIdentifier("test-health-code");
+        verify(mockLockDao).releaseLock(UploadRevalidationService.class, LOCK_ID, "test-lock");
+    }
+
+    @Test
+    public void taskError() {
+        // Foo throws. Bar is still validated.
+        DynamoUpload2 fooUpload = makeUpload("foo-upload", "test-health-code");
+        DynamoUpload2 barUpload = makeUpload("bar-upload", "test-health-code");
+        when(mockUploadDao.getUploadsForDateAndStatus(UPLOAD_DATE, UploadStatus.VALIDATION_FAILED)).thenReturn(
+                ImmutableList.<Upload>of(fooUpload, barUpload).iterator());
+        when(mockHealthCodeDao.getStudyIdentifier("test-health-code")).thenReturn("test-study");
+
+        UploadValidationTask mockFooTask = mock(UploadValidationTask.class);
+        doThrow(IllegalStateException.class).when(mockFooTask).run();
+        when(mockTaskFactory.newTask(same(study), any(User.class), same(fooUpload))).thenReturn(mockFooTask);
+        mockTask(barUpload, UploadStatus.SUCCEEDED);
+
+        // execute and validate
+        svc.revalidateUploadsWithLock(study, UPLOAD_DATE, mockCallback);
+        verify(mockCallback).error(contains("foo-upload"));
+        verify(mockCallback, never()).uploadValidated(fooUpload);
+        verify(mockCallback).uploadValidated(barUpload);
+        verify(mockCallback).done();
+    }
+
+    @Test
+    public void alreadyRunning() {
+        when(mockLockDao.acquireLock(eq(UploadRevalidationService.class), eq(LOCK_ID), anyInt())).thenThrow(
+                new ConcurrentModificationException("locked"));
+
+        // execute and validate - the callback hears about it, and nothing else happens
+        svc.revalidateUploadsWithLock(study, UPLOAD_DATE, mockCallback);
+        verify(mockCallback).error(contains("already running"));
+        verify(mockCallback).done();
+        verify(mockCallback, never()).start(anyString(), any(LocalDate.class));
+        verifyZeroInteractions(mockUploadDao, mockTaskFactory);
+        verify(mockLockDao, never()).releaseLock(any(Class.class), anyString(), anyString());
+    }
+
+    private static DynamoUpload2 makeUpload(String uploadId, String healthCode) {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setHealthCode(healthCode);
+        upload.setStatus(UploadStatus.VALIDATION_FAILED);
+        upload.setUploadDate(UPLOAD_DATE);
+        upload.setUploadId(uploadId);
+        return upload;
+    }
+
+    // Mocks a task for the upload, which sets the upload's status, like UploadDao.writeValidationStatus() does.
+    private void mockTask(final DynamoUpload2 upload, final UploadStatus status) {
+        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                upload.setStatus(status);
+                return null;
+            }
+        }).when(mockTask).run();
+        when(mockTaskFactory.newTask(same(study), any(User.class), same(upload))).thenReturn(mockTask);
+    }
+}
@@ -1,12 +1,18 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
 import org.sagebionetworks.bridge.dao.UploadSchemaDao;
@@ -16,9 +22,11 @@ import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
 import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
 
 public class UploadSchemaServiceTest {
     @Test(expected = InvalidEntityException.class)
@@ -53,11 +61,19 @@ public class UploadSchemaServiceTest {
         UploadSchemaDao mockDao = mock(UploadSchemaDao.class);
         when(mockDao.createOrUpdateUploadSchema("test-study", schema)).thenReturn(daoRetVal);
 
+        // mock cache
+        @SuppressWarnings("unchecked")
+        LoadingCache<String, UploadSchemaIndex> mockCache = mock(LoadingCache.class);
+
         // execute and validate
         UploadSchemaService svc = new UploadSchemaService();
         svc.setUploadSchemaDao(mockDao);
+        svc.setUploadSchemaIndexCache(mockCache);
         UploadSchema svcRetVal = svc.createOrUpdateUploadSchema(makeTestStudy(), schema);
         assertSame(daoRetVal, svcRetVal);
+
+        // the study's cached schema index is invalidated
+        verify(mockCache).invalidate("test-study");
     }
 
     @Test(expected = BadRequestException.class)
@@ -85,6 +101,35 @@ public class UploadSchemaServiceTest {
         assertSame(daoRetVal, svcRetVal);
     }
 
+    @Test
+    public void getSchemaIndexCached() {
+        // mock dao
+        DynamoUploadSchema schema = new DynamoUploadSchema();
+        schema.setSchemaId("test-schema");
+        schema.setName("Test Schema");
+        schema.setRevision(1);
+        schema.setFieldDefinitions(ImmutableList.<UploadFieldDefinition>of(new DynamoUploadFieldDefinition.Builder()
+                .withName("test-field").withType(UploadFieldType.STRING).build()));
+
+        UploadSchemaDao mockDao = mock(UploadSchemaDao.class);
+        when(mockDao.getUploadSchemasForStudy(any(StudyIdentifier.class))).thenReturn(
+                ImmutableList.<UploadSchema>of(schema));
+
+        // real cache, backed by the loader
+        UploadSchemaIndexCacheLoader loader = new UploadSchemaIndexCacheLoader();
+        loader.setUploadSchemaDao(mockDao);
+
+        UploadSchemaService svc = new UploadSchemaService();
+        svc.setUploadSchemaDao(mockDao);
+        svc.setUploadSchemaIndexCache(CacheBuilder.newBuilder().build(loader));
+
+        // execute twice - DAO is only called once
+        UploadSchemaIndex index = svc.getUploadSchemaIndexForStudy(makeTestStudy());
+        assertSame(index, svc.getUploadSchemaIndexForStudy(makeTestStudy()));
+        assertSame(schema, index.getLatestSchemaById("test-schema"));
+        verify(mockDao, times(1)).getUploadSchemasForStudy(any(StudyIdentifier.class));
+    }
+
     // Creates a minimal study for testing purposes. Note that these studies won't pass validation.
     private static Study makeTestStudy() {
         Study study = new DynamoStudy();
@@ -1,9 +1,14 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import org.junit.Test;
 
 import org.sagebionetworks.bridge.dao.UploadDao;
@@ -12,6 +17,7 @@ import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
 import org.sagebionetworks.bridge.models.User;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
 
 public class UploadServiceMockTest {
     @Test(expected = BadRequestException.class)
@@ -59,6 +65,64 @@ public class UploadServiceMockTest {
         svc.getUpload(makeUser("right-health-code"), "mismatched-health-codes");
     }
 
+    @Test
+    public void uploadCompleteDuplicate() {
+        DynamoUpload2 upload = makeRequestedUpload();
+        DynamoUpload2 originalUpload = new DynamoUpload2();
+        originalUpload.setUploadId("original-upload");
+
+        // mock upload dao
+        UploadDao mockDao = mock(UploadDao.class);
+        when(mockDao.getDuplicateUpload(upload)).thenReturn(originalUpload);
+
+        // execute and validate - the upload is linked to the original instead of being validated
+        makeUploadCompleteService(mockDao).uploadComplete(upload);
+        verify(mockDao).markDuplicate(upload, originalUpload);
+        verify(mockDao, never()).uploadComplete(any(Upload.class));
+    }
+
+    @Test
+    public void uploadCompleteNotDuplicate() {
+        DynamoUpload2 upload = makeRequestedUpload();
+        UploadDao mockDao = mock(UploadDao.class);
+
+        makeUploadCompleteService(mockDao).uploadComplete(upload);
+        verify(mockDao).uploadComplete(upload);
+        verify(mockDao, never()).markDuplicate(any(Upload.class), any(Upload.class));
+    }
+
+    @Test
+    public void uploadCompleteDuplicateLookupFails() {
+        // For example, the content MD5 index doesn't exist yet. The upload is validated as usual.
+        DynamoUpload2 upload = makeRequestedUpload();
+        UploadDao mockDao = mock(UploadDao.class);
+        when(mockDao.getDuplicateUpload(upload)).thenThrow(new IllegalArgumentException("no such index"));
+
+        makeUploadCompleteService(mockDao).uploadComplete(upload);
+        verify(mockDao).uploadComplete(upload);
+        verify(mockDao, never()).markDuplicate(any(Upload.class), any(Upload.class));
+    }
+
+    private static DynamoUpload2 makeRequestedUpload() {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId("test-upload");
+        upload.setStatus(UploadStatus.REQUESTED);
+        return upload;
+    }
+
+    // Service with a mock S3 client, which reports that the uploaded object exists and is encrypted.
+    private static UploadService makeUploadCompleteService(UploadDao uploadDao) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        AmazonS3 mockS3Client = mock(AmazonS3.class);
+        when(mockS3Client.getObjectMetadata(any(String.class), any(String.class))).thenReturn(metadata);
+
+        UploadService svc = new UploadService();
+        svc.setS3Client(mockS3Client);
+        svc.setUploadDao(uploadDao);
+        return svc;
+    }
+
     // Helper method for creating users. UploadService only cares about healthCode, so that's the only thing we set.
     private static User makeUser(String healthCode) {
         User user = new User();
@@ -1,26 +1,49 @@
 package org.sagebionetworks.bridge.services;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
 import org.sagebionetworks.bridge.models.User;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.redis.JedisStringOps;
+import org.sagebionetworks.bridge.upload.UploadValidationQueue;
+import org.sagebionetworks.bridge.upload.UploadValidationQueueItem;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
 
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
 public class UploadValidationServiceTest {
     @Test
     public void test() {
-        // UploadValidationService is a simple call-through to the task factory and the async thread pool. As such, our
-        // test strategy is to verify that execution flows through to these dependencies.
+        // If the queue is unavailable, UploadValidationService falls back to the task factory and the local thread
+        // pool. Verify that execution flows through to these dependencies.
 
         // inputs
         Study study = new DynamoStudy();
@@ -39,8 +62,9 @@ public class UploadValidationServiceTest {
 
         // set up service
         UploadValidationService svc = new UploadValidationService();
-        svc.setAsyncExecutorService(mockExecutor);
+        svc.setUploadValidationExecutorService(mockExecutor);
         svc.setTaskFactory(mockTaskFactory);
+        svc.setUploadValidationQueue(mock(UploadValidationQueue.class));
 
         // execute
         svc.validateUpload(study, user, upload);
@@ -48,4 +72,219 @@ public class UploadValidationServiceTest {
         // validate
         verify(mockExecutor).execute(mockTask);
     }
+
+    @Test
+    public void redisUnreachable() {
+        // Redis can't be reached (or the Redis pool is exhausted), so the queue is unavailable. The upload is
+        // validated on the local thread pool.
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier("test-study");
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId("test-upload");
+        User user = new User();
+
+        // Redis pool that can't connect
+        JedisPool mockPool = mock(JedisPool.class);
+        when(mockPool.getResource()).thenThrow(new JedisConnectionException("Could not get a resource from the pool"));
+        JedisStringOps stringOps = new JedisStringOps();
+        stringOps.setJedisPool(mockPool);
+        UploadValidationQueue queue = new UploadValidationQueue();
+        queue.setStringOps(stringOps);
+
+        // mock task factory
+        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        when(mockTaskFactory.newTask(study, user, upload)).thenReturn(mockTask);
+
+        // set up service
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        UploadValidationService svc = new UploadValidationService();
+        svc.setUploadValidationExecutorService(mockExecutor);
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setUploadValidationQueue(queue);
+
+        // execute and validate
+        svc.validateUpload(study, user, upload);
+        verify(mockExecutor).execute(mockTask);
+    }
+
+    @Test
+    public void duplicateUploadNotValidated() {
+        // UploadService.uploadComplete() already marked this upload as a duplicate of an earlier upload.
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setStatus(UploadStatus.SUCCEEDED);
+
+        UploadValidationQueue mockQueue = mock(UploadValidationQueue.class);
+        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        UploadValidationService svc = new UploadValidationService();
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setUploadValidationQueue(mockQueue);
+
+        // execute and validate
+        svc.validateUpload(new DynamoStudy(), new User(), upload);
+        verifyZeroInteractions(mockQueue, mockTaskFactory);
+    }
+
+    @Test
+    public void queueFull() {
+        // inputs
+        Study study = new DynamoStudy();
+        Upload upload = new DynamoUpload2();
+        User user = new User();
+
+        // mock task factory
+        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        when(mockTaskFactory.newTask(study, user, upload)).thenReturn(mockTask);
+
+        // mock saturated thread pool
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        doThrow(RejectedExecutionException.class).when(mockExecutor).execute(mockTask);
+
+        // set up service
+        UploadDao mockDao = mock(UploadDao.class);
+        UploadValidationService svc = new UploadValidationService();
+        svc.setUploadValidationExecutorService(mockExecutor);
+        svc.setUploadDao(mockDao);
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setUploadValidationQueue(mock(UploadValidationQueue.class));
+
+        // execute and validate
+        try {
+            svc.validateUpload(study, user, upload);
+            fail("expected exception");
+        } catch (ServiceUnavailableException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+
+        // upload should be reset, so the client can retry
+        verify(mockDao).writeValidationStatus(same(upload), eq(UploadStatus.REQUESTED), anyListOf(String.class));
+    }
+
+    @Test
+    public void enqueue() {
+        // inputs
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier("test-study");
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId("test-upload");
+
+        // mock queue
+        UploadValidationQueue mockQueue = mock(UploadValidationQueue.class);
+        when(mockQueue.enqueue("test-study", "test-upload")).thenReturn(true);
+
+        // set up service
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        UploadValidationService svc = new UploadValidationService();
+        svc.setUploadValidationExecutorService(mockExecutor);
+        svc.setUploadValidationQueue(mockQueue);
+
+        // execute and validate - upload is queued, not validated locally
+        svc.validateUpload(study, new User(), upload);
+        verify(mockQueue).enqueue("test-study", "test-upload");
+        verifyZeroInteractions(mockExecutor);
+    }
+
+    @Test
+    public void pollQueue() {
+        // Two queued items. The first is in progress. The second was already validated by a worker that died before
+        // acknowledging it.
+        UploadValidationQueueItem item = new UploadValidationQueueItem("test-study", "test-upload", 0);
+        UploadValidationQueueItem doneItem = new UploadValidationQueueItem("test-study", "done-upload", 0);
+        UploadValidationQueue mockQueue = mock(UploadValidationQueue.class);
+        when(mockQueue.lease()).thenReturn(item, doneItem, null);
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setHealthCode("test-health-code");
+        upload.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        DynamoUpload2 doneUpload = new DynamoUpload2();
+        doneUpload.setStatus(UploadStatus.SUCCEEDED);
+        UploadDao mockDao = mock(UploadDao.class);
+        when(mockDao.getUpload("test-upload")).thenReturn(upload);
+        when(mockDao.getUpload("done-upload")).thenReturn(doneUpload);
+
+        Study study = new DynamoStudy();
+        StudyService mockStudyService = mock(StudyService.class);
+        when(mockStudyService.getStudy("test-study")).thenReturn(study);
+
+        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        when(mockTaskFactory.newTask(same(study), userCaptor.capture(), same(upload))).thenReturn(mockTask);
+
+        // set up service, with a thread pool that runs tasks synchronously
+        UploadValidationService svc = new UploadValidationService();
+        svc.setUploadValidationExecutorService(MoreExecutors.newDirectExecutorService());
+        svc.setUploadValidationQueue(mockQueue);
+        svc.setUploadDao(mockDao);
+        svc.setStudyService(mockStudyService);
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setMaxInFlight(10);
+
+        // execute and validate
+        svc.pollQueue();
+        assertEquals("test-health-code", userCaptor.getValue().getHealthCode());
+        verify(mockTask).run();
+        verify(mockQueue).ack(item);
+        verify(mockQueue).ack(doneItem);
+    }
+
+    @Test
+    public void pollQueueThreadPoolFull() {
+        UploadValidationQueueItem item = new UploadValidationQueueItem("test-study", "test-upload", 0);
+        UploadValidationQueue mockQueue = mock(UploadValidationQueue.class);
+        when(mockQueue.lease()).thenReturn(item);
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        UploadDao mockDao = mock(UploadDao.class);
+        when(mockDao.getUpload("test-upload")).thenReturn(upload);
+
+        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        when(mockTaskFactory.newTask(any(Study.class), any(User.class), same(upload))).thenReturn(
+                mock(UploadValidationTask.class));
+
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        doThrow(RejectedExecutionException.class).when(mockExecutor).execute(any(Runnable.class));
+
+        UploadValidationService svc = new UploadValidationService();
+        svc.setUploadValidationExecutorService(mockExecutor);
+        svc.setUploadValidationQueue(mockQueue);
+        svc.setUploadDao(mockDao);
+        svc.setStudyService(mock(StudyService.class));
+        svc.setTaskFactory(mockTaskFactory);
+        svc.setMaxInFlight(10);
+
+        // execute and validate - item goes back in the queue, and we stop polling
+        svc.pollQueue();
+        verify(mockQueue, times(1)).lease();
+        verify(mockQueue).requeue(item, item);
+        verify(mockQueue, never()).ack(any(UploadValidationQueueItem.class));
+    }
+
+    @Test
+    public void sweepQueue() {
+        // One item with attempts left, one item out of attempts.
+        UploadValidationQueueItem retryItem = new UploadValidationQueueItem("test-study", "retry-upload", 0);
+        UploadValidationQueueItem failItem = new UploadValidationQueueItem("test-study", "fail-upload", 2);
+        UploadValidationQueue mockQueue = mock(UploadValidationQueue.class);
+        when(mockQueue.getExpiredItems()).thenReturn(ImmutableList.of(retryItem, failItem));
+
+        DynamoUpload2 failUpload = new DynamoUpload2();
+        UploadDao mockDao = mock(UploadDao.class);
+        when(mockDao.getUpload("fail-upload")).thenReturn(failUpload);
+
+        UploadValidationService svc = new UploadValidationService();
+        svc.setUploadValidationQueue(mockQueue);
+        svc.setUploadDao(mockDao);
+        svc.setMaxAttempts(3);
+
+        // execute and validate
+        svc.sweepQueue();
+        verify(mockQueue).requeue(retryItem, retryItem.nextAttempt());
+        verify(mockDao).writeValidationStatus(same(failUpload), eq(UploadStatus.VALIDATION_FAILED),
+                anyListOf(String.class));
+        verify(mockQueue).ack(failItem);
+        verify(mockQueue, never()).requeue(same(failItem), any(UploadValidationQueueItem.class));
+    }
 }
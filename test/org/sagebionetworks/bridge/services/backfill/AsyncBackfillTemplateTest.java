@@ -11,6 +11,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -158,6 +159,65 @@ public class AsyncBackfillTemplateTest {
         verify(callback, times(1)).newRecords(record);
     }
 
+    @Test
+    public void testWithConcurrentModificationExceptionAfterLockExpiration() throws Exception {
+
+        final AsyncBackfillTemplate backfillTemplate = new TestBackfillService();
+
+        // Mock lock
+        final Class<TestBackfillService> lockClazz = TestBackfillService.class;
+        final String lockObject = TestBackfillService.class.getSimpleName();
+        final DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        when(lockDao.acquireLock(lockClazz, lockObject, TestBackfillService.EXPIRE))
+                .thenThrow(new ConcurrentModificationException("Lock already set."));
+        backfillTemplate.setDistributedLockDao(lockDao);
+
+        // The running task has held the lock, renewing it, for three times the lock expiration. An older task
+        // completed before it.
+        final String taskName = "taskName";
+        final String user = "user";
+        final long now = DateTime.now(DateTimeZone.UTC).getMillis();
+        final long expireInMillis = TestBackfillService.EXPIRE * 1000L;
+        final String taskId1 = "taskId1";
+        final BackfillTask task1 = createBackfillTask(taskName, user, now - 5 * expireInMillis, taskId1,
+                BackfillStatus.COMPLETED);
+        final String taskId2 = "taskId2";
+        final BackfillTask task2 = createBackfillTask(taskName, user, now - 3 * expireInMillis, taskId2,
+                BackfillStatus.IN_PROCESS);
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        Answer<List<BackfillTask>> tasks = new Answer<List<BackfillTask>>() {
+            @Override
+            public List<BackfillTask> answer(InvocationOnMock invocation) throws Throwable {
+                long since = (Long) invocation.getArguments()[1];
+                List<BackfillTask> taskList = new ArrayList<>();
+                for (BackfillTask task : Arrays.asList(task1, task2)) {
+                    if (task.getTimestamp() >= since) {
+                        taskList.add(task);
+                    }
+                }
+                return taskList;
+            }
+        };
+        when(backfillDao.getTasks(eq(taskName), anyLong())).thenAnswer(tasks);
+        backfillTemplate.setBackfillDao(backfillDao);
+
+        BackfillRecordFactory recordFactory = mock(BackfillRecordFactory.class);
+        BackfillRecord record = mock(BackfillRecord.class);
+        when(recordFactory.createOnly(any(BackfillTask.class), any(String.class))).thenReturn(record);
+        backfillTemplate.setBackfillRecordFactory(recordFactory);
+
+        // Do backfill
+        BackfillCallback callback = mock(BackfillCallback.class);
+        backfillTemplate.backfill(user, taskName, callback);
+        Thread.sleep(200L);
+
+        // Reports the running task
+        verify(backfillDao, times(1)).getTasks(taskName, 0L);
+        verify(backfillDao, times(1)).getRecordCount(taskId2);
+        verify(recordFactory, times(1)).createOnly(eq(task2), any(String.class));
+        verify(callback, times(1)).newRecords(record);
+    }
+
     @Test
     public void testFailure() throws Exception {
 
@@ -0,0 +1,53 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.models.BackfillRecord;
+import org.sagebionetworks.bridge.models.BackfillTask;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+
+import com.google.common.collect.ImmutableList;
+
+public class UploadDateStatusBackfillTest {
+
+    @Test
+    public void test() {
+        Upload upload1 = makeUpload("upload-1");
+        Upload upload2 = makeUpload("upload-2");
+        UploadDao uploadDao = mock(UploadDao.class);
+        when(uploadDao.getUploadsMissingUploadDateStatus(UploadStatus.VALIDATION_FAILED)).thenReturn(
+                ImmutableList.of(upload1, upload2).iterator());
+        // A failed save is reported, and doesn't stop the backfill.
+        doThrow(new RuntimeException("save failed")).when(uploadDao).backfillUploadDateStatus(upload1);
+
+        BackfillTask task = mock(BackfillTask.class);
+        BackfillRecordFactory recordFactory = mock(BackfillRecordFactory.class);
+        BackfillCallback callback = mock(BackfillCallback.class);
+
+        UploadDateStatusBackfill backfill = new UploadDateStatusBackfill();
+        backfill.setUploadDao(uploadDao);
+        backfill.setBackfillRecordFactory(recordFactory);
+        backfill.doBackfill(task, callback);
+
+        verify(uploadDao).backfillUploadDateStatus(upload1);
+        verify(uploadDao).backfillUploadDateStatus(upload2);
+        verify(recordFactory).createOnly(task, "Upload upload-1: java.lang.RuntimeException save failed");
+        verify(recordFactory).createOnly(task, "Upload upload-2 added to the upload date and status index.");
+        verify(callback, times(2)).newRecords(any(BackfillRecord.class));
+    }
+
+    private static Upload makeUpload(String uploadId) {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(uploadId);
+        return upload;
+    }
+}
@@ -41,6 +41,8 @@ public class StormpathAccountTest {
     
     private String legacySignature;
     
+    private SortedMap<Integer,Encryptor> encryptorMap;
+    
     @Before
     public void setUp() throws Exception {
         StudyIdentifier studyId = new StudyIdentifierImpl("foo");
@@ -75,7 +77,8 @@ public class StormpathAccountTest {
         encryptors.put(1, encryptor1);
         encryptors.put(2, encryptor2);
         
-        acct = new StormpathAccount(studyId, account, encryptors);
+        encryptorMap = encryptors;
+        acct = new StormpathAccount(studyId, account, encryptors, 2);
     }
     
     private void encryptDecryptValues(Encryptor encryptor, String value, String encryptedValue) {
@@ -111,6 +114,38 @@ public class StormpathAccountTest {
         assertEquals("111-222-3333", acct.getPhone());
     }
     
+    @Test
+    public void newSensitiveValueIsEncryptedWithWriteVersion() {
+        Encryptor encryptor3 = mock(Encryptor.class);
+        when(encryptor3.getVersion()).thenReturn(3);
+        encryptDecryptValues(encryptor3, "555-555-5555", "555-555-5555-encryptor3encrypted");
+        SortedMap<Integer,Encryptor> encryptors = new TreeMap<>(encryptorMap);
+        encryptors.put(3, encryptor3);
+        acct = new StormpathAccount(new StudyIdentifierImpl("foo"), account, encryptors, 2);
+
+        // Values written by a newer server can be read
+        data.put("phone", "555-555-5555-encryptor3encrypted");
+        data.put("phone_version", 3);
+        assertEquals("555-555-5555", acct.getPhone());
+
+        // But new values are written with the write version
+        acct.setPhone("111-222-3333");
+        assertEquals("111-222-3333-encryptor2encrypted", data.get("phone"));
+        assertEquals(2, data.get("phone_version"));
+    }
+    
+    @Test
+    public void failsIfNoEncryptorForWriteVersion() {
+        acct = new StormpathAccount(new StudyIdentifierImpl("foo"), account, encryptorMap, 3);
+        try {
+            acct.setPhone("111-222-3333");
+            fail("expected exception");
+        } catch(BridgeServiceException e) {
+            assertEquals("No encryptor can be found for version 3", e.getMessage());
+        }
+        assertNull(data.get("phone"));
+    }
+    
     @Test
     public void noValueSupported() {
         assertNull(acct.getPhone());
@@ -1,9 +1,13 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
 import com.google.common.base.Charsets;
 import org.junit.Test;
 
@@ -36,4 +40,31 @@ public class DecryptHandlerTest {
         handler.handle(ctx);
         assertEquals("decrypted test data", new String(ctx.getDecryptedData(), Charsets.UTF_8));
     }
+
+    @Test
+    public void streaming() {
+        // inputs
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier("test-study");
+
+        InputStream encryptedStream = new ByteArrayInputStream("encrypted test data".getBytes(Charsets.UTF_8));
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStreaming(true);
+        ctx.setStudy(study);
+        ctx.setDataStream(encryptedStream);
+
+        // mock UploadArchiveService
+        InputStream decryptedStream = new ByteArrayInputStream("decrypted test data".getBytes(Charsets.UTF_8));
+        UploadArchiveService mockSvc = mock(UploadArchiveService.class);
+        when(mockSvc.decrypt("test-study", encryptedStream)).thenReturn(decryptedStream);
+
+        // set up test handler
+        DecryptHandler handler = new DecryptHandler();
+        handler.setUploadArchiveService(mockSvc);
+
+        // execute and validate
+        handler.handle(ctx);
+        assertSame(decryptedStream, ctx.getDecryptedDataStream());
+    }
 }
@@ -0,0 +1,158 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadFieldDefinition;
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
+import org.sagebionetworks.bridge.services.UploadSchemaService;
+import org.sagebionetworks.bridge.util.SpillBuffer;
+
+// Tests for how attachments are built from JSON files. Attachments should be the raw JSON bytes, not re-serialized
+// JSON trees.
+public class IosSchemaValidationHandlerTest {
+    private static final String INFO_JSON_TEMPLATE = "{\"item\":\"%s\",\"files\":[%s]}";
+    private static final String INFO_JSON_FILE_TEMPLATE =
+            "{\"filename\":\"%s\",\"timestamp\":\"2015-04-02T03:26:59-07:00\"}";
+
+    @Test
+    public void survey() throws Exception {
+        String fooAnswer = "{ \"questionType\":0, \"item\":\"foo\", \"startDate\":\"2015-04-02T03:26:57-07:00\","
+                + " \"endDate\":\"2015-04-02T03:26:59-07:00\" }";
+        String barAnswer = "{\"questionType\":1,\"item\":\"bar\",\"startDate\":\"2015-04-02T03:27:05-07:00\","
+                + "\"endDate\":\"2015-04-02T03:27:09-07:00\"}";
+
+        Map<String, byte[]> fileMap = new HashMap<>();
+        fileMap.put("foo.json", bytes(fooAnswer));
+        fileMap.put("bar.json", bytes(barAnswer));
+        UploadValidationContext ctx = makeContext("survey", fileMap);
+
+        // execute
+        makeHandler(makeSchema("ios-survey", "iOS Survey", field("answers", UploadFieldType.ATTACHMENT_JSON_TABLE)))
+                .handle(ctx);
+
+        // answers is a JSON array of the answer files, copied as is
+        String answers = new String(ctx.getAttachmentsByFieldName().get("answers").getBytes(), Charsets.UTF_8);
+        assertTrue(answers.equals("[" + fooAnswer + "," + barAnswer + "]")
+                || answers.equals("[" + barAnswer + "," + fooAnswer + "]"));
+        assertEquals(2, BridgeObjectMapper.get().readTree(answers).size());
+        assertEquals("ios-survey", ctx.getHealthDataRecordBuilder().getSchemaId());
+    }
+
+    @Test
+    public void jsonDataWithTable() throws Exception {
+        String table = "[ {\"x\":1}, {\"x\":2} ]";
+        Map<String, byte[]> fileMap = new HashMap<>();
+        fileMap.put("data.json", bytes("{\"name\":\"test\",\"table\":" + table + "}"));
+        UploadValidationContext ctx = makeContext("data", fileMap);
+
+        // execute
+        makeHandler(makeSchema("data-schema", "Data", field("data.json.name", UploadFieldType.STRING),
+                field("data.json.table", UploadFieldType.ATTACHMENT_JSON_TABLE))).handle(ctx);
+
+        // table is copied straight from the file, name goes in the record
+        assertEquals(table, new String(ctx.getAttachmentsByFieldName().get("data.json.table").getBytes(), Charsets.UTF_8));
+        JsonNode dataNode = ctx.getHealthDataRecordBuilder().getData();
+        assertEquals("test", dataNode.get("data.json.name").textValue());
+        assertEquals("data-schema", ctx.getHealthDataRecordBuilder().getSchemaId());
+    }
+
+    @Test
+    public void nonJsonDataWithJsonAttachment() throws Exception {
+        String json = "{ \"some\" : \"json\" }";
+        Map<String, byte[]> fileMap = new HashMap<>();
+        fileMap.put("audio.m4a", new byte[] { 1, 2, 3 });
+        fileMap.put("extra.json", bytes(json));
+        UploadValidationContext ctx = makeContext("Audio", fileMap);
+
+        // execute
+        makeHandler(makeSchema("audio-schema", "Audio", field("audio.m4a", UploadFieldType.ATTACHMENT_BLOB),
+                field("extra.json", UploadFieldType.ATTACHMENT_JSON_BLOB))).handle(ctx);
+
+        assertEquals(json, new String(ctx.getAttachmentsByFieldName().get("extra.json").getBytes(), Charsets.UTF_8));
+        assertEquals(3, ctx.getAttachmentsByFieldName().get("audio.m4a").size());
+    }
+
+    private static IosSchemaValidationHandler makeHandler(UploadSchema schema) {
+        UploadSchemaService mockSchemaService = mock(UploadSchemaService.class);
+        when(mockSchemaService.getUploadSchemaIndexForStudy(any(StudyIdentifier.class))).thenReturn(
+                new UploadSchemaIndex(ImmutableList.of(schema)));
+
+        IosSchemaValidationHandler handler = new IosSchemaValidationHandler();
+        handler.setHealthDataDao(new DynamoHealthDataDao());
+        handler.setUploadSchemaService(mockSchemaService);
+        return handler;
+    }
+
+    // Builds a context with the given files, plus info.json, run through ParseJsonHandler.
+    private static UploadValidationContext makeContext(String item, Map<String, byte[]> fileMap)
+            throws UploadValidationException {
+        StringBuilder fileListBuilder = new StringBuilder();
+        for (String oneFilename : fileMap.keySet()) {
+            if (fileListBuilder.length() > 0) {
+                fileListBuilder.append(',');
+            }
+            fileListBuilder.append(String.format(INFO_JSON_FILE_TEMPLATE, oneFilename));
+        }
+
+        Map<String, SpillBuffer> unzippedDataMap = new HashMap<>();
+        for (Map.Entry<String, byte[]> oneFile : fileMap.entrySet()) {
+            unzippedDataMap.put(oneFile.getKey(), SpillBuffer.wrap(oneFile.getValue()));
+        }
+        unzippedDataMap.put("info.json", SpillBuffer.wrap(bytes(String.format(INFO_JSON_TEMPLATE, item,
+                fileListBuilder))));
+
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier("test-study");
+
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setHealthCode("test-health-code");
+        upload.setUploadDate(new LocalDate(2015, 4, 2));
+        upload.setUploadId("test-upload");
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStudy(study);
+        ctx.setUpload(upload);
+        ctx.setUnzippedDataMap(unzippedDataMap);
+        new ParseJsonHandler().handle(ctx);
+        return ctx;
+    }
+
+    private static UploadSchema makeSchema(String schemaId, String name, UploadFieldDefinition... fieldDefs) {
+        DynamoUploadSchema schema = new DynamoUploadSchema();
+        schema.setSchemaId(schemaId);
+        schema.setName(name);
+        schema.setRevision(1);
+        schema.setFieldDefinitions(ImmutableList.copyOf(fieldDefs));
+        return schema;
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(Charsets.UTF_8);
+    }
+
+    private static UploadFieldDefinition field(String name, UploadFieldType type) {
+        return new DynamoUploadFieldDefinition.Builder().withName(name).withType(type).build();
+    }
+}
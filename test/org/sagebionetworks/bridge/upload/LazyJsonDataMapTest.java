@@ -0,0 +1,111 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+public class LazyJsonDataMapTest {
+    private static final String TEST_JSON = "{\n  \"str\" : \"é\",\n  \"table\" : [ {\"a\":1}, {\"a\":2} ],\n"
+            + "  \"obj\" : {\"b\":[true]}\n}";
+
+    @Test
+    public void getParsesOnDemand() {
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.putRawBytes("foo", bytes(TEST_JSON));
+        map.putRawBytes("bar", bytes("[1,2,3]"));
+
+        assertEquals(2, map.size());
+        assertEquals(ImmutableSet.of("foo", "bar"), map.keySet());
+        assertTrue(map.containsKey("foo"));
+        assertFalse(map.containsKey("baz"));
+
+        JsonNode fooNode = map.get("foo");
+        assertEquals("é", fooNode.get("str").textValue());
+        assertSame(fooNode, map.get("foo"));
+        assertEquals(3, map.get("bar").size());
+        assertNull(map.get("baz"));
+    }
+
+    @Test
+    public void entrySet() {
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.putRawBytes("foo", bytes("{\"a\":1}"));
+
+        Map.Entry<String, JsonNode> entry = map.entrySet().iterator().next();
+        assertEquals("foo", entry.getKey());
+        assertEquals(1, entry.getValue().get("a").intValue());
+    }
+
+    @Test
+    public void rawBytes() {
+        byte[] rawBytes = bytes(TEST_JSON);
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.putRawBytes("foo", rawBytes);
+        assertSame(rawBytes, map.getRawBytes("foo"));
+        assertNull(map.getRawBytes("bar"));
+    }
+
+    @Test
+    public void rawBytesWithBom() {
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.putRawBytes("foo", bytes("\uFEFF{\"table\":[1,2]}"));
+        assertEquals("{\"table\":[1,2]}", string(map.getRawBytes("foo")));
+        assertEquals("[1,2]", string(map.getRawFieldBytes("foo", "table")));
+        assertEquals(2, map.get("foo").get("table").size());
+    }
+
+    @Test
+    public void rawBytesFromTree() throws Exception {
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.put("foo", BridgeObjectMapper.get().readTree("{\"table\":[1,2]}"));
+        assertEquals("{\"table\":[1,2]}", string(map.getRawBytes("foo")));
+        assertEquals("[1,2]", string(map.getRawFieldBytes("foo", "table")));
+    }
+
+    @Test
+    public void rawFieldBytes() {
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.putRawBytes("foo", bytes(TEST_JSON));
+
+        // containers are copied verbatim
+        assertEquals("[ {\"a\":1}, {\"a\":2} ]", string(map.getRawFieldBytes("foo", "table")));
+        assertEquals("{\"b\":[true]}", string(map.getRawFieldBytes("foo", "obj")));
+
+        // scalars are serialized
+        assertEquals("\"é\"", string(map.getRawFieldBytes("foo", "str")));
+
+        // missing fields and files
+        assertNull(map.getRawFieldBytes("foo", "missing"));
+        assertNull(map.getRawFieldBytes("bar", "table"));
+    }
+
+    @Test
+    public void rename() {
+        byte[] rawBytes = bytes("{\"a\":1}");
+        LazyJsonDataMap map = new LazyJsonDataMap();
+        map.putRawBytes("foo-20150401", rawBytes);
+        map.rename("foo-20150401", "foo");
+
+        assertEquals(ImmutableSet.of("foo"), map.keySet());
+        assertSame(rawBytes, map.getRawBytes("foo"));
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(Charsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
@@ -1,8 +1,11 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -11,15 +14,16 @@ import com.google.common.base.Charsets;
 import org.junit.Test;
 
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 @SuppressWarnings("unchecked")
 public class ParseJsonHandlerTest {
     @Test
-    public void test() {
+    public void test() throws Exception {
         // inputs
-        Map<String, byte[]> inputMap = new HashMap<>();
-        inputMap.put("foo", "{\"isJson\":true}".getBytes(Charsets.UTF_8));
-        inputMap.put("bar", "This is not JSON".getBytes(Charsets.UTF_8));
+        Map<String, SpillBuffer> inputMap = new HashMap<>();
+        inputMap.put("foo", SpillBuffer.wrap("{\"isJson\":true}".getBytes(Charsets.UTF_8)));
+        inputMap.put("bar", SpillBuffer.wrap("This is not JSON".getBytes(Charsets.UTF_8)));
 
         UploadValidationContext ctx = new UploadValidationContext();
         ctx.setUnzippedDataMap(inputMap);
@@ -27,9 +31,9 @@ public class ParseJsonHandlerTest {
         // execute and validate
         new ParseJsonHandler().handle(ctx);
 
-        Map<String, byte[]> byteMap = ctx.getUnzippedDataMap();
+        Map<String, SpillBuffer> byteMap = ctx.getUnzippedDataMap();
         assertEquals(1, byteMap.size());
-        assertEquals("This is not JSON", new String(byteMap.get("bar"), Charsets.UTF_8));
+        assertEquals("This is not JSON", new String(byteMap.get("bar").getBytes(), Charsets.UTF_8));
 
         Map<String, JsonNode> jsonDataMap = ctx.getJsonDataMap();
         assertEquals(1, jsonDataMap.size());
@@ -37,4 +41,72 @@ public class ParseJsonHandlerTest {
         assertEquals(1, jsonInnerMap.size());
         assertTrue((boolean) jsonInnerMap.get("isJson"));
     }
+
+    @Test
+    public void jsonIsPassedThroughAsRawBytes() throws Exception {
+        byte[] jsonBytes = "[{\"a\":1}]".getBytes(Charsets.UTF_8);
+        Map<String, SpillBuffer> inputMap = new HashMap<>();
+        inputMap.put("table", SpillBuffer.wrap(jsonBytes));
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUnzippedDataMap(inputMap);
+
+        // execute and validate
+        new ParseJsonHandler().handle(ctx);
+        assertTrue(ctx.getUnzippedDataMap().isEmpty());
+        assertSame(jsonBytes, ctx.getJsonDataMap().getRawBytes("table"));
+    }
+
+    @Test
+    public void spilledEntries() throws Exception {
+        String json = "{\"isJson\":true}";
+        SpillBuffer jsonBuffer = SpillBuffer.copyOf(new ByteArrayInputStream(bytes(json)), 0);
+        SpillBuffer binaryBuffer = SpillBuffer.copyOf(new ByteArrayInputStream(new byte[] { 0, 1, 2, 3 }), 0);
+        Map<String, SpillBuffer> inputMap = new HashMap<>();
+        inputMap.put("foo", jsonBuffer);
+        inputMap.put("bar", binaryBuffer);
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUnzippedDataMap(inputMap);
+
+        // execute and validate - the JSON entry is read into memory, and its temp file is deleted
+        new ParseJsonHandler().handle(ctx);
+        try {
+            assertEquals(json, new String(ctx.getJsonDataMap().getRawBytes("foo"), Charsets.UTF_8));
+            assertFalse(jsonBuffer.getFile().exists());
+            assertSame(binaryBuffer, ctx.getUnzippedDataMap().get("bar"));
+            assertTrue(binaryBuffer.getFile().exists());
+        } finally {
+            binaryBuffer.close();
+        }
+    }
+
+    @Test
+    public void isJson() {
+        assertTrue(ParseJsonHandler.isJson("foo.json", bytes("{\"a\":1}")));
+        assertTrue(ParseJsonHandler.isJson("foo", bytes("  \n[1, 2, 3]\n")));
+        assertTrue(ParseJsonHandler.isJson("foo", bytes("\uFEFF{\"a\":1}")));
+    }
+
+    @Test
+    public void isNotJson() {
+        // binary file extensions are never JSON, even if they look like JSON
+        assertFalse(ParseJsonHandler.isJson("audio.m4a", bytes("{\"a\":1}")));
+        assertFalse(ParseJsonHandler.isJson("IMAGE.JPG", bytes("{\"a\":1}")));
+
+        // doesn't start with a bracket
+        assertFalse(ParseJsonHandler.isJson("foo", new byte[0]));
+        assertFalse(ParseJsonHandler.isJson("foo", bytes("   ")));
+        assertFalse(ParseJsonHandler.isJson("foo", bytes("\"just a string\"")));
+        assertFalse(ParseJsonHandler.isJson("foo", new byte[] { 0, 1, 2, 3 }));
+
+        // starts with a bracket, but isn't valid JSON
+        assertFalse(ParseJsonHandler.isJson("foo", bytes("{\"a\":")));
+        assertFalse(ParseJsonHandler.isJson("foo", bytes("[1, 2,]")));
+        assertFalse(ParseJsonHandler.isJson("foo", bytes("{\"a\":1} trailing garbage")));
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(Charsets.UTF_8);
+    }
 }
@@ -0,0 +1,39 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.dao.ParticipantOption;
+import org.sagebionetworks.bridge.models.User;
+import org.sagebionetworks.bridge.services.ParticipantOptionsService;
+
+public class ParticipantOptionsHandlerTest {
+    @Test
+    public void test() {
+        // The handler is a simple pass-through to the ParticipantOptionsService, so just test that execution flows
+        // through to the service as expected.
+        User user = new User();
+        user.setHealthCode("test-health-code");
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUser(user);
+
+        // mock options service
+        Map<ParticipantOption, String> optionsMap = ImmutableMap.of(ParticipantOption.SHARING_SCOPE,
+                "SPONSORS_AND_PARTNERS");
+        ParticipantOptionsService mockOptionsService = mock(ParticipantOptionsService.class);
+        when(mockOptionsService.getAllParticipantOptions("test-health-code")).thenReturn(optionsMap);
+
+        // execute and validate
+        ParticipantOptionsHandler handler = new ParticipantOptionsHandler();
+        handler.setOptionsService(mockOptionsService);
+        handler.handle(ctx);
+        assertSame(optionsMap, ctx.getParticipantOptions());
+    }
+}
@@ -1,10 +1,14 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import com.google.common.base.Charsets;
 import org.junit.Test;
@@ -41,6 +45,31 @@ public class S3DownloadHandlerTest {
         assertEquals("test data", new String(ctx.getData(), Charsets.UTF_8));
     }
 
+    @Test
+    public void streaming() throws Exception {
+        // inputs
+        DynamoUpload2 upload2 = new DynamoUpload2();
+        upload2.setUploadId("test-upload-id");
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStreaming(true);
+        ctx.setUpload(upload2);
+
+        // mock S3 helper
+        InputStream testStream = new ByteArrayInputStream("test data".getBytes(Charsets.UTF_8));
+        S3Helper mockS3Helper = mock(S3Helper.class);
+        when(mockS3Helper.getS3FileAsStream(TestConstants.UPLOAD_BUCKET, "test-upload-id")).thenReturn(testStream);
+
+        // set up test handler
+        S3DownloadHandler handler = new S3DownloadHandler();
+        handler.setS3Helper(mockS3Helper);
+
+        // execute and validate
+        handler.handle(ctx);
+        assertSame(testStream, ctx.getDataStream());
+        assertNull(ctx.getData());
+    }
+
     @Test(expected = UploadValidationException.class)
     public void exception() throws Exception {
         // inputs
@@ -0,0 +1,178 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadFieldDefinition;
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
+
+/**
+ * <p>
+ * Compares schema selection for JSON uploads using the old linear scan (build each schema's field name set and
+ * type-check its fields, for every schema) against the indexed lookup in
+ * {@link IosSchemaValidationHandler#selectSchema}. This is not a unit test and isn't run as part of the test suite.
+ * Run it by hand with a main class runner, for example:
+ * </p>
+ * <pre>
+ * activator "test:runMain org.sagebionetworks.bridge.upload.SchemaSelectionBenchmark 10 100 1000"
+ * </pre>
+ * <p>
+ * Arguments are the number of schemas in the study (default 10, 100, and 1000). Each schema has 5 revisions, where
+ * each revision adds a field. Schemas share some common field names, like real task schemas do. The upload matches
+ * the latest revision of a schema in the middle of the list.
+ * </p>
+ */
+public class SchemaSelectionBenchmark {
+    private static final int[] DEFAULT_SCHEMA_COUNTS = { 10, 100, 1000 };
+    private static final int REVISIONS_PER_SCHEMA = 5;
+    private static final int BASE_FIELD_COUNT = 10;
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final long MEASURE_NANOS = 2000L * 1000 * 1000;
+
+    public static void main(String[] args) {
+        int[] schemaCounts = DEFAULT_SCHEMA_COUNTS;
+        if (args.length > 0) {
+            schemaCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                schemaCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int oneSchemaCount : schemaCounts) {
+            final List<UploadSchema> schemaList = makeSchemaList(oneSchemaCount);
+            final UploadSchemaIndex schemaIndex = new UploadSchemaIndex(schemaList);
+            final UploadSchema expected = findLatest(schemaList, "schema-" + (oneSchemaCount / REVISIONS_PER_SCHEMA
+                    / 2));
+            final Map<String, JsonNode> dataFieldMap = makeData(expected);
+
+            System.out.println(String.format("%d schemas", schemaList.size()));
+            measure("linear scan", new BenchmarkOp() {
+                @Override
+                public UploadSchema run() {
+                    return selectSchemaScan(dataFieldMap, schemaList);
+                }
+            }, expected);
+            measure("indexed", new BenchmarkOp() {
+                @Override
+                public UploadSchema run() {
+                    return IosSchemaValidationHandler.selectSchema(new UploadValidationContext(), "benchmark-upload",
+                            dataFieldMap, schemaIndex);
+                }
+            }, expected);
+        }
+    }
+
+    // The schema selection IosSchemaValidationHandler used before the schema index.
+    private static UploadSchema selectSchemaScan(Map<String, JsonNode> dataFieldMap, List<UploadSchema> schemaList) {
+        UploadValidationContext context = new UploadValidationContext();
+        UploadSchema latestSchema = null;
+        for (UploadSchema oneSchema : schemaList) {
+            Set<String> schemaKeySet = new HashSet<>();
+            boolean isMatch = true;
+            for (UploadFieldDefinition oneFieldDef : oneSchema.getFieldDefinitions()) {
+                String fieldName = oneFieldDef.getName();
+                schemaKeySet.add(fieldName);
+                isMatch = IosSchemaValidationHandler.validateField(context, "benchmark-upload",
+                        dataFieldMap.get(fieldName), oneFieldDef);
+                if (!isMatch) {
+                    break;
+                }
+            }
+            if (isMatch && !schemaKeySet.containsAll(dataFieldMap.keySet())) {
+                isMatch = false;
+            }
+            if (isMatch && (latestSchema == null || oneSchema.getRevision() > latestSchema.getRevision())) {
+                latestSchema = oneSchema;
+            }
+        }
+        return latestSchema;
+    }
+
+    private static void measure(String name, BenchmarkOp op, UploadSchema expected) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            op.run();
+        }
+
+        long numOps = 0;
+        long startNanos = System.nanoTime();
+        long elapsedNanos;
+        do {
+            if (op.run() != expected) {
+                throw new IllegalStateException(name + " selected the wrong schema");
+            }
+            numOps++;
+            elapsedNanos = System.nanoTime() - startNanos;
+        } while (elapsedNanos < MEASURE_NANOS);
+
+        System.out.println(String.format("  %-12s %12.0f ops/s, %10.2f us/op", name, numOps / (elapsedNanos / 1e9),
+                elapsedNanos / 1e3 / numOps));
+    }
+
+    // Schemas have fields like "<file>.<field>". All schemas share a couple of common fields, so the index can't rule
+    // out every schema with a single lookup. Revision n of a schema has BASE_FIELD_COUNT + n fields.
+    private static List<UploadSchema> makeSchemaList(int schemaCount) {
+        List<UploadSchema> schemaList = new ArrayList<>();
+        int numSchemaIds = Math.max(1, schemaCount / REVISIONS_PER_SCHEMA);
+        for (int i = 0; i < numSchemaIds; i++) {
+            for (int rev = 1; rev <= REVISIONS_PER_SCHEMA; rev++) {
+                List<UploadFieldDefinition> fieldDefList = new ArrayList<>();
+                fieldDefList.add(new DynamoUploadFieldDefinition.Builder().withName("data.json.startDate")
+                        .withType(UploadFieldType.STRING).build());
+                fieldDefList.add(new DynamoUploadFieldDefinition.Builder().withName("data.json.endDate")
+                        .withType(UploadFieldType.STRING).build());
+                for (int j = 0; j < BASE_FIELD_COUNT + rev; j++) {
+                    fieldDefList.add(new DynamoUploadFieldDefinition.Builder()
+                            .withName(String.format("data.json.schema%dField%d", i, j))
+                            .withType(j % 2 == 0 ? UploadFieldType.INT : UploadFieldType.STRING).build());
+                }
+
+                DynamoUploadSchema schema = new DynamoUploadSchema();
+                schema.setSchemaId("schema-" + i);
+                schema.setName("Schema " + i);
+                schema.setRevision(rev);
+                schema.setFieldDefinitions(fieldDefList);
+                schemaList.add(schema);
+            }
+        }
+        return schemaList;
+    }
+
+    private static UploadSchema findLatest(List<UploadSchema> schemaList, String schemaId) {
+        UploadSchema latest = null;
+        for (UploadSchema oneSchema : schemaList) {
+            if (oneSchema.getSchemaId().equals(schemaId)
+                    && (latest == null || oneSchema.getRevision() > latest.getRevision())) {
+                latest = oneSchema;
+            }
+        }
+        return latest;
+    }
+
+    private static Map<String, JsonNode> makeData(UploadSchema schema) {
+        Map<String, JsonNode> dataFieldMap = new HashMap<>();
+        for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
+            if (oneFieldDef.getType() == UploadFieldType.INT) {
+                dataFieldMap.put(oneFieldDef.getName(), new IntNode(42));
+            } else {
+                dataFieldMap.put(oneFieldDef.getName(), new TextNode("foo"));
+            }
+        }
+        return dataFieldMap;
+    }
+
+    private interface BenchmarkOp {
+        UploadSchema run();
+    }
+}
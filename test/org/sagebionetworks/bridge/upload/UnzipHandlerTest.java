@@ -2,46 +2,140 @@ package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Map;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.exceptions.UploadArchiveLimitException;
+import org.sagebionetworks.bridge.models.upload.UploadArchiveLimits;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 public class UnzipHandlerTest {
     @Test
-    public void test() {
+    public void test() throws Exception {
         // The handler is a simple pass-through to the UploadArchiveService, so just test that execution flows through
         // to the service as expected.
 
         // inputs
+        final byte[] decryptedData = "zipped test data".getBytes(Charsets.UTF_8);
         UploadValidationContext ctx = new UploadValidationContext();
-        ctx.setDecryptedData("zipped test data".getBytes(Charsets.UTF_8));
+        ctx.setStudy(new DynamoStudy());
+        ctx.setDecryptedData(decryptedData);
+
+        // mock UploadArchiveService - the decrypted bytes are passed in as a stream
+        final Map<String, SpillBuffer> mockUnzippedDataMap = ImmutableMap.of(
+                "foo", SpillBuffer.wrap("foo data".getBytes(Charsets.UTF_8)),
+                "bar", SpillBuffer.wrap("bar data".getBytes(Charsets.UTF_8)),
+                "baz", SpillBuffer.wrap("baz data".getBytes(Charsets.UTF_8)));
+
+        UploadArchiveService mockSvc = mock(UploadArchiveService.class);
+        when(mockSvc.unzip(any(InputStream.class), eq(1000L), any(UploadArchiveLimits.class))).thenAnswer(new Answer<Map<String, SpillBuffer>>() {
+            @Override
+            public Map<String, SpillBuffer> answer(InvocationOnMock invocation) throws Throwable {
+                InputStream zippedStream = (InputStream) invocation.getArguments()[0];
+                assertArrayEquals(decryptedData, ByteStreams.toByteArray(zippedStream));
+                return mockUnzippedDataMap;
+            }
+        });
+
+        // set up test handler
+        UnzipHandler handler = new UnzipHandler();
+        handler.setSpillThreshold(1000);
+        handler.setUploadArchiveService(mockSvc);
+
+        // execute and validate
+        handler.handle(ctx);
+        assertSame(mockUnzippedDataMap, ctx.getUnzippedDataMap());
+    }
+
+    @Test
+    public void streaming() throws Exception {
+        // inputs
+        InputStream zippedStream = new ByteArrayInputStream("zipped test data".getBytes(Charsets.UTF_8));
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStudy(new DynamoStudy());
+        ctx.setStreaming(true);
+        ctx.setDecryptedDataStream(zippedStream);
 
         // mock UploadArchiveService
-        Map<String, byte[]> mockUnzippedDataMap = ImmutableMap.of(
-                "foo", "foo data".getBytes(Charsets.UTF_8),
-                "bar", "bar data".getBytes(Charsets.UTF_8),
-                "baz", "baz data".getBytes(Charsets.UTF_8));
+        Map<String, SpillBuffer> mockUnzippedDataMap = ImmutableMap.of("foo", SpillBuffer.wrap(
+                "foo data".getBytes(Charsets.UTF_8)));
 
         UploadArchiveService mockSvc = mock(UploadArchiveService.class);
-        when(mockSvc.unzip(ctx.getDecryptedData())).thenReturn(mockUnzippedDataMap);
+        when(mockSvc.unzip(same(zippedStream), eq(1000L), any(UploadArchiveLimits.class))).thenReturn(
+                mockUnzippedDataMap);
 
         // set up test handler
         UnzipHandler handler = new UnzipHandler();
+        handler.setSpillThreshold(1000);
         handler.setUploadArchiveService(mockSvc);
 
         // execute and validate
         handler.handle(ctx);
-        Map<String, byte[]> retVal = ctx.getUnzippedDataMap();
-        assertEquals(3, retVal.size());
-        assertArrayEquals(mockUnzippedDataMap.get("foo"), retVal.get("foo"));
-        assertArrayEquals(mockUnzippedDataMap.get("bar"), retVal.get("bar"));
-        assertArrayEquals(mockUnzippedDataMap.get("baz"), retVal.get("baz"));
+        assertSame(mockUnzippedDataMap, ctx.getUnzippedDataMap());
+    }
+
+    @Test
+    public void limitExceeded() {
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStudy(new DynamoStudy());
+        ctx.setDecryptedData(new byte[] { 1 });
+
+        // mock UploadArchiveService and metrics
+        UploadArchiveService mockSvc = mock(UploadArchiveService.class);
+        when(mockSvc.unzip(any(InputStream.class), eq(1000L), any(UploadArchiveLimits.class))).thenThrow(
+                new UploadArchiveLimitException(UploadArchiveLimits.LIMIT_ENTRIES, "too many entries"));
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+
+        UnzipHandler handler = new UnzipHandler();
+        handler.setMetrics(metrics);
+        handler.setSpillThreshold(1000);
+        handler.setUploadArchiveService(mockSvc);
+
+        // execute and validate - the limit fails validation, and is counted
+        try {
+            handler.handle(ctx);
+            fail("expected exception");
+        } catch (UploadValidationException ex) {
+            assertEquals("too many entries", ex.getMessage());
+        }
+        assertEquals(1L, metrics.getArchiveLimitExceededCounts().get(UploadArchiveLimits.LIMIT_ENTRIES).longValue());
+        assertNull(ctx.getUnzippedDataMap());
+    }
+
+    @Test
+    public void studyLimitsOverrideDefaults() {
+        // The study sets only the entry count and compression ratio. The byte limits fall back to the defaults.
+        DynamoStudy study = new DynamoStudy();
+        study.setMaxUploadZipEntries(5);
+        study.setMaxUploadZipCompressionRatio(20);
+
+        UnzipHandler handler = new UnzipHandler();
+        handler.setDefaultArchiveLimits(new UploadArchiveLimits(100, 1000, 10000, 50));
+        UploadArchiveLimits limits = handler.getArchiveLimits(study);
+
+        assertEquals(5, limits.getMaxEntries());
+        assertEquals(1000, limits.getMaxEntryBytes());
+        assertEquals(10000, limits.getMaxTotalBytes());
+        assertEquals(20, limits.getMaxCompressionRatio());
     }
 }
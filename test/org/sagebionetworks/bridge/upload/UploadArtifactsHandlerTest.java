@@ -0,0 +1,208 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataAttachment;
+import org.sagebionetworks.bridge.dynamodb.DynamoHealthDataRecord;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachment;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataAttachmentBuilder;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
+import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.services.HealthDataService;
+import org.sagebionetworks.bridge.util.SpillBuffer;
+
+@SuppressWarnings("unchecked")
+public class UploadArtifactsHandlerTest {
+    private ExecutorService executorService;
+
+    @Before
+    public void before() {
+        executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void noAttachments() throws Exception {
+        UploadValidationContext ctx = makeContext(ImmutableMap.<String, byte[]>of());
+        HealthDataService mockHealthDataService = makeMockHealthDataService();
+        S3Helper mockS3Helper = mock(S3Helper.class);
+
+        // execute and validate
+        makeHandler(mockHealthDataService, mockS3Helper).handle(ctx);
+        assertNotNull(getRecord(mockHealthDataService).getId());
+        verify(mockHealthDataService, never()).createOrUpdateAttachments(anyListOf(HealthDataAttachment.class));
+        verifyZeroInteractions(mockS3Helper);
+    }
+
+    @Test
+    public void attachments() throws Exception {
+        Map<String, byte[]> attachmentMap = new HashMap<>();
+        attachmentMap.put("foo", new byte[] { 1 });
+        attachmentMap.put("bar", new byte[] { 2 });
+        attachmentMap.put("baz", new byte[] { 3 });
+        UploadValidationContext ctx = makeContext(attachmentMap);
+
+        HealthDataService mockHealthDataService = makeMockHealthDataService();
+        S3Helper mockS3Helper = mock(S3Helper.class);
+
+        // execute
+        makeHandler(mockHealthDataService, mockS3Helper).handle(ctx);
+
+        // The record is written exactly once, after the attachments, with the attachment IDs in its data.
+        HealthDataRecord record = getRecord(mockHealthDataService);
+        assertNotNull(record.getId());
+        assertNull(record.getVersion());
+        JsonNode dataNode = record.getData();
+        assertEquals(3, dataNode.size());
+        verify(mockHealthDataService, never()).getRecordById(anyString());
+
+        // Each attachment is written to S3 under its attachment ID, before the metadata.
+        InOrder inOrder = inOrder(mockS3Helper, mockHealthDataService);
+        for (Map.Entry<String, SpillBuffer> oneAttachment : ctx.getAttachmentsByFieldName().entrySet()) {
+            String attachmentId = dataNode.get(oneAttachment.getKey()).textValue();
+            verify(mockS3Helper).writeBufferToS3(TestConstants.ATTACHMENT_BUCKET, attachmentId,
+                    oneAttachment.getValue());
+        }
+        inOrder.verify(mockS3Helper, atLeastOnce()).writeBufferToS3(anyString(), anyString(),
+                any(SpillBuffer.class));
+        inOrder.verify(mockHealthDataService).createOrUpdateAttachments(anyListOf(HealthDataAttachment.class));
+        inOrder.verify(mockHealthDataService).createOrUpdateRecord(any(HealthDataRecord.class));
+
+        // All attachment metadata is written in one batch, with the pre-generated attachment IDs and record ID.
+        @SuppressWarnings("unchecked")
+        Class<List<HealthDataAttachment>> attachmentListClass =
+                (Class<List<HealthDataAttachment>>) (Class<?>) List.class;
+        ArgumentCaptor<List<HealthDataAttachment>> attachmentListCaptor = ArgumentCaptor.forClass(attachmentListClass);
+        verify(mockHealthDataService).createOrUpdateAttachments(attachmentListCaptor.capture());
+        List<HealthDataAttachment> attachmentList = attachmentListCaptor.getValue();
+        assertEquals(3, attachmentList.size());
+        Set<String> attachmentIdSet = new HashSet<>();
+        for (HealthDataAttachment oneAttachment : attachmentList) {
+            assertEquals(record.getId(), oneAttachment.getRecordId());
+            assertNull(oneAttachment.getVersion());
+            attachmentIdSet.add(oneAttachment.getId());
+        }
+        assertEquals(ImmutableSet.of(dataNode.get("foo").textValue(), dataNode.get("bar").textValue(),
+                dataNode.get("baz").textValue()), attachmentIdSet);
+        assertTrue(ctx.getMessageList().isEmpty());
+    }
+
+    @Test
+    public void s3IoErrorAddsMessage() throws Exception {
+        UploadValidationContext ctx = makeContext(ImmutableMap.of("foo", new byte[] { 1 }, "bar", new byte[] { 2 }));
+
+        HealthDataService mockHealthDataService = makeMockHealthDataService();
+        S3Helper mockS3Helper = mock(S3Helper.class);
+        doThrow(IOException.class).when(mockS3Helper).writeBufferToS3(eq(TestConstants.ATTACHMENT_BUCKET),
+                anyString(), same(ctx.getAttachmentsByFieldName().get("foo")));
+
+        // execute and validate - the other attachment is still written, and so is the record
+        makeHandler(mockHealthDataService, mockS3Helper).handle(ctx);
+        verify(mockS3Helper, times(2)).writeBufferToS3(eq(TestConstants.ATTACHMENT_BUCKET), anyString(),
+                any(SpillBuffer.class));
+        assertEquals(2, getRecord(mockHealthDataService).getData().size());
+        assertEquals(1, ctx.getMessageList().size());
+        assertTrue(ctx.getMessageList().get(0).contains("field foo"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void s3UnexpectedErrorPropagates() throws Exception {
+        UploadValidationContext ctx = makeContext(ImmutableMap.of("foo", new byte[] { 1 }));
+
+        HealthDataService mockHealthDataService = makeMockHealthDataService();
+        S3Helper mockS3Helper = mock(S3Helper.class);
+        doThrow(IllegalStateException.class).when(mockS3Helper).writeBufferToS3(anyString(), anyString(),
+                any(SpillBuffer.class));
+
+        // execute
+        makeHandler(mockHealthDataService, mockS3Helper).handle(ctx);
+    }
+
+    private UploadArtifactsHandler makeHandler(HealthDataService healthDataService, S3Helper s3Helper) {
+        UploadArtifactsHandler handler = new UploadArtifactsHandler();
+        handler.setAttachmentParallelism(2);
+        handler.setAttachmentUploadExecutorService(executorService);
+        handler.setHealthDataService(healthDataService);
+        handler.setS3Helper(s3Helper);
+        return handler;
+    }
+
+    private static UploadValidationContext makeContext(Map<String, byte[]> attachmentMap) {
+        DynamoUpload2 upload2 = new DynamoUpload2();
+        upload2.setUploadId("test-upload");
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUpload(upload2);
+        ctx.setHealthDataRecordBuilder(new DynamoHealthDataRecord.Builder().withHealthCode("test-healthcode")
+                .withData(BridgeObjectMapper.get().createObjectNode()).withSchemaId("test-schema")
+                .withSchemaRevision(1).withStudyId("test-study"));
+        Map<String, SpillBuffer> bufferMap = new HashMap<>();
+        for (Map.Entry<String, byte[]> oneAttachment : attachmentMap.entrySet()) {
+            bufferMap.put(oneAttachment.getKey(), SpillBuffer.wrap(oneAttachment.getValue()));
+        }
+        ctx.setAttachmentsByFieldName(bufferMap);
+        return ctx;
+    }
+
+    // Mock health data service that returns real builders.
+    private static HealthDataService makeMockHealthDataService() {
+        HealthDataService mockHealthDataService = mock(HealthDataService.class);
+        when(mockHealthDataService.getAttachmentBuilder()).thenAnswer(new Answer<HealthDataAttachmentBuilder>() {
+            @Override
+            public HealthDataAttachmentBuilder answer(InvocationOnMock invocation) {
+                return new DynamoHealthDataAttachment.Builder();
+            }
+        });
+        return mockHealthDataService;
+    }
+
+    private static HealthDataRecord getRecord(HealthDataService mockHealthDataService) {
+        ArgumentCaptor<HealthDataRecord> recordCaptor = ArgumentCaptor.forClass(HealthDataRecord.class);
+        verify(mockHealthDataService).createOrUpdateRecord(recordCaptor.capture());
+        return recordCaptor.getValue();
+    }
+}
@@ -0,0 +1,37 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.models.upload.UploadSchemaIndex;
+import org.sagebionetworks.bridge.services.UploadSchemaService;
+
+public class UploadSchemaIndexHandlerTest {
+    @Test
+    public void test() {
+        // The handler is a simple pass-through to the UploadSchemaService, so just test that execution flows through
+        // to the service as expected.
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier("test-study");
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStudy(study);
+
+        // mock schema service
+        UploadSchemaIndex schemaIndex = new UploadSchemaIndex(ImmutableList.<UploadSchema>of());
+        UploadSchemaService mockSchemaService = mock(UploadSchemaService.class);
+        when(mockSchemaService.getUploadSchemaIndexForStudy(study)).thenReturn(schemaIndex);
+
+        // execute and validate
+        UploadSchemaIndexHandler handler = new UploadSchemaIndexHandler();
+        handler.setUploadSchemaService(mockSchemaService);
+        handler.handle(ctx);
+        assertSame(schemaIndex, ctx.getUploadSchemaIndex());
+    }
+}
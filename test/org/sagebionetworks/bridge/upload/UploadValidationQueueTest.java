@@ -0,0 +1,198 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.redis.JedisStringOps;
+import org.sagebionetworks.bridge.redis.RedisKey;
+
+public class UploadValidationQueueTest {
+    private static final String PENDING = UploadValidationQueue.PENDING_LIST_KEY;
+    private static final String PROCESSING = UploadValidationQueue.PROCESSING_LIST_KEY;
+
+    private JedisStringOps mockStringOps;
+    private UploadValidationQueue queue;
+
+    @Before
+    public void before() {
+        mockStringOps = mock(JedisStringOps.class);
+        queue = new UploadValidationQueue();
+        queue.setStringOps(mockStringOps);
+        queue.setLeaseSeconds(300);
+    }
+
+    @After
+    public void after() {
+        queue.stop();
+    }
+
+    @Test
+    public void enqueue() {
+        when(mockStringOps.lpush(PENDING, "test-study:test-upload:0")).thenReturn(1L);
+        assertTrue(queue.enqueue("test-study", "test-upload"));
+    }
+
+    @Test
+    public void enqueueRedisUnavailable() {
+        // JedisStringOps returns null if it can't connect to Redis
+        when(mockStringOps.lpush(PENDING, "test-study:test-upload:0")).thenReturn(null);
+        assertFalse(queue.enqueue("test-study", "test-upload"));
+    }
+
+    @Test
+    public void leaseAndAck() {
+        when(mockStringOps.rpoplpush(PENDING, PROCESSING)).thenReturn("test-study:test-upload:1");
+
+        UploadValidationQueueItem item = queue.lease();
+        assertEquals(new UploadValidationQueueItem("test-study", "test-upload", 1), item);
+        String leaseKey = RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey("test-study:test-upload:1");
+        verify(mockStringOps).setex(leaseKey, 300, "leased");
+
+        queue.ack(item);
+        verify(mockStringOps).lrem(PROCESSING, "test-study:test-upload:1");
+        verify(mockStringOps).delete(leaseKey);
+    }
+
+    @Test
+    public void leaseRenewedUntilAck() throws Exception {
+        when(mockStringOps.rpoplpush(PENDING, PROCESSING)).thenReturn("test-study:test-upload:0");
+        String leaseKey = RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey("test-study:test-upload:0");
+        when(mockStringOps.setex(leaseKey, 1, "leased")).thenReturn("OK");
+        queue.setLeaseSeconds(1);
+
+        UploadValidationQueueItem item = queue.lease();
+        assertEquals(1, queue.getLeaseRenewalCount());
+
+        // Renewed every third of a second, on top of the initial lease.
+        Thread.sleep(1200);
+        verify(mockStringOps, atLeast(3)).setex(leaseKey, 1, "leased");
+
+        queue.ack(item);
+        assertEquals(0, queue.getLeaseRenewalCount());
+        verify(mockStringOps).delete(leaseKey);
+    }
+
+    @Test
+    public void leaseRenewalStopsOnRequeue() {
+        when(mockStringOps.rpoplpush(PENDING, PROCESSING)).thenReturn("test-study:test-upload:0");
+        when(mockStringOps.lrem(PROCESSING, "test-study:test-upload:0")).thenReturn(1L);
+
+        UploadValidationQueueItem item = queue.lease();
+        assertEquals(1, queue.getLeaseRenewalCount());
+        assertTrue(queue.requeue(item, item.nextAttempt()));
+        assertEquals(0, queue.getLeaseRenewalCount());
+    }
+
+    @Test
+    public void leaseEmptyQueue() {
+        assertNull(queue.lease());
+        verify(mockStringOps, never()).setex(anyString(), anyInt(), anyString());
+    }
+
+    @Test
+    public void leaseInvalidItemIsDropped() {
+        when(mockStringOps.rpoplpush(PENDING, PROCESSING)).thenReturn("garbage");
+        assertNull(queue.lease());
+        verify(mockStringOps).lrem(PROCESSING, "garbage");
+    }
+
+    @Test
+    public void requeue() {
+        UploadValidationQueueItem item = new UploadValidationQueueItem("test-study", "test-upload", 0);
+        when(mockStringOps.lrem(PROCESSING, "test-study:test-upload:0")).thenReturn(1L);
+
+        assertTrue(queue.requeue(item, item.nextAttempt()));
+        verify(mockStringOps).lpush(PENDING, "test-study:test-upload:1");
+    }
+
+    @Test
+    public void requeueAlreadyRequeued() {
+        // Another node's sweeper got here first.
+        UploadValidationQueueItem item = new UploadValidationQueueItem("test-study", "test-upload", 0);
+        when(mockStringOps.lrem(PROCESSING, "test-study:test-upload:0")).thenReturn(0L);
+
+        assertFalse(queue.requeue(item, item.nextAttempt()));
+        verify(mockStringOps, never()).lpush(anyString(), anyString());
+    }
+
+    @Test
+    public void expiredItems() {
+        // "leased" has a lease. "expired" doesn't.
+        when(mockStringOps.lrange(PROCESSING)).thenReturn(ImmutableList.of("test-study:leased:0",
+                "test-study:expired:0"));
+        when(mockStringOps.mget(RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey("test-study:leased:0"),
+                RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey("test-study:expired:0"))).thenReturn(
+                Arrays.asList("leased", null));
+
+        // The first sweep only marks the item as suspect, since it may have just been leased.
+        assertTrue(queue.getExpiredItems().isEmpty());
+
+        // The second sweep reports it.
+        List<UploadValidationQueueItem> expiredItemList = queue.getExpiredItems();
+        assertEquals(1, expiredItemList.size());
+        assertEquals(new UploadValidationQueueItem("test-study", "expired", 0), expiredItemList.get(0));
+    }
+
+    @Test
+    public void expiredItemsLeaseSetBetweenSweeps() {
+        when(mockStringOps.lrange(PROCESSING)).thenReturn(ImmutableList.of("test-study:test-upload:0"));
+        String leaseKey = RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey("test-study:test-upload:0");
+        List<String> noLease = Collections.singletonList(null);
+        when(mockStringOps.mget(leaseKey)).thenReturn(noLease).thenReturn(ImmutableList.of("leased"))
+                .thenReturn(noLease);
+
+        // no lease, then lease, then no lease again - never two sweeps in a row without a lease
+        assertTrue(queue.getExpiredItems().isEmpty());
+        assertTrue(queue.getExpiredItems().isEmpty());
+        assertTrue(queue.getExpiredItems().isEmpty());
+    }
+
+    @Test
+    public void expiredItemsRedisUnavailable() {
+        when(mockStringOps.lrange(PROCESSING)).thenReturn(ImmutableList.of("test-study:test-upload:0"));
+        when(mockStringOps.mget(RedisKey.UPLOAD_VALIDATION_LEASE.getRedisKey("test-study:test-upload:0")))
+                .thenReturn(null);
+
+        // The leases can't be read, so nothing is reported, no matter how many sweeps.
+        assertTrue(queue.getExpiredItems().isEmpty());
+        assertTrue(queue.getExpiredItems().isEmpty());
+        verify(mockStringOps, never()).get(anyString());
+    }
+
+    @Test
+    public void itemSerialization() {
+        UploadValidationQueueItem item = new UploadValidationQueueItem("test-study", "test-upload", 2);
+        assertEquals("test-study:test-upload:2", item.serialize());
+        assertEquals(item, UploadValidationQueueItem.deserialize(item.serialize()));
+        assertEquals(3, item.nextAttempt().getAttempt());
+    }
+
+    @Test(expected = BridgeServiceException.class)
+    public void itemBadAttempt() {
+        UploadValidationQueueItem.deserialize("test-study:test-upload:not-a-number");
+    }
+
+    @Test(expected = BridgeServiceException.class)
+    public void itemIdWithSeparator() {
+        new UploadValidationQueueItem("test:study", "test-upload", 0);
+    }
+}
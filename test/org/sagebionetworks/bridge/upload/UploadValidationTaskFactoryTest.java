@@ -1,9 +1,11 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Test;
 
@@ -21,7 +23,11 @@ public class UploadValidationTaskFactoryTest {
 
         // set up task factory
         UploadValidationTaskFactory taskFactory = new UploadValidationTaskFactory();
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        ExecutorService stageExecutorService = mock(ExecutorService.class);
         taskFactory.setHandlerList(handlerList);
+        taskFactory.setMetrics(metrics);
+        taskFactory.setStageExecutorService(stageExecutorService);
         taskFactory.setUploadDao(dao);
 
         // inputs
@@ -34,6 +40,8 @@ public class UploadValidationTaskFactoryTest {
         assertSame(study, task.getContext().getStudy());
         assertSame(upload2, task.getContext().getUpload());
         assertSame(handlerList, task.getHandlerList());
+        assertSame(metrics, task.getMetrics());
+        assertSame(stageExecutorService, task.getStageExecutorService());
         assertSame(dao, task.getUploadDao());
     }
 }
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.notNull;
@@ -10,16 +11,33 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 
 import javax.annotation.Nonnull;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
 
+import org.sagebionetworks.bridge.dao.ParticipantOption;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.upload.UploadValidationContext.Field;
+import org.sagebionetworks.bridge.util.SpillBuffer;
 
 public class UploadValidationTaskTest {
     @Test
@@ -30,7 +48,8 @@ public class UploadValidationTaskTest {
                 new MessageHandler("kilroy was here"));
 
         // execute
-        UploadValidationContext ctx = testHelper(handlerList, UploadStatus.SUCCEEDED);
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        UploadValidationContext ctx = testHelper(handlerList, UploadStatus.SUCCEEDED, metrics);
 
         // validate that the handlers ran by checking the messages they wrote
         List<String> messageList = ctx.getMessageList();
@@ -38,6 +57,77 @@ public class UploadValidationTaskTest {
         assertEquals("foo was here", messageList.get(0));
         assertEquals("bar was here", messageList.get(1));
         assertEquals("kilroy was here", messageList.get(2));
+
+        // validate metrics
+        assertEquals(3, metrics.getHandlerSuccessCounts().get("MessageHandler").longValue());
+        assertEquals(3, metrics.getHandlerLatency().get("MessageHandler").get("count").longValue());
+        assertEquals(1, metrics.getStudyLatency().get("test-study").get("count").longValue());
+        assertEquals(1, metrics.getEndToEndLatency().get("count").longValue());
+        assertEquals(1, metrics.getValidationSuccessCount());
+        assertEquals(0, metrics.getValidationFailureCount());
+        assertTrue(metrics.getStageBytes().isEmpty());
+    }
+
+    @Test
+    public void bytesPerStage() {
+        // Buffered download, then streaming decrypt. Downstream handler reads part of the decrypted stream.
+        UploadValidationHandler downloadHandler = new UploadValidationHandler() {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                context.setData(new byte[100]);
+            }
+        };
+        UploadValidationHandler decryptHandler = new UploadValidationHandler() {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                context.setDecryptedDataStream(new ByteArrayInputStream(new byte[80]));
+            }
+        };
+        UploadValidationHandler unzipHandler = new UploadValidationHandler() {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+                try {
+                    ByteStreams.readFully(context.getDecryptedDataStream(), new byte[50]);
+                } catch (IOException ex) {
+                    throw new UploadValidationException(ex);
+                }
+                context.setUnzippedDataMap(ImmutableMap.of("foo", SpillBuffer.wrap(new byte[30]), "bar",
+                        SpillBuffer.wrap(new byte[40])));
+            }
+        };
+
+        // execute
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        testHelper(ImmutableList.of(downloadHandler, decryptHandler, unzipHandler), UploadStatus.SUCCEEDED, metrics);
+
+        // validate
+        Map<String, Long> stageBytes = metrics.getStageBytes();
+        assertEquals(100, stageBytes.get(UploadValidationMetrics.STAGE_DOWNLOAD).longValue());
+        assertEquals(50, stageBytes.get(UploadValidationMetrics.STAGE_DECRYPT).longValue());
+        assertEquals(70, stageBytes.get(UploadValidationMetrics.STAGE_UNZIP).longValue());
+    }
+
+    @Test
+    public void spilledBuffersDeletedOnFailure() throws Exception {
+        final SpillBuffer buffer = SpillBuffer.copyOf(new ByteArrayInputStream(new byte[10]), 5);
+        UploadValidationHandler unzipHandler = new UploadValidationHandler() {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                context.setUnzippedDataMap(ImmutableMap.of("foo", buffer));
+            }
+        };
+        UploadValidationHandler failingHandler = new UploadValidationHandler() {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                throw new RuntimeException("test exception");
+            }
+        };
+
+        // execute and validate
+        assertTrue(buffer.getFile().exists());
+        testHelper(ImmutableList.of(unzipHandler, failingHandler), UploadStatus.VALIDATION_FAILED,
+                new UploadValidationMetrics());
+        assertFalse(buffer.getFile().exists());
     }
 
     @Test
@@ -64,7 +154,8 @@ public class UploadValidationTaskTest {
         List<UploadValidationHandler> handlerList = ImmutableList.of(fooHandler, barHandler, bazHandler);
 
         // execute
-        UploadValidationContext ctx = testHelper(handlerList, UploadStatus.VALIDATION_FAILED);
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        UploadValidationContext ctx = testHelper(handlerList, UploadStatus.VALIDATION_FAILED, metrics);
 
         // Validate validation messages. First message is foo handler. Second message is error message. Just check that
         // the second message exists.
@@ -72,11 +163,145 @@ public class UploadValidationTaskTest {
         assertEquals(2, messageList.size());
         assertEquals("foo succeeded", messageList.get(0));
         assertFalse(Strings.isNullOrEmpty(messageList.get(1)));
+
+        // Validate metrics. Foo handler succeeded, bar handler failed, baz handler never ran.
+        assertEquals(1, metrics.getHandlerSuccessCounts().get("MessageHandler").longValue());
+        assertEquals(1, metrics.getHandlerFailureCounts().size());
+        assertEquals(1, metrics.getValidationFailureCount());
+    }
+
+    @Test
+    public void dependencies() {
+        UploadValidationHandler download = new DeclaredHandler(ImmutableSet.of(Field.UPLOAD),
+                ImmutableSet.of(Field.DATA));
+        UploadValidationHandler options = new DeclaredHandler(ImmutableSet.of(Field.USER),
+                ImmutableSet.of(Field.PARTICIPANT_OPTIONS));
+        UploadValidationHandler decrypt = new DeclaredHandler(ImmutableSet.of(Field.STUDY, Field.DATA),
+                ImmutableSet.of(Field.DECRYPTED_DATA));
+        UploadValidationHandler transcribe = new DeclaredHandler(ImmutableSet.of(Field.PARTICIPANT_OPTIONS,
+                Field.DECRYPTED_DATA), ImmutableSet.of(Field.HEALTH_DATA_RECORD));
+        UploadValidationHandler undeclared = new MessageHandler("undeclared");
+
+        List<Set<Integer>> dependencyList = UploadValidationTask.getDependencies(ImmutableList.of(download, options,
+                decrypt, transcribe, undeclared));
+        assertEquals(ImmutableList.<Set<Integer>>of(ImmutableSet.<Integer>of(), ImmutableSet.<Integer>of(),
+                ImmutableSet.of(0), ImmutableSet.of(1, 2), ImmutableSet.of(0, 1, 2, 3)), dependencyList);
+    }
+
+    @Test
+    public void independentHandlersRunConcurrently() throws Exception {
+        // The download handler runs on the task thread and waits for the options handler, which only finishes if it
+        // runs on the stage thread pool at the same time.
+        final CountDownLatch optionsLatch = new CountDownLatch(1);
+        UploadValidationHandler download = new DeclaredHandler(ImmutableSet.of(Field.UPLOAD),
+                ImmutableSet.of(Field.DATA)) {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+                try {
+                    if (!optionsLatch.await(10, TimeUnit.SECONDS)) {
+                        throw new UploadValidationException("options handler didn't run concurrently");
+                    }
+                } catch (InterruptedException ex) {
+                    throw new UploadValidationException(ex);
+                }
+                context.setData(new byte[10]);
+            }
+        };
+        UploadValidationHandler options = new DeclaredHandler(ImmutableSet.of(Field.USER),
+                ImmutableSet.of(Field.PARTICIPANT_OPTIONS)) {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                context.setParticipantOptions(ImmutableMap.of(ParticipantOption.SHARING_SCOPE, "NO_SHARING"));
+                optionsLatch.countDown();
+            }
+        };
+
+        // The last handler depends on both, and sees both outputs.
+        final AtomicBoolean sawBoth = new AtomicBoolean();
+        UploadValidationHandler transcribe = new DeclaredHandler(ImmutableSet.of(Field.DATA,
+                Field.PARTICIPANT_OPTIONS), ImmutableSet.of(Field.HEALTH_DATA_RECORD)) {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                sawBoth.set(context.getData() != null && context.getParticipantOptions() != null);
+            }
+        };
+
+        // execute and validate
+        ExecutorService stageExecutorService = Executors.newFixedThreadPool(2);
+        try {
+            testHelper(ImmutableList.of(download, options, transcribe), UploadStatus.SUCCEEDED,
+                    new UploadValidationMetrics(), stageExecutorService);
+        } finally {
+            stageExecutorService.shutdownNow();
+        }
+        assertTrue(sawBoth.get());
+    }
+
+    @Test
+    public void concurrentHandlerFails() throws Exception {
+        UploadValidationHandler download = new DeclaredHandler(ImmutableSet.of(Field.UPLOAD),
+                ImmutableSet.of(Field.DATA));
+        UploadValidationHandler options = new DeclaredHandler(ImmutableSet.of(Field.USER),
+                ImmutableSet.of(Field.PARTICIPANT_OPTIONS)) {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                throw new RuntimeException("options failed");
+            }
+        };
+        UploadValidationHandler transcribe = mock(UploadValidationHandler.class);
+
+        // execute and validate - the failure is reported, and handlers that depend on it never run
+        UploadValidationMetrics metrics = new UploadValidationMetrics();
+        ExecutorService stageExecutorService = Executors.newFixedThreadPool(2);
+        UploadValidationContext ctx;
+        try {
+            ctx = testHelper(ImmutableList.of(download, options, transcribe), UploadStatus.VALIDATION_FAILED,
+                    metrics, stageExecutorService);
+        } finally {
+            stageExecutorService.shutdownNow();
+        }
+        assertEquals(1, ctx.getMessageList().size());
+        assertTrue(ctx.getMessageList().get(0).contains("options failed"));
+        assertEquals(1, metrics.getHandlerFailureCounts().size());
+        verifyZeroInteractions(transcribe);
+    }
+
+    @Test
+    public void rejectedHandlersRunOnTaskThread() {
+        final Thread taskThread = Thread.currentThread();
+        final AtomicBoolean optionsOnTaskThread = new AtomicBoolean();
+        UploadValidationHandler download = new DeclaredHandler(ImmutableSet.of(Field.UPLOAD),
+                ImmutableSet.of(Field.DATA));
+        UploadValidationHandler options = new DeclaredHandler(ImmutableSet.of(Field.USER),
+                ImmutableSet.of(Field.PARTICIPANT_OPTIONS)) {
+            @Override
+            public void handle(@Nonnull UploadValidationContext context) {
+                optionsOnTaskThread.set(Thread.currentThread() == taskThread);
+                context.setParticipantOptions(ImmutableMap.of(ParticipantOption.SHARING_SCOPE, "NO_SHARING"));
+            }
+        };
+        UploadValidationHandler transcribe = new DeclaredHandler(ImmutableSet.of(Field.DATA,
+                Field.PARTICIPANT_OPTIONS), ImmutableSet.of(Field.HEALTH_DATA_RECORD));
+
+        // A full thread pool rejects every handler, like one that's been shut down.
+        ExecutorService stageExecutorService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1), new ThreadPoolExecutor.AbortPolicy());
+        stageExecutorService.shutdown();
+
+        // execute and validate
+        testHelper(ImmutableList.of(download, options, transcribe), UploadStatus.SUCCEEDED,
+                new UploadValidationMetrics(), stageExecutorService);
+        assertTrue(optionsOnTaskThread.get());
     }
 
     // helper test method, encapsulating core setup and validation
     private static UploadValidationContext testHelper(List<UploadValidationHandler> handlerList,
-            UploadStatus expectedStatus) {
+            UploadStatus expectedStatus, UploadValidationMetrics metrics) {
+        return testHelper(handlerList, expectedStatus, metrics, null);
+    }
+
+    private static UploadValidationContext testHelper(List<UploadValidationHandler> handlerList,
+            UploadStatus expectedStatus, UploadValidationMetrics metrics, ExecutorService stageExecutorService) {
         // input
         DynamoStudy study = new DynamoStudy();
         study.setIdentifier("test-study");
@@ -94,6 +319,8 @@ public class UploadValidationTaskTest {
         // set up validation task
         UploadValidationTask task = new UploadValidationTask(ctx);
         task.setHandlerList(handlerList);
+        task.setMetrics(metrics);
+        task.setStageExecutorService(stageExecutorService);
         task.setUploadDao(mockDao);
 
         // execute
@@ -118,4 +345,29 @@ public class UploadValidationTaskTest {
             context.addMessage(message);
         }
     }
+
+    // Test handler that declares its inputs and outputs, and does nothing by default.
+    private static class DeclaredHandler implements DependentUploadValidationHandler {
+        private final Set<Field> inputSet;
+        private final Set<Field> outputSet;
+
+        public DeclaredHandler(Set<Field> inputSet, Set<Field> outputSet) {
+            this.inputSet = inputSet;
+            this.outputSet = outputSet;
+        }
+
+        @Override
+        public Set<Field> getInputs() {
+            return inputSet;
+        }
+
+        @Override
+        public Set<Field> getOutputs() {
+            return outputSet;
+        }
+
+        @Override
+        public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        }
+    }
 }
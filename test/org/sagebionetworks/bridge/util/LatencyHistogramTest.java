@@ -0,0 +1,82 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMillis());
+        assertEquals(0, histogram.getPercentileMillis(99));
+        assertEquals(0, histogram.getMaxMillis());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(0, histogram.getPercentileMillis(0));
+        assertEquals(3, histogram.getPercentileMillis(50));
+        assertEquals(7, histogram.getPercentileMillis(100));
+    }
+
+    @Test
+    public void percentiles() {
+        // 1 to 1000 ms, evenly distributed
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMeanMillis());
+        assertEquals(1000, histogram.getMaxMillis());
+        assertWithinBucket(500, histogram.getPercentileMillis(50));
+        assertWithinBucket(950, histogram.getPercentileMillis(95));
+        assertWithinBucket(990, histogram.getPercentileMillis(99));
+    }
+
+    @Test
+    public void percentileCappedAtMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentileMillis(99));
+    }
+
+    @Test
+    public void hugeAndNegativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(0, histogram.getPercentileMillis(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentileMillis(100));
+    }
+
+    @Test
+    public void summary() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+
+        Map<String, Long> summary = histogram.getSummary();
+        assertEquals(2, summary.get("count").longValue());
+        assertEquals(15, summary.get("mean").longValue());
+        assertEquals(20, summary.get("max").longValue());
+        assertTrue(summary.containsKey("p50"));
+        assertTrue(summary.containsKey("p95"));
+        assertTrue(summary.containsKey("p99"));
+    }
+
+    // Reported percentiles are the upper bound of the bucket, which is at most 12.5% above the true value.
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue("expected " + expected + ", got " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
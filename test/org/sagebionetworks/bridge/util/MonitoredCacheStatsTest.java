@@ -0,0 +1,58 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.junit.Test;
+
+public class MonitoredCacheStatsTest {
+    @Test
+    public void stats() {
+        // Cache of one, whose loader fails for "bad".
+        LoadingCache<String, String> cache = CacheBuilder.newBuilder().maximumSize(1).recordStats().build(
+                new CacheLoader<String, String>() {
+                    @Override
+                    public String load(String key) {
+                        if ("bad".equals(key)) {
+                            throw new IllegalArgumentException();
+                        }
+                        return key.toUpperCase();
+                    }
+                });
+        MonitoredCacheStats stats = new MonitoredCacheStats(cache);
+
+        // miss, hit, miss that evicts foo, failed load
+        cache.getUnchecked("foo");
+        cache.getUnchecked("foo");
+        cache.getUnchecked("bar");
+        try {
+            cache.getUnchecked("bad");
+            fail("expected exception");
+        } catch (UncheckedExecutionException ex) {
+            // expected exception
+        }
+
+        assertEquals(1, stats.getSize());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(3, stats.getMissCount());
+        assertEquals(0.25, stats.getHitRate(), 0.001);
+        assertEquals(2, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadExceptionCount());
+        assertEquals(1, stats.getEvictionCount());
+
+        // The report has the same numbers.
+        Map<String, Object> report = stats.getReport();
+        assertEquals(1L, report.get("size"));
+        assertEquals(1L, report.get("hitCount"));
+        assertEquals(3L, report.get("missCount"));
+        assertEquals(2L, report.get("loadSuccessCount"));
+        assertEquals(1L, report.get("loadExceptionCount"));
+        assertEquals(1L, report.get("evictionCount"));
+    }
+}
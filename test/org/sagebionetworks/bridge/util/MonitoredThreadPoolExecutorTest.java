@@ -0,0 +1,112 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonitoredThreadPoolExecutorTest {
+    private MonitoredThreadPoolExecutor executor;
+    private CountDownLatch releaseLatch;
+
+    @Before
+    public void before() {
+        // one thread, queue of one
+        executor = new MonitoredThreadPoolExecutor("test-pool", 1, new ArrayBlockingQueue<Runnable>(1),
+                new ThreadPoolExecutor.AbortPolicy());
+        releaseLatch = new CountDownLatch(1);
+    }
+
+    @After
+    public void after() {
+        releaseLatch.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void metricsAndRejection() throws Exception {
+        // First task occupies the only thread. Second task waits in the queue.
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        executor.execute(new BlockingTask(startedLatch));
+        assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+        executor.execute(new BlockingTask(new CountDownLatch(1)));
+
+        assertEquals(1, executor.getActiveCount());
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(0, executor.getRemainingQueueCapacity());
+
+        // Third task doesn't fit.
+        try {
+            executor.execute(new BlockingTask(new CountDownLatch(1)));
+            fail("expected exception");
+        } catch (RejectedExecutionException ex) {
+            // expected exception
+        }
+        assertEquals(1, executor.getRejectedCount());
+
+        // Let the tasks finish. The second task waited in the queue, so wait time should be recorded.
+        Thread.sleep(20);
+        releaseLatch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, executor.getCompletedTaskCount());
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getMaxWaitMillis() >= 20);
+        assertTrue(executor.getAverageWaitMillis() <= executor.getMaxWaitMillis());
+    }
+
+    @Test
+    public void callerRuns() throws Exception {
+        MonitoredThreadPoolExecutor callerRunsExecutor = new MonitoredThreadPoolExecutor("test-caller-runs", 1,
+                new ArrayBlockingQueue<Runnable>(1), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            CountDownLatch startedLatch = new CountDownLatch(1);
+            callerRunsExecutor.execute(new BlockingTask(startedLatch));
+            assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+            callerRunsExecutor.execute(new BlockingTask(new CountDownLatch(1)));
+
+            // Pool is saturated, so this runs on the calling thread.
+            final Thread[] ranOn = new Thread[1];
+            callerRunsExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ranOn[0] = Thread.currentThread();
+                }
+            });
+            assertEquals(Thread.currentThread(), ranOn[0]);
+            assertEquals(1, callerRunsExecutor.getRejectedCount());
+        } finally {
+            releaseLatch.countDown();
+            callerRunsExecutor.shutdownNow();
+        }
+    }
+
+    // Task which signals when it starts, then blocks until the test releases it.
+    private class BlockingTask implements Runnable {
+        private final CountDownLatch startedLatch;
+
+        BlockingTask(CountDownLatch startedLatch) {
+            this.startedLatch = startedLatch;
+        }
+
+        @Override
+        public void run() {
+            startedLatch.countDown();
+            try {
+                releaseLatch.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
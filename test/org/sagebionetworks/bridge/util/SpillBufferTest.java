@@ -0,0 +1,93 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+public class SpillBufferTest {
+    private static final byte[] TEST_BYTES = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+
+    @Test
+    public void wrap() throws Exception {
+        SpillBuffer buffer = SpillBuffer.wrap(TEST_BYTES);
+        assertEquals(10, buffer.size());
+        assertFalse(buffer.isSpilled());
+        assertNull(buffer.getFile());
+        assertSame(TEST_BYTES, buffer.getBytes());
+        assertArrayEquals(new byte[] { 3, 4, 5 }, buffer.getBytes(2, 3));
+        assertArrayEquals(TEST_BYTES, readStream(buffer));
+    }
+
+    @Test
+    public void copyBelowThreshold() throws Exception {
+        // exactly at the threshold stays in memory
+        SpillBuffer buffer = SpillBuffer.copyOf(new ByteArrayInputStream(TEST_BYTES), 10);
+        assertFalse(buffer.isSpilled());
+        assertEquals(10, buffer.size());
+        assertArrayEquals(TEST_BYTES, buffer.getBytes());
+    }
+
+    @Test
+    public void copyAboveThreshold() throws Exception {
+        File file;
+        try (SpillBuffer buffer = SpillBuffer.copyOf(new ByteArrayInputStream(TEST_BYTES), 9)) {
+            assertTrue(buffer.isSpilled());
+            assertEquals(10, buffer.size());
+            file = buffer.getFile();
+            assertEquals(10, file.length());
+            assertArrayEquals(TEST_BYTES, buffer.getBytes());
+            assertArrayEquals(new byte[] { 8, 9, 10 }, buffer.getBytes(7, 3));
+            assertArrayEquals(TEST_BYTES, readStream(buffer));
+        }
+
+        // close deletes the temp file, and closing twice is fine
+        assertFalse(file.exists());
+        SpillBuffer.wrap(TEST_BYTES).close();
+    }
+
+    @Test
+    public void copyLargeStream() throws Exception {
+        // larger than the copy buffer, to make sure the copy loop handles multiple chunks
+        byte[] largeBytes = new byte[200 * 1024 + 7];
+        for (int i = 0; i < largeBytes.length; i++) {
+            largeBytes[i] = (byte) i;
+        }
+
+        try (SpillBuffer buffer = SpillBuffer.copyOf(new ByteArrayInputStream(largeBytes), 1024)) {
+            assertTrue(buffer.isSpilled());
+            assertEquals(largeBytes.length, buffer.size());
+            assertArrayEquals(largeBytes, buffer.getBytes());
+        }
+    }
+
+    @Test
+    public void copyDoesNotCloseStream() throws Exception {
+        // read one buffer's worth out of a longer stream
+        InputStream stream = new ByteArrayInputStream(TEST_BYTES);
+        try (SpillBuffer buffer = SpillBuffer.copyOf(ByteStreams.limit(stream, 5), 2)) {
+            assertEquals(5, buffer.size());
+        }
+        assertEquals(5, stream.available());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getBytesOutOfRange() throws Exception {
+        SpillBuffer.wrap(TEST_BYTES).getBytes(8, 3);
+    }
+
+    private static byte[] readStream(SpillBuffer buffer) throws Exception {
+        try (InputStream stream = buffer.openStream()) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.notNull;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.crypto.BcCmsEncryptor;
+import org.sagebionetworks.bridge.crypto.CmsEncryptor;
+import org.sagebionetworks.bridge.crypto.PemUtils;
+import org.sagebionetworks.bridge.services.UploadArchiveService;
+
+@SuppressWarnings("unchecked")
+public class UploadArchiveBatchTest {
+    private UploadArchiveService archiveService;
+    private ByteArrayOutputStream output;
+    private File tmpDir;
+
+    @Before
+    public void before() throws Exception {
+        // encryptor
+        File certFile = new File("test/resources/cms/rsacert.pem");
+        byte[] certBytes = Files.readAllBytes(certFile.toPath());
+        X509Certificate cert = PemUtils.loadCertificateFromPem(new String(certBytes));
+        File privateKeyFile = new File("test/resources/cms/rsaprivkey.pem");
+        byte[] privateKeyBytes = Files.readAllBytes(privateKeyFile.toPath());
+        PrivateKey privateKey = PemUtils.loadPrivateKeyFromPem(new String(privateKeyBytes));
+        CmsEncryptor encryptor = new BcCmsEncryptor(cert, privateKey);
+
+        // mock encryptor cache
+        LoadingCache<String, CmsEncryptor> mockEncryptorCache = mock(LoadingCache.class);
+        when(mockEncryptorCache.get(notNull(String.class))).thenReturn(encryptor);
+
+        // archive service
+        archiveService = new UploadArchiveService();
+        archiveService.setCmsEncryptorCache(mockEncryptorCache);
+
+        output = new ByteArrayOutputStream();
+        tmpDir = Files.createTempDirectory("UploadArchiveBatchTest").toFile();
+    }
+
+    @After
+    public void after() {
+        deleteRecursively(tmpDir);
+    }
+
+    @Test
+    public void listDirectory() throws Exception {
+        File inDir = makeInputFiles("in", "foo.zip", "bar.zip", "baz.txt");
+        new File(inDir, "subdir").mkdir();
+
+        // Subdirectories are skipped. Files are sorted.
+        List<File> fileList = UploadArchiveBatch.listInputFiles(inDir.getPath());
+        assertEquals(ImmutableList.of(new File(inDir, "bar.zip"), new File(inDir, "baz.txt"),
+                new File(inDir, "foo.zip")), fileList);
+    }
+
+    @Test
+    public void listGlob() throws Exception {
+        File inDir = makeInputFiles("in", "foo.zip", "bar.zip", "baz.txt");
+        List<File> fileList = UploadArchiveBatch.listInputFiles(new File(inDir, "*.zip").getPath());
+        assertEquals(ImmutableList.of(new File(inDir, "bar.zip"), new File(inDir, "foo.zip")), fileList);
+    }
+
+    @Test
+    public void listManifest() throws Exception {
+        File manifest = new File(tmpDir, "manifest.txt");
+        Files.write(manifest.toPath(), "# audit files\n/data/foo.zip\n\n  /data/bar.zip  \n".getBytes(
+                StandardCharsets.UTF_8));
+
+        // Manifest order, skipping comments and blank lines.
+        List<File> fileList = UploadArchiveBatch.listInputFiles("@" + manifest.getPath());
+        assertEquals(ImmutableList.of(new File("/data/foo.zip"), new File("/data/bar.zip")), fileList);
+    }
+
+    @Test
+    public void encryptAndDecrypt() throws Exception {
+        File inDir = makeInputFiles("in", "a.zip", "b.zip", "c.zip", "d.zip", "e.zip");
+        File encryptedDir = new File(tmpDir, "encrypted");
+        File decryptedDir = new File(tmpDir, "decrypted");
+
+        // encrypt
+        UploadArchiveBatch encryptBatch = makeBatch(UploadArchiveBatch.Method.ENCRYPT);
+        assertTrue(encryptBatch.run(UploadArchiveBatch.listInputFiles(inDir.getPath()), encryptedDir));
+        assertEquals(5, encryptBatch.getSucceededCount());
+        assertEquals(0, encryptBatch.getFailedCount());
+        assertEquals(5 * 1000, encryptBatch.getBytesRead());
+
+        // decrypt
+        UploadArchiveBatch decryptBatch = makeBatch(UploadArchiveBatch.Method.DECRYPT);
+        assertTrue(decryptBatch.run(UploadArchiveBatch.listInputFiles(encryptedDir.getPath()), decryptedDir));
+        assertEquals(5, decryptBatch.getSucceededCount());
+
+        // Decrypted files match the originals. Encrypted files don't.
+        for (String oneName : new String[] { "a.zip", "b.zip", "c.zip", "d.zip", "e.zip" }) {
+            byte[] original = Files.readAllBytes(new File(inDir, oneName).toPath());
+            assertFalse(Arrays.equals(original, Files.readAllBytes(new File(encryptedDir, oneName)
+                    .toPath())));
+            assertArrayEquals(original, Files.readAllBytes(new File(decryptedDir, oneName).toPath()));
+        }
+
+        // Final progress line.
+        assertTrue(output.toString().contains("5/5 files (0 failed)"));
+    }
+
+    @Test
+    public void failedFileIsSkipped() throws Exception {
+        // Good file is encrypted, bad file isn't.
+        File inDir = makeInputFiles("in", "good.zip", "bad.zip");
+        File encryptedDir = new File(tmpDir, "encrypted");
+        makeBatch(UploadArchiveBatch.Method.ENCRYPT).run(ImmutableList.of(new File(inDir, "good.zip")),
+                encryptedDir);
+        Files.copy(new File(inDir, "bad.zip").toPath(), new File(encryptedDir, "bad.zip").toPath());
+
+        // execute and validate
+        File decryptedDir = new File(tmpDir, "decrypted");
+        UploadArchiveBatch decryptBatch = makeBatch(UploadArchiveBatch.Method.DECRYPT);
+        assertFalse(decryptBatch.run(UploadArchiveBatch.listInputFiles(encryptedDir.getPath()), decryptedDir));
+        assertEquals(1, decryptBatch.getSucceededCount());
+        assertEquals(1, decryptBatch.getFailedCount());
+        assertTrue(new File(decryptedDir, "good.zip").exists());
+        assertFalse(new File(decryptedDir, "bad.zip").exists());
+        assertTrue(output.toString().contains("bad.zip"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNames() throws Exception {
+        makeBatch(UploadArchiveBatch.Method.DECRYPT).run(ImmutableList.of(new File("/data/foo/a.zip"),
+                new File("/data/bar/a.zip")), new File(tmpDir, "out"));
+    }
+
+    private UploadArchiveBatch makeBatch(UploadArchiveBatch.Method method) {
+        return new UploadArchiveBatch(archiveService, method, "test-study", 3, new PrintStream(output, true));
+    }
+
+    // Makes a directory under the temp dir with the given files, each with 1000 random bytes.
+    private File makeInputFiles(String dirName, String... filenames) throws IOException {
+        File dir = new File(tmpDir, dirName);
+        dir.mkdir();
+        Random random = new Random();
+        for (String oneFilename : filenames) {
+            byte[] data = new byte[1000];
+            random.nextBytes(data);
+            Files.write(new File(dir, oneFilename).toPath(), data);
+        }
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File oneChild : children) {
+                deleteRecursively(oneChild);
+            }
+        }
+        file.delete();
+    }
+}
@@ -32,6 +32,15 @@ public class StudyValidatorTest {
         Validate.entityThrowingException(StudyValidator.INSTANCE, study);
     }*/
 
+    @Test(expected = InvalidEntityException.class)
+    public void uploadZipLimitsCannotBeNegative() {
+        DynamoStudy study = new DynamoStudy();
+        study.setIdentifier("test");
+        study.setName("Belgium Waffles [Test]");
+        study.setMaxUploadZipTotalBytes(-1);
+        Validate.entityThrowingException(StudyValidator.INSTANCE, study);
+    }
+
     @Test
     public void identifierCanContainDashes() {
         DynamoStudy study = new DynamoStudy();